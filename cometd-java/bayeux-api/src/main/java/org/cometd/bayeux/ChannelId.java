@@ -42,7 +42,7 @@ public class ChannelId
     private static final Pattern VAR = Pattern.compile("\\{(\\w+)\\}");
 
     private final String _id;
-    private String[] _segments;
+    private volatile String[] _segments;
     private int _wild;
     private List<String> _wilds;
     private String _parent;
@@ -67,6 +67,10 @@ public class ChannelId
 
     private void resolve()
     {
+        // Fast path: _segments is written last, so if it is
+        // not null all the other fields have been resolved.
+        if (_segments != null)
+            return;
         synchronized (this)
         {
             if (_segments != null)
@@ -81,6 +85,8 @@ public class ChannelId
         if (segments.length < 1)
             throw new IllegalArgumentException("Invalid channel id: " + this);
 
+        List<String> vars = null;
+        int wild = 0;
         for (int i = 1, size = segments.length; i <= size; ++i)
         {
             String segment = segments[i - 1];
@@ -90,25 +96,22 @@ public class ChannelId
             Matcher matcher = VAR.matcher(segment);
             if (matcher.matches())
             {
-                if (_vars == null)
-                    _vars = new ArrayList<>();
-                _vars.add(matcher.group(1));
+                if (vars == null)
+                    vars = new ArrayList<>();
+                vars.add(matcher.group(1));
             }
 
             if (i == size)
-                _wild = DEEPWILD.equals(segment) ? 2 : WILD.equals(segment) ? 1 : 0;
+                wild = DEEPWILD.equals(segment) ? 2 : WILD.equals(segment) ? 1 : 0;
         }
 
-        if (_vars == null)
-            _vars = Collections.emptyList();
-        else
-            _vars = Collections.unmodifiableList(_vars);
-
-        if (_wild > 0)
+        List<String> variables = vars == null ? Collections.<String>emptyList() : Collections.unmodifiableList(vars);
+        List<String> wildNames;
+        if (wild > 0)
         {
-            if (!_vars.isEmpty())
+            if (!variables.isEmpty())
                 throw new IllegalArgumentException("Invalid channel id: " + this);
-            _wilds = Collections.emptyList();
+            wildNames = Collections.emptyList();
         }
         else
         {
@@ -134,11 +137,15 @@ public class ChannelId
             }
             if (addShallow)
                 wilds.add(0, b + "*");
-            _wilds = Collections.unmodifiableList(wilds);
+            wildNames = Collections.unmodifiableList(wilds);
         }
 
+        // Fields are assigned only after all the validations, so
+        // that a failed resolution does not leave partial state behind.
+        _wild = wild;
+        _vars = variables;
+        _wilds = wildNames;
         _parent = segments.length == 1 ? null : name.substring(0, name.length() - segments[segments.length - 1].length() - 1);
-
         _segments = segments;
     }
 
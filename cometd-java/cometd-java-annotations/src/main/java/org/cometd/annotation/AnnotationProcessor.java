@@ -16,6 +16,9 @@
 package org.cometd.annotation;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -161,22 +164,51 @@ class AnnotationProcessor
         }
     }
 
-    protected static Object invokePublic(Object target, Method method, Object... arguments)
+    /**
+     * <p>Creates a {@link MethodHandle} for the given method, bound to the given target,
+     * that takes the method arguments as an {@code Object[]} and returns an {@code Object}.</p>
+     * <p>The method handle is created once when the annotated method is processed,
+     * so that invocations via {@link #invokePublic(MethodHandle, Object[])} do not
+     * pay the cost of reflection.</p>
+     *
+     * @param target the object the method is invoked on
+     * @param method the method to create the method handle for
+     * @return a method handle of type {@code (Object[])Object}
+     */
+    protected static MethodHandle unreflect(Object target, Method method)
     {
+        boolean accessible = method.isAccessible();
         try
         {
-            return method.invoke(target, arguments);
+            // The method is public, but its class may not be.
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers()))
+                handle = handle.bindTo(target);
+            handle = handle.asSpreader(Object[].class, method.getParameterTypes().length);
+            return handle.asType(MethodType.methodType(Object.class, Object[].class));
         }
-        catch (InvocationTargetException x)
+        catch (IllegalAccessException x)
         {
-            Throwable cause = x.getCause();
-            if (cause instanceof RuntimeException)
-                throw (RuntimeException)cause;
-            if (cause instanceof Error)
-                throw (Error)cause;
-            throw new RuntimeException(cause);
+            throw new RuntimeException(x);
         }
-        catch (IllegalAccessException x)
+        finally
+        {
+            method.setAccessible(accessible);
+        }
+    }
+
+    protected static Object invokePublic(MethodHandle handle, Object[] arguments)
+    {
+        try
+        {
+            return (Object)handle.invokeExact(arguments);
+        }
+        catch (RuntimeException | Error x)
+        {
+            throw x;
+        }
+        catch (Throwable x)
         {
             throw new RuntimeException(x);
         }
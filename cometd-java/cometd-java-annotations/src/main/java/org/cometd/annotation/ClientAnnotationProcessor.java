@@ -15,12 +15,12 @@
  */
 package org.cometd.annotation;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -32,6 +32,7 @@ import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSession;
 import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.common.ChannelIdCache;
 
 /**
  * <p>Processes annotations in client-side service objects.</p>
@@ -266,7 +267,7 @@ public class ClientAnnotationProcessor extends AnnotationProcessor
                                     " on method " + method.getDeclaringClass().getName() + "." + method.getName() +
                                     "(...) must specify a meta channel");
 
-                        ChannelId channelId = new ChannelId(channel);
+                        ChannelId channelId = ChannelIdCache.getInstance().get(channel);
                         if (channelId.isTemplate())
                             channel = channelId.getWilds().get(0);
 
@@ -338,7 +339,7 @@ public class ClientAnnotationProcessor extends AnnotationProcessor
                                     " on method " + method.getDeclaringClass().getName() + "." + method.getName() +
                                     "(...) must specify a non meta channel");
 
-                        ChannelId channelId = new ChannelId(channel);
+                        ChannelId channelId = ChannelIdCache.getInstance().get(channel);
                         if (channelId.isTemplate())
                             channel = channelId.getWilds().get(0);
 
@@ -384,32 +385,32 @@ public class ClientAnnotationProcessor extends AnnotationProcessor
     private static class ListenerCallback implements ClientSessionChannel.MessageListener
     {
         private static final Class<?>[] signature = new Class<?>[]{Message.class};
-        private final Object target;
-        private final Method method;
-        private final List<String> paramNames;
-        private final ChannelId channelId;
+        private final MethodHandle handle;
+        private final TemplateMatcher matcher;
         private final String subscription;
 
         private ListenerCallback(Object target, Method method, List<String> paramNames, ChannelId channelId, String subscription)
         {
-            this.target = target;
-            this.method = method;
-            this.paramNames = paramNames;
-            this.channelId = channelId;
+            this.handle = unreflect(target, method);
+            this.matcher = new TemplateMatcher(channelId, 1, paramNames);
             this.subscription = subscription;
         }
 
         public void onMessage(ClientSessionChannel channel, Message message)
         {
-            Map<String, String> matches = channelId.bind(message.getChannelId());
-            if (!paramNames.isEmpty() && !matches.keySet().containsAll(paramNames))
+            Object[] args = matcher.match(message.getChannelId());
+            if (args == null)
                 return;
 
-            Object[] args = new Object[1 + paramNames.size()];
-            args[0] = message;
-            for (int i = 0; i < paramNames.size(); ++i)
-                args[1 + i] = matches.get(paramNames.get(i));
-            invokePublic(target, method, args);
+            try
+            {
+                args[0] = message;
+                invokePublic(handle, args);
+            }
+            finally
+            {
+                matcher.release(args);
+            }
         }
     }
 
@@ -417,33 +418,33 @@ public class ClientAnnotationProcessor extends AnnotationProcessor
     {
         private static final Class<?>[] signature = new Class<?>[]{Message.class};
         private final ClientSession clientSession;
-        private final Object target;
-        private final Method method;
-        private final List<String> paramNames;
-        private final ChannelId channelId;
+        private final MethodHandle handle;
+        private final TemplateMatcher matcher;
         private final String subscription;
 
         public SubscriptionCallback(ClientSession clientSession, Object target, Method method, List<String> paramNames, ChannelId channelId, String subscription)
         {
             this.clientSession = clientSession;
-            this.target = target;
-            this.method = method;
-            this.paramNames = paramNames;
-            this.channelId = channelId;
+            this.handle = unreflect(target, method);
+            this.matcher = new TemplateMatcher(channelId, 1, paramNames);
             this.subscription = subscription;
         }
 
         public void onMessage(ClientSessionChannel channel, Message message)
         {
-            Map<String, String> matches = channelId.bind(message.getChannelId());
-            if (!paramNames.isEmpty() && !matches.keySet().containsAll(paramNames))
+            Object[] args = matcher.match(message.getChannelId());
+            if (args == null)
                 return;
 
-            Object[] args = new Object[1 + paramNames.size()];
-            args[0] = message;
-            for (int i = 0; i < paramNames.size(); ++i)
-                args[1 + i] = matches.get(paramNames.get(i));
-            invokePublic(target, method, args);
+            try
+            {
+                args[0] = message;
+                invokePublic(handle, args);
+            }
+            finally
+            {
+                matcher.release(args);
+            }
         }
 
         private void subscribe()
@@ -15,6 +15,7 @@
  */
 package org.cometd.annotation;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -43,6 +44,7 @@ import org.cometd.bayeux.server.LocalSession;
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.ChannelIdCache;
 
 /**
  * <p>Processes annotations in server-side service objects.</p>
@@ -416,7 +418,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                     String[] channels = listener.value();
                     for (String channel : channels)
                     {
-                        ChannelId channelId = new ChannelId(channel);
+                        ChannelId channelId = ChannelIdCache.getInstance().get(channel);
                         if (channelId.isTemplate())
                         {
                             List<String> parameters = channelId.getParameters();
@@ -432,7 +434,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                         }
 
                         MarkedReference<ServerChannel> initializedChannel = bayeuxServer.createChannelIfAbsent(channel);
-                        ListenerCallback listenerCallback = new ListenerCallback(localSession, bean, method, paramNames, channelId, channel, listener.receiveOwnPublishes());
+                        ListenerCallback listenerCallback = new ListenerCallback(localSession, bean, method, channelId, channel, listener.receiveOwnPublishes());
                         initializedChannel.getReference().addListener(listenerCallback);
 
                         List<ListenerCallback> callbacks = listeners.get(bean);
@@ -499,7 +501,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                                     " on method " + method.getDeclaringClass().getName() + "." + method.getName() +
                                     "(...) must specify a non meta channel");
 
-                        ChannelId channelId = new ChannelId(channel);
+                        ChannelId channelId = ChannelIdCache.getInstance().get(channel);
                         if (channelId.isTemplate())
                         {
                             List<String> parameters = channelId.getParameters();
@@ -514,7 +516,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                             channel = channelId.getRegularPart() + "/" + (parameters.size() < 2 ? ChannelId.WILD : ChannelId.DEEPWILD);
                         }
 
-                        SubscriptionCallback subscriptionCallback = new SubscriptionCallback(localSession, bean, method, paramNames, channelId, channel);
+                        SubscriptionCallback subscriptionCallback = new SubscriptionCallback(localSession, bean, method, channelId, channel);
                         localSession.getChannel(channel).subscribe(subscriptionCallback);
 
                         List<SubscriptionCallback> callbacks = subscribers.get(bean);
@@ -576,7 +578,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                             target = "/" + target;
                         String channel = Channel.SERVICE + target;
 
-                        ChannelId channelId = new ChannelId(channel);
+                        ChannelId channelId = ChannelIdCache.getInstance().get(channel);
                         if (channelId.isWild())
                             throw new IllegalArgumentException("Annotation @" + RemoteCall.class.getSimpleName() +
                                     " on method " + method.getDeclaringClass().getName() + "." + method.getName() +
@@ -597,7 +599,7 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                         }
 
                         MarkedReference<ServerChannel> initializedChannel = bayeuxServer.createChannelIfAbsent(channel);
-                        RemoteCallCallback remoteCallCallback = new RemoteCallCallback(bayeuxServer, localSession, bean, method, paramNames, channelId, channel);
+                        RemoteCallCallback remoteCallCallback = new RemoteCallCallback(bayeuxServer, localSession, bean, method, channelId, channel);
                         initializedChannel.getReference().addListener(remoteCallCallback);
 
                         List<RemoteCallCallback> callbacks = remoteCalls.get(bean);
@@ -642,20 +644,16 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
     {
         private static final Class<?>[] signature = new Class<?>[]{ServerSession.class, ServerMessage.Mutable.class};
         private final LocalSession localSession;
-        private final Object target;
-        private final Method method;
-        private final ChannelId channelId;
+        private final MethodHandle handle;
+        private final TemplateMatcher matcher;
         private final String subscription;
         private final boolean receiveOwnPublishes;
-        private final List<String> paramNames;
 
-        private ListenerCallback(LocalSession localSession, Object target, Method method, List<String> paramNames, ChannelId channelId, String subscription, boolean receiveOwnPublishes)
+        private ListenerCallback(LocalSession localSession, Object target, Method method, ChannelId channelId, String subscription, boolean receiveOwnPublishes)
         {
             this.localSession = localSession;
-            this.target = target;
-            this.method = method;
-            this.paramNames = paramNames;
-            this.channelId = channelId;
+            this.handle = unreflect(target, method);
+            this.matcher = new TemplateMatcher(channelId, 2);
             this.subscription = subscription;
             this.receiveOwnPublishes = receiveOwnPublishes;
         }
@@ -665,16 +663,20 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
             if (from == localSession.getServerSession() && !receiveOwnPublishes)
                 return true;
 
-            Map<String, String> matches = channelId.bind(channel.getChannelId());
-            if (!paramNames.isEmpty() && !matches.keySet().containsAll(paramNames))
+            Object[] args = matcher.match(channel.getChannelId());
+            if (args == null)
                 return true;
 
-            Object[] args = new Object[2 + paramNames.size()];
-            args[0] = from;
-            args[1] = message;
-            for (int i = 0; i < paramNames.size(); ++i)
-                args[2 + i] = matches.get(paramNames.get(i));
-            return !Boolean.FALSE.equals(invokePublic(target, method, args));
+            try
+            {
+                args[0] = from;
+                args[1] = message;
+                return !Boolean.FALSE.equals(invokePublic(handle, args));
+            }
+            finally
+            {
+                matcher.release(args);
+            }
         }
     }
 
@@ -682,33 +684,33 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
     {
         private static final Class<?>[] signature = new Class<?>[]{Message.class};
         private final LocalSession localSession;
-        private final Object target;
-        private final Method method;
-        private final List<String> paramNames;
-        private final ChannelId channelId;
+        private final MethodHandle handle;
+        private final TemplateMatcher matcher;
         private final String subscription;
 
-        public SubscriptionCallback(LocalSession localSession, Object target, Method method, List<String> paramNames, ChannelId channelId, String subscription)
+        public SubscriptionCallback(LocalSession localSession, Object target, Method method, ChannelId channelId, String subscription)
         {
             this.localSession = localSession;
-            this.target = target;
-            this.method = method;
-            this.paramNames = paramNames;
-            this.channelId = channelId;
+            this.handle = unreflect(target, method);
+            this.matcher = new TemplateMatcher(channelId, 1);
             this.subscription = subscription;
         }
 
         public void onMessage(ClientSessionChannel channel, Message message)
         {
-            Map<String, String> matches = channelId.bind(message.getChannelId());
-            if (!paramNames.isEmpty() && !matches.keySet().containsAll(paramNames))
+            Object[] args = matcher.match(message.getChannelId());
+            if (args == null)
                 return;
 
-            Object[] args = new Object[1 + paramNames.size()];
-            args[0] = message;
-            for (int i = 0; i < paramNames.size(); ++i)
-                args[1 + i] = matches.get(paramNames.get(i));
-            invokePublic(target, method, args);
+            try
+            {
+                args[0] = message;
+                invokePublic(handle, args);
+            }
+            finally
+            {
+                matcher.release(args);
+            }
         }
     }
 
@@ -717,20 +719,16 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
         private static final Class<?>[] signature = new Class<?>[]{RemoteCall.Caller.class, null};
         private final BayeuxServer bayeuxServer;
         private final LocalSession localSession;
-        private final Object target;
-        private final Method method;
-        private final List<String> paramNames;
-        private final ChannelId channelId;
+        private final MethodHandle handle;
+        private final TemplateMatcher matcher;
         private final String subscription;
 
-        private RemoteCallCallback(BayeuxServer bayeuxServer, LocalSession localSession, Object target, Method method, List<String> paramNames, ChannelId channelId, String subscription)
+        private RemoteCallCallback(BayeuxServer bayeuxServer, LocalSession localSession, Object target, Method method, ChannelId channelId, String subscription)
         {
             this.bayeuxServer = bayeuxServer;
             this.localSession = localSession;
-            this.target = target;
-            this.method = method;
-            this.paramNames = paramNames;
-            this.channelId = channelId;
+            this.handle = unreflect(target, method);
+            this.matcher = new TemplateMatcher(channelId, 2);
             this.subscription = subscription;
         }
 
@@ -741,19 +739,16 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
             if (from == localSession.getServerSession())
                 return true;
 
-            Map<String, String> matches = channelId.bind(channel.getChannelId());
-            if (!paramNames.isEmpty() && !matches.keySet().containsAll(paramNames))
+            Object[] args = matcher.match(channel.getChannelId());
+            if (args == null)
                 return true;
 
-            Object[] args = new Object[2 + paramNames.size()];
             RemoteCall.Caller caller = new CallerImpl(bayeuxServer, localSession, from, message.getId(), message.getChannel());
             args[0] = caller;
             args[1] = message.getData();
-            for (int i = 0; i < paramNames.size(); ++i)
-                args[2 + i] = matches.get(paramNames.get(i));
             try
             {
-                return !Boolean.FALSE.equals(invokePublic(target, method, args));
+                return !Boolean.FALSE.equals(invokePublic(handle, args));
             }
             catch (Throwable x)
             {
@@ -763,6 +758,10 @@ public class ServerAnnotationProcessor extends AnnotationProcessor
                 caller.failure(failure);
                 throw x;
             }
+            finally
+            {
+                matcher.release(args);
+            }
         }
     }
 
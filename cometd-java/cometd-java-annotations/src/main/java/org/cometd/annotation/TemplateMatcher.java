@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.annotation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A matcher for a channel that is compiled once, when an annotated method
+ * is processed, and then used for every message to build the arguments of the
+ * invocation of the annotated method.</p>
+ * <p>If the channel is a template such as {@code /chat/{room}/{user}}, the
+ * values of the template variables are stored in the arguments array, starting
+ * at a given offset, at the position of their names in a given list of names,
+ * by default the template variables in the order they appear in the template.
+ * The position of each variable is computed once, when the matcher is created.</p>
+ * <p>The arguments array is reused by each thread, so that matching a channel
+ * does not allocate; callers must {@link #release(Object[]) release} the
+ * arguments array after the invocation of the annotated method.</p>
+ *
+ * @see ChannelId#bind(ChannelId)
+ */
+class TemplateMatcher
+{
+    private final String[] segments;
+    private final int[] positions;
+    private final boolean template;
+    private final boolean unbound;
+    private final int offset;
+    private final ThreadLocal<Object[]> arguments;
+
+    /**
+     * @param channelId the channel, possibly a template, to compile
+     * @param offset    the index in the arguments array of the first template variable
+     */
+    TemplateMatcher(ChannelId channelId, int offset)
+    {
+        this(channelId, offset, channelId.isTemplate() ? channelId.getParameters() : Collections.<String>emptyList());
+    }
+
+    /**
+     * <p>Creates a matcher that binds the template variables by name.</p>
+     * <p>If {@code names} is empty, the channel is not matched and every channel matches.
+     * If a name is not a variable of the template, no channel matches.</p>
+     *
+     * @param channelId the channel, possibly a template, to compile
+     * @param offset    the index in the arguments array of the first name
+     * @param names     the names of the template variables, in the order of the arguments
+     */
+    TemplateMatcher(ChannelId channelId, int offset, List<String> names)
+    {
+        this.template = channelId.isTemplate() && !names.isEmpty();
+        this.offset = offset;
+        int bound = 0;
+        if (template)
+        {
+            // Variable segments are null, the others are matched literally.
+            segments = new String[channelId.depth()];
+            positions = new int[segments.length];
+            for (int i = 0; i < segments.length; ++i)
+            {
+                String segment = channelId.getSegment(i);
+                positions[i] = -1;
+                if (isVariable(segment))
+                {
+                    int index = names.indexOf(segment.substring(1, segment.length() - 1));
+                    if (index >= 0)
+                    {
+                        positions[i] = offset + index;
+                        ++bound;
+                    }
+                }
+                else
+                {
+                    segments[i] = segment;
+                }
+            }
+        }
+        else
+        {
+            segments = new String[0];
+            positions = new int[0];
+        }
+        this.unbound = bound < names.size();
+        final int size = offset + names.size();
+        this.arguments = new ThreadLocal<Object[]>()
+        {
+            @Override
+            protected Object[] initialValue()
+            {
+                return new Object[size];
+            }
+        };
+    }
+
+    private static boolean isVariable(String segment)
+    {
+        // Segments have already been validated by ChannelId.
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    /**
+     * <p>Matches the given channel against the compiled channel.</p>
+     *
+     * @param target the channel of the message
+     * @return the arguments array, filled with the values of the template variables
+     * from the given offset, or null if the given channel does not match the template
+     * or if some name is not a variable of the template
+     */
+    Object[] match(ChannelId target)
+    {
+        if (unbound)
+            return null;
+
+        Object[] result = arguments.get();
+        if (!template)
+            return result;
+
+        if (target.isWild() || target.isTemplate() || target.depth() != segments.length)
+            return null;
+
+        for (int i = 0; i < segments.length; ++i)
+        {
+            String segment = target.getSegment(i);
+            String literal = segments[i];
+            if (literal == null)
+            {
+                int position = positions[i];
+                if (position >= 0)
+                    result[position] = segment;
+            }
+            else if (!literal.equals(segment))
+            {
+                release(result);
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>Clears the given arguments array, so that it does not retain references.</p>
+     *
+     * @param arguments the arguments array returned by {@link #match(ChannelId)}
+     */
+    void release(Object[] arguments)
+    {
+        Arrays.fill(arguments, null);
+    }
+}
@@ -559,4 +559,50 @@ public class ClientAnnotationProcessorTest
             latch.countDown();
         }
     }
+
+    @Test
+    public void testSubscriberWithParametersBoundByName() throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch(2);
+        String value1 = "v1";
+        String value2 = "v2";
+        SubscriberWithParametersBoundByNameService s = new SubscriberWithParametersBoundByNameService(latch, value1, value2);
+        boolean processed = processor.process(s);
+        assertTrue(processed);
+
+        bayeuxClient.handshake();
+        assertTrue(bayeuxClient.waitFor(1000, BayeuxClient.State.CONNECTED));
+
+        bayeuxClient.getChannel("/a/" + value1 + "/" + value2).publish("data");
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Service
+    public static class SubscriberWithParametersBoundByNameService
+    {
+        private final CountDownLatch latch;
+        private final String value1;
+        private final String value2;
+
+        public SubscriberWithParametersBoundByNameService(CountDownLatch latch, String value1, String value2)
+        {
+            this.latch = latch;
+            this.value1 = value1;
+            this.value2 = value2;
+        }
+
+        @Subscription("/a/{b}/{c}")
+        public void reversed(Message message, @Param("c") String c, @Param("b") String b)
+        {
+            if (value1.equals(b) && value2.equals(c))
+                latch.countDown();
+        }
+
+        @Subscription("/a/{b}/{c}")
+        public void subset(Message message, @Param("c") String c)
+        {
+            if (value2.equals(c))
+                latch.countDown();
+        }
+    }
 }
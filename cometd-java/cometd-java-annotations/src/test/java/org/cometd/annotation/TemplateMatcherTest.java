@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.annotation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.ChannelId;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TemplateMatcherTest
+{
+    @Test
+    public void testNonTemplateAlwaysMatches() throws Exception
+    {
+        TemplateMatcher matcher = new TemplateMatcher(new ChannelId("/foo/bar"), 2);
+
+        Object[] args = matcher.match(new ChannelId("/baz"));
+        Assert.assertNotNull(args);
+        Assert.assertEquals(2, args.length);
+    }
+
+    @Test
+    public void testTemplateBindsVariablesInOrder() throws Exception
+    {
+        TemplateMatcher matcher = new TemplateMatcher(new ChannelId("/chat/{room}/x/{user}"), 1);
+
+        Object[] args = matcher.match(new ChannelId("/chat/r1/x/u1"));
+        Assert.assertNotNull(args);
+        Assert.assertEquals(Arrays.<Object>asList(null, "r1", "u1"), Arrays.asList(args));
+
+        matcher.release(args);
+        Assert.assertEquals(Arrays.asList(null, null, null), Arrays.asList(args));
+    }
+
+    @Test
+    public void testTemplateDoesNotMatch() throws Exception
+    {
+        TemplateMatcher matcher = new TemplateMatcher(new ChannelId("/chat/{room}/x/{user}"), 1);
+
+        // Different literal segment.
+        Assert.assertNull(matcher.match(new ChannelId("/chat/r1/y/u1")));
+        // Different depth.
+        Assert.assertNull(matcher.match(new ChannelId("/chat/r1/x")));
+        Assert.assertNull(matcher.match(new ChannelId("/chat/r1/x/u1/z")));
+        // Wild and template targets.
+        Assert.assertNull(matcher.match(new ChannelId("/chat/r1/x/*")));
+        Assert.assertNull(matcher.match(new ChannelId("/chat/{r}/x/u1")));
+
+        // A failed match must not leave values behind.
+        Object[] args = matcher.match(new ChannelId("/chat/r1/x/u1"));
+        Assert.assertNotNull(args);
+        Assert.assertEquals(Arrays.<Object>asList(null, "r1", "u1"), Arrays.asList(args));
+    }
+
+    @Test
+    public void testMatchIsEquivalentToBind() throws Exception
+    {
+        ChannelId template = new ChannelId("/chat/{room}/{user}");
+        List<String> paramNames = template.getParameters();
+        TemplateMatcher matcher = new TemplateMatcher(template, 1);
+
+        String[] channels = {"/chat/room1/user1", "/chat/room2/user2", "/chat/room1", "/chat/room1/user1/x", "/other/room1/user1", "/chat/room1/*"};
+        for (String channel : channels)
+        {
+            ChannelId target = new ChannelId(channel);
+            Map<String, String> matches = template.bind(target);
+            Object[] args = matcher.match(target);
+            if (matches.keySet().containsAll(paramNames) && !matches.isEmpty())
+            {
+                Assert.assertNotNull(channel, args);
+                for (int i = 0; i < paramNames.size(); ++i)
+                    Assert.assertEquals(channel, matches.get(paramNames.get(i)), args[1 + i]);
+                matcher.release(args);
+            }
+            else
+            {
+                Assert.assertNull(channel, args);
+            }
+        }
+    }
+
+    @Test
+    public void testTemplateBindsVariablesByName() throws Exception
+    {
+        ChannelId template = new ChannelId("/chat/{room}/x/{user}");
+
+        TemplateMatcher reversed = new TemplateMatcher(template, 1, Arrays.asList("user", "room"));
+        Object[] args = reversed.match(new ChannelId("/chat/r1/x/u1"));
+        Assert.assertEquals(Arrays.<Object>asList(null, "u1", "r1"), Arrays.asList(args));
+        reversed.release(args);
+
+        TemplateMatcher subset = new TemplateMatcher(template, 1, Arrays.asList("user"));
+        args = subset.match(new ChannelId("/chat/r1/x/u1"));
+        Assert.assertEquals(Arrays.<Object>asList(null, "u1"), Arrays.asList(args));
+        subset.release(args);
+        Assert.assertNull(subset.match(new ChannelId("/chat/r1/y/u1")));
+
+        // No names, every channel matches.
+        TemplateMatcher none = new TemplateMatcher(template, 1, Arrays.<String>asList());
+        Assert.assertNotNull(none.match(new ChannelId("/other")));
+
+        // Unknown names, no channel matches.
+        TemplateMatcher unknown = new TemplateMatcher(template, 1, Arrays.asList("room", "other"));
+        Assert.assertNull(unknown.match(new ChannelId("/chat/r1/x/u1")));
+        TemplateMatcher nonTemplate = new TemplateMatcher(new ChannelId("/chat"), 1, Arrays.asList("room"));
+        Assert.assertNull(nonTemplate.match(new ChannelId("/chat")));
+    }
+
+    @Test
+    public void testMatchVersusBind() throws Exception
+    {
+        ChannelId template = new ChannelId("/chat/{room}/{user}");
+        List<String> paramNames = Arrays.asList("user", "room");
+        TemplateMatcher matcher = new TemplateMatcher(template, 1, paramNames);
+        ChannelId target = new ChannelId("/chat/room1/user1");
+
+        int iterations = 5;
+        int count = 1000000;
+
+        for (int j = 0; j < iterations; ++j)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; ++i)
+            {
+                Map<String, String> matches = template.bind(target);
+                if (!matches.keySet().containsAll(paramNames))
+                    Assert.fail();
+                Object[] args = new Object[1 + paramNames.size()];
+                for (int k = 0; k < paramNames.size(); ++k)
+                    args[1 + k] = matches.get(paramNames.get(k));
+            }
+            long end = System.nanoTime();
+            System.err.printf("bind iteration: %d time: %d ms%n", j, TimeUnit.NANOSECONDS.toMillis(end - start));
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; ++i)
+            {
+                Object[] args = matcher.match(target);
+                if (args == null)
+                    Assert.fail();
+                matcher.release(args);
+            }
+            end = System.nanoTime();
+            System.err.printf("matcher iteration: %d time: %d ms%n", j, TimeUnit.NANOSECONDS.toMillis(end - start));
+        }
+    }
+}
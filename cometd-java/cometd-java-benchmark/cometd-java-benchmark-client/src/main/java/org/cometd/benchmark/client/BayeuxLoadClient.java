@@ -16,11 +16,20 @@
 package org.cometd.benchmark.client;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,14 +39,18 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicStampedReference;
 import javax.websocket.ContainerProvider;
 import javax.websocket.WebSocketContainer;
 
 import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Message;
@@ -58,6 +71,7 @@ import org.eclipse.jetty.toolchain.perf.HistogramSnapshot;
 import org.eclipse.jetty.toolchain.perf.MeasureConverter;
 import org.eclipse.jetty.toolchain.perf.PlatformMonitor;
 import org.eclipse.jetty.toolchain.perf.PlatformTimer;
+import org.eclipse.jetty.util.ajax.JSON;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.eclipse.jetty.websocket.client.masks.ZeroMasker;
 
@@ -84,6 +98,18 @@ public class BayeuxLoadClient implements MeasureConverter
     private final AtomicStampedReference<String> maxTime = new AtomicStampedReference<>(null, 0);
     private final Map<String, AtomicStampedReference<Long>> sendTimes = new ConcurrentHashMap<>();
     private final Map<String, AtomicStampedReference<List<Long>>> arrivalTimes = new ConcurrentHashMap<>();
+    private final List<SimulatedUser> simulatedUsers = Collections.synchronizedList(new ArrayList<SimulatedUser>());
+    private final AtomicLong userHandshakes = new AtomicLong();
+    private final AtomicLong userFailures = new AtomicLong();
+    private final AtomicLong userPublishes = new AtomicLong();
+    private final AtomicInteger reportedPhases = new AtomicInteger();
+    private BufferedReader console;
+    private Map<String, Object> scenario;
+    private Iterator<?> phases;
+    private Map<String, Object> phase;
+    private BenchmarkReport report;
+    private long gcCount;
+    private long gcTime;
     private ScheduledExecutorService scheduler;
     private MonitoringQueuedThreadPool threadPool;
     private HttpClient httpClient;
@@ -103,82 +129,72 @@ public class BayeuxLoadClient implements MeasureConverter
         System.err.printf("emulated timer resolution: %d \u00B5s%n", timer.getEmulatedResolution());
         System.err.println();
 
-        BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+        console = new BufferedReader(new InputStreamReader(System.in));
+
+        String scenarioFile = System.getProperty("cometd.scenario");
+        if (scenarioFile != null)
+        {
+            System.err.printf("scenario: %s%n", scenarioFile);
+            scenario = loadScenario(scenarioFile);
+        }
+
+        String reportFile = System.getProperty("cometd.report");
+        if (reportFile == null && scenario != null)
+            reportFile = (String)scenario.get("report");
+        if (reportFile != null)
+        {
+            System.err.printf("report: %s%n", reportFile);
+            report = new BenchmarkReport(reportFile);
+        }
 
         String host = System.getProperty("cometd.server", "localhost");
-        System.err.printf("server [%s]: ", host);
-        String value = console.readLine().trim();
-        if (value.length() == 0)
-            value = host;
+        String value = prompt("server", "server", host);
         host = value;
 
         int port = Integer.parseInt(System.getProperty("cometd.port", "8080"));
-        System.err.printf("port [%d]: ", port);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(port);
+        value = prompt("port", "port", port);
         port = Integer.parseInt(value);
 
         ClientTransportType clientTransportType = ClientTransportType.LONG_POLLING;
         System.err.printf("transports:%n");
         for (ClientTransportType type : ClientTransportType.values())
             System.err.printf("  %d - %s%n", type.ordinal(), type.getName());
-        System.err.printf("transport [%d]: ", clientTransportType.ordinal());
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(clientTransportType.ordinal());
+        value = prompt("transport", "transport", clientTransportType.ordinal());
         clientTransportType = ClientTransportType.values()[Integer.parseInt(value)];
 
         boolean ssl = false;
-        System.err.printf("use ssl [%b]: ", ssl);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(ssl);
+        value = prompt("ssl", "use ssl", ssl);
         ssl = Boolean.parseBoolean(value);
 
         int maxThreads = Integer.parseInt(System.getProperty("cometd.threads", "256"));
-        System.err.printf("max threads [%d]: ", maxThreads);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(maxThreads);
+        value = prompt("maxThreads", "max threads", maxThreads);
         maxThreads = Integer.parseInt(value);
 
         String contextPath = Config.CONTEXT_PATH;
-        System.err.printf("context [%s]: ", contextPath);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = contextPath;
+        value = prompt("context", "context", contextPath);
         String uri = value + Config.SERVLET_PATH;
         String url = (ssl ? "https" : "http") + "://" + host + ":" + port + uri;
 
         String channel = System.getProperty("cometd.channel", "/chat/demo");
-        System.err.printf("channel [%s]: ", channel);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = channel;
+        value = prompt("channel", "channel", channel);
         channel = value;
 
         int rooms = Integer.parseInt(System.getProperty("cometd.rooms", "100"));
-        System.err.printf("rooms [%d]: ", rooms);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(rooms);
+        value = prompt("rooms", "rooms", rooms);
         rooms = Integer.parseInt(value);
 
         int roomsPerClient = 10;
-        System.err.printf("rooms per client [%d]: ", roomsPerClient);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(roomsPerClient);
+        value = prompt("roomsPerClient", "rooms per client", roomsPerClient);
         roomsPerClient = Integer.parseInt(value);
 
         boolean enableAckExtension = false;
-        System.err.printf("enable ack extension [%b]: ", enableAckExtension);
-        value = console.readLine().trim();
-        if (value.length() == 0)
-            value = String.valueOf(enableAckExtension);
+        value = prompt("enableAckExtension", "enable ack extension", enableAckExtension);
         enableAckExtension = Boolean.parseBoolean(value);
 
+        boolean simulateUsers = false;
+        value = prompt("simulateUsers", "simulate users", simulateUsers);
+        simulateUsers = Boolean.parseBoolean(value);
+
         scheduler = Executors.newScheduledThreadPool(8);
 
         MBeanContainer mbeanContainer = new MBeanContainer(ManagementFactory.getPlatformMBeanServer());
@@ -225,18 +241,20 @@ public class BayeuxLoadClient implements MeasureConverter
         int messageSize = 50;
         boolean randomize = false;
 
-        while (true)
+        if (simulateUsers)
+            runUsers(statsClient, url, clientTransportType, channel, rooms, roomsPerClient, enableAckExtension);
+
+        while (!simulateUsers)
         {
+            if (!nextPhase())
+                break;
+
             System.err.println();
             System.err.println("-----");
 
-            System.err.printf("clients [%d]: ", clients);
-            value = console.readLine();
+            value = prompt("clients", "clients", clients);
             if (value == null)
                 break;
-            value = value.trim();
-            if (value.length() == 0)
-                value = String.valueOf(clients);
             clients = Integer.parseInt(value);
 
             System.err.println("Waiting for clients to be ready...");
@@ -306,41 +324,27 @@ public class BayeuxLoadClient implements MeasureConverter
 
             reset();
 
-            System.err.printf("batch count [%d]: ", batchCount);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchCount);
+            value = prompt("batchCount", "batch count", batchCount);
             batchCount = Integer.parseInt(value);
 
-            System.err.printf("batch size [%d]: ", batchSize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchSize);
+            value = prompt("batchSize", "batch size", batchSize);
             batchSize = Integer.parseInt(value);
 
-            System.err.printf("batch pause (\u00B5s) [%d]: ", batchPause);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(batchPause);
+            value = prompt("batchPause", "batch pause (\u00B5s)", batchPause);
             batchPause = Long.parseLong(value);
 
-            System.err.printf("message size [%d]: ", messageSize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(messageSize);
+            value = prompt("messageSize", "message size", messageSize);
             messageSize = Integer.parseInt(value);
             String chat = "";
             for (int i = 0; i < messageSize; i++)
                 chat += "x";
 
-            System.err.printf("randomize sends [%b]: ", randomize);
-            value = console.readLine().trim();
-            if (value.length() == 0)
-                value = String.valueOf(randomize);
+            value = prompt("randomize", "randomize sends", randomize);
             randomize = Boolean.parseBoolean(value);
 
             // Send a message to the server to signal the start of the test
             statsClient.begin();
+            startGarbageCollections();
 
             PlatformMonitor.Start start = monitor.start();
             System.err.println();
@@ -369,10 +373,28 @@ public class BayeuxLoadClient implements MeasureConverter
             waitForMessages(expected);
 
             // Send a message to the server to signal the end of the test
-            statsClient.end();
+            Map<String, Object> serverStatistics = statsClient.end();
 
             printReport(expected, messageSize);
 
+            if (report != null)
+            {
+                Map<String, Object> result = newPhaseResult("batches");
+                result.put("clients", bayeuxClients.size());
+                result.put("rooms", rooms);
+                result.put("roomsPerClient", roomsPerClient);
+                result.put("batchCount", batchCount);
+                result.put("batchSize", batchSize);
+                result.put("batchPause", batchPause);
+                result.put("messageSize", messageSize);
+                result.put("outgoingRate", elapsedNanos > 0 ? batchCount * batchSize * 1000L * 1000 * 1000 / elapsedNanos : 0);
+                result.put("expectedMessages", expected);
+                result.put("receivedMessages", messages.get());
+                long incomingNanos = this.end.get() - this.start.get();
+                result.put("incomingRate", incomingNanos > 0 ? messages.get() * 1000L * 1000 * 1000 / incomingNanos : 0);
+                completePhaseResult(result, serverStatistics);
+            }
+
             reset();
         }
 
@@ -388,6 +410,240 @@ public class BayeuxLoadClient implements MeasureConverter
         scheduler.awaitTermination(1000, TimeUnit.MILLISECONDS);
     }
 
+    private void runUsers(LoadBayeuxClient statsClient, String url, ClientTransportType clientTransportType,
+                          String channel, int rooms, int roomsPerUser, boolean enableAckExtension) throws Exception
+    {
+        int users = 1000;
+        long rampUp = 10000;
+        int publishes = 10;
+        long thinkTime = 1000;
+        int messageSize = 50;
+
+        while (true)
+        {
+            if (!nextPhase())
+                break;
+
+            System.err.println();
+            System.err.println("-----");
+
+            String value = prompt("users", "users", users);
+            if (value == null)
+                break;
+            users = Integer.parseInt(value);
+            if (users == 0)
+                break;
+
+            value = prompt("rampUp", "ramp up (ms)", rampUp);
+            rampUp = Long.parseLong(value);
+
+            value = prompt("publishes", "publishes per user", publishes);
+            publishes = Integer.parseInt(value);
+
+            value = prompt("thinkTime", "think time (ms)", thinkTime);
+            thinkTime = Long.parseLong(value);
+
+            value = prompt("messageSize", "message size", messageSize);
+            messageSize = Integer.parseInt(value);
+            String chat = "";
+            for (int i = 0; i < messageSize; i++)
+                chat += "x";
+
+            reset();
+
+            // Send a message to the server to signal the start of the test
+            statsClient.begin();
+            startGarbageCollections();
+
+            PlatformMonitor.Start start = monitor.start();
+            System.err.println();
+            System.err.println(start);
+            System.err.printf("Simulating %d users in %d rooms, %d rooms/user, ramp up %d ms%n", users, rooms, roomsPerUser, rampUp);
+            System.err.printf("Each user sends %d messages of %d bytes with ~%d ms think time%n", publishes, messageSize, thinkTime);
+
+            CountDownLatch latch = new CountDownLatch(users);
+            long begin = System.nanoTime();
+            for (int i = 0; i < users; ++i)
+            {
+                SimulatedUser user = new SimulatedUser(url, newClientTransport(clientTransportType), enableAckExtension,
+                        channel, rooms, roomsPerUser, publishes, thinkTime, chat, latch);
+                simulatedUsers.add(user);
+                // Spread the handshakes over the ramp up period
+                scheduler.schedule(user, rampUp * i / users, TimeUnit.MILLISECONDS);
+            }
+
+            // Users think for a random time between 0 and twice the think time
+            long timeout = rampUp + publishes * 2 * thinkTime + 2 * Config.MAX_NETWORK_DELAY;
+            if (!latch.await(timeout, TimeUnit.MILLISECONDS))
+                System.err.printf("Interrupting wait for users %d/%d%n", users - latch.getCount(), users);
+            long end = System.nanoTime();
+
+            PlatformMonitor.Stop stop = monitor.stop();
+            System.err.println(stop);
+
+            // Send a message to the server to signal the end of the test
+            Map<String, Object> serverStatistics = statsClient.end();
+
+            printUsersReport(users, end - begin);
+
+            if (report != null)
+            {
+                Map<String, Object> result = newPhaseResult("users");
+                result.put("users", users);
+                result.put("rooms", rooms);
+                result.put("roomsPerUser", roomsPerUser);
+                result.put("rampUp", rampUp);
+                result.put("publishes", publishes);
+                result.put("thinkTime", thinkTime);
+                result.put("messageSize", messageSize);
+                result.put("handshakes", userHandshakes.get());
+                result.put("failures", userFailures.get());
+                result.put("completedPublishes", userPublishes.get());
+                result.put("publishRate", end > begin ? userPublishes.get() * 1000L * 1000 * 1000 / (end - begin) : 0);
+                result.put("receivedMessages", messages.get());
+                completePhaseResult(result, serverStatistics);
+            }
+
+            synchronized (simulatedUsers)
+            {
+                for (SimulatedUser user : simulatedUsers)
+                    user.stop();
+                simulatedUsers.clear();
+            }
+
+            reset();
+        }
+    }
+
+    private Map<String, Object> loadScenario(String file) throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8))
+        {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = (Map<String, Object>)JSON.parse(reader);
+            Object phases = result.get("phases");
+            if (phases instanceof Object[])
+                this.phases = Arrays.asList((Object[])phases).iterator();
+            else
+                this.phases = Collections.emptyIterator();
+            return result;
+        }
+    }
+
+    /**
+     * <p>Moves to the next phase of the scenario, if any.</p>
+     * <p>In interactive mode there is no scenario, and phases continue
+     * until the console is closed.</p>
+     *
+     * @return whether there is another phase to run
+     */
+    @SuppressWarnings("unchecked")
+    private boolean nextPhase()
+    {
+        if (scenario == null)
+            return true;
+        if (!phases.hasNext())
+            return false;
+        phase = (Map<String, Object>)phases.next();
+        return true;
+    }
+
+    /**
+     * <p>Returns the value of the given setting, either reading it from the console
+     * or, when running a scenario, from the current phase or from the scenario.</p>
+     * <p>Settings not present in the current phase are taken from the top level
+     * of the scenario; settings not present in the scenario take the default value.</p>
+     *
+     * @param name the name of the setting in the scenario
+     * @param text the text to display
+     * @param defaultValue the default value of the setting
+     * @return the value of the setting, or null if the console has been closed
+     * @throws IOException if the console cannot be read
+     */
+    private String prompt(String name, String text, Object defaultValue) throws IOException
+    {
+        System.err.printf("%s [%s]: ", text, defaultValue);
+        String value;
+        if (scenario == null)
+        {
+            value = console.readLine();
+            if (value == null)
+                return null;
+            value = value.trim();
+        }
+        else
+        {
+            Object setting = phase == null ? null : phase.get(name);
+            if (setting == null)
+                setting = scenario.get(name);
+            value = setting == null ? "" : String.valueOf(setting);
+            System.err.println(value);
+        }
+        if (value.length() == 0)
+            value = String.valueOf(defaultValue);
+        return value;
+    }
+
+    private void startGarbageCollections()
+    {
+        gcCount = 0;
+        gcTime = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcCount -= Math.max(0, collector.getCollectionCount());
+            gcTime -= Math.max(0, collector.getCollectionTime());
+        }
+    }
+
+    private Map<String, Object> newPhaseResult(String mode)
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Object name = phase == null ? null : phase.get("name");
+        result.put("name", name == null ? String.valueOf(reportedPhases.incrementAndGet()) : name);
+        result.put("mode", mode);
+        return result;
+    }
+
+    private void completePhaseResult(Map<String, Object> result, Map<String, Object> serverStatistics) throws IOException
+    {
+        // Latencies are reported in microseconds
+        Histogram snapshot = histogram.copy();
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.getTotalCount());
+        latency.put("min", convert(snapshot.getMinValue()));
+        latency.put("p50", convert(snapshot.getValueAtPercentile(50)));
+        latency.put("p90", convert(snapshot.getValueAtPercentile(90)));
+        latency.put("p99", convert(snapshot.getValueAtPercentile(99)));
+        latency.put("p999", convert(snapshot.getValueAtPercentile(99.9)));
+        latency.put("max", convert(snapshot.getMaxValue()));
+        result.put("latency", latency);
+
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("tasks", threadPool.getTasks());
+        pool.put("maxActiveThreads", threadPool.getMaxActiveThreads());
+        pool.put("maxQueueSize", threadPool.getMaxQueueSize());
+        pool.put("averageQueueLatency", TimeUnit.NANOSECONDS.toMillis(threadPool.getAverageQueueLatency()));
+        pool.put("maxQueueLatency", TimeUnit.NANOSECONDS.toMillis(threadPool.getMaxQueueLatency()));
+        result.put("threadPool", pool);
+
+        long count = gcCount;
+        long time = gcTime;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(0, collector.getCollectionCount());
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("count", count);
+        gc.put("time", time);
+        result.put("gc", gc);
+
+        if (serverStatistics != null)
+            result.put("server", serverStatistics);
+
+        report.add(result);
+    }
+
     private long runBatches(int batchCount, int batchSize, long batchPause, String chat, boolean randomize, String channel)
     {
         int clientIndex = -1;
@@ -572,6 +828,28 @@ public class BayeuxLoadClient implements MeasureConverter
                 TimeUnit.NANOSECONDS.toMillis(threadPool.getMaxTaskLatency()));
     }
 
+    public void printUsersReport(int users, long elapsedNanos)
+    {
+        System.err.printf("Users - Handshakes/Failures/Expected = %d/%d/%d%n", userHandshakes.get(), userFailures.get(), users);
+
+        long publishCount = userPublishes.get();
+        if (elapsedNanos > 0)
+        {
+            System.err.printf("Publishes - Elapsed = %d ms | Count = %d | Rate = %d publishes/s%n",
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    publishCount,
+                    publishCount * 1000L * 1000 * 1000 / elapsedNanos);
+        }
+        System.err.printf("Messages - Received = %d%n", messages.get());
+
+        System.err.println(new HistogramSnapshot(histogram.copy(), 20, "Publishes - Latency (from intended send time)", "\u00B5s", this));
+
+        System.err.printf("Thread Pool - Tasks = %d | Concurrent Threads max = %d | Queue Size max = %d%n",
+                threadPool.getTasks(),
+                threadPool.getMaxActiveThreads(),
+                threadPool.getMaxQueueSize());
+    }
+
     @Override
     public long convert(long measure)
     {
@@ -592,6 +870,9 @@ public class BayeuxLoadClient implements MeasureConverter
         maxTime.set(null, 0);
         sendTimes.clear();
         arrivalTimes.clear();
+        userHandshakes.set(0L);
+        userFailures.set(0L);
+        userPublishes.set(0L);
     }
 
     private class HandshakeListener implements ClientSessionChannel.MessageListener
@@ -743,23 +1024,28 @@ public class BayeuxLoadClient implements MeasureConverter
             notifyServer("/service/statistics/start");
         }
 
-        public void end() throws InterruptedException
+        @SuppressWarnings("unchecked")
+        public Map<String, Object> end() throws InterruptedException
         {
-            notifyServer("/service/statistics/stop");
+            Map<String, Object> ext = notifyServer("/service/statistics/stop").getExt();
+            return ext == null ? null : (Map<String, Object>)ext.get("statistics");
         }
 
-        private void notifyServer(String channelName) throws InterruptedException
+        private Message notifyServer(String channelName) throws InterruptedException
         {
+            final AtomicReference<Message> reply = new AtomicReference<>();
             final CountDownLatch latch = new CountDownLatch(1);
             ClientSessionChannel channel = getChannel(channelName);
             channel.publish(new HashMap<String, Object>(1), new ClientSessionChannel.MessageListener()
             {
                 public void onMessage(ClientSessionChannel channel, Message message)
                 {
+                    reply.set(message);
                     latch.countDown();
                 }
             });
             latch.await();
+            return reply.get();
         }
 
         @Override
@@ -801,6 +1087,164 @@ public class BayeuxLoadClient implements MeasureConverter
         }
     }
 
+    /**
+     * <p>A simulated user that scripts its own session: it handshakes, subscribes
+     * to a number of rooms, then publishes to one of its rooms following a schedule
+     * of intended send times, separated by random think times.</p>
+     * <p>Users are not bound to threads: every step is a short task run either by
+     * the scheduler (when the think time expires) or by the client thread pool
+     * (when a reply arrives), so that a single box can simulate a very large
+     * number of users.</p>
+     * <p>Users do not wait for replies before publishing again (open loop), so a
+     * slow server does not make users publish less often. The publish latency is
+     * measured from the intended send time rather than from the actual send time,
+     * so that delays in sending the publish are included in the latency.</p>
+     */
+    private class SimulatedUser implements Runnable
+    {
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final List<Integer> subscriptions = new ArrayList<>();
+        private final BayeuxClient client;
+        private final String channel;
+        private final int rooms;
+        private final int roomsPerUser;
+        private final int publishes;
+        private final long thinkTime;
+        private final String chat;
+        private final CountDownLatch latch;
+        private final AtomicInteger replies = new AtomicInteger();
+        private int published;
+        private long intended;
+
+        private SimulatedUser(String url, ClientTransport transport, boolean enableAckExtension, String channel, int rooms, int roomsPerUser, int publishes, long thinkTime, String chat, CountDownLatch latch)
+        {
+            this.client = new BayeuxClient(url, scheduler, transport);
+            if (enableAckExtension)
+                client.addExtension(new AckExtension());
+            this.channel = channel;
+            this.rooms = rooms;
+            this.roomsPerUser = Math.min(roomsPerUser, rooms);
+            this.publishes = publishes;
+            this.thinkTime = thinkTime;
+            this.chat = chat;
+            this.latch = latch;
+        }
+
+        public void run()
+        {
+            client.handshake(new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    if (message.isSuccessful())
+                    {
+                        userHandshakes.incrementAndGet();
+                        subscribe();
+                    }
+                    else
+                    {
+                        userFailures.incrementAndGet();
+                        stop();
+                    }
+                }
+            });
+        }
+
+        private void subscribe()
+        {
+            final ClientSessionChannel.MessageListener listener = new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    messages.incrementAndGet();
+                }
+            };
+            client.batch(new Runnable()
+            {
+                public void run()
+                {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < roomsPerUser; ++i)
+                    {
+                        // Avoid to subscribe the same user twice to the same room
+                        int room = random.nextInt(rooms);
+                        while (subscriptions.contains(room))
+                            room = random.nextInt(rooms);
+                        subscriptions.add(room);
+                        client.getChannel(getChannelId(channel + "/" + room)).subscribe(listener);
+                    }
+                }
+            });
+            if (publishes == 0 || subscriptions.isEmpty())
+            {
+                stop();
+                return;
+            }
+            intended = System.nanoTime();
+            think();
+        }
+
+        private void think()
+        {
+            if (published == publishes)
+                return;
+
+            // The next send time depends only on the schedule, not on when replies arrive.
+            long pause = thinkTime > 0 ? ThreadLocalRandom.current().nextLong(2 * thinkTime) : 0;
+            intended += TimeUnit.MILLISECONDS.toNanos(pause);
+            scheduler.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    publish();
+                }
+            }, Math.max(0, intended - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private void publish()
+        {
+            if (done.get())
+                return;
+
+            ++published;
+            final long begin = intended;
+            think();
+
+            int room = subscriptions.get(ThreadLocalRandom.current().nextInt(subscriptions.size()));
+            Map<String, Object> message = new HashMap<>(3);
+            message.put("room", room);
+            message.put("user", hashCode());
+            message.put("chat", chat);
+            client.getChannel(getChannelId(channel + "/" + room)).publish(message, new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    if (message.isSuccessful())
+                    {
+                        userPublishes.incrementAndGet();
+                        histogram.recordValue(System.nanoTime() - begin);
+                        if (replies.incrementAndGet() == publishes)
+                            stop();
+                    }
+                    else
+                    {
+                        userFailures.incrementAndGet();
+                        stop();
+                    }
+                }
+            });
+        }
+
+        private void stop()
+        {
+            if (done.compareAndSet(false, true))
+            {
+                client.disconnect();
+                latch.countDown();
+            }
+        }
+    }
+
     private ChannelId getChannelId(String channelName)
     {
         ChannelId result = channelIds.get(channelName);
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.client;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jetty.util.ajax.JSON;
+
+/**
+ * <p>Collects the results of the benchmark phases and writes them to a file
+ * in a machine-readable format, so that the results of different runs can be
+ * compared.</p>
+ * <p>The file is rewritten after every phase, so that the results of the
+ * completed phases are available even if the benchmark does not complete.
+ * Files ending with {@code .csv} are written in CSV format, with one row per
+ * phase; other files are written in JSON format.</p>
+ * <p>Nested maps in the phase results are flattened using dot-separated keys,
+ * for example {@code server.jettyThreadPool.maxQueueSize}.</p>
+ */
+public class BenchmarkReport
+{
+    private final List<Map<String, Object>> phases = new ArrayList<>();
+    private final Path file;
+
+    public BenchmarkReport(String file)
+    {
+        this.file = Paths.get(file);
+    }
+
+    public void add(Map<String, Object> phase) throws IOException
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        flatten("", phase, result);
+        phases.add(result);
+        write();
+    }
+
+    private void flatten(String prefix, Map<?, ?> map, Map<String, Object> result)
+    {
+        for (Map.Entry<?, ?> entry : map.entrySet())
+        {
+            String key = prefix + entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof Map)
+                flatten(key + ".", (Map<?, ?>)value, result);
+            else
+                result.put(key, value);
+        }
+    }
+
+    private void write() throws IOException
+    {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            if (file.getFileName().toString().endsWith(".csv"))
+                writeCSV(writer);
+            else
+                writeJSON(writer);
+        }
+    }
+
+    private void writeJSON(Writer writer) throws IOException
+    {
+        writer.write(JSON.toString(Collections.singletonMap("phases", phases)));
+        writer.write(System.lineSeparator());
+    }
+
+    private void writeCSV(Writer writer) throws IOException
+    {
+        // Phases may have different results, so the columns are the union of all keys
+        Set<String> columns = new LinkedHashSet<>();
+        for (Map<String, Object> phase : phases)
+            columns.addAll(phase.keySet());
+
+        writeCSVRow(writer, new ArrayList<Object>(columns));
+        for (Map<String, Object> phase : phases)
+        {
+            List<Object> row = new ArrayList<>(columns.size());
+            for (String column : columns)
+                row.add(phase.get(column));
+            writeCSVRow(writer, row);
+        }
+    }
+
+    private void writeCSVRow(Writer writer, List<Object> values) throws IOException
+    {
+        for (int i = 0; i < values.size(); ++i)
+        {
+            if (i > 0)
+                writer.write(',');
+            Object value = values.get(i);
+            if (value == null)
+                continue;
+            String text = String.valueOf(value);
+            if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0)
+                text = '"' + text.replace("\"", "\"\"") + '"';
+            writer.write(text);
+        }
+        writer.write(System.lineSeparator());
+    }
+}
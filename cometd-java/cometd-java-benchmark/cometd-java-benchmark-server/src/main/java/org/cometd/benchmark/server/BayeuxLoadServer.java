@@ -25,6 +25,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -314,6 +316,9 @@ public class BayeuxLoadServer
                 {
                     System.err.println(stop);
 
+                    // Return the statistics to the client, so that they can be reported
+                    Map<String, Object> statistics = new HashMap<>();
+
                     if (requestLatencyHandler != null)
                     {
                         requestLatencyHandler.print();
@@ -332,6 +337,14 @@ public class BayeuxLoadServer
                                 statisticsHandler.getResponses4xx() + statisticsHandler.getResponses5xx(),
                                 statisticsHandler.getDispatchedActiveMax(),
                                 statisticsHandler.getStatsOnMs() == 0 ? -1 : statisticsHandler.getDispatched() * 1000L / statisticsHandler.getStatsOnMs());
+
+                        Map<String, Object> requests = new HashMap<>();
+                        requests.put("count", statisticsHandler.getDispatched());
+                        requests.put("failed", statisticsHandler.getResponses4xx() + statisticsHandler.getResponses5xx());
+                        requests.put("maxActive", statisticsHandler.getDispatchedActiveMax());
+                        requests.put("averageTime", ((Double)statisticsHandler.getDispatchedTimeMean()).longValue());
+                        requests.put("maxTime", statisticsHandler.getDispatchedTimeMax());
+                        statistics.put("requests", requests);
                     }
 
                     if (jettyThreadPool != null)
@@ -344,6 +357,14 @@ public class BayeuxLoadServer
                                 TimeUnit.NANOSECONDS.toMillis(jettyThreadPool.getMaxQueueLatency()),
                                 TimeUnit.NANOSECONDS.toMillis(jettyThreadPool.getAverageTaskLatency()),
                                 TimeUnit.NANOSECONDS.toMillis(jettyThreadPool.getMaxTaskLatency()));
+
+                        statistics.put("jettyThreadPool", threadPoolStatistics(jettyThreadPool.getTasks(),
+                                jettyThreadPool.getMaxActiveThreads(),
+                                jettyThreadPool.getMaxQueueSize(),
+                                jettyThreadPool.getAverageQueueLatency(),
+                                jettyThreadPool.getMaxQueueLatency(),
+                                jettyThreadPool.getAverageTaskLatency(),
+                                jettyThreadPool.getMaxTaskLatency()));
                     }
                     if (websocketThreadPool != null)
                     {
@@ -355,11 +376,36 @@ public class BayeuxLoadServer
                                 TimeUnit.NANOSECONDS.toMillis(websocketThreadPool.getMaxQueueLatency()),
                                 TimeUnit.NANOSECONDS.toMillis(websocketThreadPool.getAverageTaskLatency()),
                                 TimeUnit.NANOSECONDS.toMillis(websocketThreadPool.getMaxTaskLatency()));
+
+                        statistics.put("websocketThreadPool", threadPoolStatistics(websocketThreadPool.getTasks(),
+                                websocketThreadPool.getMaxActiveThreads(),
+                                websocketThreadPool.getMaxQueueSize(),
+                                websocketThreadPool.getAverageQueueLatency(),
+                                websocketThreadPool.getMaxQueueLatency(),
+                                websocketThreadPool.getAverageTaskLatency(),
+                                websocketThreadPool.getMaxTaskLatency()));
                     }
                     System.err.println();
+
+                    message.getAssociated().getExt(true).put("statistics", statistics);
                 }
             }
         }
+
+        private Map<String, Object> threadPoolStatistics(long tasks, int maxActiveThreads, int maxQueueSize,
+                                                         long averageQueueLatency, long maxQueueLatency,
+                                                         long averageTaskLatency, long maxTaskLatency)
+        {
+            Map<String, Object> result = new HashMap<>();
+            result.put("tasks", tasks);
+            result.put("maxActiveThreads", maxActiveThreads);
+            result.put("maxQueueSize", maxQueueSize);
+            result.put("averageQueueLatency", TimeUnit.NANOSECONDS.toMillis(averageQueueLatency));
+            result.put("maxQueueLatency", TimeUnit.NANOSECONDS.toMillis(maxQueueLatency));
+            result.put("averageTaskLatency", TimeUnit.NANOSECONDS.toMillis(averageTaskLatency));
+            result.put("maxTaskLatency", TimeUnit.NANOSECONDS.toMillis(maxTaskLatency));
+            return result;
+        }
     }
 
     private static class RequestQoSHandler extends HandlerWrapper
@@ -27,13 +27,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.cometd.bayeux.Bayeux;
@@ -49,6 +54,7 @@ import org.cometd.client.transport.MessageClientTransport;
 import org.cometd.client.transport.TransportListener;
 import org.cometd.client.transport.TransportRegistry;
 import org.cometd.common.AbstractClientSession;
+import org.cometd.common.ChannelIdCache;
 import org.cometd.common.HashMapMessage;
 import org.cometd.common.TransportException;
 import org.slf4j.Logger;
@@ -68,6 +74,10 @@ import org.slf4j.LoggerFactory;
  * <a href="http://wiki.eclipse.org/Jetty/Feature/HttpClient">Jetty's HTTP client</a>.</p>
  * <p>When the communication with the server is finished, the {@link BayeuxClient} can be
  * disconnected from the Bayeux server.</p>
+ * <p>When the {@link #AUTO_BATCH_OPTION} is enabled, messages published outside an explicit
+ * {@link #batch(Runnable) batch} are coalesced: messages published while a previous
+ * automatic batch is waiting for its replies, or within the
+ * {@link #AUTO_BATCH_WINDOW_OPTION window} after the first of them, are sent together.</p>
  * <p>Typical usage:</p>
  * <pre>
  * // Handshake
@@ -100,13 +110,23 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
 {
     public static final String BACKOFF_INCREMENT_OPTION = "backoffIncrement";
     public static final String MAX_BACKOFF_OPTION = "maxBackoff";
+    public static final String AUTO_BATCH_OPTION = "autoBatch";
+    public static final String AUTO_BATCH_WINDOW_OPTION = "autoBatchWindow";
+    private static final String ENQUEUED_KEY = "org.cometd.client.enqueued";
     public static final String BAYEUX_VERSION = "1.0";
 
     protected final Logger logger = LoggerFactory.getLogger(getClass().getName() + "." + Integer.toHexString(System.identityHashCode(this)));
     private final TransportRegistry transportRegistry = new TransportRegistry();
     private final Map<String, Object> options = new ConcurrentHashMap<>();
     private final AtomicReference<BayeuxClientState> bayeuxClientState = new AtomicReference<>();
-    private final List<Message.Mutable> messageQueue = new ArrayList<>(32);
+    private final Queue<Message.Mutable> messageQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean autoBatchSending = new AtomicBoolean();
+    private final Runnable autoBatchTask = new AutoBatchTask();
+    private final AtomicLong autoBatches = new AtomicLong();
+    private final AtomicLong autoBatchedMessages = new AtomicLong();
+    private final AtomicLong autoBatchMaxSize = new AtomicLong();
+    private final AtomicLong autoBatchLatency = new AtomicLong();
+    private final AtomicLong autoBatchMaxLatency = new AtomicLong();
     private final CookieStore cookieStore = new CookieManager().getCookieStore();
     private final TransportListener handshakeListener = new HandshakeTransportListener();
     private final TransportListener connectListener = new ConnectTransportListener();
@@ -117,6 +137,8 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
     private volatile boolean shutdownScheduler;
     private volatile long backoffIncrement;
     private volatile long maxBackoff;
+    private volatile boolean autoBatch;
+    private volatile long autoBatchWindow;
     private int stateUpdaters;
 
     /**
@@ -200,6 +222,66 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
         return maxBackoff;
     }
 
+    /**
+     * @return whether messages published outside explicit batches are automatically batched
+     * @see #AUTO_BATCH_OPTION
+     */
+    public boolean isAutoBatch()
+    {
+        return autoBatch;
+    }
+
+    /**
+     * @return the time, in microseconds, an automatic batch waits for more messages before being sent
+     * @see #AUTO_BATCH_WINDOW_OPTION
+     */
+    public long getAutoBatchWindow()
+    {
+        return autoBatchWindow;
+    }
+
+    /**
+     * @return the number of automatic batches sent
+     */
+    public long getAutoBatchCount()
+    {
+        return autoBatches.get();
+    }
+
+    /**
+     * @return the average number of messages in an automatic batch
+     */
+    public double getAutoBatchAverageSize()
+    {
+        long batches = autoBatches.get();
+        return batches == 0 ? 0 : (double)autoBatchedMessages.get() / batches;
+    }
+
+    /**
+     * @return the max number of messages in an automatic batch
+     */
+    public long getAutoBatchMaxSize()
+    {
+        return autoBatchMaxSize.get();
+    }
+
+    /**
+     * @return the average time, in microseconds, messages wait before their automatic batch is sent
+     */
+    public long getAutoBatchAverageLatency()
+    {
+        long messages = autoBatchedMessages.get();
+        return messages == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(autoBatchLatency.get() / messages);
+    }
+
+    /**
+     * @return the max time, in microseconds, a message waited before its automatic batch was sent
+     */
+    public long getAutoBatchMaxLatency()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(autoBatchMaxLatency.get());
+    }
+
     public CookieStore getCookieStore()
     {
         return cookieStore;
@@ -483,7 +565,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
     {
         // Save some parsing by checking if there is already one
         AbstractSessionChannel channel = getChannels().get(channelId);
-        return channel == null ? new ChannelId(channelId) : channel.getChannelId();
+        return channel == null ? ChannelIdCache.getInstance().get(channelId) : channel.getChannelId();
     }
 
     protected AbstractSessionChannel newChannel(ChannelId channelId)
@@ -503,27 +585,85 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
 
     protected boolean sendMessages(List<Message.Mutable> messages)
     {
-        return bayeuxClientState.get().send(publishListener, messages);
+        TransportListener listener = publishListener;
+        if (messages instanceof AutoBatch)
+        {
+            // Automatic batches carry their own listener, that tracks their replies.
+            AutoBatch autoBatch = (AutoBatch)messages;
+            autoBatch.sent = true;
+            listener = autoBatch.listener;
+        }
+        return bayeuxClientState.get().send(listener, messages);
     }
 
     private List<Message.Mutable> takeMessages()
+    {
+        return takeMessages(new ArrayList<Message.Mutable>());
+    }
+
+    private <T extends List<Message.Mutable>> T takeMessages(T messages)
     {
         // Multiple threads can call this method concurrently (for example
         // a batched publish() is executed exactly when a message arrives
         // and a listener also performs a batched publish() in response to
-        // the message).
-        // The queue must be drained atomically, otherwise we risk that the
-        // same message is drained twice.
-
-        List<Message.Mutable> messages;
+        // the message, or an automatic batch is sent when a batch ends).
+        // Each drain takes the whole queue atomically with respect to the
+        // other drains, so that a batch is not split across two requests.
         synchronized (messageQueue)
         {
-            messages = new ArrayList<>(messageQueue);
-            messageQueue.clear();
+            while (true)
+            {
+                Message.Mutable message = messageQueue.poll();
+                if (message == null)
+                    break;
+                messages.add(message);
+            }
         }
         return messages;
     }
 
+    private void sendAutoBatch()
+    {
+        // Only one automatic batch is in flight at any time; messages
+        // enqueued in the meantime are sent when its replies arrive.
+        if (!autoBatchSending.compareAndSet(false, true))
+            return;
+
+        long window = getAutoBatchWindow();
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (window > 0 && scheduler != null)
+        {
+            try
+            {
+                scheduler.schedule(autoBatchTask, window, TimeUnit.MICROSECONDS);
+                return;
+            }
+            catch (RejectedExecutionException x)
+            {
+                // The scheduler has been shut down, send immediately.
+            }
+        }
+        autoBatchTask.run();
+    }
+
+    private void autoBatchSent()
+    {
+        autoBatchSending.set(false);
+        // Messages may have been enqueued after the last drain.
+        if (!messageQueue.isEmpty() && canSend())
+            sendAutoBatch();
+    }
+
+    private static void updateMax(AtomicLong max, long value)
+    {
+        while (true)
+        {
+            long current = max.get();
+            if (value <= current || max.compareAndSet(current, value))
+                break;
+        }
+    }
+
     /**
      * @see #disconnect(long)
      */
@@ -865,6 +1005,10 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
 
     protected void initialize()
     {
+        autoBatch = Boolean.parseBoolean(String.valueOf(getOption(AUTO_BATCH_OPTION)));
+        Number window = (Number)getOption(AUTO_BATCH_WINDOW_OPTION);
+        autoBatchWindow = window == null ? 0 : window.longValue();
+
         Number value = (Number)getOption(BACKOFF_INCREMENT_OPTION);
         long backoffIncrement = value == null ? -1 : value.longValue();
         if (backoffIncrement < 0)
@@ -935,7 +1079,13 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
 
     protected void enqueueSend(Message.Mutable message)
     {
-        if (canSend())
+        if (canSend() && isAutoBatch())
+        {
+            message.put(ENQUEUED_KEY, System.nanoTime());
+            messageQueue.offer(message);
+            sendAutoBatch();
+        }
+        else if (canSend())
         {
             List<Message.Mutable> messages = new ArrayList<>(1);
             messages.add(message);
@@ -945,10 +1095,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
         }
         else
         {
-            synchronized (messageQueue)
-            {
-                messageQueue.add(message);
-            }
+            messageQueue.offer(message);
             if (logger.isDebugEnabled())
                 logger.debug("Enqueued message {} (batching: {})", message, isBatching());
         }
@@ -1196,6 +1343,97 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
         }
     }
 
+    private class AutoBatchTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            if (!canSend())
+            {
+                // An explicit batch or a handshake is in progress and will send the messages.
+                autoBatchSending.set(false);
+                return;
+            }
+
+            AutoBatch messages = takeMessages(new AutoBatch());
+            if (messages.isEmpty())
+            {
+                autoBatchSent();
+                return;
+            }
+
+            long now = System.nanoTime();
+            for (Message.Mutable message : messages)
+            {
+                Object enqueued = message.remove(ENQUEUED_KEY);
+                if (enqueued != null)
+                {
+                    long latency = now - (Long)enqueued;
+                    autoBatchLatency.addAndGet(latency);
+                    updateMax(autoBatchMaxLatency, latency);
+                }
+            }
+            int size = messages.size();
+            autoBatches.incrementAndGet();
+            autoBatchedMessages.addAndGet(size);
+            updateMax(autoBatchMaxSize, size);
+
+            AutoBatchTransportListener listener = new AutoBatchTransportListener(size);
+            messages.listener = listener;
+            boolean sent = false;
+            try
+            {
+                sent = sendMessages(messages);
+                if (logger.isDebugEnabled())
+                    logger.debug("{} automatic batch of {} messages", sent ? "Sent" : "Failed", size);
+            }
+            finally
+            {
+                // Messages removed by extensions will not have a reply, and
+                // there are no replies if sendMessages() has been overridden
+                // to send the messages without the automatic batch listener.
+                listener.complete(sent && messages.sent ? size - messages.size() : size);
+            }
+        }
+    }
+
+    private static class AutoBatch extends ArrayList<Message.Mutable>
+    {
+        private TransportListener listener;
+        private boolean sent;
+    }
+
+    private class AutoBatchTransportListener extends PublishTransportListener
+    {
+        private final AtomicInteger pending;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private AutoBatchTransportListener(int pending)
+        {
+            this.pending = new AtomicInteger(pending);
+        }
+
+        @Override
+        public void onMessages(List<Message.Mutable> messages)
+        {
+            super.onMessages(messages);
+            complete(messages.size());
+        }
+
+        @Override
+        public void onFailure(Throwable failure, List<? extends Message> messages)
+        {
+            super.onFailure(failure, messages);
+            complete(messages.size());
+        }
+
+        private void complete(int count)
+        {
+            if (pending.addAndGet(-count) <= 0 && completed.compareAndSet(false, true))
+                autoBatchSent();
+        }
+    }
+
     private class HandshakeTransportListener extends PublishTransportListener
     {
         public void onFailure(final Throwable failure, List<? extends Message> messages)
@@ -1400,6 +1638,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux
                 // Remove the synthetic fields before calling the extensions
                 ClientSessionChannel.MessageListener subscriber = (ClientSessionChannel.MessageListener)message.remove(SUBSCRIBER_KEY);
                 ClientSessionChannel.MessageListener callback = (ClientSessionChannel.MessageListener)message.remove(CALLBACK_KEY);
+                message.remove(ENQUEUED_KEY);
 
                 if (extendSend(message))
                 {
@@ -35,13 +35,19 @@ import org.cometd.bayeux.client.ClientSession.Extension;
  * can arrive via both long poll and normal response.
  * Messages are not acknowledged one by one, but instead a group of messages is
  * acknowledged when long poll returns.</p>
+ * <p>When handshaking again, for example after a server restart, this extension
+ * sends the previous session id, so that a server that journals the messages
+ * waiting for acknowledgement can deliver those not acknowledged by the previous
+ * session.</p>
  */
 public class AckExtension extends Extension.Adapter
 {
     public static final String ACK_FIELD = "ack";
+    public static final String RESUME_FIELD = "ackResume";
 
     private volatile boolean _serverSupportsAcks = false;
     private volatile long _ackId = -1;
+    private volatile String _clientId;
 
     @Override
     public boolean rcvMeta(ClientSession session, Mutable message)
@@ -50,6 +56,8 @@ public class AckExtension extends Extension.Adapter
         {
             Map<String, Object> ext = message.getExt(false);
             _serverSupportsAcks = ext != null && Boolean.TRUE.equals(ext.get(ACK_FIELD));
+            if (_serverSupportsAcks && message.isSuccessful())
+                _clientId = message.getClientId();
         }
         else if (Channel.META_CONNECT.equals(message.getChannel()) && message.isSuccessful() && _serverSupportsAcks)
         {
@@ -69,7 +77,11 @@ public class AckExtension extends Extension.Adapter
     {
         if (Channel.META_HANDSHAKE.equals(message.getChannel()))
         {
-            message.getExt(true).put(ACK_FIELD, Boolean.TRUE);
+            Map<String, Object> ext = message.getExt(true);
+            ext.put(ACK_FIELD, Boolean.TRUE);
+            String clientId = _clientId;
+            if (clientId != null)
+                ext.put(RESUME_FIELD, clientId);
             _ackId = -1;
         }
         else if (Channel.META_CONNECT.equals(message.getChannel()) && _serverSupportsAcks)
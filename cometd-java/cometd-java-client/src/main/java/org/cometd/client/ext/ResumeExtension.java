@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.ext;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message.Mutable;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.bayeux.client.ClientSession.Extension;
+
+/**
+ * <p>This client-side extension enables the client to resume its session after
+ * a connection failure, having the server replay the messages it missed.</p>
+ * <p>For the replay to work, the server must be configured with the correspondent
+ * server-side replay extension. The client counts the messages it receives, and
+ * tells the server this count when it reconnects after a failed {@code /meta/connect},
+ * so that the server can replay the messages sent in the meantime.</p>
+ * <p>This extension should be added before other extensions that may discard
+ * received messages, since discarded messages must be counted as well.</p>
+ */
+public class ResumeExtension extends Extension.Adapter
+{
+    public static final String RESUME_FIELD = "resume";
+
+    private final AtomicLong _received = new AtomicLong();
+    private volatile boolean _serverSupportsResume;
+    private volatile boolean _resume;
+
+    public long getReceivedMessages()
+    {
+        return _received.get();
+    }
+
+    @Override
+    public boolean rcv(ClientSession session, Mutable message)
+    {
+        if (!message.isPublishReply())
+            _received.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean rcvMeta(ClientSession session, Mutable message)
+    {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel()))
+        {
+            Map<String, Object> ext = message.getExt(false);
+            _serverSupportsResume = ext != null && Boolean.TRUE.equals(ext.get(RESUME_FIELD));
+        }
+        else if (Channel.META_CONNECT.equals(message.getChannel()) && !message.isSuccessful())
+        {
+            _resume = true;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendMeta(ClientSession session, Mutable message)
+    {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel()))
+        {
+            message.getExt(true).put(RESUME_FIELD, Boolean.TRUE);
+            _received.set(0);
+            _resume = false;
+        }
+        else if (Channel.META_CONNECT.equals(message.getChannel()) && _serverSupportsResume && _resume)
+        {
+            // Only after a failure, since while connected messages
+            // may be in flight and would be wrongly deemed missed.
+            message.getExt(true).put(RESUME_FIELD, _received.get());
+            _resume = false;
+        }
+        return true;
+    }
+}
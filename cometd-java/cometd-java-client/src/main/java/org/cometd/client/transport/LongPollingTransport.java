@@ -20,12 +20,17 @@ import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.HttpCookie;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,7 +42,6 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
-import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
@@ -188,102 +192,267 @@ public class LongPollingTransport extends HttpClientTransport
         // so there are no races between the two timeouts
         request.idleTimeout(maxNetworkDelay * 2, TimeUnit.MILLISECONDS);
         request.timeout(maxNetworkDelay, TimeUnit.MILLISECONDS);
-        request.send(new BufferingResponseListener(_maxBufferSize)
+        request.send(new MessagesResponseListener(uri, listener, messages));
+    }
+
+    protected void customize(Request request)
+    {
+    }
+
+    /**
+     * <p>Parses the response content as it arrives, and notifies the messages
+     * of each content chunk as soon as they are complete, so that large responses
+     * are neither held in memory nor delivered only after their last byte.</p>
+     * <p>The messages that close the response, among which typically the replies,
+     * are notified only when the response is complete, after the request has been
+     * removed, so that a new request triggered by a reply is not sent while this
+     * request is still in progress.</p>
+     * <p>The {@link #MAX_BUFFER_SIZE_OPTION max buffer size} limits the size of
+     * a single message rather than the size of the whole response.</p>
+     */
+    private class MessagesResponseListener extends Response.Listener.Adapter
+    {
+        private final Set<String> replies = new HashSet<>();
+        private final StringBuilder batch = new StringBuilder();
+        private final URI uri;
+        private final TransportListener listener;
+        private final List<Message.Mutable> messages;
+        private byte[] bytes = new byte[1024];
+        private int length;
+        private int depth;
+        private int messageDepth = -1;
+        private boolean string;
+        private boolean escape;
+        private boolean received;
+        private int count;
+
+        private MessagesResponseListener(URI uri, TransportListener listener, List<Message.Mutable> messages)
         {
-            @Override
-            public boolean onHeader(Response response, HttpField field)
+            this.uri = uri;
+            this.listener = listener;
+            this.messages = messages;
+        }
+
+        @Override
+        public boolean onHeader(Response response, HttpField field)
+        {
+            HttpHeader header = field.getHeader();
+            if (header != null && (header == HttpHeader.SET_COOKIE || header == HttpHeader.SET_COOKIE2))
             {
-                HttpHeader header = field.getHeader();
-                if (header != null && (header == HttpHeader.SET_COOKIE || header == HttpHeader.SET_COOKIE2))
+                // We do not allow cookies to be handled by HttpClient, since one
+                // HttpClient instance is shared by multiple BayeuxClient instances.
+                // Instead, we store the cookies in the BayeuxClient instance.
+                Map<String, List<String>> cookies = new HashMap<>(1);
+                cookies.put(field.getName(), Collections.singletonList(field.getValue()));
+                storeCookies(uri, cookies);
+                return false;
+            }
+            return true;
+        }
+
+        private void storeCookies(URI uri, Map<String, List<String>> cookies)
+        {
+            try
+            {
+                _cookieManager.put(uri, cookies);
+            }
+            catch (IOException x)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("", x);
+            }
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content)
+        {
+            // Only successful responses carry messages.
+            if (response.getStatus() != HttpStatus.OK_200)
+                return;
+
+            if (content.hasRemaining())
+                received = true;
+            while (content.hasRemaining())
+            {
+                byte b = content.get();
+                if (messageDepth >= 0 && !append(b))
                 {
-                    // We do not allow cookies to be handled by HttpClient, since one
-                    // HttpClient instance is shared by multiple BayeuxClient instances.
-                    // Instead, we store the cookies in the BayeuxClient instance.
-                    Map<String, List<String>> cookies = new HashMap<>(1);
-                    cookies.put(field.getName(), Collections.singletonList(field.getValue()));
-                    storeCookies(uri, cookies);
-                    return false;
+                    response.abort(new IllegalArgumentException("Buffering capacity exceeded"));
+                    return;
+                }
+
+                // Structural characters are ASCII, so they never appear
+                // inside UTF-8 multi-byte sequences and bytes can be scanned.
+                if (string)
+                {
+                    if (escape)
+                        escape = false;
+                    else if (b == '\\')
+                        escape = true;
+                    else if (b == '"')
+                        string = false;
+                }
+                else if (b == '"')
+                {
+                    string = true;
+                }
+                else if (b == '{' || b == '[')
+                {
+                    // Messages are the objects at the top level or inside the top level array.
+                    if (b == '{' && messageDepth < 0 && depth <= 1)
+                    {
+                        messageDepth = depth;
+                        if (!append(b))
+                        {
+                            response.abort(new IllegalArgumentException("Buffering capacity exceeded"));
+                            return;
+                        }
+                    }
+                    ++depth;
+                }
+                else if (b == '}' || b == ']')
+                {
+                    --depth;
+                    if (depth == messageDepth)
+                    {
+                        if (batch.length() > 0)
+                            batch.append(",");
+                        batch.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                        messageDepth = -1;
+                        length = 0;
+                    }
                 }
-                return true;
             }
 
-            private void storeCookies(URI uri, Map<String, List<String>> cookies)
+            // The last messages are notified when the response completes.
+            if (depth > 0 && batch.length() > 0)
             {
                 try
                 {
-                    _cookieManager.put(uri, cookies);
+                    notifyBatch();
                 }
-                catch (IOException x)
+                catch (ParseException x)
                 {
-                    if (logger.isDebugEnabled())
-                        logger.debug("", x);
+                    response.abort(x);
                 }
             }
+        }
 
-            @Override
-            public void onComplete(Result result)
+        private void notifyBatch() throws ParseException
+        {
+            batch.insert(0, "[").append("]");
+            List<Message.Mutable> messages = parseMessages(batch.toString());
+            batch.setLength(0);
+            notifyMessages(messages);
+        }
+
+        private boolean append(byte b)
+        {
+            if (length == bytes.length)
             {
-                synchronized (LongPollingTransport.this)
+                if (length >= _maxBufferSize)
+                    return false;
+                bytes = Arrays.copyOf(bytes, Math.min(2 * length, _maxBufferSize));
+            }
+            bytes[length++] = b;
+            return true;
+        }
+
+        private void notifyMessages(List<Message.Mutable> messages)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Received messages {}", messages);
+            for (Message.Mutable message : messages)
+            {
+                if (message.isSuccessful() && Channel.META_CONNECT.equals(message.getChannel()))
                 {
-                    _requests.remove(result.getRequest());
+                    Map<String, Object> advice = message.getAdvice();
+                    if (advice != null && advice.get("timeout") != null)
+                        _advice = advice;
                 }
+                // Only replies count, not messages delivered from
+                // other publishers that may happen to have the same id.
+                String id = message.getId();
+                if (id != null && (message.isMeta() || message.isPublishReply()))
+                    replies.add(id);
+            }
+            count += messages.size();
+            listener.onMessages(messages);
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            synchronized (LongPollingTransport.this)
+            {
+                _requests.remove(result.getRequest());
+            }
+
+            if (result.isFailed())
+            {
+                fail(result.getFailure());
+                return;
+            }
 
-                if (result.isFailed())
+            Response response = result.getResponse();
+            int status = response.getStatus();
+            if (status == HttpStatus.OK_200)
+            {
+                if (messageDepth >= 0 || depth != 0)
                 {
-                    listener.onFailure(result.getFailure(), messages);
+                    fail(new ParseException("Truncated response", -1));
                     return;
                 }
 
-                Response response = result.getResponse();
-                int status = response.getStatus();
-                if (status == HttpStatus.OK_200)
+                if (batch.length() > 0)
                 {
-                    String content = getContentAsString();
-                    if (content != null && content.length() > 0)
+                    try
                     {
-                        try
-                        {
-                            List<Message.Mutable> messages = parseMessages(content);
-                            if (logger.isDebugEnabled())
-                                logger.debug("Received messages {}", messages);
-                            for (Message.Mutable message : messages)
-                            {
-                                if (message.isSuccessful() && Channel.META_CONNECT.equals(message.getChannel()))
-                                {
-                                    Map<String, Object> advice = message.getAdvice();
-                                    if (advice != null && advice.get("timeout") != null)
-                                        _advice = advice;
-                                }
-                            }
-                            listener.onMessages(messages);
-                        }
-                        catch (ParseException x)
-                        {
-                            listener.onFailure(x, messages);
-                        }
+                        notifyBatch();
                     }
-                    else
+                    catch (ParseException x)
                     {
-                        Map<String, Object> failure = new HashMap<>(2);
-                        // Convert the 200 into 204 (no content)
-                        failure.put("httpCode", 204);
-                        TransportException x = new TransportException(failure);
-                        listener.onFailure(x, messages);
+                        fail(x);
+                        return;
                     }
                 }
+
+                if (received)
+                {
+                    // Content without messages, such as an empty array.
+                    if (count == 0)
+                        listener.onMessages(new ArrayList<Message.Mutable>());
+                }
                 else
                 {
                     Map<String, Object> failure = new HashMap<>(2);
-                    failure.put("httpCode", status);
+                    // Convert the 200 into 204 (no content)
+                    failure.put("httpCode", 204);
                     TransportException x = new TransportException(failure);
                     listener.onFailure(x, messages);
                 }
             }
-        });
-    }
+            else
+            {
+                Map<String, Object> failure = new HashMap<>(2);
+                failure.put("httpCode", status);
+                TransportException x = new TransportException(failure);
+                listener.onFailure(x, messages);
+            }
+        }
 
-    protected void customize(Request request)
-    {
+        private void fail(Throwable failure)
+        {
+            // Only fail the messages whose reply has not been notified yet.
+            List<Message.Mutable> unreplied = new ArrayList<>(messages.size());
+            for (Message.Mutable message : messages)
+            {
+                if (!replies.contains(message.getId()))
+                    unreplied.add(message);
+            }
+            if (!unreplied.isEmpty() || messages.isEmpty())
+                listener.onFailure(failure, unreplied);
+        }
     }
 
     public static class Factory extends ContainerLifeCycle implements ClientTransport.Factory
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.LoopbackConnector;
+
+/**
+ * <p>A client transport that talks to a server transport living in the same JVM
+ * via a {@link LoopbackConnector}, typically the server-side
+ * {@code org.cometd.server.transport.LoopbackTransport}.</p>
+ * <p>Messages are exchanged in memory, without the network stack, so that this transport
+ * is suitable to measure the performance of the Bayeux protocol processing in isolation,
+ * or to connect embedded components to a CometD server without network overhead.</p>
+ * <p>Since there is no network, messages are only failed when the connection is closed,
+ * and the {@link #MAX_NETWORK_DELAY_OPTION} option is not used.</p>
+ */
+public class LoopbackTransport extends ClientTransport implements MessageClientTransport
+{
+    public static final String NAME = "loopback";
+    public static final String PREFIX = "loopback";
+
+    private final Map<String, Exchange> _exchanges = new ConcurrentHashMap<>();
+    private final LoopbackConnector _connector;
+    private volatile TransportListener _listener;
+    private Delegate _delegate;
+
+    public LoopbackTransport(Map<String, Object> options, LoopbackConnector connector)
+    {
+        super(NAME, options);
+        _connector = connector;
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    public void setMessageTransportListener(TransportListener listener)
+    {
+        _listener = listener;
+    }
+
+    @Override
+    public boolean accept(String version)
+    {
+        return true;
+    }
+
+    @Override
+    public void abort()
+    {
+        disconnect(new IOException("Aborted"));
+    }
+
+    @Override
+    public void terminate()
+    {
+        disconnect(new EOFException("Terminated"));
+        super.terminate();
+    }
+
+    @Override
+    public void send(TransportListener listener, List<Message.Mutable> messages)
+    {
+        Delegate delegate;
+        try
+        {
+            delegate = getDelegate();
+        }
+        catch (Throwable x)
+        {
+            listener.onFailure(x, messages);
+            return;
+        }
+
+        for (Message.Mutable message : messages)
+            _exchanges.put(message.getId(), new Exchange(message, listener));
+
+        try
+        {
+            String content = generateJSON(messages);
+
+            // The onSending() callback must be invoked before the actual send
+            // otherwise the reply may arrive before onSending() is called.
+            if (logger.isDebugEnabled())
+                logger.debug("Sending messages {}", content);
+            listener.onSending(messages);
+
+            delegate._connection.send(content);
+        }
+        catch (Throwable x)
+        {
+            fail(delegate, x);
+        }
+    }
+
+    private Delegate getDelegate()
+    {
+        synchronized (this)
+        {
+            if (_delegate == null)
+            {
+                Delegate delegate = new Delegate();
+                delegate._connection = _connector.connect(delegate);
+                _delegate = delegate;
+            }
+            return _delegate;
+        }
+    }
+
+    private boolean detach(Delegate delegate)
+    {
+        synchronized (this)
+        {
+            boolean attached = delegate == _delegate;
+            if (attached)
+                _delegate = null;
+            return attached;
+        }
+    }
+
+    private void disconnect(Throwable failure)
+    {
+        Delegate delegate;
+        synchronized (this)
+        {
+            delegate = _delegate;
+        }
+        if (delegate != null)
+            fail(delegate, failure);
+    }
+
+    private void fail(Delegate delegate, Throwable failure)
+    {
+        if (detach(delegate))
+        {
+            delegate._connection.close();
+            failMessages(failure);
+        }
+    }
+
+    private void failMessages(Throwable failure)
+    {
+        for (Exchange exchange : new ArrayList<>(_exchanges.values()))
+        {
+            Message.Mutable message = exchange.message;
+            if (_exchanges.remove(message.getId(), exchange))
+                exchange.listener.onFailure(failure, Collections.singletonList(message));
+        }
+    }
+
+    private void onMessages(List<Message.Mutable> messages)
+    {
+        for (Message.Mutable message : messages)
+        {
+            if (message.isMeta() || message.isPublishReply())
+            {
+                Exchange exchange = _exchanges.remove(message.getId());
+                if (exchange != null)
+                {
+                    exchange.listener.onMessages(Collections.singletonList(message));
+                }
+                else
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Could not find request for reply {}", message);
+                }
+            }
+            else
+            {
+                _listener.onMessages(Collections.singletonList(message));
+            }
+        }
+    }
+
+    private class Delegate implements LoopbackConnector.Listener
+    {
+        private LoopbackConnector.Connection _connection;
+
+        @Override
+        public void onMessages(String content)
+        {
+            try
+            {
+                List<Message.Mutable> messages = parseMessages(content);
+                if (logger.isDebugEnabled())
+                    logger.debug("Received messages {}", content);
+                LoopbackTransport.this.onMessages(messages);
+            }
+            catch (ParseException x)
+            {
+                fail(this, x);
+            }
+        }
+
+        @Override
+        public void onClose()
+        {
+            if (detach(this))
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Connection closed {}", _connection);
+                failMessages(new EOFException("Connection closed"));
+            }
+        }
+    }
+
+    private static class Exchange
+    {
+        private final Message.Mutable message;
+        private final TransportListener listener;
+
+        private Exchange(Message.Mutable message, TransportListener listener)
+        {
+            this.message = message;
+            this.listener = listener;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getClass().getSimpleName() + " " + message;
+        }
+    }
+}
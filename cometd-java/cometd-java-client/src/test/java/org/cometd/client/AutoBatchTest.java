@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.transport.LongPollingTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AutoBatchTest extends ClientServerTest
+{
+    @Test
+    public void testPublishesAreAutoBatched() throws Exception
+    {
+        startServer(null);
+
+        String channelName = "/auto";
+        int count = 100;
+        final CountDownLatch serverLatch = new CountDownLatch(count);
+        bayeux.createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.MessageListener()
+        {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                serverLatch.countDown();
+                return true;
+            }
+        });
+
+        BayeuxClient client = newBayeuxClient();
+        client.setOption(BayeuxClient.AUTO_BATCH_OPTION, true);
+        client.setOption(BayeuxClient.AUTO_BATCH_WINDOW_OPTION, 10000);
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(client.isAutoBatch());
+
+        final AtomicInteger successes = new AtomicInteger();
+        final CountDownLatch clientLatch = new CountDownLatch(count);
+        ClientSessionChannel channel = client.getChannel(channelName);
+        for (int i = 0; i < count; ++i)
+        {
+            channel.publish(i, new ClientSessionChannel.MessageListener()
+            {
+                @Override
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    if (message.isSuccessful())
+                        successes.incrementAndGet();
+                    clientLatch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(serverLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(clientLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(count, successes.get());
+        Assert.assertTrue(client.getAutoBatchCount() < count);
+        Assert.assertTrue(client.getAutoBatchMaxSize() > 1);
+        Assert.assertTrue(client.getAutoBatchAverageSize() > 1);
+        Assert.assertTrue(client.getAutoBatchMaxLatency() > 0);
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testAutoBatchesAreSentViaSendMessages() throws Exception
+    {
+        startServer(null);
+
+        final String channelName = "/auto";
+        int count = 50;
+        final AtomicInteger sentMessages = new AtomicInteger();
+        BayeuxClient client = new BayeuxClient(cometdURL, new LongPollingTransport(null, httpClient))
+        {
+            @Override
+            protected boolean sendMessages(List<Message.Mutable> messages)
+            {
+                for (Message.Mutable message : messages)
+                {
+                    if (channelName.equals(message.getChannel()))
+                        sentMessages.incrementAndGet();
+                }
+                return super.sendMessages(messages);
+            }
+        };
+        client.setOption(BayeuxClient.AUTO_BATCH_OPTION, true);
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final CountDownLatch clientLatch = new CountDownLatch(count);
+        ClientSessionChannel channel = client.getChannel(channelName);
+        for (int i = 0; i < count; ++i)
+        {
+            channel.publish(i, new ClientSessionChannel.MessageListener()
+            {
+                @Override
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    clientLatch.countDown();
+                }
+            });
+        }
+
+        Assert.assertTrue(clientLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(count, sentMessages.get());
+        Assert.assertTrue(client.getAutoBatchCount() > 0);
+
+        disconnectBayeuxClient(client);
+    }
+}
@@ -1364,6 +1364,61 @@ public class BayeuxClientTest extends ClientServerTest
         disconnectBayeuxClient(client);
     }
 
+    @Test
+    public void testMaxBufferSizeAppliesToSingleMessages() throws Exception
+    {
+        startServer(null);
+
+        Map<String, Object> options = new HashMap<>();
+        int maxBufferSize = 1024;
+        options.put(LongPollingTransport.MAX_BUFFER_SIZE_OPTION, maxBufferSize);
+        BayeuxClient client = new BayeuxClient(cometdURL, new LongPollingTransport(options, httpClient));
+
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, State.CONNECTED));
+
+        final String channelName = "/max_message_size";
+        int count = 20;
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        final CountDownLatch messageLatch = new CountDownLatch(count);
+        client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        }, new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                subscribeLatch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Many small messages delivered in a single /meta/connect
+        // response larger than the max buffer size.
+        char[] chars = new char[maxBufferSize / 4];
+        Arrays.fill(chars, '0');
+        final String data = new String(chars);
+        final ServerSession session = bayeux.getSession(client.getId());
+        session.batch(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < messageLatch.getCount(); ++i)
+                    session.deliver(null, channelName, data);
+            }
+        });
+
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        disconnectBayeuxClient(client);
+    }
+
     private class DumpThread extends Thread
     {
         public void run()
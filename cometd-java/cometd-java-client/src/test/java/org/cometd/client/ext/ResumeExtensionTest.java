@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.ext;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.ClientServerTest;
+import org.cometd.server.ext.ReplayMessagesExtension;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResumeExtensionTest extends ClientServerTest
+{
+    @Before
+    public void init() throws Exception
+    {
+        startServer(null);
+    }
+
+    @Test
+    public void testMissedMessagesAreReplayedOnReconnect() throws Exception
+    {
+        final BayeuxClient client = newBayeuxClient();
+
+        bayeux.addExtension(new ReplayMessagesExtension());
+        // Simulate messages lost in flight, before they are counted.
+        final int count = 5;
+        final int lost = 2;
+        final AtomicBoolean losing = new AtomicBoolean(true);
+        client.addExtension(new ClientSession.Extension.Adapter()
+        {
+            @Override
+            public boolean rcv(ClientSession session, Message.Mutable message)
+            {
+                Object data = message.getData();
+                return !losing.get() || !"hello_3".equals(data) && !"hello_4".equals(data);
+            }
+        });
+        ResumeExtension extension = new ResumeExtension();
+        client.addExtension(extension);
+
+        final String channelName = "/chat/demo";
+        final BlockingQueue<Message> messages = new BlockingArrayQueue<>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        client.handshake(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                {
+                    client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener()
+                    {
+                        public void onMessage(ClientSessionChannel channel, Message message)
+                        {
+                            messages.add(message);
+                        }
+                    }, new ClientSessionChannel.MessageListener()
+                    {
+                        public void onMessage(ClientSessionChannel channel, Message message)
+                        {
+                            subscribed.countDown();
+                        }
+                    });
+                }
+            }
+        });
+        Assert.assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+        ServerChannel chatChannel = bayeux.getChannel(channelName);
+        for (int i = 0; i < count; ++i)
+            chatChannel.publish(null, "hello_" + i);
+
+        for (int i = 0; i < count - lost; ++i)
+            Assert.assertEquals("hello_" + i, messages.poll(5, TimeUnit.SECONDS).getData());
+        Assert.assertNull(messages.poll(1, TimeUnit.SECONDS));
+        Assert.assertEquals(count - lost, extension.getReceivedMessages());
+        String sessionId = client.getId();
+        losing.set(false);
+
+        int port = connector.getLocalPort();
+        connector.stop();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.UNCONNECTED));
+
+        connector.setPort(port);
+        connector.start();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // The session has been resumed and the lost messages replayed.
+        Assert.assertEquals(sessionId, client.getId());
+        for (int i = count - lost; i < count; ++i)
+            Assert.assertEquals("hello_" + i, messages.poll(5, TimeUnit.SECONDS).getData());
+        Assert.assertEquals(count, extension.getReceivedMessages());
+
+        disconnectBayeuxClient(client);
+    }
+}
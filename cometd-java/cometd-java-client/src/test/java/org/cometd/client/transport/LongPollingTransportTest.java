@@ -41,6 +41,7 @@ import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -429,4 +430,95 @@ public class LongPollingTransportTest
             serverSocket.close();
         }
     }
+
+    @Test
+    public void testLastMessagesAreNotifiedWhenResponseCompletes() throws Exception
+    {
+        final long delay = 1000;
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final AtomicReference<Exception> serverException = new AtomicReference<>();
+        final CountDownLatch firstLatch = new CountDownLatch(1);
+        Thread serverThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Socket socket = serverSocket.accept();
+
+                    OutputStream output = socket.getOutputStream();
+                    output.write((
+                            "HTTP/1.1 200 OK\r\n" +
+                                    "Connection: close\r\n" +
+                                    "Content-Type: application/json;charset=UTF-8\r\n" +
+                                    "Transfer-Encoding: chunked\r\n" +
+                                    "\r\n").getBytes("UTF-8"));
+                    writeChunk(output, "[{\"channel\":\"/foo\",\"data\":1},");
+                    output.flush();
+                    firstLatch.await(5, TimeUnit.SECONDS);
+
+                    writeChunk(output, "{\"id\":\"1\",\"channel\":\"/meta/connect\",\"successful\":true}]");
+                    output.flush();
+                    Thread.sleep(delay);
+
+                    output.write("0\r\n\r\n".getBytes("UTF-8"));
+                    output.flush();
+                    socket.close();
+                }
+                catch (Exception x)
+                {
+                    serverException.set(x);
+                }
+            }
+        };
+        serverThread.start();
+        final String serverURL = "http://localhost:" + serverSocket.getLocalPort();
+
+        try
+        {
+            HttpClientTransport transport = new LongPollingTransport(null, httpClient);
+            transport.setURL(serverURL);
+            transport.setCookieStore(new HttpCookieStore());
+            transport.init();
+
+            final CountDownLatch replyLatch = new CountDownLatch(1);
+            List<Message.Mutable> messages = new ArrayList<>(1);
+            messages.add(new HashMapMessage());
+            transport.send(new TransportListener.Empty()
+            {
+                @Override
+                public void onMessages(List<Message.Mutable> messages)
+                {
+                    for (Message.Mutable message : messages)
+                    {
+                        if (message.isMeta())
+                            replyLatch.countDown();
+                        else
+                            firstLatch.countDown();
+                    }
+                }
+            }, messages);
+
+            // The first messages are notified before the response completes.
+            assertTrue(firstLatch.await(5, TimeUnit.SECONDS));
+            // The reply is notified only after the response completes.
+            assertFalse(replyLatch.await(delay / 2, TimeUnit.MILLISECONDS));
+            assertTrue(replyLatch.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            serverThread.join();
+            assertNull(serverException.get());
+            serverSocket.close();
+        }
+    }
+
+    private void writeChunk(OutputStream output, String chunk) throws Exception
+    {
+        byte[] bytes = chunk.getBytes("UTF-8");
+        output.write((Integer.toHexString(bytes.length) + "\r\n").getBytes("UTF-8"));
+        output.write(bytes);
+        output.write("\r\n".getBytes("UTF-8"));
+    }
 }
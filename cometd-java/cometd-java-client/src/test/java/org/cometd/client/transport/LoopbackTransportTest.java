@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoopbackTransportTest
+{
+    @Rule
+    public final TestWatcher testName = new TestWatcher()
+    {
+        @Override
+        protected void starting(Description description)
+        {
+            super.starting(description);
+            System.err.printf("Running %s.%s%n", description.getTestClass().getName(), description.getMethodName());
+        }
+    };
+    private BayeuxServerImpl bayeux;
+    private org.cometd.server.transport.LoopbackTransport serverTransport;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        bayeux = new BayeuxServerImpl();
+        bayeux.setOption(AbstractServerTransport.TIMEOUT_OPTION, 1000L);
+        serverTransport = new org.cometd.server.transport.LoopbackTransport(bayeux);
+        bayeux.addTransport(serverTransport);
+        bayeux.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    private BayeuxClient newBayeuxClient()
+    {
+        return new BayeuxClient("loopback://", new LoopbackTransport(null, serverTransport));
+    }
+
+    @Test
+    public void testType()
+    {
+        ClientTransport transport = new LoopbackTransport(null, serverTransport);
+        assertEquals("loopback", transport.getName());
+    }
+
+    @Test
+    public void testHandshakeSubscribePublishDisconnect() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        String channelName = "/foo";
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if ("data".equals(message.getData()))
+                    messageLatch.countDown();
+            }
+        }, new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    subscribeLatch.countDown();
+            }
+        });
+        assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bayeux.getChannel(channelName).getSubscribers().size());
+
+        client.getChannel(channelName).publish("data");
+        assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        assertTrue(client.disconnect(1000));
+        assertEquals(0, bayeux.getSessions().size());
+    }
+
+    @Test
+    public void testMetaConnectIsHeldAndServerExtensionsApply() throws Exception
+    {
+        // Records when each /meta/connect is received and how long
+        // the server held it before the extension saw the reply.
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicLong connectReceived = new AtomicLong();
+        final List<Long> connectHeld = new CopyOnWriteArrayList<>();
+        final CountDownLatch connectRepliesLatch = new CountDownLatch(3);
+        bayeux.addExtension(new BayeuxServer.Extension.Adapter()
+        {
+            @Override
+            public boolean rcvMeta(ServerSession from, ServerMessage.Mutable message)
+            {
+                if (Channel.META_CONNECT.equals(message.getChannel()))
+                {
+                    connects.incrementAndGet();
+                    connectReceived.set(System.nanoTime());
+                }
+                return true;
+            }
+
+            @Override
+            public boolean sendMeta(ServerSession to, ServerMessage.Mutable message)
+            {
+                if (Channel.META_CONNECT.equals(message.getChannel()))
+                {
+                    connectHeld.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectReceived.get()));
+                    connectRepliesLatch.countDown();
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // The first /meta/connect is replied immediately, the
+        // following ones are held by the server for 1 second.
+        assertTrue(connectRepliesLatch.await(5, TimeUnit.SECONDS));
+        assertTrue(connects.get() >= 3);
+        for (int i = 1; i < 3; ++i)
+            assertTrue("held: " + connectHeld, connectHeld.get(i) >= 900);
+
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        client.getChannel("/bar").subscribe(new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        }, new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    subscribeLatch.countDown();
+            }
+        });
+        assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // The message is delivered to the held /meta/connect, which
+        // must be woken up well before the 1 second it is held for.
+        bayeux.getChannel("/bar").publish(null, "server_data");
+        assertTrue(messageLatch.await(500, TimeUnit.MILLISECONDS));
+
+        assertTrue(client.disconnect(1000));
+    }
+
+    @Test
+    public void testServerStopClosesConnections() throws Exception
+    {
+        BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        assertEquals(1, serverTransport.getConnectionCount());
+
+        bayeux.stop();
+
+        assertTrue(client.waitFor(5000, BayeuxClient.State.UNCONNECTED, BayeuxClient.State.REHANDSHAKING));
+        assertEquals(0, serverTransport.getConnectionCount());
+
+        client.disconnect();
+        assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+    }
+}
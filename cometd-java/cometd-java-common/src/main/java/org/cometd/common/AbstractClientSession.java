@@ -49,6 +49,7 @@ public abstract class AbstractClientSession implements ClientSession
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
     private final AttributesMap _attributes = new AttributesMap();
     private final ConcurrentMap<String, AbstractSessionChannel> _channels = new ConcurrentHashMap<>();
+    private final ChannelNode _channelTree = new ChannelNode();
     private final Map<String, ClientSessionChannel.MessageListener> _callbacks = new ConcurrentHashMap<>();
     private final Map<String, ClientSessionChannel.MessageListener> _subscribers = new ConcurrentHashMap<>();
     private final AtomicInteger _batch = new AtomicInteger();
@@ -133,9 +134,17 @@ public abstract class AbstractClientSession implements ClientSession
             if (channelId == null)
                 channelId = newChannelId(channelName);
             AbstractSessionChannel newChannel = newChannel(channelId);
-            channel = _channels.putIfAbsent(channelName, newChannel);
-            if (channel == null)
-                channel = newChannel;
+            // Channels are added to and removed from the map and
+            // the tree atomically; lookups in the tree are lock-free.
+            synchronized (_channelTree)
+            {
+                channel = _channels.putIfAbsent(channelName, newChannel);
+                if (channel == null)
+                {
+                    channel = newChannel;
+                    _channelTree.add(channelId, 0, channel);
+                }
+            }
         }
         return channel;
     }
@@ -243,23 +252,52 @@ public abstract class AbstractClientSession implements ClientSession
 
     protected void notifyListeners(Message.Mutable message)
     {
-        MarkedReference<AbstractSessionChannel> channelRef = getReleasableChannel(message.getChannel());
-        AbstractSessionChannel channel = channelRef.getReference();
-        channel.notifyMessageListeners(message);
-        if (channelRef.isMarked())
-            channel.release();
+        String channelName = message.getChannel();
+        // Meta channels are always cached, see getReleasableChannel().
+        if (ChannelId.isMeta(channelName))
+            getChannel(channelName);
+        // Channels that are not in the tree have no listeners, so it is
+        // enough to notify the exact and wild channels found in the tree.
+        ChannelId channelId = newChannelId(channelName);
+        notifyListeners(_channelTree, channelId, 0, !channelId.isWild(), message);
+    }
+
+    private void notifyListeners(ChannelNode node, ChannelId channelId, int index, boolean wilds, Message.Mutable message)
+    {
+        int depth = channelId.depth();
+        if (index == depth)
+        {
+            notifyMessageListeners(node.channel, message);
+            return;
+        }
 
-        ChannelId channelId = channel.getChannelId();
-        for (String wildChannelName : channelId.getWilds())
+        // Wild channels do not match beyond template segments, see ChannelId.getWilds().
+        String segment = channelId.getSegment(index);
+        ChannelNode child = node.children.get(segment);
+        if (child != null)
+            notifyListeners(child, channelId, index + 1, wilds && !isTemplate(segment), message);
+
+        // Notify in the same order of ChannelId.getWilds(): first the
+        // shallow wild of the parent, then the deep wilds up to the root.
+        if (wilds)
         {
-            MarkedReference<AbstractSessionChannel> wildChannelRef = getReleasableChannel(wildChannelName);
-            AbstractSessionChannel wildChannel = wildChannelRef.getReference();
-            wildChannel.notifyMessageListeners(message);
-            if (wildChannelRef.isMarked())
-                wildChannel.release();
+            if (index == depth - 1)
+                notifyMessageListeners(node.channel(ChannelId.WILD), message);
+            notifyMessageListeners(node.channel(ChannelId.DEEPWILD), message);
         }
     }
 
+    private void notifyMessageListeners(AbstractSessionChannel channel, Message.Mutable message)
+    {
+        if (channel != null)
+            channel.notifyMessageListeners(message);
+    }
+
+    private static boolean isTemplate(String segment)
+    {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
     protected void notifyListener(ClientSessionChannel.MessageListener listener, Message.Mutable message)
     {
         MarkedReference<AbstractSessionChannel> channelRef = getReleasableChannel(message.getChannel());
@@ -423,7 +461,13 @@ public abstract class AbstractClientSession implements ClientSession
 
             if (_subscriptions.isEmpty() && _listeners.isEmpty())
             {
-                boolean removed = _channels.remove(getId(), this);
+                boolean removed;
+                synchronized (_channelTree)
+                {
+                    removed = _channels.remove(getId(), this);
+                    if (removed)
+                        _channelTree.remove(_id, 0, this);
+                }
                 _released = removed;
                 return removed;
             }
@@ -565,4 +609,56 @@ public abstract class AbstractClientSession implements ClientSession
             return _id.toString();
         }
     }
+
+    /**
+     * <p>A node of the tree of channels, indexed by channel segment, so that
+     * the exact and wild channels matching a message are found in one walk.</p>
+     * <p>Nodes are modified with the lock of the root node held.</p>
+     */
+    private static class ChannelNode
+    {
+        private final ConcurrentMap<String, ChannelNode> children = new ConcurrentHashMap<>();
+        private volatile AbstractSessionChannel channel;
+
+        private AbstractSessionChannel channel(String segment)
+        {
+            ChannelNode child = children.get(segment);
+            return child == null ? null : child.channel;
+        }
+
+        private void add(ChannelId channelId, int index, AbstractSessionChannel channel)
+        {
+            if (index == channelId.depth())
+            {
+                this.channel = channel;
+                return;
+            }
+            String segment = channelId.getSegment(index);
+            ChannelNode child = children.get(segment);
+            if (child == null)
+            {
+                child = new ChannelNode();
+                children.put(segment, child);
+            }
+            child.add(channelId, index + 1, channel);
+        }
+
+        private boolean remove(ChannelId channelId, int index, AbstractSessionChannel channel)
+        {
+            if (index == channelId.depth())
+            {
+                if (this.channel == channel)
+                    this.channel = null;
+            }
+            else
+            {
+                String segment = channelId.getSegment(index);
+                ChannelNode child = children.get(segment);
+                if (child != null && child.remove(channelId, index + 1, channel))
+                    children.remove(segment);
+            }
+            // Tell the parent whether this node can be pruned.
+            return this.channel == null && children.isEmpty();
+        }
+    }
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A bounded, concurrent cache of resolved {@link ChannelId}s, keyed by channel name.</p>
+ * <p>{@link ChannelId}s returned by this cache have their segments, wilds and parent
+ * already computed, so that the cost of parsing a channel name is paid once per
+ * distinct channel name rather than once per message.</p>
+ * <p>Lookups are lock-free; when the cache is full, insertions evict an entry
+ * that has not been recently used, using the CLOCK algorithm.
+ * The cache is divided in stripes by channel name hash, each with its own clock
+ * and lock, so that insertions of different channels rarely contend.
+ * The clock sweep of an insertion is bounded: if it does not find an entry that
+ * has not been recently used, the cache is thrashing and the channel is not cached.</p>
+ * <p>A JVM-wide instance shared by server and client code is available via
+ * {@link #getInstance()}; its capacity can be configured with the
+ * {@value #CAPACITY_PROPERTY} system property.</p>
+ * <p>Hit and miss statistics are disabled by default, since counting every lookup
+ * on shared counters adds contention between cores on the message hot path;
+ * they can be enabled via {@link #setStatisticsEnabled(boolean)}.</p>
+ */
+public class ChannelIdCache
+{
+    public static final String CAPACITY_PROPERTY = "org.cometd.common.ChannelIdCache.capacity";
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final ChannelIdCache INSTANCE = new ChannelIdCache(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    private static final int MAX_STRIPES = 16;
+    private static final int MIN_STRIPE_CAPACITY = 64;
+    private static final int MAX_SWEEP = 16;
+
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _skips = new AtomicLong();
+    private final Stripe[] _stripes;
+    private final int _capacity;
+    private volatile boolean _statisticsEnabled;
+
+    public ChannelIdCache(int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        _capacity = capacity;
+        // A power of 2 number of stripes, so that small caches have only one clock.
+        int stripes = 1;
+        while (stripes < MAX_STRIPES && capacity / (2 * stripes) >= MIN_STRIPE_CAPACITY)
+            stripes *= 2;
+        _stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; ++i)
+            _stripes[i] = new Stripe(capacity / stripes + (i < capacity % stripes ? 1 : 0));
+    }
+
+    /**
+     * @return the JVM-wide shared instance
+     */
+    public static ChannelIdCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * <p>Returns the {@link ChannelId} for the given channel name, creating and
+     * caching it if it is not already present in this cache.</p>
+     * <p>Invalid channel names are not cached; the {@link ChannelId} returned
+     * for them will throw {@link IllegalArgumentException} when it is used,
+     * like a {@link ChannelId} created via its constructor.</p>
+     *
+     * @param channelName the channel name
+     * @return the {@link ChannelId} for the given channel name
+     * @throws IllegalArgumentException if the channel name is not a valid channel id
+     */
+    public ChannelId get(String channelName)
+    {
+        if (channelName == null)
+            return new ChannelId(channelName);
+
+        Entry entry = _entries.get(channelName);
+        if (entry != null)
+        {
+            if (_statisticsEnabled)
+                _hits.incrementAndGet();
+            // Avoid writing to the shared entry if not necessary.
+            if (!entry.referenced)
+                entry.referenced = true;
+            return entry.channelId;
+        }
+
+        if (_statisticsEnabled)
+            _misses.incrementAndGet();
+        ChannelId channelId = new ChannelId(channelName);
+        try
+        {
+            // Forces the resolution of the channel segments.
+            channelId.depth();
+        }
+        catch (IllegalArgumentException x)
+        {
+            return channelId;
+        }
+
+        int hash = channelName.hashCode();
+        Stripe stripe = _stripes[(hash ^ (hash >>> 16)) & (_stripes.length - 1)];
+        synchronized (stripe)
+        {
+            // Only this stripe inserts this channel name.
+            entry = _entries.get(channelName);
+            if (entry != null)
+                return entry.channelId;
+            if (stripe.evict(new Entry(channelName, channelId)))
+                return channelId;
+        }
+        if (_statisticsEnabled)
+            _skips.incrementAndGet();
+        return channelId;
+    }
+
+    /**
+     * @return the max number of {@link ChannelId}s held by this cache
+     */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /**
+     * @return the number of {@link ChannelId}s currently held by this cache
+     */
+    public int getSize()
+    {
+        return _entries.size();
+    }
+
+    /**
+     * @return whether hit and miss statistics are recorded
+     */
+    public boolean isStatisticsEnabled()
+    {
+        return _statisticsEnabled;
+    }
+
+    /**
+     * @param statisticsEnabled whether hit and miss statistics are recorded
+     */
+    public void setStatisticsEnabled(boolean statisticsEnabled)
+    {
+        _statisticsEnabled = statisticsEnabled;
+    }
+
+    /**
+     * @return the number of lookups that found the {@link ChannelId} in this cache
+     */
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /**
+     * @return the number of lookups that did not find the {@link ChannelId} in this cache
+     */
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /**
+     * @return the number of misses whose {@link ChannelId} was not cached because the cache was thrashing
+     */
+    public long getSkips()
+    {
+        return _skips.get();
+    }
+
+    /**
+     * @return the ratio of hits over the total number of lookups, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    /**
+     * <p>Removes all the {@link ChannelId}s from this cache and resets the statistics.</p>
+     */
+    public void clear()
+    {
+        for (Stripe stripe : _stripes)
+        {
+            synchronized (stripe)
+            {
+                for (int i = 0; i < stripe.clock.length; ++i)
+                {
+                    Entry entry = stripe.clock[i];
+                    if (entry != null)
+                        _entries.remove(entry.channelName, entry);
+                    stripe.clock[i] = null;
+                }
+                stripe.hand = 0;
+            }
+        }
+        _hits.set(0);
+        _misses.set(0);
+        _skips.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[size=%d/%d,hitRate=%.3f]",
+                getClass().getSimpleName(), hashCode(), getSize(), getCapacity(), getHitRate());
+    }
+
+    private class Stripe
+    {
+        private final Entry[] clock;
+        private int hand;
+
+        private Stripe(int capacity)
+        {
+            clock = new Entry[capacity];
+        }
+
+        /**
+         * <p>Sweeps the clock, giving a second chance to referenced entries,
+         * and replaces the first entry that has not been recently used.</p>
+         *
+         * @param candidate the entry to insert
+         * @return whether the candidate has been inserted, or false if
+         * all the entries swept have been recently used
+         */
+        private boolean evict(Entry candidate)
+        {
+            for (int i = 0, sweep = Math.min(clock.length, MAX_SWEEP); i < sweep; ++i)
+            {
+                Entry entry = clock[hand];
+                if (entry == null || !entry.referenced)
+                {
+                    if (entry != null)
+                        _entries.remove(entry.channelName, entry);
+                    _entries.put(candidate.channelName, candidate);
+                    clock[hand] = candidate;
+                    hand = (hand + 1) % clock.length;
+                    return true;
+                }
+                entry.referenced = false;
+                hand = (hand + 1) % clock.length;
+            }
+            return false;
+        }
+    }
+
+    private static class Entry
+    {
+        private final String channelName;
+        private final ChannelId channelId;
+        private volatile boolean referenced;
+
+        private Entry(String channelName, ChannelId channelId)
+        {
+            this.channelName = channelName;
+            this.channelId = channelId;
+        }
+    }
+}
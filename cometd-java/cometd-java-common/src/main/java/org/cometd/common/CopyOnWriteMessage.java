@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Message;
+
+/**
+ * <p>A {@link Message.Mutable} view of another message that copies the
+ * other message only when it is modified.</p>
+ * <p>Read operations are forwarded to the wrapped message until the first
+ * modification; at that point the wrapped message is copied into a
+ * {@link HashMapMessage} and all subsequent operations are performed on
+ * the copy, leaving the wrapped message untouched.</p>
+ * <p>The maps returned by {@link #getDataAsMap()}, {@link #getExt()} and
+ * {@link #getAdvice()} are those of the wrapped message, and must be
+ * treated as read-only; the {@code create} variants of those methods
+ * return maps that can be modified.</p>
+ * <p>The {@link #entrySet() entry set} of this message is read-only.</p>
+ */
+public class CopyOnWriteMessage extends AbstractMap<String, Object> implements Message.Mutable
+{
+    private final Message _message;
+    private HashMapMessage _copy;
+
+    public CopyOnWriteMessage(Message message)
+    {
+        _message = message;
+    }
+
+    /**
+     * @return whether this message has been modified, and therefore copied
+     */
+    public boolean isCopied()
+    {
+        return _copy != null;
+    }
+
+    private Message current()
+    {
+        Message copy = _copy;
+        return copy == null ? _message : copy;
+    }
+
+    private HashMapMessage copy()
+    {
+        if (_copy == null)
+            _copy = new HashMapMessage(_message);
+        return _copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> copyField(String field, Map<String, Object> value)
+    {
+        // The copy is shallow, so maps shared with the
+        // wrapped message must be copied before modifications.
+        if (value != null && value == _message.get(field))
+        {
+            value = new HashMap<>(value);
+            _copy.put(field, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        return current().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return current().containsKey(key);
+    }
+
+    @Override
+    public int size()
+    {
+        return current().size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        return Collections.unmodifiableMap(current()).entrySet();
+    }
+
+    @Override
+    public Object put(String key, Object value)
+    {
+        return copy().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key)
+    {
+        if (_copy == null && !_message.containsKey(key))
+            return null;
+        return copy().remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        copy().clear();
+    }
+
+    public Map<String, Object> getAdvice()
+    {
+        return current().getAdvice();
+    }
+
+    public String getChannel()
+    {
+        return current().getChannel();
+    }
+
+    public ChannelId getChannelId()
+    {
+        return current().getChannelId();
+    }
+
+    public String getClientId()
+    {
+        return current().getClientId();
+    }
+
+    public Object getData()
+    {
+        return current().getData();
+    }
+
+    public boolean isMeta()
+    {
+        return current().isMeta();
+    }
+
+    public boolean isPublishReply()
+    {
+        return current().isPublishReply();
+    }
+
+    public boolean isSuccessful()
+    {
+        return current().isSuccessful();
+    }
+
+    public Map<String, Object> getDataAsMap()
+    {
+        return current().getDataAsMap();
+    }
+
+    public Map<String, Object> getExt()
+    {
+        return current().getExt();
+    }
+
+    public String getId()
+    {
+        return current().getId();
+    }
+
+    public String getJSON()
+    {
+        // Until it is copied, the wrapped message may have
+        // its JSON representation already available.
+        return current().getJSON();
+    }
+
+    public Map<String, Object> getAdvice(boolean create)
+    {
+        HashMapMessage copy = copy();
+        return copyField(ADVICE_FIELD, copy.getAdvice(create));
+    }
+
+    public Map<String, Object> getDataAsMap(boolean create)
+    {
+        HashMapMessage copy = copy();
+        return copyField(DATA_FIELD, copy.getDataAsMap(create));
+    }
+
+    public Map<String, Object> getExt(boolean create)
+    {
+        HashMapMessage copy = copy();
+        return copyField(EXT_FIELD, copy.getExt(create));
+    }
+
+    public void setChannel(String channel)
+    {
+        copy().setChannel(channel);
+    }
+
+    public void setClientId(String clientId)
+    {
+        copy().setClientId(clientId);
+    }
+
+    public void setData(Object data)
+    {
+        copy().setData(data);
+    }
+
+    public void setId(String id)
+    {
+        copy().setId(id);
+    }
+
+    public void setSuccessful(boolean successful)
+    {
+        copy().setSuccessful(successful);
+    }
+}
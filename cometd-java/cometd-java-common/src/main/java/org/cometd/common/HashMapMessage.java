@@ -48,7 +48,7 @@ public class HashMapMessage extends HashMap<String, Object> implements Message.M
 
     public ChannelId getChannelId()
     {
-        return new ChannelId(getChannel());
+        return ChannelIdCache.getInstance().get(getChannel());
     }
 
     public String getClientId()
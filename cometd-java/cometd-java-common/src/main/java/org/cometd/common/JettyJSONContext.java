@@ -15,6 +15,7 @@
  */
 package org.cometd.common;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -29,8 +30,10 @@ import org.eclipse.jetty.util.ajax.JSON;
 public abstract class JettyJSONContext<T extends Message.Mutable>
 {
     private final FieldJSON _jsonParser = new FieldJSON();
+    private final FieldJSON _dataParser = new DataJSON();
     private final FieldJSON _messageParser = new MessageJSON();
     private final FieldJSON _messagesParser = new MessagesJSON();
+    private volatile boolean _retainDataJSON;
 
     protected JettyJSONContext()
     {
@@ -41,6 +44,37 @@ public abstract class JettyJSONContext<T extends Message.Mutable>
         return _jsonParser;
     }
 
+    /**
+     * @return whether the JSON text of the data of parsed messages is retained
+     * @see #setRetainDataJSON(boolean)
+     */
+    public boolean isRetainDataJSON()
+    {
+        return _retainDataJSON;
+    }
+
+    /**
+     * <p>When enabled, the data of parsed messages, if it is a JSON object, retains
+     * its JSON text, which is then written as is when the data is generated again,
+     * for example when a message is received and then republished, until the data
+     * map is modified.</p>
+     * <p>Modifications of nested objects are not detected: the data map must be
+     * modified at the top level, for example by replacing the nested object.</p>
+     *
+     * @param retainDataJSON whether the JSON text of the data of parsed messages is retained
+     */
+    public void setRetainDataJSON(boolean retainDataJSON)
+    {
+        _retainDataJSON = retainDataJSON;
+    }
+
+    private JSON contextForField(String field)
+    {
+        if (isRetainDataJSON() && Message.DATA_FIELD.equals(field))
+            return _dataParser;
+        return getJSON();
+    }
+
     protected abstract T newRoot();
 
     protected abstract T[] newRootArray(int size);
@@ -118,6 +152,98 @@ public abstract class JettyJSONContext<T extends Message.Mutable>
         {
             return super.getConvertor(forClass);
         }
+
+        @Override
+        public void appendMap(Appendable buffer, Map<?, ?> map)
+        {
+            if (map instanceof RawJSONMap)
+            {
+                String json = ((RawJSONMap)map).getJSON();
+                if (json != null)
+                {
+                    try
+                    {
+                        buffer.append(json);
+                        return;
+                    }
+                    catch (IOException x)
+                    {
+                        throw new RuntimeException(x);
+                    }
+                }
+            }
+            super.appendMap(buffer, map);
+        }
+    }
+
+    private class DataJSON extends FieldJSON
+    {
+        @Override
+        public Object parse(Source source)
+        {
+            RecordingSource recording = new RecordingSource(source);
+            Object result = super.parse(recording);
+            if (result instanceof RawJSONMap)
+                ((RawJSONMap)result).setJSON(recording.toString().trim());
+            return result;
+        }
+
+        @Override
+        protected Map<String, Object> newMap()
+        {
+            return new RawJSONMap();
+        }
+
+        @Override
+        protected JSON contextFor(String field)
+        {
+            return getJSON();
+        }
+
+        @Override
+        protected JSON contextForArray()
+        {
+            return getJSON();
+        }
+    }
+
+    private static class RecordingSource implements JSON.Source
+    {
+        private final StringBuilder recorded = new StringBuilder();
+        private final JSON.Source source;
+
+        private RecordingSource(JSON.Source source)
+        {
+            this.source = source;
+        }
+
+        public boolean hasNext()
+        {
+            return source.hasNext();
+        }
+
+        public char next()
+        {
+            char c = source.next();
+            recorded.append(c);
+            return c;
+        }
+
+        public char peek()
+        {
+            return source.peek();
+        }
+
+        public char[] scratchBuffer()
+        {
+            return source.scratchBuffer();
+        }
+
+        @Override
+        public String toString()
+        {
+            return recorded.toString();
+        }
     }
 
     private class MessageJSON extends FieldJSON
@@ -131,7 +257,7 @@ public abstract class JettyJSONContext<T extends Message.Mutable>
         @Override
         protected JSON contextFor(String field)
         {
-            return getJSON();
+            return contextForField(field);
         }
 
         @Override
@@ -158,7 +284,7 @@ public abstract class JettyJSONContext<T extends Message.Mutable>
         @Override
         protected JSON contextFor(String field)
         {
-            return getJSON();
+            return contextForField(field);
         }
 
         @Override
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+/**
+ * <p>A {@link LoopbackConnector} links a client transport and a server transport
+ * that live in the same JVM, without any network in between.</p>
+ * <p>The two sides exchange batches of Bayeux messages in their JSON form, so that
+ * the full Bayeux protocol (handshake, connect, advices, extensions) applies
+ * exactly like it does for network transports.</p>
+ * <p>Batches sent via {@link Connection#send(String)} are processed asynchronously
+ * by the other side, in the same order they have been sent.</p>
+ */
+public interface LoopbackConnector
+{
+    /**
+     * <p>Opens a new connection.</p>
+     *
+     * @param listener the listener notified of the batches arriving from the other side
+     * @return a new connection
+     * @throws IllegalStateException if this connector is not able to open connections
+     */
+    public Connection connect(Listener listener);
+
+    /**
+     * <p>The sending side of a loopback connection.</p>
+     */
+    public interface Connection
+    {
+        /**
+         * <p>Sends the given batch of messages to the other side.</p>
+         *
+         * @param content the JSON array of messages to send
+         * @throws IllegalStateException if this connection is closed
+         */
+        public void send(String content);
+
+        /**
+         * <p>Closes this connection; the other side is notified via {@link Listener#onClose()}.</p>
+         */
+        public void close();
+    }
+
+    /**
+     * <p>The receiving side of a loopback connection.</p>
+     */
+    public interface Listener
+    {
+        /**
+         * <p>Callback method invoked when a batch of messages arrives from the other side.</p>
+         *
+         * @param content the JSON array of messages received
+         */
+        public void onMessages(String content);
+
+        /**
+         * <p>Callback method invoked when the connection is closed by the other side.</p>
+         */
+        public void onClose();
+    }
+}
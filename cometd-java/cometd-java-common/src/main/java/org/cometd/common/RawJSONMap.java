@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A map parsed from JSON that retains the JSON text it has been parsed from,
+ * so that it can be generated again without walking its entries.</p>
+ * <p>The JSON text is discarded as soon as the map is modified, or as soon as
+ * one of its views, that would allow modifications, is requested.</p>
+ *
+ * @see JettyJSONContext#setRetainDataJSON(boolean)
+ */
+class RawJSONMap extends HashMap<String, Object>
+{
+    private static final long serialVersionUID = -2837146405946405382L;
+
+    private transient volatile String _json;
+
+    String getJSON()
+    {
+        return _json;
+    }
+
+    void setJSON(String json)
+    {
+        _json = json;
+    }
+
+    @Override
+    public Object put(String key, Object value)
+    {
+        _json = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> map)
+    {
+        _json = null;
+        super.putAll(map);
+    }
+
+    @Override
+    public Object remove(Object key)
+    {
+        _json = null;
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear()
+    {
+        _json = null;
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        _json = null;
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<Object> values()
+    {
+        _json = null;
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        _json = null;
+        return super.entrySet();
+    }
+}
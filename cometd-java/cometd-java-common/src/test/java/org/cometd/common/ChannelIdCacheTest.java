@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import org.cometd.bayeux.ChannelId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ChannelIdCacheTest
+{
+    @Test
+    public void testSameInstanceIsReturned() throws Exception
+    {
+        ChannelIdCache cache = new ChannelIdCache(8);
+        cache.setStatisticsEnabled(true);
+
+        ChannelId channelId1 = cache.get("/foo/bar");
+        ChannelId channelId2 = cache.get("/foo/bar");
+        assertSame(channelId1, channelId2);
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+        assertEquals(2, channelId1.depth());
+    }
+
+    @Test
+    public void testCapacityIsBounded() throws Exception
+    {
+        int capacity = 4;
+        ChannelIdCache cache = new ChannelIdCache(capacity);
+
+        for (int i = 0; i < 4 * capacity; ++i)
+            cache.get("/foo/" + i);
+
+        assertEquals(capacity, cache.getSize());
+    }
+
+    @Test
+    public void testRecentlyUsedEntriesAreNotEvicted() throws Exception
+    {
+        ChannelIdCache cache = new ChannelIdCache(2);
+
+        ChannelId hot = cache.get("/hot");
+        cache.get("/cold1");
+        // Mark the hot entry as recently used.
+        cache.get("/hot");
+        cache.get("/cold2");
+
+        assertEquals(2, cache.getSize());
+        assertSame(hot, cache.get("/hot"));
+    }
+
+    @Test
+    public void testInvalidChannelIdsAreNotCached() throws Exception
+    {
+        ChannelIdCache cache = new ChannelIdCache(8);
+
+        ChannelId channelId1 = cache.get("/foo/*/bar");
+        ChannelId channelId2 = cache.get("/foo/*/bar");
+        assertNotSame(channelId1, channelId2);
+        assertEquals(0, cache.getSize());
+
+        try
+        {
+            channelId1.depth();
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+
+        try
+        {
+            cache.get("foo");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testStatisticsAreDisabledByDefault() throws Exception
+    {
+        ChannelIdCache cache = new ChannelIdCache(8);
+
+        cache.get("/foo/bar");
+        cache.get("/foo/bar");
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testStripedCapacityIsBounded() throws Exception
+    {
+        int capacity = 1024;
+        ChannelIdCache cache = new ChannelIdCache(capacity);
+        Assert.assertEquals(capacity, cache.getCapacity());
+
+        for (int i = 0; i < 16 * capacity; ++i)
+            cache.get("/foo/" + i);
+
+        Assert.assertTrue(cache.getSize() <= capacity);
+        Assert.assertTrue(cache.getSize() > capacity / 2);
+    }
+
+    @Test
+    public void testChannelsAreNotCachedWhenThrashing() throws Exception
+    {
+        ChannelIdCache cache = new ChannelIdCache(2);
+        cache.setStatisticsEnabled(true);
+
+        ChannelId hot1 = cache.get("/hot1");
+        ChannelId hot2 = cache.get("/hot2");
+        // Mark all the entries as recently used.
+        cache.get("/hot1");
+        cache.get("/hot2");
+
+        // The sweep finds only recently used entries, so the channel is not cached.
+        ChannelId cold1 = cache.get("/cold1");
+        assertEquals(1, cache.getSkips());
+        assertSame(hot1, cache.get("/hot1"));
+        assertSame(hot2, cache.get("/hot2"));
+        assertNotSame(cold1, cache.get("/cold1"));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import org.cometd.bayeux.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CopyOnWriteMessageTest
+{
+    private HashMapMessage newMessage()
+    {
+        HashMapMessage message = new HashMapMessage();
+        message.setChannel("/channel");
+        message.setId("id");
+        message.getDataAsMap(true).put("data1", "dataValue1");
+        message.getExt(true).put("ext1", "extValue1");
+        return message;
+    }
+
+    @Test
+    public void testReadsDoNotCopy() throws Exception
+    {
+        HashMapMessage original = newMessage();
+        CopyOnWriteMessage message = new CopyOnWriteMessage(original);
+
+        assertEquals("/channel", message.getChannel());
+        assertEquals("id", message.getId());
+        assertEquals("dataValue1", message.getDataAsMap().get("data1"));
+        assertEquals("extValue1", message.getExt().get("ext1"));
+        assertEquals(original, message);
+        assertNull(message.remove("missing"));
+
+        assertFalse(message.isCopied());
+    }
+
+    @Test
+    public void testWritesCopy() throws Exception
+    {
+        HashMapMessage original = newMessage();
+        CopyOnWriteMessage message = new CopyOnWriteMessage(original);
+
+        message.setChannel("/other");
+        assertTrue(message.isCopied());
+        assertEquals("/other", message.getChannel());
+        assertEquals("/channel", original.getChannel());
+
+        message.remove(Message.ID_FIELD);
+        assertNull(message.getId());
+        assertEquals("id", original.getId());
+    }
+
+    @Test
+    public void testNestedWritesDoNotModifyOriginal() throws Exception
+    {
+        HashMapMessage original = newMessage();
+        CopyOnWriteMessage message = new CopyOnWriteMessage(original);
+
+        message.getExt(true).put("ext2", "extValue2");
+        message.getDataAsMap(true).remove("data1");
+        message.getAdvice(true).put("reconnect", "none");
+
+        assertEquals("extValue2", message.getExt().get("ext2"));
+        assertNull(message.getDataAsMap().get("data1"));
+        assertEquals("none", message.getAdvice().get("reconnect"));
+
+        assertFalse(original.getExt().containsKey("ext2"));
+        assertEquals("dataValue1", original.getDataAsMap().get("data1"));
+        assertNull(original.getAdvice());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.Map;
+
+import org.cometd.bayeux.Message;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JettyJSONContextClientTest
+{
+    @Test
+    public void testRetainedDataJSONIsGeneratedAsIs() throws Exception
+    {
+        JettyJSONContextClient jsonContext = new JettyJSONContextClient();
+        jsonContext.setRetainDataJSON(true);
+
+        // Number formatting and escapes are not normalized when retained.
+        String data = "{\"a\":1.50,\"b\":[1,{\"c\":\"\\u0041\"}]}";
+        Message.Mutable[] messages = jsonContext.parse("[{\"channel\":\"/foo\",\"data\":" + data + "}]");
+        Assert.assertEquals(1, messages.length);
+        Map<String, Object> dataMap = messages[0].getDataAsMap();
+        Assert.assertEquals(1.5D, ((Number)dataMap.get("a")).doubleValue(), 0D);
+
+        HashMapMessage republished = new HashMapMessage();
+        republished.setChannel("/bar");
+        republished.setData(dataMap);
+        Assert.assertTrue(jsonContext.generate(republished).contains("\"data\":" + data));
+
+        // Modifications discard the retained JSON.
+        dataMap.put("d", true);
+        String json = jsonContext.generate(republished);
+        Assert.assertFalse(json.contains(data));
+        Assert.assertTrue(json.contains("\"d\":true"));
+    }
+
+    @Test
+    public void testDataJSONIsNotRetainedByDefault() throws Exception
+    {
+        JettyJSONContextClient jsonContext = new JettyJSONContextClient();
+
+        Message.Mutable[] messages = jsonContext.parse("[{\"channel\":\"/foo\",\"data\":{\"a\":1.50}}]");
+        Assert.assertFalse(messages[0].getData() instanceof RawJSONMap);
+    }
+}
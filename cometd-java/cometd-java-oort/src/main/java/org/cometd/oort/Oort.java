@@ -55,6 +55,7 @@ import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.LongPollingTransport;
 import org.cometd.common.HashMapMessage;
 import org.cometd.common.JSONContext;
+import org.cometd.common.JettyJSONContextClient;
 import org.cometd.server.authorizer.GrantAuthorizer;
 import org.cometd.server.ext.AcknowledgedMessagesExtension;
 import org.cometd.websocket.client.WebSocketTransport;
@@ -95,6 +96,7 @@ public class Oort extends ContainerLifeCycle
     public static final String EXT_OORT_SECRET_FIELD = "oortSecret";
     public static final String EXT_COMET_URL_FIELD = "cometURL";
     public static final String EXT_OORT_ALIAS_URL_FIELD = "oortAliasURL";
+    public static final String EXT_OORT_STRIPE_FIELD = "oortStripe";
     public static final String OORT_CLOUD_CHANNEL = "/oort/cloud";
     public static final String OORT_SERVICE_CHANNEL = "/service/oort";
     private static final String COMET_URL_ATTRIBUTE = EXT_OORT_FIELD + "." + EXT_COMET_URL_FIELD;
@@ -102,7 +104,11 @@ public class Oort extends ContainerLifeCycle
     private final ConcurrentMap<String, OortComet> _pendingComets = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ClientCometInfo> _clientComets = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ServerCometInfo> _serverComets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> _serverStripes = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, Boolean> _channels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> _pinnedChannels = new ConcurrentHashMap<>();
+    private final Map<String, Interest> _interests = new HashMap<>();
+    private final BayeuxServer.SubscriptionListener _interestListener = new InterestListener();
     private final CopyOnWriteArrayList<CometListener> _cometListeners = new CopyOnWriteArrayList<>();
     private final Extension _oortExtension = new OortExtension();
     private final ServerChannel.MessageListener _cloudListener = new CloudListener();
@@ -116,6 +122,9 @@ public class Oort extends ContainerLifeCycle
     private ScheduledExecutorService _scheduler;
     private String _secret;
     private boolean _ackExtensionEnabled;
+    private boolean _interestRoutingEnabled;
+    private int _cometStripes = 1;
+    private boolean _retainDataJSONEnabled;
     private Extension _ackExtension;
     private JSONContext.Client _jsonContext;
 
@@ -165,6 +174,9 @@ public class Oort extends ContainerLifeCycle
 
         _bayeux.addExtension(_oortExtension);
 
+        if (isInterestRoutingEnabled())
+            _bayeux.addListener(_interestListener);
+
         ServerChannel oortCloudChannel = _bayeux.createChannelIfAbsent(OORT_CLOUD_CHANNEL).getReference();
         oortCloudChannel.addAuthorizer(GrantAuthorizer.GRANT_ALL);
         oortCloudChannel.addListener(_cloudListener);
@@ -189,7 +201,14 @@ public class Oort extends ContainerLifeCycle
         _clientComets.clear();
 
         _serverComets.clear();
+        _serverStripes.clear();
         _channels.clear();
+        synchronized (_interests)
+        {
+            _interests.clear();
+        }
+
+        _bayeux.removeListener(_interestListener);
 
         ServerChannel channel = _bayeux.getChannel(OORT_SERVICE_CHANNEL);
         if (channel != null)
@@ -257,6 +276,106 @@ public class Oort extends ContainerLifeCycle
         _ackExtensionEnabled = value;
     }
 
+    @ManagedAttribute("Whether observed channels are routed only to nodes with local subscribers")
+    public boolean isInterestRoutingEnabled()
+    {
+        return _interestRoutingEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the interest-based routing of observed channels.</p>
+     * <p>When enabled, the {@link OortComet}s of this node subscribe to an observed channel
+     * only while there are local, non-Oort, subscribers to channels matched by the observed
+     * channel, so that remote nodes forward messages to this node only when this node can
+     * deliver them.</p>
+     * <p>Observed channels whose messages are consumed by server-side listeners, such as
+     * those used by {@link OortObject}, {@link OortService} and {@link OortPartitionedMap},
+     * must be observed as permanent via {@link #observeChannel(String, boolean)}, so that
+     * they are always routed to this node regardless of local subscriptions.</p>
+     * <p>This property must be set before this instance is started.</p>
+     *
+     * @param value whether interest-based routing is enabled
+     * @see #observeChannel(String, boolean)
+     */
+    public void setInterestRoutingEnabled(boolean value)
+    {
+        _interestRoutingEnabled = value;
+    }
+
+    @ManagedAttribute("The number of links to each other comet")
+    public int getCometStripes()
+    {
+        return _cometStripes;
+    }
+
+    /**
+     * <p>Sets the number of links that this node opens to each other comet.</p>
+     * <p>With more than one link, observed channels and the keys passed to
+     * {@link OortComet#getLink(String)} are hashed onto the links, so that messages
+     * are ordered within a link, but a slow link does not delay the others.</p>
+     * <p>This property must be set before this instance is started.</p>
+     *
+     * @param cometStripes the number of links to each other comet
+     */
+    public void setCometStripes(int cometStripes)
+    {
+        _cometStripes = Math.max(1, cometStripes);
+    }
+
+    @ManagedAttribute("Whether the JSON of the data of messages received from other comets is retained")
+    public boolean isRetainDataJSONEnabled()
+    {
+        return _retainDataJSONEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the retention of the JSON of the data of messages received
+     * from other comets, so that it is not generated again when the messages are republished
+     * by this node.</p>
+     * <p>Applications that receive messages from other comets must not modify the nested
+     * objects of the message data, since these modifications are not detected and the
+     * original JSON would be republished; see {@link JettyJSONContextClient#setRetainDataJSON(boolean)}.</p>
+     * <p>This property has no effect if a {@link #setJSONContextClient(JSONContext.Client) JSON context}
+     * is configured, and must be set before this instance is started.</p>
+     *
+     * @param value whether the JSON of the data of messages received from other comets is retained
+     */
+    public void setRetainDataJSONEnabled(boolean value)
+    {
+        _retainDataJSONEnabled = value;
+    }
+
+    /**
+     * <p>Pins the given channel to the link of another channel, so that the messages
+     * on both channels travel on the same link to and from each other comet, and
+     * therefore are received in the order they are published.</p>
+     * <p>A channel must be pinned before it is observed.</p>
+     *
+     * @param channelName the channel to pin
+     * @param linkKey the channel, or key, whose link must be used for the given channel
+     * @see #setCometStripes(int)
+     * @see #unpinChannel(String)
+     */
+    public void pinChannel(String channelName, String linkKey)
+    {
+        _pinnedChannels.put(channelName, linkKey);
+    }
+
+    /**
+     * @param channelName the channel to unpin
+     * @see #pinChannel(String, String)
+     */
+    public void unpinChannel(String channelName)
+    {
+        _pinnedChannels.remove(channelName);
+    }
+
+    String getLinkKey(String key)
+    {
+        String linkKey = _pinnedChannels.get(key);
+        return linkKey == null ? key : linkKey;
+    }
+
     public JSONContext.Client getJSONContextClient()
     {
         return _jsonContext;
@@ -328,6 +447,15 @@ public class Oort extends ContainerLifeCycle
         if (_logger.isDebugEnabled())
             _logger.debug("Connecting to comet {}", cometURL);
 
+        Message.Mutable fields = newHandshakeFields(cometURL);
+        if (cometAliasURL != null)
+            getOortExt(fields).put(EXT_OORT_ALIAS_URL_FIELD, cometAliasURL);
+        connectComet(comet, fields);
+        return comet;
+    }
+
+    private Message.Mutable newHandshakeFields(String cometURL)
+    {
         String b64Secret = encodeSecret(getSecret());
         Message.Mutable fields = new HashMapMessage();
         Map<String, Object> ext = fields.getExt(true);
@@ -337,16 +465,54 @@ public class Oort extends ContainerLifeCycle
         oortExt.put(EXT_OORT_ID_FIELD, getId());
         oortExt.put(EXT_OORT_SECRET_FIELD, b64Secret);
         oortExt.put(EXT_COMET_URL_FIELD, cometURL);
-        if (cometAliasURL != null)
-            oortExt.put(EXT_OORT_ALIAS_URL_FIELD, cometAliasURL);
-        connectComet(comet, fields);
-        return comet;
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getOortExt(Message.Mutable fields)
+    {
+        return (Map<String, Object>)fields.getExt().get(EXT_OORT_FIELD);
+    }
+
+    /**
+     * <p>Opens the additional links (stripes) to the remote comet of the given
+     * {@link OortComet}, which has just completed its first handshake.</p>
+     *
+     * @param oortComet the OortComet connected to the remote comet
+     * @see #setCometStripes(int)
+     */
+    protected void connectStripes(OortComet oortComet)
+    {
+        String cometURL = oortComet.getURL();
+        OortComet[] links = new OortComet[getCometStripes()];
+        links[0] = oortComet;
+        for (int i = 1; i < links.length; ++i)
+        {
+            OortComet stripe = newOortComet(cometURL);
+            configureOortComet(stripe);
+            links[i] = stripe;
+        }
+        oortComet.setLinks(links);
+        for (int i = 1; i < links.length; ++i)
+        {
+            if (_logger.isDebugEnabled())
+                _logger.debug("Connecting stripe {} to comet {}", i, cometURL);
+            Message.Mutable fields = newHandshakeFields(cometURL);
+            getOortExt(fields).put(EXT_OORT_STRIPE_FIELD, i);
+            connectComet(links[i], fields);
+        }
     }
 
     protected OortComet newOortComet(String cometURL)
     {
         Map<String, Object> options = new HashMap<>(2);
         JSONContext.Client jsonContext = getJSONContextClient();
+        if (jsonContext == null && isRetainDataJSONEnabled())
+        {
+            JettyJSONContextClient jettyJSONContext = new JettyJSONContextClient();
+            jettyJSONContext.setRetainDataJSON(true);
+            jsonContext = jettyJSONContext;
+        }
         if (jsonContext != null)
             options.put(ClientTransport.JSON_CONTEXT_OPTION, jsonContext);
         String maxMessageSizeOption = WebSocketTransport.PREFIX + "." + WebSocketTransport.MAX_MESSAGE_SIZE_OPTION;
@@ -482,19 +648,45 @@ public class Oort extends ContainerLifeCycle
      * to the channel and will repeat any messages published to
      * the local channel (with loop prevention), so that the
      * messages are distributed to all Oort comet servers.</p>
+     * <p>If {@link #isInterestRoutingEnabled() interest-based routing} is enabled,
+     * the {@link OortComet} instances subscribe to the channel only while there
+     * are local subscribers to channels matched by the given channel.</p>
      *
      * @param channelName the channel to observe
+     * @see #observeChannel(String, boolean)
      */
     @ManagedOperation(value = "Observes the given channel", impact = "ACTION")
     public void observeChannel(@Name(value = "channel", description = "The channel to observe") String channelName)
+    {
+        observeChannel(channelName, false);
+    }
+
+    /**
+     * <p>Observes the given channel, like {@link #observeChannel(String)}.</p>
+     * <p>If {@code permanent} is true, and {@link #isInterestRoutingEnabled() interest-based
+     * routing} is enabled, the {@link OortComet} instances subscribe to the channel even if
+     * there are no local subscribers, because the messages are consumed on this node by
+     * server-side listeners, for example {@link ServerChannel.MessageListener}s.</p>
+     * <p>Observing as permanent a channel already observed makes it permanent.</p>
+     *
+     * @param channelName the channel to observe
+     * @param permanent whether the channel is routed to this node regardless of local subscribers
+     */
+    public void observeChannel(String channelName, boolean permanent)
     {
         if (_logger.isDebugEnabled())
-            _logger.debug("Observing channel {}", channelName);
+            _logger.debug("Observing {}channel {}", permanent ? "permanent " : "", channelName);
 
         if (!ChannelId.isBroadcast(channelName))
             throw new IllegalArgumentException("Channel " + channelName + " cannot be observed because is not a broadcast channel");
 
-        if (_channels.putIfAbsent(channelName, Boolean.TRUE) == null)
+        boolean added = _channels.putIfAbsent(channelName, Boolean.TRUE) == null;
+        if (isInterestRoutingEnabled())
+        {
+            if (added || permanent)
+                observeInterest(channelName, permanent);
+        }
+        else if (added)
         {
             Set<String> observedChannels = getObservedChannels();
             for (ClientCometInfo cometInfo : _clientComets.values())
@@ -502,13 +694,102 @@ public class Oort extends ContainerLifeCycle
         }
     }
 
+    private void observeInterest(String channelName, boolean permanent)
+    {
+        boolean subscribe;
+        synchronized (_interests)
+        {
+            Interest interest = _interests.get(channelName);
+            if (interest == null)
+            {
+                interest = new Interest(new ChannelId(channelName), permanent);
+                for (ServerChannel channel : _bayeux.getChannels())
+                {
+                    if (interest.matches(channel.getChannelId()))
+                    {
+                        for (ServerSession session : channel.getSubscribers())
+                        {
+                            if (!isOortSubscriber(session))
+                                interest.subscriptions.add(subscriptionKey(session, channel));
+                        }
+                    }
+                }
+                _interests.put(channelName, interest);
+                subscribe = interest.isRouted();
+            }
+            else
+            {
+                subscribe = !interest.isRouted();
+                interest.permanent = true;
+            }
+            if (_logger.isDebugEnabled())
+                _logger.debug("Observed {}channel {} with {} local subscriptions", interest.permanent ? "permanent " : "", channelName, interest.subscriptions.size());
+        }
+        if (subscribe)
+            routeInterest(channelName, true);
+    }
+
+    /**
+     * <p>Subscribes or unsubscribes the {@link OortComet}s outside of the {@code _interests} lock.</p>
+     * <p>Since concurrent subscriptions and unsubscriptions may then reach the comets out
+     * of order, the routing is checked again afterwards and fixed if it changed meanwhile.</p>
+     *
+     * @param channelName the observed channel
+     * @param routed whether the observed channel must be routed to this node
+     */
+    private void routeInterest(String channelName, boolean routed)
+    {
+        while (true)
+        {
+            if (routed)
+                subscribeComets(channelName);
+            else
+                unsubscribeComets(channelName);
+
+            synchronized (_interests)
+            {
+                Interest interest = _interests.get(channelName);
+                boolean current = interest != null && interest.isRouted();
+                if (current == routed)
+                    return;
+                routed = current;
+            }
+        }
+    }
+
+    private void subscribeComets(String channelName)
+    {
+        Set<String> channels = Collections.singleton(channelName);
+        for (ClientCometInfo cometInfo : _clientComets.values())
+            cometInfo.getOortComet().subscribe(channels);
+    }
+
+    private void unsubscribeComets(String channelName)
+    {
+        for (ClientCometInfo cometInfo : _clientComets.values())
+            cometInfo.getOortComet().unsubscribe(channelName);
+    }
+
+    private boolean isOortSubscriber(ServerSession session)
+    {
+        return session.getAttribute(COMET_URL_ATTRIBUTE) != null || session.getId().equals(_oortSession.getId());
+    }
+
+    private static String subscriptionKey(ServerSession session, ServerChannel channel)
+    {
+        return session.getId() + "@" + channel.getId();
+    }
+
     @ManagedOperation(value = "Deobserves the given channel", impact = "ACTION")
     public void deobserveChannel(@Name(value = "channel", description = "The channel to deobserve") String channelId)
     {
         if (_channels.remove(channelId) != null)
         {
-            for (ClientCometInfo cometInfo : _clientComets.values())
-                cometInfo.getOortComet().unsubscribe(channelId);
+            synchronized (_interests)
+            {
+                _interests.remove(channelId);
+            }
+            unsubscribeComets(channelId);
         }
     }
 
@@ -530,7 +811,7 @@ public class Oort extends ContainerLifeCycle
                 return true;
         }
 
-        return false;
+        return _serverStripes.containsKey(id);
     }
 
     /**
@@ -606,6 +887,33 @@ public class Oort extends ContainerLifeCycle
         return true;
     }
 
+    /**
+     * <p>Called to register the details of a successful handshake of an additional
+     * link (stripe) from a remote Oort comet that is already connected.</p>
+     *
+     * @param oortExt the remote Oort information
+     * @param session the server session that represent the link with the remote Oort comet
+     * @see #setCometStripes(int)
+     */
+    protected void incomingStripeHandshake(Map<String, Object> oortExt, ServerSession session)
+    {
+        String remoteOortURL = (String)oortExt.get(EXT_OORT_URL_FIELD);
+        if (_logger.isDebugEnabled())
+            _logger.debug("Incoming stripe {} handshake from comet {} with {}", oortExt.get(EXT_OORT_STRIPE_FIELD), remoteOortURL, session);
+
+        _serverStripes.put(session.getId(), remoteOortURL);
+        session.setAttribute(COMET_URL_ATTRIBUTE, remoteOortURL);
+        session.addListener(new ServerSession.RemoveListener()
+        {
+            public void removed(ServerSession session, boolean timeout)
+            {
+                _serverStripes.remove(session.getId());
+            }
+        });
+        // Prevent loops in sending/receiving messages
+        session.addListener(new OortCometLoopListener());
+    }
+
     /**
      * Registers the given listener to be notified of comet events.
      * @param listener the listener to add
@@ -669,6 +977,45 @@ public class Oort extends ContainerLifeCycle
         return new HashSet<>(_channels.keySet());
     }
 
+    /**
+     * @return the observed channels that {@link OortComet}s subscribe to, that is all the observed
+     * channels, or only those with local subscribers if interest-based routing is enabled
+     * @see #setInterestRoutingEnabled(boolean)
+     */
+    @ManagedAttribute(value = "Observed channels that are routed to this Oort", readonly = true)
+    public Set<String> getRoutedChannels()
+    {
+        if (!isInterestRoutingEnabled())
+            return getObservedChannels();
+        Set<String> result = new HashSet<>();
+        synchronized (_interests)
+        {
+            for (Map.Entry<String, Interest> entry : _interests.entrySet())
+            {
+                if (entry.getValue().isRouted())
+                    result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the links to the other comets, with the number of messages
+     * waiting for a reply and the average round trip time of each link
+     * @see #setCometStripes(int)
+     */
+    @ManagedAttribute(value = "The links to other comets, with pending messages and round trip times", readonly = true)
+    public List<String> getLinks()
+    {
+        List<String> result = new ArrayList<>();
+        for (ClientCometInfo cometInfo : _clientComets.values())
+        {
+            for (OortComet link : cometInfo.getOortComet().getLinks())
+                result.add(String.format("%s#%d pending=%d rtt=%dus", link.getURL(), link.getStripe(), link.getPendingMessages(), link.getRoundTripTime()));
+        }
+        return result;
+    }
+
     /**
      * @return the oortSession
      */
@@ -764,6 +1111,15 @@ public class Oort extends ContainerLifeCycle
                     _logger.warn("Detected self connect from {} to {}, disconnecting", remoteOortURL, cometURL);
                     disconnect(message);
                 }
+                else if (associatedOortExt.get(EXT_OORT_STRIPE_FIELD) != null)
+                {
+                    Map<String, Object> ext = message.getExt(true);
+                    Map<String, Object> oortExt = new HashMap<>(2);
+                    ext.put(EXT_OORT_FIELD, oortExt);
+                    oortExt.put(EXT_OORT_URL_FIELD, getURL());
+                    oortExt.put(EXT_OORT_ID_FIELD, getId());
+                    incomingStripeHandshake(Collections.unmodifiableMap(associatedOortExt), to);
+                }
                 else
                 {
                     // Add the extension information even in case we're then disconnecting.
@@ -978,6 +1334,114 @@ public class Oort extends ContainerLifeCycle
         }
     }
 
+    /**
+     * <p>Tracks local subscriptions to the channels matched by observed channels,
+     * subscribing the {@link OortComet}s when the first local subscription arrives,
+     * and unsubscribing them when the last local subscription goes away.</p>
+     */
+    private class InterestListener implements BayeuxServer.SubscriptionListener
+    {
+        @Override
+        public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message)
+        {
+            if (isOortSubscriber(session))
+                return;
+
+            String key = subscriptionKey(session, channel);
+            List<String> routed = new ArrayList<>();
+            synchronized (_interests)
+            {
+                for (Map.Entry<String, Interest> entry : _interests.entrySet())
+                {
+                    Interest interest = entry.getValue();
+                    if (interest.matches(channel.getChannelId()) && interest.subscriptions.add(key))
+                    {
+                        if (interest.subscriptions.size() == 1 && !interest.permanent)
+                        {
+                            if (_logger.isDebugEnabled())
+                                _logger.debug("First local subscription to observed channel {}", entry.getKey());
+                            routed.add(entry.getKey());
+                        }
+                    }
+                }
+            }
+            for (String channelName : routed)
+                routeInterest(channelName, true);
+        }
+
+        @Override
+        public void unsubscribed(ServerSession session, ServerChannel channel, ServerMessage message)
+        {
+            if (isOortSubscriber(session))
+                return;
+
+            String key = subscriptionKey(session, channel);
+            List<String> unrouted = new ArrayList<>();
+            synchronized (_interests)
+            {
+                for (Map.Entry<String, Interest> entry : _interests.entrySet())
+                {
+                    Interest interest = entry.getValue();
+                    if (interest.subscriptions.remove(key) && !interest.isRouted())
+                    {
+                        if (_logger.isDebugEnabled())
+                            _logger.debug("Last local subscription to observed channel {}", entry.getKey());
+                        unrouted.add(entry.getKey());
+                    }
+                }
+            }
+            for (String channelName : unrouted)
+                routeInterest(channelName, false);
+        }
+    }
+
+    private static class Interest
+    {
+        private final Set<String> subscriptions = new HashSet<>();
+        private final ChannelId channelId;
+        private boolean permanent;
+
+        private Interest(ChannelId channelId, boolean permanent)
+        {
+            this.channelId = channelId;
+            this.permanent = permanent;
+        }
+
+        /**
+         * @return whether the observed channel must be routed to this node
+         */
+        private boolean isRouted()
+        {
+            return permanent || !subscriptions.isEmpty();
+        }
+
+        /**
+         * @param other the channel a local session subscribed to
+         * @return whether messages on the observed channel may be delivered to subscribers of the given channel
+         */
+        private boolean matches(ChannelId other)
+        {
+            if (channelId.equals(other))
+                return true;
+            if (channelId.isWild() && channelId.matches(other))
+                return true;
+            if (other.isWild() && other.matches(channelId))
+                return true;
+            return covers(channelId, other) || covers(other, channelId);
+        }
+
+        private static boolean covers(ChannelId deepWild, ChannelId wild)
+        {
+            if (!deepWild.isDeepWild() || !wild.isWild())
+                return false;
+            String parent = deepWild.getParent();
+            if (parent == null)
+                return true;
+            String other = wild.getParent();
+            return other != null && (other.equals(parent) || other.startsWith(parent + "/"));
+        }
+    }
+
     private class HandshakeListener implements ClientSessionChannel.MessageListener
     {
         private final String cometURL;
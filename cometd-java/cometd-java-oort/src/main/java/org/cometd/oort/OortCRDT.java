@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+
+/**
+ * <p>Base class for conflict-free replicated data types (CRDTs) built on an internal
+ * {@link OortObject}, where each node owns and shares only its own state, and the
+ * value of the data type is obtained by merging the states of all nodes.</p>
+ * <p>Local updates are applied immediately and never wait for other nodes; they are
+ * coalesced and the local state is shared with other nodes after
+ * {@link #getShareOperations() a number of updates} or after
+ * {@link #getShareInterval() a delay} from the first update not yet shared,
+ * whichever comes first.</p>
+ *
+ * @see OortPNCounter
+ * @see OortORSet
+ */
+public abstract class OortCRDT extends AbstractLifeCycle
+{
+    private final AtomicInteger operations = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable shareTask = new ShareTask();
+    private final OortObject<Map<String, Object>> value;
+    private volatile int shareOperations = 100;
+    private volatile long shareInterval = 100;
+
+    protected OortCRDT(Oort oort, String name)
+    {
+        value = new OortObject<>(oort, name, OortObjectFactories.<String, Object>forMap());
+        value.addListener(new OortObject.Listener<Map<String, Object>>()
+        {
+            public void onUpdated(OortObject.Info<Map<String, Object>> oldInfo, OortObject.Info<Map<String, Object>> newInfo)
+            {
+                if (!newInfo.isLocal())
+                    onRemoteUpdated(newInfo);
+            }
+
+            public void onRemoved(OortObject.Info<Map<String, Object>> info)
+            {
+                onRemoteRemoved(info);
+            }
+        });
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        value.start();
+        share();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        if (operations.get() > 0)
+            share();
+        value.stop();
+    }
+
+    /**
+     * @return the {@link Oort} instance associated with this CRDT
+     */
+    public Oort getOort()
+    {
+        return value.getOort();
+    }
+
+    /**
+     * @return the local session that sends messages to other nodes
+     */
+    public LocalSession getLocalSession()
+    {
+        return value.getLocalSession();
+    }
+
+    /**
+     * @return the number of local updates after which the local state is shared (by default 100)
+     */
+    public int getShareOperations()
+    {
+        return shareOperations;
+    }
+
+    /**
+     * @param shareOperations the number of local updates after which the local state is shared
+     */
+    public void setShareOperations(int shareOperations)
+    {
+        this.shareOperations = shareOperations;
+    }
+
+    /**
+     * @return the max delay, in milliseconds, before a local update is shared (by default 100 ms)
+     */
+    public long getShareInterval()
+    {
+        return shareInterval;
+    }
+
+    /**
+     * @param shareInterval the max delay, in milliseconds, before a local update is shared
+     */
+    public void setShareInterval(long shareInterval)
+    {
+        this.shareInterval = shareInterval;
+    }
+
+    /**
+     * @return the internal {@link OortObject} holding the state of each node
+     */
+    protected OortObject<Map<String, Object>> getOortObject()
+    {
+        return value;
+    }
+
+    /**
+     * <p>Subclasses must call this method after each local update.</p>
+     * <p>The local state is shared immediately if enough updates have been
+     * accumulated, otherwise it is shared after the {@link #getShareInterval() interval}.</p>
+     */
+    protected void updated()
+    {
+        if (operations.incrementAndGet() >= getShareOperations())
+            share();
+        else if (scheduled.compareAndSet(false, true))
+            ((BayeuxServerImpl)getOort().getBayeuxServer()).schedule(shareTask, getShareInterval());
+    }
+
+    /**
+     * Shares the local state with other nodes.
+     */
+    protected void share()
+    {
+        // Serialize sharers so that a newer state always has a newer version.
+        synchronized (value)
+        {
+            operations.set(0);
+            value.setAndShare(snapshot());
+        }
+    }
+
+    /**
+     * @return a copy of the local state, to be shared with other nodes
+     */
+    protected abstract Map<String, Object> snapshot();
+
+    /**
+     * Callback method invoked when the state of a remote node is updated.
+     *
+     * @param info the info holding the new state of the remote node
+     */
+    protected void onRemoteUpdated(OortObject.Info<Map<String, Object>> info)
+    {
+    }
+
+    /**
+     * Callback method invoked when a remote node leaves.
+     *
+     * @param info the info holding the last state of the remote node
+     */
+    protected void onRemoteRemoved(OortObject.Info<Map<String, Object>> info)
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s]@%s", getClass().getSimpleName(), value.getName(), getOort().getURL());
+    }
+
+    private class ShareTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            scheduled.set(false);
+            if (operations.get() > 0 && isRunning())
+                share();
+        }
+    }
+}
@@ -16,38 +16,133 @@
 package org.cometd.oort;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSession;
 import org.cometd.bayeux.client.ClientSessionChannel;
 import org.cometd.client.BayeuxClient;
 import org.cometd.client.transport.ClientTransport;
 
 /**
  * <p>The Oort comet client connects a local Oort comet server to a remote Oort comet server.</p>
+ * <p>When {@link Oort#setCometStripes(int) comet stripes} are configured, the OortComet
+ * that has joined the remote comet opens additional links (stripes) to it, and channels
+ * are hashed onto the links, so that messages are ordered within a link but do not
+ * wait for messages of other links.
+ * Observed channels are subscribed by the link the channel is hashed to, and
+ * {@link #getLink(String)} returns the link to publish messages for a given key.
+ * Stripes that fail to connect are folded back into this OortComet.</p>
  */
 public class OortComet extends BayeuxClient
 {
+    private static final String STRIPE_CHANNEL = Oort.OORT_SERVICE_CHANNEL + "/stripe";
+
     private final ConcurrentMap<String, ClientSessionChannel.MessageListener> _subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> _pendingMessages = new ConcurrentHashMap<>();
+    private final AtomicLong _roundTripTime = new AtomicLong();
+    private final AtomicInteger _pendingStripes = new AtomicInteger();
+    private final AtomicBoolean _reported = new AtomicBoolean();
     private final Oort _oort;
     private final String _cometURL;
     private volatile boolean _subscriptionsAllowed;
+    private volatile OortComet[] _links;
+    private volatile OortComet _primary = this;
+    private volatile int _stripe;
+    private volatile boolean _ready;
+    private volatile boolean _failed;
 
     public OortComet(Oort oort, String cometURL, ScheduledExecutorService scheduler, ClientTransport transport, ClientTransport... transports)
     {
         super(cometURL, scheduler, transport, transports);
         _oort = oort;
         _cometURL = cometURL;
+        addExtension(new MetricsExtension());
         // Add listener for handshake response
         getChannel(Channel.META_HANDSHAKE).addListener(new HandshakeListener());
     }
 
+    /**
+     * @return the index of this link among the links to the remote comet, 0 for the main link
+     */
+    public int getStripe()
+    {
+        return _stripe;
+    }
+
+    /**
+     * @return the number of messages sent on this link and not yet replied
+     */
+    public int getPendingMessages()
+    {
+        return _pendingMessages.size();
+    }
+
+    /**
+     * @return the average round trip time of messages sent on this link, in microseconds
+     */
+    public long getRoundTripTime()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(_roundTripTime.get());
+    }
+
+    /**
+     * @return the links to the remote comet, this OortComet first
+     */
+    public List<OortComet> getLinks()
+    {
+        OortComet[] links = _primary._links;
+        return links == null ? Collections.singletonList(this) : Arrays.asList(links);
+    }
+
+    /**
+     * <p>Returns the link to publish messages with the given key, typically a channel name,
+     * so that messages with the same key are sent in order on the same link.</p>
+     *
+     * @param key the key to hash onto the links
+     * @return the link for the given key, or this OortComet if the link is not connected
+     */
+    public OortComet getLink(String key)
+    {
+        OortComet link = findLink(key);
+        return link._ready ? link : _primary;
+    }
+
+    private OortComet findLink(String key)
+    {
+        OortComet primary = _primary;
+        OortComet[] links = primary._links;
+        if (links == null)
+            return primary;
+        key = _oort.getLinkKey(key);
+        OortComet link = links[(key.hashCode() & Integer.MAX_VALUE) % links.length];
+        return link._failed ? primary : link;
+    }
+
+    void setLinks(OortComet[] links)
+    {
+        for (int i = 1; i < links.length; ++i)
+        {
+            links[i]._primary = this;
+            links[i]._stripe = i;
+        }
+        _pendingStripes.set(links.length - 1);
+        _links = links;
+    }
+
     protected void subscribe(Set<String> observedChannels)
     {
         // Guard against concurrent subscription clearing from the handshake callback
@@ -56,6 +151,15 @@ public class OortComet extends BayeuxClient
 
         for (String channel : observedChannels)
         {
+            OortComet link = findLink(channel);
+            if (link != this)
+            {
+                // Only the main link dispatches channels to stripes.
+                if (_primary == this)
+                    link.subscribe(Collections.singleton(channel));
+                continue;
+            }
+
             if (_subscriptions.containsKey(channel))
                 continue;
 
@@ -84,6 +188,14 @@ public class OortComet extends BayeuxClient
     }
 
     protected void unsubscribe(String channel)
+    {
+        OortComet link = findLink(channel);
+        if (link != this && _primary == this)
+            link.unsubscribe(channel);
+        removeSubscription(channel);
+    }
+
+    private void removeSubscription(String channel)
     {
         ClientSessionChannel.MessageListener listener = _subscriptions.remove(channel);
         if (listener != null)
@@ -97,13 +209,61 @@ public class OortComet extends BayeuxClient
     protected void clearSubscriptions()
     {
         for (String channel : _oort.getObservedChannels())
-            unsubscribe(channel);
+            removeSubscription(channel);
+    }
+
+    @Override
+    public void disconnect(ClientSessionChannel.MessageListener callback)
+    {
+        super.disconnect(callback);
+        OortComet[] links = _links;
+        if (links != null)
+        {
+            for (int i = 1; i < links.length; ++i)
+                links[i].disconnect();
+        }
+    }
+
+    private void stripeConnected(OortComet stripe, boolean successful)
+    {
+        if (successful)
+        {
+            stripe._ready = true;
+        }
+        else
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Stripe {} failed, folding its channels into {}", stripe.getStripe(), this);
+            stripe._failed = true;
+            stripe.disconnect();
+            subscribe(_oort.getRoutedChannels());
+        }
+        if (_pendingStripes.decrementAndGet() == 0)
+            advertise();
+    }
+
+    private void advertise()
+    {
+        batch(new Runnable()
+        {
+            public void run()
+            {
+                // Advertise the remote node that we have joined
+                Map<String, Object> data = new HashMap<>(1);
+                data.put(Oort.EXT_OORT_URL_FIELD, _oort.getURL());
+                getChannel(Oort.OORT_SERVICE_CHANNEL).publish(data);
+
+                // Advertise our own network
+                getChannel(Oort.OORT_CLOUD_CHANNEL).publish(new ArrayList<>(_oort.getKnownComets()));
+            }
+        });
     }
 
     @Override
     public String toString()
     {
-        return _cometURL + "@" + getId();
+        int stripe = getStripe();
+        return _cometURL + (stripe == 0 ? "" : "#" + stripe) + "@" + getId();
     }
 
     private class HandshakeListener implements ClientSessionChannel.MessageListener
@@ -111,7 +271,11 @@ public class OortComet extends BayeuxClient
         public void onMessage(ClientSessionChannel channel, Message message)
         {
             if (!message.isSuccessful())
+            {
+                if (_primary != OortComet.this)
+                    stripeConnected(false);
                 return;
+            }
 
             Map<String,Object> ext = message.getExt();
             if (ext == null)
@@ -121,6 +285,13 @@ public class OortComet extends BayeuxClient
             if (!(oortExtObject instanceof Map))
                 return;
 
+            if (_primary != OortComet.this)
+            {
+                stripeHandshake();
+                return;
+            }
+
+            final boolean connectStripes = _oort.getCometStripes() > 1 && _links == null;
             batch(new Runnable()
             {
                 public void run()
@@ -146,20 +317,112 @@ public class OortComet extends BayeuxClient
                     clearSubscriptions();
                     _subscriptionsAllowed = true;
 
-                    Set<String> channels = _oort.getObservedChannels();
+                    Set<String> channels = _oort.getRoutedChannels();
                     if (logger.isDebugEnabled())
                         logger.debug("Handshake completed, observing channels {}", channels);
                     subscribe(channels);
 
-                    // Advertise the remote node that we have joined
-                    Map<String, Object> data = new HashMap<>(1);
-                    data.put(Oort.EXT_OORT_URL_FIELD, _oort.getURL());
-                    getChannel(Oort.OORT_SERVICE_CHANNEL).publish(data);
+                    // Advertise only when the stripes have subscribed as
+                    // well, so that the remote node does not send messages
+                    // on observed channels before all links are subscribed.
+                    if (!connectStripes)
+                        advertise();
+                }
+            });
+
+            if (connectStripes)
+                _oort.connectStripes(OortComet.this);
+        }
 
-                    // Advertise our own network
-                    getChannel(Oort.OORT_CLOUD_CHANNEL).publish(new ArrayList<>(_oort.getKnownComets()));
+        private void stripeHandshake()
+        {
+            batch(new Runnable()
+            {
+                public void run()
+                {
+                    clearSubscriptions();
+                    _subscriptionsAllowed = true;
+                    subscribe(_oort.getRoutedChannels());
+                    // The reply arrives after the subscriptions sent in the same batch have been processed.
+                    getChannel(STRIPE_CHANNEL).publish(getStripe(), new ClientSessionChannel.MessageListener()
+                    {
+                        public void onMessage(ClientSessionChannel channel, Message message)
+                        {
+                            stripeConnected(message.isSuccessful());
+                        }
+                    });
                 }
             });
         }
+
+        private void stripeConnected(boolean successful)
+        {
+            // Only the outcome of the first connection of the stripe is reported.
+            if (_reported.compareAndSet(false, true))
+                _primary.stripeConnected(OortComet.this, successful);
+        }
+    }
+
+    private class MetricsExtension extends ClientSession.Extension.Adapter
+    {
+        @Override
+        public boolean send(ClientSession session, Message.Mutable message)
+        {
+            track(message);
+            return true;
+        }
+
+        @Override
+        public boolean sendMeta(ClientSession session, Message.Mutable message)
+        {
+            String channel = message.getChannel();
+            if (Channel.META_HANDSHAKE.equals(channel))
+                _pendingMessages.clear();
+            // Connect replies are held by the server, so they do not measure the round trip.
+            if (!Channel.META_CONNECT.equals(channel))
+                track(message);
+            return true;
+        }
+
+        @Override
+        public boolean rcv(ClientSession session, Message.Mutable message)
+        {
+            if (message.isPublishReply())
+                replied(message);
+            return true;
+        }
+
+        @Override
+        public boolean rcvMeta(ClientSession session, Message.Mutable message)
+        {
+            replied(message);
+            return true;
+        }
+
+        private void track(Message message)
+        {
+            String id = message.getId();
+            if (id != null)
+                _pendingMessages.put(id, System.nanoTime());
+        }
+
+        private void replied(Message message)
+        {
+            String id = message.getId();
+            if (id == null)
+                return;
+            Long sent = _pendingMessages.remove(id);
+            if (sent == null)
+                return;
+            long elapsed = System.nanoTime() - sent;
+            // Exponentially weighted moving average, with weight 1/8 for the last sample.
+            while (true)
+            {
+                long average = _roundTripTime.get();
+                long update = average == 0 ? elapsed : average + (elapsed - average) / 8;
+                if (_roundTripTime.compareAndSet(average, update))
+                    break;
+            }
+        }
     }
 }
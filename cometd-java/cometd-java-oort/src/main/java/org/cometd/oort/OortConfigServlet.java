@@ -34,6 +34,11 @@ import org.cometd.common.JSONContext;
  * connections from other Oort comets</li>
  * <li><code>oort.channels</code>, a comma separated list of channels that
  * will be passed to {@link Oort#observeChannel(String)}</li>
+ * <li><code>oort.permanentChannels</code>, a comma separated list of channels that
+ * will be passed to {@link Oort#observeChannel(String, boolean)} as permanent, that is
+ * routed to this node even without local subscribers when interest-based routing is enabled</li>
+ * <li><code>enableInterestRouting</code>, a boolean that enables interest-based routing
+ * of observed channels, see {@link Oort#setInterestRoutingEnabled(boolean)}</li>
  * <li><code>clientDebug</code>, a boolean that enables debugging of the
  * clients connected to other oort cluster managers</li>
  * </ul>
@@ -47,8 +52,12 @@ public abstract class OortConfigServlet extends HttpServlet
     public static final String OORT_URL_PARAM = "oort.url";
     public static final String OORT_SECRET_PARAM = "oort.secret";
     public static final String OORT_CHANNELS_PARAM = "oort.channels";
+    public static final String OORT_PERMANENT_CHANNELS_PARAM = "oort.permanentChannels";
     public static final String OORT_ENABLE_ACK_EXTENSION_PARAM = "enableAckExtension";
+    public static final String OORT_ENABLE_INTEREST_ROUTING_PARAM = "enableInterestRouting";
     public static final String OORT_JSON_CONTEXT_PARAM = "jsonContext";
+    public static final String OORT_COMET_STRIPES_PARAM = "cometStripes";
+    public static final String OORT_ENABLE_RETAIN_DATA_JSON_PARAM = "enableRetainDataJSON";
 
     public void init(ServletConfig config) throws ServletException
     {
@@ -74,6 +83,16 @@ public abstract class OortConfigServlet extends HttpServlet
             boolean enableAckExtension = Boolean.parseBoolean(config.getInitParameter(OORT_ENABLE_ACK_EXTENSION_PARAM));
             oort.setAckExtensionEnabled(enableAckExtension);
 
+            boolean enableInterestRouting = Boolean.parseBoolean(config.getInitParameter(OORT_ENABLE_INTEREST_ROUTING_PARAM));
+            oort.setInterestRoutingEnabled(enableInterestRouting);
+
+            String cometStripes = config.getInitParameter(OORT_COMET_STRIPES_PARAM);
+            if (cometStripes != null)
+                oort.setCometStripes(Integer.parseInt(cometStripes));
+
+            boolean enableRetainDataJSON = Boolean.parseBoolean(config.getInitParameter(OORT_ENABLE_RETAIN_DATA_JSON_PARAM));
+            oort.setRetainDataJSONEnabled(enableRetainDataJSON);
+
             String jsonContext = config.getInitParameter(OORT_JSON_CONTEXT_PARAM);
             if (jsonContext != null)
                 oort.setJSONContextClient((JSONContext.Client)getClass().getClassLoader().loadClass(jsonContext).newInstance());
@@ -83,17 +102,8 @@ public abstract class OortConfigServlet extends HttpServlet
 
             configureCloud(config, oort);
 
-            String channels = config.getInitParameter(OORT_CHANNELS_PARAM);
-            if (channels != null)
-            {
-                String[] patterns = channels.split(",");
-                for (String channel : patterns)
-                {
-                    channel = channel.trim();
-                    if (channel.length() > 0)
-                        oort.observeChannel(channel);
-                }
-            }
+            observeChannels(oort, config.getInitParameter(OORT_CHANNELS_PARAM), false);
+            observeChannels(oort, config.getInitParameter(OORT_PERMANENT_CHANNELS_PARAM), true);
         }
         catch (Exception x)
         {
@@ -101,6 +111,20 @@ public abstract class OortConfigServlet extends HttpServlet
         }
     }
 
+    private void observeChannels(Oort oort, String channels, boolean permanent)
+    {
+        if (channels != null)
+        {
+            String[] patterns = channels.split(",");
+            for (String channel : patterns)
+            {
+                channel = channel.trim();
+                if (channel.length() > 0)
+                    oort.observeChannel(channel, permanent);
+            }
+        }
+    }
+
     /**
      * <p>Retrieves the {@code oort.url} parameter from this servlet init parameters.</p>
      * <p>Subclasses can override this method to compute the {@code oort.url} parameter
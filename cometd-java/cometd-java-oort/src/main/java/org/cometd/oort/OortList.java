@@ -18,8 +18,10 @@ package org.cometd.oort;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EventListener;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -147,6 +149,32 @@ public class OortList<E> extends OortObject<List<E>>
         return data.getResult();
     }
 
+    /**
+     * <p>Splits the entity list into one part per element, keyed by the index of the element,
+     * so that the order of the elements, duplicates included, can be restored by {@link #join(Map)}.</p>
+     */
+    @Override
+    protected Map<String, Object> split(Object serialized)
+    {
+        List<?> list = serialized instanceof Object[] ? Arrays.asList((Object[])serialized) : (List<?>)serialized;
+        Map<String, Object> result = new LinkedHashMap<>(list.size());
+        for (int i = 0; i < list.size(); ++i)
+            result.put(String.valueOf(i), list.get(i));
+        return result;
+    }
+
+    /**
+     * <p>Joins the parts into a list, ordering the elements by the index of their part.</p>
+     */
+    @Override
+    protected Object join(Map<String, Object> parts)
+    {
+        Map<Integer, Object> elements = new TreeMap<>();
+        for (Map.Entry<String, Object> part : parts.entrySet())
+            elements.put(Integer.valueOf(part.getKey()), part.getValue());
+        return new ArrayList<>(elements.values());
+    }
+
     @Override
     protected void onObject(Map<String, Object> data)
     {
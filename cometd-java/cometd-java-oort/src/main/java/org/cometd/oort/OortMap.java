@@ -224,6 +224,29 @@ public abstract class OortMap<K, V> extends OortObject<ConcurrentMap<K, V>>
         return null;
     }
 
+    /**
+     * <p>Splits the entity map into one part per entry, keyed by the string representation of the entry key.</p>
+     */
+    @Override
+    protected Map<String, Object> split(Object serialized)
+    {
+        Map<?, ?> map = (Map<?, ?>)serialized;
+        Map<String, Object> result = new HashMap<>(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet())
+            result.put(String.valueOf(entry.getKey()), entry.getValue());
+        return result;
+    }
+
+    /**
+     * <p>Joins the parts into a map with string keys, like a JSON-deserialized entity map,
+     * that is then passed to {@link #deserialize(Object)}.</p>
+     */
+    @Override
+    protected Object join(Map<String, Object> parts)
+    {
+        return new HashMap<>(parts);
+    }
+
     @Override
     protected void onObject(Map<String, Object> data)
     {
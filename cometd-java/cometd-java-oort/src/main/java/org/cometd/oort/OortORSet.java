@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>A cluster-wide set of strings implemented as an observed-remove set (OR-set) CRDT.</p>
+ * <p>Every addition of an element is identified by a unique tag, owned by the node that
+ * performed the addition.
+ * Removing an element removes all the tags of that element observed by the node that
+ * performs the removal: tags owned by that node are simply dropped, while tags owned
+ * by other nodes are recorded as tombstones in the state shared by that node.
+ * An element belongs to the set if at least one of its tags is not tombstoned, so
+ * concurrent additions and removals of the same element resolve in favor of the addition.</p>
+ * <p>Tombstones are discarded once the owner node has dropped the corresponding tag,
+ * or has left the cluster, so that the state of each node does not grow without bounds.</p>
+ * <p>Without removals, this class behaves as a grow-only set (G-set).</p>
+ * <p>Local updates never wait for other nodes and are {@link OortCRDT coalesced}
+ * before being shared with other nodes.</p>
+ */
+public class OortORSet extends OortCRDT implements Iterable<String>
+{
+    private static final String INCARNATION_FIELD = "incarnation";
+    private static final String ADDS_FIELD = "adds";
+    private static final String REMOVES_FIELD = "removes";
+
+    private final String incarnation = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final Map<String, String> adds = new HashMap<>();
+    private final Set<String> removes = new HashSet<>();
+    private long tags;
+    private Map<String, Set<String>> view;
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this set
+     */
+    public OortORSet(Oort oort, String name)
+    {
+        super(oort, name);
+    }
+
+    /**
+     * @param element the element to add
+     * @return whether the element was not already present in the set
+     */
+    public boolean add(String element)
+    {
+        boolean result;
+        synchronized (this)
+        {
+            Map<String, Set<String>> elements = view();
+            Set<String> elementTags = elements.get(element);
+            result = elementTags == null;
+            if (result)
+            {
+                elementTags = new HashSet<>();
+                elements.put(element, elementTags);
+            }
+            // A new tag cannot be tombstoned, so the view is updated in place.
+            String tag = incarnation + "." + (++tags);
+            adds.put(tag, element);
+            elementTags.add(tag);
+        }
+        updated();
+        return result;
+    }
+
+    /**
+     * @param element the element to remove
+     * @return whether the element was present in the set
+     */
+    public boolean remove(String element)
+    {
+        synchronized (this)
+        {
+            // All the live tags of the element are removed, and so is the element.
+            Set<String> elementTags = view().remove(element);
+            if (elementTags == null)
+                return false;
+            for (String tag : elementTags)
+            {
+                if (adds.remove(tag) == null)
+                    removes.add(tag);
+            }
+        }
+        updated();
+        return true;
+    }
+
+    /**
+     * @param element the element to test
+     * @return whether the element is present in the set
+     */
+    public boolean contains(String element)
+    {
+        synchronized (this)
+        {
+            return view().containsKey(element);
+        }
+    }
+
+    /**
+     * @return the number of elements in the set
+     */
+    public int size()
+    {
+        synchronized (this)
+        {
+            return view().size();
+        }
+    }
+
+    /**
+     * @return a snapshot of the elements of the set
+     */
+    public Set<String> getElements()
+    {
+        synchronized (this)
+        {
+            return new HashSet<>(view().keySet());
+        }
+    }
+
+    public Iterator<String> iterator()
+    {
+        return getElements().iterator();
+    }
+
+    @Override
+    protected Map<String, Object> snapshot()
+    {
+        synchronized (this)
+        {
+            Map<String, Object> result = new HashMap<>(3);
+            result.put(INCARNATION_FIELD, incarnation);
+            result.put(ADDS_FIELD, new HashMap<>(adds));
+            result.put(REMOVES_FIELD, new ArrayList<>(removes));
+            return result;
+        }
+    }
+
+    @Override
+    protected void onRemoteUpdated(OortObject.Info<Map<String, Object>> info)
+    {
+        collect();
+    }
+
+    @Override
+    protected void onRemoteRemoved(OortObject.Info<Map<String, Object>> info)
+    {
+        collect();
+    }
+
+    private void collect()
+    {
+        boolean changed = false;
+        synchronized (this)
+        {
+            view = null;
+            List<Map<String, Object>> remotes = remotes();
+
+            // Drop our tags that other nodes have removed.
+            for (Map<String, Object> remote : remotes)
+            {
+                for (Object tag : getRemoves(remote))
+                    changed |= adds.remove(tag) != null;
+            }
+
+            // Drop our tombstones of tags that their owner has dropped.
+            for (Iterator<String> iterator = removes.iterator(); iterator.hasNext();)
+            {
+                String tag = iterator.next();
+                Map<String, Object> owner = null;
+                String ownerIncarnation = tag.substring(0, tag.indexOf('.'));
+                for (Map<String, Object> remote : remotes)
+                {
+                    if (ownerIncarnation.equals(remote.get(INCARNATION_FIELD)))
+                    {
+                        owner = remote;
+                        break;
+                    }
+                }
+                if (owner == null || !getAdds(owner).containsKey(tag))
+                {
+                    iterator.remove();
+                    changed = true;
+                }
+            }
+        }
+        if (changed)
+            updated();
+    }
+
+    private Map<String, Set<String>> view()
+    {
+        // Must be called with the lock held.
+        // Local updates maintain the view, remote updates discard it.
+        if (view == null)
+        {
+            List<Map<String, Object>> remotes = remotes();
+            Set<Object> tombstones = new HashSet<Object>(removes);
+            for (Map<String, Object> remote : remotes)
+                tombstones.addAll(getRemoves(remote));
+
+            Map<String, Set<String>> result = new HashMap<>();
+            addLive(result, adds, tombstones);
+            for (Map<String, Object> remote : remotes)
+                addLive(result, getAdds(remote), tombstones);
+            view = result;
+        }
+        return view;
+    }
+
+    private void addLive(Map<String, Set<String>> result, Map<String, ?> tagged, Set<Object> tombstones)
+    {
+        for (Map.Entry<String, ?> entry : tagged.entrySet())
+        {
+            String tag = entry.getKey();
+            if (tombstones.contains(tag))
+                continue;
+            String element = (String)entry.getValue();
+            Set<String> elementTags = result.get(element);
+            if (elementTags == null)
+            {
+                elementTags = new HashSet<>();
+                result.put(element, elementTags);
+            }
+            elementTags.add(tag);
+        }
+    }
+
+    private List<Map<String, Object>> remotes()
+    {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (OortObject.Info<Map<String, Object>> info : getOortObject())
+        {
+            if (!info.isLocal())
+                result.add(info.getObject());
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, ?> getAdds(Map<String, Object> state)
+    {
+        Object adds = state.get(ADDS_FIELD);
+        return adds == null ? Collections.<String, Object>emptyMap() : (Map<String, ?>)adds;
+    }
+
+    private static Collection<?> getRemoves(Map<String, Object> state)
+    {
+        // JSON arrays may be parsed as Object[] or as List.
+        Object removes = state.get(REMOVES_FIELD);
+        if (removes == null)
+            return Collections.emptyList();
+        if (removes instanceof Object[])
+            return Arrays.asList((Object[])removes);
+        return (Collection<?>)removes;
+    }
+}
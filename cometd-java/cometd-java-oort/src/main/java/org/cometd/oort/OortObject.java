@@ -19,10 +19,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EventListener;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -35,6 +39,7 @@ import org.cometd.bayeux.server.LocalSession;
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -113,15 +118,31 @@ import org.slf4j.LoggerFactory;
  * usage for reduced latency accessing the data.
  * An alternative strategy that trades reduced memory usage for increased latency is implemented by
  * {@link OortService}.</p>
+ * <p>By default, when a node joins, the whole local object is pushed to it.
+ * When {@link #setIncrementalSyncEnabled(boolean) incremental synchronization} is enabled,
+ * the object is instead {@link #split(Object) split} into parts that are hashed into buckets;
+ * the node that joins compares the bucket digests with its own (possibly stale) copy of the object,
+ * and only the parts in the buckets that differ are transferred, in chunks of bounded size.</p>
  *
  * @param <T> the type of value object stored in this oort object
  */
 public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServerChannel.Initializer, Oort.CometListener, Iterable<OortObject.Info<T>>
 {
     public static final String OORT_OBJECTS_CHANNEL = "/oort/objects";
+    private static final String TYPE_FIELD_SYNC_VALUE = "oort.object.sync";
+    private static final String ACTION_FIELD_DIGEST_VALUE = "oort.sync.digest";
+    private static final String ACTION_FIELD_REQUEST_VALUE = "oort.sync.request";
+    private static final String ACTION_FIELD_CHUNK_VALUE = "oort.sync.chunk";
+    private static final String DIGESTS_FIELD = "oort.sync.digests";
+    private static final String COUNT_FIELD = "oort.sync.count";
+    private static final String BUCKETS_FIELD = "oort.sync.buckets";
+    private static final String PARTS_FIELD = "oort.sync.parts";
+    private static final String LAST_FIELD = "oort.sync.last";
 
     private final AtomicLong versions = new AtomicLong();
     private final ConcurrentMap<String, Holder<T>> infos = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Info<T>> syncBases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Sync> syncs = new ConcurrentHashMap<>();
     private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
     protected final Logger logger;
     private final Oort oort;
@@ -130,6 +151,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
     private final LocalSession sender;
     private final String channelName;
     private final ServerChannel.MessageListener messageListener;
+    private volatile boolean incrementalSyncEnabled;
+    private volatile int syncBuckets = 256;
+    private volatile int syncChunkSize = 512;
+    private volatile long syncTimeout = 60000;
 
     public OortObject(Oort oort, String name, Factory<T> factory)
     {
@@ -157,7 +182,7 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         BayeuxServer bayeuxServer = oort.getBayeuxServer();
         ServerChannel channel = bayeuxServer.createChannelIfAbsent(channelName, this).getReference();
         channel.addListener(messageListener);
-        oort.observeChannel(channelName);
+        oort.observeChannel(channelName, true);
 
         // Notify other nodes of our initial value.
         // Must be done after registering listeners, to avoid missing responses from other nodes.
@@ -177,6 +202,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         oort.removeCometListener(this);
         sender.disconnect();
         infos.remove(oort.getURL());
+        syncBases.clear();
+        syncs.clear();
         if (logger.isDebugEnabled())
             logger.debug("{} stopped", this);
     }
@@ -238,6 +265,88 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         return channelName;
     }
 
+    /**
+     * @return whether nodes that join receive only the parts of the local object that they miss
+     * @see #setIncrementalSyncEnabled(boolean)
+     */
+    public boolean isIncrementalSyncEnabled()
+    {
+        return incrementalSyncEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the incremental synchronization of the local object with nodes that join.</p>
+     * <p>This property must have the same value on all nodes.</p>
+     *
+     * @param incrementalSyncEnabled whether incremental synchronization is enabled
+     */
+    public void setIncrementalSyncEnabled(boolean incrementalSyncEnabled)
+    {
+        this.incrementalSyncEnabled = incrementalSyncEnabled;
+    }
+
+    /**
+     * @return the number of buckets the parts of the object are hashed into during incremental synchronization
+     */
+    public int getSyncBuckets()
+    {
+        return syncBuckets;
+    }
+
+    /**
+     * <p>More buckets mean larger digest messages, but fewer parts transferred for each
+     * part that differs.</p>
+     *
+     * @param syncBuckets the number of buckets the parts of the object are hashed into
+     */
+    public void setSyncBuckets(int syncBuckets)
+    {
+        if (syncBuckets <= 0)
+            throw new IllegalArgumentException("Invalid buckets " + syncBuckets);
+        this.syncBuckets = syncBuckets;
+    }
+
+    /**
+     * @return the max number of parts transferred in a single message during incremental synchronization
+     */
+    public int getSyncChunkSize()
+    {
+        return syncChunkSize;
+    }
+
+    /**
+     * @param syncChunkSize the max number of parts transferred in a single message
+     */
+    public void setSyncChunkSize(int syncChunkSize)
+    {
+        if (syncChunkSize <= 0)
+            throw new IllegalArgumentException("Invalid chunk size " + syncChunkSize);
+        this.syncChunkSize = syncChunkSize;
+    }
+
+    /**
+     * @return the time, in milliseconds, that the stale object of a node that left is kept,
+     * and that an incremental synchronization waits for the parts it requested
+     */
+    public long getSyncTimeout()
+    {
+        return syncTimeout;
+    }
+
+    /**
+     * <p>The stale object of a node that left is kept only for this time, so that a node
+     * that joins again shortly afterwards only transfers the parts that changed, but the
+     * objects of nodes that do not join again are not retained forever.</p>
+     *
+     * @param syncTimeout the time, in milliseconds, that the stale object of a node that left is kept
+     */
+    public void setSyncTimeout(long syncTimeout)
+    {
+        if (syncTimeout <= 0)
+            throw new IllegalArgumentException("Invalid sync timeout " + syncTimeout);
+        this.syncTimeout = syncTimeout;
+    }
+
     /**
      * <p>Sets the given new object on this oort object, and then broadcast the new object to all nodes in the cluster.</p>
      * <p>Setting an object triggers notification of {@link Listener}s, both on this node and on remote nodes.</p>
@@ -274,6 +383,34 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         return object;
     }
 
+    /**
+     * <p>Splits the given serialized object into parts, for incremental synchronization.</p>
+     * <p>Parts are identified by a key that must be the same on all nodes for the same part,
+     * and that is used to compute the bucket the part belongs to.</p>
+     * <p>This implementation returns the whole object as a single part; subclasses that
+     * hold collections of items should return one part per item.</p>
+     *
+     * @param serialized the object, as returned by {@link #serialize(Object)}
+     * @return the parts of the object, keyed by part key
+     * @see #join(Map)
+     */
+    protected Map<String, Object> split(Object serialized)
+    {
+        return Collections.singletonMap("", serialized);
+    }
+
+    /**
+     * <p>Joins the given parts into a serialized object, the inverse of {@link #split(Object)}.</p>
+     * <p>The object returned is then passed to {@link #deserialize(Object)}.</p>
+     *
+     * @param parts the parts of the object, keyed by part key
+     * @return the serialized object
+     */
+    protected Object join(Map<String, Object> parts)
+    {
+        return parts.get("");
+    }
+
     protected Info<T> newInfo(T local)
     {
         if (local == null)
@@ -295,7 +432,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         String remoteOortURL = event.getCometURL();
         if (logger.isDebugEnabled())
             logger.debug("Oort {} joined", remoteOortURL);
-        pushInfo(remoteOortURL, getInfo(oort.getURL()));
+        if (isIncrementalSyncEnabled())
+            pushDigests(remoteOortURL);
+        else
+            pushInfo(remoteOortURL, getInfo(oort.getURL()));
     }
 
     public void cometLeft(Event event)
@@ -308,6 +448,13 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
             Info<T> info = holder.get();
             if (logger.isDebugEnabled())
                 logger.debug("Removed remote {}", info);
+            // Keep the stale copy, so that if the node joins again
+            // only the parts that changed in the meantime are transferred.
+            if (isIncrementalSyncEnabled() && info != null)
+            {
+                syncBases.put(event.getCometURL(), info);
+                expire(syncBases, event.getCometURL(), info);
+            }
             notifyRemoved(info);
         }
     }
@@ -405,6 +552,12 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
 
     protected void onObject(Map<String, Object> data)
     {
+        if (TYPE_FIELD_SYNC_VALUE.equals(data.get(Info.TYPE_FIELD)))
+        {
+            onSync(data);
+            return;
+        }
+
         boolean isLocal = oort.getURL().equals(data.get(Info.OORT_URL_FIELD));
         Object object = data.get(Info.OBJECT_FIELD);
         if (!isLocal)
@@ -472,7 +625,234 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         if (logger.isDebugEnabled())
             logger.debug("Pushing (to {}) local {}", oortURL, info);
         if (oortComet != null)
-            oortComet.getChannel(channelName).publish(info);
+            oortComet.getLink(channelName).getChannel(channelName).publish(info);
+    }
+
+    private void pushDigests(String oortURL)
+    {
+        Info<T> info = getInfo(oort.getURL());
+        if (info == null)
+            return;
+        List<Long> digests = new ArrayList<>();
+        for (long digest : digest(split(serialize(info.getObject())), getSyncBuckets()))
+            digests.add(digest);
+        Map<String, Object> data = newSyncData(oortURL, ACTION_FIELD_DIGEST_VALUE);
+        data.put(DIGESTS_FIELD, digests);
+        pushInfo(oortURL, data);
+    }
+
+    private Map<String, Object> newSyncData(String oortURL, String action)
+    {
+        Map<String, Object> data = new HashMap<>(8);
+        data.put(Info.OORT_URL_FIELD, oort.getURL());
+        data.put(Info.NAME_FIELD, getName());
+        data.put(Info.PEER_FIELD, oortURL);
+        data.put(Info.TYPE_FIELD, TYPE_FIELD_SYNC_VALUE);
+        data.put(Info.ACTION_FIELD, action);
+        return data;
+    }
+
+    private void onSync(Map<String, Object> data)
+    {
+        // Sync messages may also reach other nodes that observe the channel.
+        if (!oort.getURL().equals(data.get(Info.PEER_FIELD)))
+            return;
+
+        String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+        Object action = data.get(Info.ACTION_FIELD);
+        if (ACTION_FIELD_DIGEST_VALUE.equals(action))
+            onSyncDigests(oortURL, asList(data.get(DIGESTS_FIELD)));
+        else if (ACTION_FIELD_REQUEST_VALUE.equals(action))
+            onSyncRequest(oortURL, ((Number)data.get(COUNT_FIELD)).intValue(), asList(data.get(BUCKETS_FIELD)));
+        else if (ACTION_FIELD_CHUNK_VALUE.equals(action))
+            onSyncChunk(oortURL, data);
+        else
+            throw new IllegalArgumentException(String.valueOf(action));
+    }
+
+    private void onSyncDigests(String oortURL, List<?> remoteDigests)
+    {
+        int buckets = remoteDigests.size();
+        Info<T> base = getSyncBase(oortURL);
+        long[] localDigests = base == null ? null : digest(split(serialize(base.getObject())), buckets);
+        Set<Integer> mismatches = new HashSet<>();
+        for (int i = 0; i < buckets; ++i)
+        {
+            if (localDigests == null || localDigests[i] != ((Number)remoteDigests.get(i)).longValue())
+                mismatches.add(i);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Requesting {}/{} buckets from {}", mismatches.size(), buckets, oortURL);
+
+        Sync sync = new Sync(buckets, mismatches);
+        syncs.put(oortURL, sync);
+        // Do not wait forever for parts that may never arrive.
+        expire(syncs, oortURL, sync);
+        Map<String, Object> request = newSyncData(oortURL, ACTION_FIELD_REQUEST_VALUE);
+        request.put(COUNT_FIELD, buckets);
+        request.put(BUCKETS_FIELD, new ArrayList<>(mismatches));
+        pushInfo(oortURL, request);
+    }
+
+    private void onSyncRequest(String oortURL, int buckets, List<?> requested)
+    {
+        Info<T> info = getInfo(oort.getURL());
+        if (info == null)
+            return;
+
+        Set<Integer> bucketSet = new HashSet<>();
+        for (Object bucket : requested)
+            bucketSet.add(((Number)bucket).intValue());
+
+        int chunkSize = getSyncChunkSize();
+        long version = info.getId();
+        Map<String, Object> chunk = new HashMap<>();
+        int chunks = 0;
+        for (Map.Entry<String, Object> part : split(serialize(info.getObject())).entrySet())
+        {
+            if (bucketSet.contains(bucket(part.getKey(), buckets)))
+            {
+                chunk.put(part.getKey(), part.getValue());
+                if (chunk.size() == chunkSize)
+                {
+                    pushChunk(oortURL, version, chunk, false);
+                    chunk = new HashMap<>();
+                    ++chunks;
+                }
+            }
+        }
+        pushChunk(oortURL, version, chunk, true);
+        if (logger.isDebugEnabled())
+            logger.debug("Pushed {} buckets in {} chunks to {}", bucketSet.size(), chunks + 1, oortURL);
+    }
+
+    private void pushChunk(String oortURL, long version, Map<String, Object> parts, boolean last)
+    {
+        Map<String, Object> data = newSyncData(oortURL, ACTION_FIELD_CHUNK_VALUE);
+        data.put(Info.VERSION_FIELD, version);
+        data.put(PARTS_FIELD, parts);
+        data.put(LAST_FIELD, last);
+        pushInfo(oortURL, data);
+    }
+
+    private void onSyncChunk(String oortURL, Map<String, Object> data)
+    {
+        Sync sync = syncs.get(oortURL);
+        if (sync == null)
+            return;
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> parts = (Map<String, Object>)data.get(PARTS_FIELD);
+        sync.parts.putAll(parts);
+        if (!Boolean.TRUE.equals(data.get(LAST_FIELD)) || !syncs.remove(oortURL, sync))
+            return;
+
+        // Keep the parts of the buckets that did not differ, and replace the others.
+        Map<String, Object> result = new LinkedHashMap<>();
+        Info<T> base = getSyncBase(oortURL);
+        if (base != null)
+        {
+            for (Map.Entry<String, Object> part : split(serialize(base.getObject())).entrySet())
+            {
+                if (!sync.buckets.contains(bucket(part.getKey(), sync.count)))
+                    result.put(part.getKey(), part.getValue());
+            }
+        }
+        result.putAll(sync.parts);
+        syncBases.remove(oortURL);
+
+        Map<String, Object> info = new HashMap<>(5);
+        info.put(Info.VERSION_FIELD, data.get(Info.VERSION_FIELD));
+        info.put(Info.OORT_URL_FIELD, oortURL);
+        info.put(Info.NAME_FIELD, getName());
+        info.put(Info.OBJECT_FIELD, join(result));
+        // The remote node pushes its own digests, no need to push back our info.
+        info.put(Info.PEER_FIELD, oort.getURL());
+        if (logger.isDebugEnabled())
+            logger.debug("Synchronized {} parts from {}", sync.parts.size(), oortURL);
+        onObject(info);
+    }
+
+    private <V> void expire(final ConcurrentMap<String, V> map, final String oortURL, final V value)
+    {
+        ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(new Runnable()
+        {
+            public void run()
+            {
+                if (map.remove(oortURL, value))
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Expired incremental sync state {} of {}", value, oortURL);
+                }
+            }
+        }, getSyncTimeout());
+    }
+
+    private Info<T> getSyncBase(String oortURL)
+    {
+        Info<T> info = getInfo(oortURL);
+        return info != null ? info : syncBases.get(oortURL);
+    }
+
+    private static List<?> asList(Object object)
+    {
+        // JSON arrays may be parsed as Object[] or as List.
+        if (object instanceof Object[])
+            return Arrays.asList((Object[])object);
+        return (List<?>)object;
+    }
+
+    private static int bucket(String key, int buckets)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % buckets;
+    }
+
+    private static long[] digest(Map<String, Object> parts, int buckets)
+    {
+        // Sums are independent of the iteration order of the parts.
+        long[] result = new long[buckets];
+        for (Map.Entry<String, Object> part : parts.entrySet())
+        {
+            String key = part.getKey();
+            long hash = key.hashCode() * 0x9E3779B97F4A7C15L + hash(part.getValue());
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            result[bucket(key, buckets)] += hash;
+        }
+        return result;
+    }
+
+    private static long hash(Object value)
+    {
+        // Values are compared with their JSON-deserialized copy on the other
+        // node, so hash them in a way that survives the JSON round trip.
+        if (value == null)
+            return 0;
+        if (value instanceof Map)
+        {
+            long result = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet())
+                result += (String.valueOf(entry.getKey()).hashCode() * 31L) ^ hash(entry.getValue());
+            return result;
+        }
+        if (value instanceof Object[])
+            value = Arrays.asList((Object[])value);
+        if (value instanceof Collection)
+        {
+            long result = 1;
+            for (Object element : (Collection<?>)value)
+                result = 31 * result + hash(element);
+            return result;
+        }
+        if (value instanceof Number)
+        {
+            Number number = (Number)value;
+            double doubleValue = number.doubleValue();
+            long longValue = number.longValue();
+            return doubleValue == longValue ? longValue : Double.doubleToLongBits(doubleValue);
+        }
+        return value.hashCode();
     }
 
     protected Collection<Info<T>> getInfos()
@@ -698,6 +1078,22 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         }
     }
 
+    /**
+     * The state of an incremental synchronization with a remote node.
+     */
+    private static class Sync
+    {
+        private final Map<String, Object> parts = new HashMap<>();
+        private final int count;
+        private final Set<Integer> buckets;
+
+        private Sync(int count, Set<Integer> buckets)
+        {
+            this.count = count;
+            this.buckets = buckets;
+        }
+    }
+
     private class MessageListener implements ServerChannel.MessageListener
     {
         @SuppressWarnings("unchecked")
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A cluster-wide counter implemented as a PN-counter CRDT.</p>
+ * <p>Each node counts its own increments and decrements in two monotonic local counters,
+ * and shares them with other nodes; the value of the counter is the sum of the increments
+ * of all nodes minus the sum of the decrements of all nodes.</p>
+ * <p>Where {@link OortMasterLong} sends every update to the "master" node, and {@link OortLong}
+ * broadcasts the local value on every update, updates of this class only modify local atomic
+ * counters and are {@link OortCRDT coalesced} before being shared, which makes this class
+ * suitable for counters that are updated at high rates, such as the number of online users.</p>
+ * <p>The value returned by {@link #sum()} always includes all the local updates, while the
+ * updates of other nodes are included only after they have been shared.</p>
+ *
+ * @see OortLong
+ * @see OortMasterLong
+ */
+public class OortPNCounter extends OortCRDT
+{
+    private static final String INCREMENTS_FIELD = "p";
+    private static final String DECREMENTS_FIELD = "n";
+
+    private final AtomicLong increments = new AtomicLong();
+    private final AtomicLong decrements = new AtomicLong();
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this counter
+     */
+    public OortPNCounter(Oort oort, String name)
+    {
+        super(oort, name);
+    }
+
+    /**
+     * @return the local value, that is the local increments minus the local decrements
+     */
+    public long get()
+    {
+        return increments.get() - decrements.get();
+    }
+
+    /**
+     * Increments the counter by one.
+     */
+    public void increment()
+    {
+        add(1);
+    }
+
+    /**
+     * Decrements the counter by one.
+     */
+    public void decrement()
+    {
+        add(-1);
+    }
+
+    /**
+     * @param delta the delta to add to the counter (may be negative)
+     */
+    public void add(long delta)
+    {
+        if (delta == 0)
+            return;
+        if (delta > 0)
+            increments.addAndGet(delta);
+        else
+            decrements.addAndGet(-delta);
+        updated();
+    }
+
+    /**
+     * @return the value of the counter across all nodes
+     */
+    public long sum()
+    {
+        long result = get();
+        for (OortObject.Info<Map<String, Object>> info : getOortObject())
+        {
+            if (!info.isLocal())
+            {
+                Map<String, Object> object = info.getObject();
+                result += valueOf(object.get(INCREMENTS_FIELD)) - valueOf(object.get(DECREMENTS_FIELD));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Map<String, Object> snapshot()
+    {
+        Map<String, Object> result = new HashMap<>(2);
+        result.put(INCREMENTS_FIELD, increments.get());
+        result.put(DECREMENTS_FIELD, decrements.get());
+        return result;
+    }
+
+    private static long valueOf(Object value)
+    {
+        return value == null ? 0 : ((Number)value).longValue();
+    }
+}
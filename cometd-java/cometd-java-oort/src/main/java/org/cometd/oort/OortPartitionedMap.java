@@ -0,0 +1,660 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A distributed map whose entries are partitioned across the nodes of the cluster.</p>
+ * <p>Differently from {@link OortMap}, that replicates the whole map of each node to every
+ * other node, {@link OortPartitionedMap} assigns each key, via consistent hashing, to an
+ * <em>owner node</em> and to a number of {@link #getReplicas() replica nodes}; only those
+ * nodes store the entry, so that memory usage does not grow with the number of nodes.</p>
+ * <p>Operations are forwarded to the owner node, that updates the entry, replicates the
+ * update to the replica nodes, and broadcasts an invalidation so that the other nodes
+ * evict the entry from their read caches:</p>
+ * <pre>
+ * OortPartitionedMap&lt;String&gt; sessions = new OortPartitionedMap&lt;&gt;(oort, "sessions");
+ * sessions.start();
+ * sessions.put("key", "value", new OortPartitionedMap.Callback.Adapter&lt;String&gt;());
+ * </pre>
+ * <p>When nodes join or leave the cluster, the keys are reassigned and each node
+ * transfers the entries it no longer owns to their new owner node and replica nodes.</p>
+ * <p>Keys are strings, so that they retain their type when transmitted via JSON and
+ * so that every node computes the same owner for the same key.</p>
+ *
+ * @param <V> the value type
+ */
+public class OortPartitionedMap<V> extends OortService<Object, OortPartitionedMap.Context<V>> implements Oort.CometListener
+{
+    private static final String ACTION_FIELD = "oort.partition.action";
+    private static final String KEY_FIELD = "oort.partition.key";
+    private static final String VALUE_FIELD = "oort.partition.value";
+    private static final String ENTRIES_FIELD = "oort.partition.entries";
+    private static final String REMOVED_FIELD = "oort.partition.removed";
+    private static final String ACTION_GET_VALUE = "get";
+    private static final String ACTION_PUT_VALUE = "put";
+    private static final String ACTION_REMOVE_VALUE = "remove";
+
+    private final ConcurrentMap<String, V> store = new ConcurrentHashMap<>();
+    private final Set<String> members = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong invalidations = new AtomicLong();
+    private final String replicaChannelName;
+    private final String invalidateChannelName;
+    private final ServerChannel.MessageListener replicaListener = new ReplicaListener();
+    private final ServerChannel.MessageListener invalidateListener = new InvalidateListener();
+    private volatile NavigableMap<Long, String> ring = new TreeMap<>();
+    private volatile int replicas = 1;
+    private volatile int virtualNodes = 64;
+    private volatile int cacheCapacity = 1024;
+    private volatile long rebalanceRetryDelay = 1000;
+    private Scheduler.Task rebalanceTask;
+    private Map<String, V> cache;
+
+    public OortPartitionedMap(Oort oort, String name)
+    {
+        super(oort, name);
+        this.replicaChannelName = "/service/oort/partition/" + name;
+        this.invalidateChannelName = "/oort/partition/" + name;
+    }
+
+    /**
+     * @return the number of nodes, in addition to the owner node, that store each entry
+     */
+    public int getReplicas()
+    {
+        return replicas;
+    }
+
+    /**
+     * <p>This property must have the same value on all nodes.</p>
+     *
+     * @param replicas the number of nodes, in addition to the owner node, that store each entry
+     */
+    public void setReplicas(int replicas)
+    {
+        if (replicas < 0)
+            throw new IllegalArgumentException("Invalid replicas " + replicas);
+        this.replicas = replicas;
+    }
+
+    /**
+     * @return the number of points each node has on the consistent hashing ring
+     */
+    public int getVirtualNodes()
+    {
+        return virtualNodes;
+    }
+
+    /**
+     * <p>More points per node spread the keys more evenly across nodes.</p>
+     * <p>This property must have the same value on all nodes, and must be set before this map is started.</p>
+     *
+     * @param virtualNodes the number of points each node has on the consistent hashing ring
+     */
+    public void setVirtualNodes(int virtualNodes)
+    {
+        if (virtualNodes <= 0)
+            throw new IllegalArgumentException("Invalid virtual nodes " + virtualNodes);
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @return the max number of entries owned by other nodes cached by this node
+     */
+    public int getCacheCapacity()
+    {
+        return cacheCapacity;
+    }
+
+    /**
+     * <p>This property must be set before this map is started.</p>
+     *
+     * @param cacheCapacity the max number of entries owned by other nodes cached by this node, or 0 to disable caching
+     */
+    public void setCacheCapacity(int cacheCapacity)
+    {
+        if (cacheCapacity < 0)
+            throw new IllegalArgumentException("Invalid cache capacity " + cacheCapacity);
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    /**
+     * @return the delay, in milliseconds, before retrying to send entries to nodes that could not be reached
+     */
+    public long getRebalanceRetryDelay()
+    {
+        return rebalanceRetryDelay;
+    }
+
+    /**
+     * <p>When the keys are reassigned, entries whose new owner node cannot be reached yet,
+     * for example because the link to it is still connecting, are kept by this node and
+     * sent again after this delay.</p>
+     *
+     * @param rebalanceRetryDelay the delay, in milliseconds, before retrying to send entries to nodes that could not be reached
+     */
+    public void setRebalanceRetryDelay(long rebalanceRetryDelay)
+    {
+        if (rebalanceRetryDelay <= 0)
+            throw new IllegalArgumentException("Invalid rebalance retry delay " + rebalanceRetryDelay);
+        this.rebalanceRetryDelay = rebalanceRetryDelay;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        final int capacity = getCacheCapacity();
+        cache = new LinkedHashMap<String, V>(16, 0.75F, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+
+        Oort oort = getOort();
+        members.add(oort.getURL());
+        members.addAll(oort.getKnownComets());
+        updateRing();
+
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        bayeuxServer.createChannelIfAbsent(replicaChannelName).getReference().addListener(replicaListener);
+        bayeuxServer.createChannelIfAbsent(invalidateChannelName).getReference().addListener(invalidateListener);
+        oort.observeChannel(invalidateChannelName, true);
+        oort.addCometListener(this);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        Oort oort = getOort();
+        oort.removeCometListener(this);
+        oort.deobserveChannel(invalidateChannelName);
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        ServerChannel channel = bayeuxServer.getChannel(invalidateChannelName);
+        if (channel != null)
+            channel.removeListener(invalidateListener);
+        channel = bayeuxServer.getChannel(replicaChannelName);
+        if (channel != null)
+            channel.removeListener(replicaListener);
+        synchronized (members)
+        {
+            if (rebalanceTask != null)
+                rebalanceTask.cancel();
+            rebalanceTask = null;
+        }
+        members.clear();
+        ring = new TreeMap<>();
+        store.clear();
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the Oort URLs of the owner node, first, and of the replica nodes of the given key
+     */
+    public List<String> getOwners(String key)
+    {
+        NavigableMap<Long, String> ring = this.ring;
+        int count = Math.min(getReplicas() + 1, members.size());
+        List<String> result = new ArrayList<>(count);
+        if (ring.isEmpty())
+            return result;
+
+        // Walk the ring clockwise from the key, collecting distinct nodes.
+        long hash = hash(key);
+        for (String oortURL : ring.tailMap(hash, true).values())
+        {
+            if (result.size() == count)
+                return result;
+            if (!result.contains(oortURL))
+                result.add(oortURL);
+        }
+        for (String oortURL : ring.headMap(hash, false).values())
+        {
+            if (result.size() == count)
+                return result;
+            if (!result.contains(oortURL))
+                result.add(oortURL);
+        }
+        return result;
+    }
+
+    /**
+     * @param key the key
+     * @return the Oort URL of the owner node of the given key
+     */
+    public String getOwner(String key)
+    {
+        List<String> owners = getOwners(key);
+        return owners.isEmpty() ? null : owners.get(0);
+    }
+
+    /**
+     * @return the entries stored by this node, either as owner or as replica
+     */
+    public Map<String, V> getLocalEntries()
+    {
+        return Collections.unmodifiableMap(store);
+    }
+
+    /**
+     * <p>Retrieves the value associated with the given key and invokes the given callback with it.</p>
+     * <p>If this node stores the entry, or has it in its read cache, the callback is invoked
+     * immediately; otherwise the request is forwarded to the owner node.</p>
+     *
+     * @param key      the key
+     * @param callback the callback invoked with the value, or with null if the key is not present
+     * @return whether the request could be forwarded to the owner node
+     */
+    public boolean get(String key, Callback<V> callback)
+    {
+        List<String> owners = getOwners(key);
+        if (owners.contains(getOort().getURL()))
+        {
+            callback.succeeded(store.get(key));
+            return true;
+        }
+
+        V value;
+        synchronized (cache)
+        {
+            value = cache.get(key);
+        }
+        if (value != null)
+        {
+            callback.succeeded(value);
+            return true;
+        }
+
+        return forward(owners.isEmpty() ? null : owners.get(0), newAction(ACTION_GET_VALUE, key, null), new Context<>(key, callback, true, invalidations.get()));
+    }
+
+    /**
+     * <p>Associates the given value with the given key on the owner node.</p>
+     *
+     * @param key      the key
+     * @param value    the value
+     * @param callback the callback invoked with the previous value associated with the key
+     * @return whether the request could be forwarded to the owner node
+     */
+    public boolean put(String key, V value, Callback<V> callback)
+    {
+        if (value == null)
+            throw new NullPointerException();
+        return forward(getOwner(key), newAction(ACTION_PUT_VALUE, key, value), new Context<>(key, callback, false, 0));
+    }
+
+    /**
+     * <p>Removes the given key on the owner node.</p>
+     *
+     * @param key      the key
+     * @param callback the callback invoked with the value that was associated with the key
+     * @return whether the request could be forwarded to the owner node
+     */
+    public boolean remove(String key, Callback<V> callback)
+    {
+        return forward(getOwner(key), newAction(ACTION_REMOVE_VALUE, key, null), new Context<>(key, callback, false, 0));
+    }
+
+    private Map<String, Object> newAction(String action, String key, V value)
+    {
+        Map<String, Object> result = new HashMap<>(3);
+        result.put(ACTION_FIELD, action);
+        result.put(KEY_FIELD, key);
+        if (value != null)
+            result.put(VALUE_FIELD, value);
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Result<Object> onForward(Request request)
+    {
+        Map<String, Object> data = request.getDataAsMap();
+        String action = (String)data.get(ACTION_FIELD);
+        String key = (String)data.get(KEY_FIELD);
+        if (ACTION_GET_VALUE.equals(action))
+            return Result.<Object>success(store.get(key));
+
+        V oldValue;
+        if (ACTION_PUT_VALUE.equals(action))
+            oldValue = store.put(key, (V)data.get(VALUE_FIELD));
+        else if (ACTION_REMOVE_VALUE.equals(action))
+            oldValue = store.remove(key);
+        else
+            return Result.failure("Unknown action " + action);
+
+        // Update the replicas and invalidate the caches.
+        Map<String, Object> entries = new HashMap<>(1);
+        List<String> removed = new ArrayList<>(1);
+        if (data.containsKey(VALUE_FIELD))
+            entries.put(key, data.get(VALUE_FIELD));
+        else
+            removed.add(key);
+        for (String oortURL : getOwners(key))
+            replicate(oortURL, entries, removed);
+        Map<String, Object> invalidation = new HashMap<>(1);
+        invalidation.put(KEY_FIELD, key);
+        getOort().getBayeuxServer().getChannel(invalidateChannelName).publish(getLocalSession(), invalidation);
+
+        return Result.<Object>success(oldValue);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void onForwardSucceeded(Object result, Context<V> context)
+    {
+        if (context.cache && result != null && getCacheCapacity() > 0)
+        {
+            synchronized (cache)
+            {
+                // Do not cache values that may have been invalidated
+                // while the request was travelling to the owner node.
+                if (invalidations.get() == context.invalidations)
+                    cache.put(context.key, (V)result);
+            }
+        }
+        context.callback.succeeded((V)result);
+    }
+
+    @Override
+    protected void onForwardFailed(Object failure, Context<V> context)
+    {
+        context.callback.failed(failure);
+    }
+
+    public void cometJoined(Event event)
+    {
+        if (members.add(event.getCometURL()))
+            rebalance();
+    }
+
+    public void cometLeft(Event event)
+    {
+        if (members.remove(event.getCometURL()))
+            rebalance();
+    }
+
+    private void updateRing()
+    {
+        NavigableMap<Long, String> newRing = new TreeMap<>();
+        int points = getVirtualNodes();
+        for (String oortURL : members)
+        {
+            for (int i = 0; i < points; ++i)
+                newRing.put(hash(oortURL + "#" + i), oortURL);
+        }
+        ring = newRing;
+    }
+
+    /**
+     * <p>Recomputes the owners of the keys stored by this node, sending the entries
+     * to the nodes that should store them, and discarding the entries that this
+     * node no longer needs to store.</p>
+     * <p>Entries are discarded only after they have been sent to their new owner;
+     * if the new owner cannot be reached, they are kept and sent again on the next
+     * rebalance.</p>
+     */
+    private void rebalance()
+    {
+        synchronized (members)
+        {
+            if (rebalanceTask != null)
+                rebalanceTask.cancel();
+            rebalanceTask = null;
+
+            updateRing();
+
+            String localOortURL = getOort().getURL();
+            Map<String, Map<String, Object>> transfers = new HashMap<>();
+            Map<String, List<String>> discards = new HashMap<>();
+            for (Map.Entry<String, V> entry : store.entrySet())
+            {
+                String key = entry.getKey();
+                List<String> owners = getOwners(key);
+                boolean keep = owners.contains(localOortURL);
+                // The owner sends the entry to the replicas, which may be new;
+                // a node that no longer stores the entry sends it to the new owner.
+                if (!keep || owners.get(0).equals(localOortURL))
+                {
+                    for (String oortURL : keep ? owners : owners.subList(0, 1))
+                    {
+                        if (oortURL.equals(localOortURL))
+                            continue;
+                        Map<String, Object> entries = transfers.get(oortURL);
+                        if (entries == null)
+                        {
+                            entries = new HashMap<>();
+                            transfers.put(oortURL, entries);
+                        }
+                        entries.put(key, entry.getValue());
+                    }
+                }
+                if (!keep)
+                {
+                    String owner = owners.get(0);
+                    List<String> keys = discards.get(owner);
+                    if (keys == null)
+                    {
+                        keys = new ArrayList<>();
+                        discards.put(owner, keys);
+                    }
+                    keys.add(key);
+                }
+            }
+
+            int discarded = 0;
+            int retained = 0;
+            for (Map.Entry<String, Map<String, Object>> transfer : transfers.entrySet())
+            {
+                String oortURL = transfer.getKey();
+                boolean replicated = replicate(oortURL, transfer.getValue(), Collections.<String>emptyList());
+                List<String> keys = discards.get(oortURL);
+                if (keys == null)
+                    continue;
+                if (replicated)
+                {
+                    // The entries are on their way to the new owner.
+                    for (String key : keys)
+                        store.remove(key);
+                    discarded += keys.size();
+                }
+                else
+                {
+                    // Keep the only copy of the entries, until a rebalance can send them.
+                    retained += keys.size();
+                }
+            }
+
+            if (retained > 0 && isRunning())
+            {
+                rebalanceTask = ((BayeuxServerImpl)getOort().getBayeuxServer()).schedule(new Runnable()
+                {
+                    public void run()
+                    {
+                        rebalance();
+                    }
+                }, getRebalanceRetryDelay());
+            }
+
+            if (logger.isDebugEnabled())
+                logger.debug("Rebalanced {} on {} nodes: transferred to {} nodes, discarded {} entries, retained {} entries",
+                        this, members.size(), transfers.size(), discarded, retained);
+        }
+    }
+
+    /**
+     * @return whether the entries have been published to a connected comet
+     */
+    private boolean replicate(String oortURL, Map<String, Object> entries, List<String> removed)
+    {
+        if (getOort().getURL().equals(oortURL))
+            return true;
+        OortComet comet = getOort().getComet(oortURL);
+        OortComet link = comet == null ? null : comet.getLink(replicaChannelName);
+        if (link != null && link.isConnected())
+        {
+            Map<String, Object> data = new HashMap<>(2);
+            data.put(ENTRIES_FIELD, entries);
+            data.put(REMOVED_FIELD, removed);
+            link.getChannel(replicaChannelName).publish(data);
+            return true;
+        }
+        else
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Could not replicate {} entries to {}", entries.size() + removed.size(), oortURL);
+            return false;
+        }
+    }
+
+    private static long hash(String value)
+    {
+        // FNV-1a, so that all nodes compute the same hash, followed by
+        // a finalizer that spreads differences in the last characters.
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); ++i)
+        {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Callback invoked when the result of an operation on the map is available,
+     * or when the operation failed.
+     *
+     * @param <V> the value type
+     */
+    public interface Callback<V>
+    {
+        /**
+         * Callback method invoked when the operation on the map succeeded.
+         *
+         * @param result the result of the operation
+         */
+        public void succeeded(V result);
+
+        /**
+         * Callback method invoked when the operation on the map failed.
+         *
+         * @param failure the failure object
+         */
+        public void failed(Object failure);
+
+        /**
+         * Empty implementation of {@link Callback}
+         *
+         * @param <V> the value type
+         */
+        public static class Adapter<V> implements Callback<V>
+        {
+            public void succeeded(V result)
+            {
+            }
+
+            public void failed(Object failure)
+            {
+            }
+        }
+    }
+
+    protected static class Context<V>
+    {
+        private final String key;
+        private final Callback<V> callback;
+        private final boolean cache;
+        private final long invalidations;
+
+        private Context(String key, Callback<V> callback, boolean cache, long invalidations)
+        {
+            this.key = key;
+            this.callback = callback;
+            this.cache = cache;
+            this.invalidations = invalidations;
+        }
+    }
+
+    private class ReplicaListener implements ServerChannel.MessageListener
+    {
+        @SuppressWarnings("unchecked")
+        public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+        {
+            Map<String, Object> data = message.getDataAsMap();
+            Map<String, V> entries = (Map<String, V>)data.get(ENTRIES_FIELD);
+            if (entries != null)
+                store.putAll(entries);
+            Object removed = data.get(REMOVED_FIELD);
+            if (removed instanceof Object[])
+                removed = Arrays.asList((Object[])removed);
+            if (removed != null)
+            {
+                for (Object key : (List<Object>)removed)
+                    store.remove((String)key);
+            }
+            if (logger.isDebugEnabled())
+                logger.debug("Replicated {} on {}", data, OortPartitionedMap.this);
+            return true;
+        }
+    }
+
+    private class InvalidateListener implements ServerChannel.MessageListener
+    {
+        public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+        {
+            String key = (String)message.getDataAsMap().get(KEY_FIELD);
+            synchronized (cache)
+            {
+                invalidations.incrementAndGet();
+                cache.remove(key);
+            }
+            return true;
+        }
+    }
+}
@@ -15,10 +15,17 @@
  */
 package org.cometd.oort;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -79,6 +86,11 @@ import org.slf4j.LoggerFactory;
  * </ol>
  * <p>The steps above do not change if the <em>requesting node</em> and
  * the <em>owner node</em> are the same.</p>
+ * <p>When the {@link #setBatchSize(int) batch size} is greater than one, actions
+ * forwarded to the same owner node are accumulated and sent in a single message
+ * when the batch is full or when the {@link #setBatchDelay(long) batch delay}
+ * expires, whichever comes first; results are returned to the requesting node
+ * in the same way. Broadcast actions are never batched.</p>
  *
  * @param <R> the result type
  * @param <C> the opaque context type
@@ -92,9 +104,17 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     private static final String PARAMETER_FIELD = "oort.service.parameter";
     private static final String RESULT_FIELD = "oort.service.result";
     private static final String TIMEOUT_FIELD = "oort.service.timeout";
+    private static final String BATCH_FIELD = "oort.service.batch";
 
     private final AtomicLong contextIds = new AtomicLong();
     private final ConcurrentMap<Long, Map<String, Object>> callbacks = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Expiration> expirations = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Batch> forwardBatches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Batch> resultBatches = new ConcurrentHashMap<>();
+    private final Runnable timer = new Timer();
+    private final Object timerLock = new Object();
+    private Scheduler.Task timerTask;
+    private long timerTime;
     private final Oort oort;
     private final String name;
     private final String forwardChannelName;
@@ -103,6 +123,8 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     private final LocalSession session;
     protected final Logger logger;
     private volatile long timeout = 5000;
+    private volatile int batchSize = 1;
+    private volatile long batchDelay = 1;
 
     /**
      * Creates an {@link OortService} with the given name.
@@ -161,6 +183,38 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         this.timeout = timeout;
     }
 
+    /**
+     * @return the max number of actions or results sent to a node in a single message (by default 1, no batching)
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the max number of actions or results sent to a node in a single message
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the max delay, in milliseconds, a non-full batch waits before being sent (by default 1 ms)
+     */
+    public long getBatchDelay()
+    {
+        return batchDelay;
+    }
+
+    /**
+     * @param batchDelay the max delay, in milliseconds, a non-full batch waits before being sent
+     */
+    public void setBatchDelay(long batchDelay)
+    {
+        this.batchDelay = batchDelay;
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -169,7 +223,7 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         bayeuxServer.createChannelIfAbsent(forwardChannelName).getReference().addListener(this);
         bayeuxServer.createChannelIfAbsent(broadcastChannelName).getReference().addListener(this);
         bayeuxServer.createChannelIfAbsent(resultChannelName).getReference().addListener(this);
-        oort.observeChannel(broadcastChannelName);
+        oort.observeChannel(broadcastChannelName, true);
         if (logger.isDebugEnabled())
             logger.debug("Started {}", this);
     }
@@ -177,6 +231,12 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     @Override
     protected void doStop() throws Exception
     {
+        for (Batch batch : forwardBatches.values())
+            batch.flush();
+        forwardBatches.clear();
+        for (Batch batch : resultBatches.values())
+            batch.flush();
+        resultBatches.clear();
         oort.deobserveChannel(broadcastChannelName);
         BayeuxServer bayeuxServer = oort.getBayeuxServer();
         ServerChannel channel = bayeuxServer.getChannel(resultChannelName);
@@ -247,7 +307,7 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
                     if (logger.isDebugEnabled())
                         logger.debug("Forwarding action from {} to {}: {}", localOortURL, targetOortURL, data);
                     startTimeout(ctx);
-                    comet.getChannel(forwardChannelName).publish(data);
+                    send(forwardBatches, targetOortURL, forwardChannelName, data);
                     return true;
                 }
                 else
@@ -264,7 +324,8 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     {
         if (forwardChannelName.equals(message.getChannel()))
         {
-            onForwardMessage(message.getDataAsMap(), false);
+            for (Map<String, Object> data : unbatch(message.getDataAsMap()))
+                onForwardMessage(data, false);
         }
         else if (broadcastChannelName.equals(message.getChannel()))
         {
@@ -272,11 +333,58 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         }
         else if (resultChannelName.equals(message.getChannel()))
         {
-            onResultMessage(message.getDataAsMap());
+            for (Map<String, Object> data : unbatch(message.getDataAsMap()))
+                onResultMessage(data);
         }
         return true;
     }
 
+    private List<Map<String, Object>> unbatch(Map<String, Object> data)
+    {
+        Object batch = data.get(BATCH_FIELD);
+        if (batch == null)
+            return Collections.singletonList(data);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = batch instanceof Object[] ?
+                (List)Arrays.asList((Object[])batch) : new ArrayList<>((Collection<Map<String, Object>>)batch);
+        return result;
+    }
+
+    private void send(ConcurrentMap<String, Batch> batches, String oortURL, String channelName, Map<String, Object> data)
+    {
+        if (getBatchSize() > 1)
+        {
+            Batch batch = batches.get(oortURL);
+            if (batch == null)
+            {
+                batch = new Batch(oortURL, channelName);
+                Batch existing = batches.putIfAbsent(oortURL, batch);
+                if (existing != null)
+                    batch = existing;
+            }
+            batch.add(data);
+        }
+        else
+        {
+            publish(oortURL, channelName, data);
+        }
+    }
+
+    private void publish(String oortURL, String channelName, Map<String, Object> data)
+    {
+        OortComet comet = getOort().getComet(oortURL);
+        if (comet != null)
+        {
+            comet.getLink(channelName).getChannel(channelName).publish(data);
+        }
+        else
+        {
+            // Probably the node disconnected concurrently
+            if (logger.isDebugEnabled())
+                logger.debug("Could not send {} to {} on {}", data, oortURL, channelName);
+        }
+    }
+
     protected void onForwardMessage(Map<String, Object> data, boolean broadcast)
     {
         if (logger.isDebugEnabled())
@@ -339,19 +447,9 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         else
         {
             // Remote case
-            OortComet comet = getOort().getComet(oortURL);
-            if (comet != null)
-            {
-                if (logger.isDebugEnabled())
-                    logger.debug("Returning forwarded action result {} to remote {}", resultData, oortURL);
-                comet.getChannel(resultChannelName).publish(resultData);
-            }
-            else
-            {
-                // Probably the node disconnected concurrently
-                if (logger.isDebugEnabled())
-                    logger.debug("Could not return forwarded action result {} to remote {}", resultData, oortURL);
-            }
+            if (logger.isDebugEnabled())
+                logger.debug("Returning forwarded action result {} to remote {}", resultData, oortURL);
+            send(resultBatches, oortURL, resultChannelName, resultData);
         }
     }
 
@@ -388,15 +486,39 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     private void startTimeout(Map<String, Object> ctx)
     {
         long contextId = ((Number)ctx.get(ID_FIELD)).longValue();
-        TimeoutTask timeoutTask = new TimeoutTask(contextId);
-        ctx.put(TIMEOUT_FIELD, ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(timeoutTask, getTimeout()));
+        Expiration expiration = new Expiration(contextId, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getTimeout()));
+        ctx.put(TIMEOUT_FIELD, expiration);
+        expirations.add(expiration);
+        scheduleTimer(expiration.time);
     }
 
     private void cancelTimeout(Map<String, Object> ctx)
     {
-        Scheduler.Task timeoutTask = (Scheduler.Task)ctx.get(TIMEOUT_FIELD);
-        if (timeoutTask != null)
-            timeoutTask.cancel();
+        Expiration expiration = (Expiration)ctx.get(TIMEOUT_FIELD);
+        if (expiration != null)
+            expirations.remove(expiration);
+    }
+
+    private void scheduleTimer(long time)
+    {
+        // All the pending actions share one timer, armed for the earliest expiration.
+        synchronized (timerLock)
+        {
+            if (timerTask != null)
+            {
+                if (time - timerTime >= 0)
+                    return;
+                timerTask.cancel();
+            }
+            timerTime = time;
+            long delay = TimeUnit.NANOSECONDS.toMillis(time - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+            timerTask = schedule(timer, Math.max(0, delay));
+        }
+    }
+
+    private Scheduler.Task schedule(Runnable task, long delay)
+    {
+        return ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(task, delay);
     }
 
     /**
@@ -626,23 +748,109 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         }
     }
 
-    private class TimeoutTask implements Runnable
+    private class Timer implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            synchronized (timerLock)
+            {
+                timerTask = null;
+            }
+            long now = System.nanoTime();
+            for (Expiration expiration : expirations)
+            {
+                if (expiration.time - now > 0)
+                {
+                    scheduleTimer(expiration.time);
+                    break;
+                }
+                if (expirations.remove(expiration))
+                {
+                    Map<String, Object> data = new HashMap<>(3);
+                    data.put(ID_FIELD, expiration.contextId);
+                    data.put(RESULT_FIELD, false);
+                    data.put(DATA_FIELD, new TimeoutException());
+                    onResultMessage(data);
+                }
+            }
+        }
+    }
+
+    private static class Expiration implements Comparable<Expiration>
     {
         private final long contextId;
+        private final long time;
 
-        private TimeoutTask(long contextId)
+        private Expiration(long contextId, long time)
         {
             this.contextId = contextId;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Expiration that)
+        {
+            long delta = time - that.time;
+            if (delta == 0)
+                delta = contextId - that.contextId;
+            return delta < 0 ? -1 : delta > 0 ? 1 : 0;
+        }
+    }
+
+    private class Batch implements Runnable
+    {
+        private final String oortURL;
+        private final String channelName;
+        private List<Map<String, Object>> messages = new ArrayList<>();
+        private Scheduler.Task task;
+
+        private Batch(String oortURL, String channelName)
+        {
+            this.oortURL = oortURL;
+            this.channelName = channelName;
+        }
+
+        private synchronized void add(Map<String, Object> data)
+        {
+            messages.add(data);
+            if (messages.size() >= getBatchSize())
+                flush();
+            else if (task == null)
+                task = schedule(this, getBatchDelay());
         }
 
         @Override
         public void run()
         {
-            Map<String, Object> data = new HashMap<>(3);
-            data.put(ID_FIELD, contextId);
-            data.put(RESULT_FIELD, false);
-            data.put(DATA_FIELD, new TimeoutException());
-            onResultMessage(data);
+            flush();
+        }
+
+        private synchronized void flush()
+        {
+            if (task != null)
+            {
+                task.cancel();
+                task = null;
+            }
+            if (messages.isEmpty())
+                return;
+
+            Map<String, Object> data;
+            if (messages.size() == 1)
+            {
+                data = messages.get(0);
+            }
+            else
+            {
+                data = new HashMap<>(1);
+                data.put(BATCH_FIELD, messages);
+            }
+            messages = new ArrayList<>();
+            if (logger.isDebugEnabled())
+                logger.debug("Sending batch to {} on {}: {}", oortURL, channelName, data);
+            // Publish while holding the lock to preserve the order of batches.
+            publish(oortURL, channelName, data);
         }
     }
 }
@@ -15,7 +15,14 @@
  */
 package org.cometd.oort;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,11 +30,15 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
@@ -37,6 +48,7 @@ import org.cometd.bayeux.server.SecurityPolicy;
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.AbstractService;
+import org.eclipse.jetty.util.B64Code;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -64,6 +76,10 @@ import org.slf4j.LoggerFactory;
  * {@link #sendMessage(String, String, Object)} methods may be
  * used to send messages to user(s) anywhere in the Oort cluster
  * and Seti organizes the search in order to locate the user(s).</p>
+ * <p>The associations of a comet are pushed to other comets as a snapshot, split in
+ * chunks of {@link #getPresenceChunkSize() bounded size} and optionally compressed,
+ * when the comets join; after that, association changes are broadcast as deltas with
+ * a sequence number, so that comets can detect lost deltas and request a new snapshot.</p>
  *
  * @see SetiServlet
  */
@@ -72,14 +88,25 @@ public class Seti extends AbstractLifeCycle implements Dumpable
 {
     public static final String SETI_ATTRIBUTE = Seti.class.getName();
     private static final String SETI_ALL_CHANNEL = "/seti/all";
-
-    private final Map<String, Set<Location>> _uid2Location = new HashMap<>();
+    private static final String USER_IDS_SEPARATOR = "\u0000";
+
+    // The sets of locations are never modified once they are mapped, they
+    // are replaced under the lock of the user stripe, so that reads need no lock.
+    private final ConcurrentMap<String, Set<Location>> _uid2Location = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> _oortURL2UserIds = new ConcurrentHashMap<>();
+    private final Object[] _stripes = new Object[64];
+    private final ConcurrentMap<String, RemotePresence> _remotePresences = new ConcurrentHashMap<>();
+    private final AtomicLong _snapshotIds = new AtomicLong();
+    private final Object _presenceLock = new Object();
     private final List<PresenceListener> _presenceListeners = new CopyOnWriteArrayList<>();
     private final Oort.CometListener _cometListener = new CometListener();
     private final Oort _oort;
     private final String _setiId;
     private final Logger _logger;
     private final LocalSession _session;
+    private long _presenceSequence;
+    private int _presenceChunkSize = 1000;
+    private boolean _presenceCompressionEnabled;
 
     public Seti(Oort oort)
     {
@@ -87,6 +114,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         _setiId = generateSetiId(oort.getURL());
         _logger = LoggerFactory.getLogger(getClass().getName() + "." + _setiId);
         _session = oort.getBayeuxServer().newLocalSession(_setiId);
+        for (int i = 0; i < _stripes.length; ++i)
+            _stripes[i] = new Object();
     }
 
     @ManagedAttribute(value = "The Oort of this Seti", readonly = true)
@@ -101,6 +130,40 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         return _setiId;
     }
 
+    /**
+     * @return the max number of userIds sent in a single presence message of a snapshot
+     */
+    @ManagedAttribute("The max number of userIds in a presence snapshot message")
+    public int getPresenceChunkSize()
+    {
+        return _presenceChunkSize;
+    }
+
+    /**
+     * @param presenceChunkSize the max number of userIds sent in a single presence message of a snapshot
+     */
+    public void setPresenceChunkSize(int presenceChunkSize)
+    {
+        _presenceChunkSize = presenceChunkSize;
+    }
+
+    /**
+     * @return whether the userIds of presence snapshot messages are compressed
+     */
+    @ManagedAttribute("Whether presence snapshot messages are compressed")
+    public boolean isPresenceCompressionEnabled()
+    {
+        return _presenceCompressionEnabled;
+    }
+
+    /**
+     * @param presenceCompressionEnabled whether the userIds of presence snapshot messages are compressed
+     */
+    public void setPresenceCompressionEnabled(boolean presenceCompressionEnabled)
+    {
+        _presenceCompressionEnabled = presenceCompressionEnabled;
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -109,7 +172,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         _session.handshake();
 
         bayeux.createChannelIfAbsent(SETI_ALL_CHANNEL).getReference().setPersistent(true);
-        _oort.observeChannel(SETI_ALL_CHANNEL);
+        _oort.observeChannel(SETI_ALL_CHANNEL, true);
         _session.getChannel(SETI_ALL_CHANNEL).subscribe(new ClientSessionChannel.MessageListener()
         {
             public void onMessage(ClientSessionChannel channel, Message message)
@@ -119,6 +182,9 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         });
 
         String setiChannel = generateSetiChannel(_setiId);
+        // Presence snapshots are sent on the Seti channel, and must be
+        // received in order with the presence deltas sent on /seti/all.
+        _oort.pinChannel(setiChannel, SETI_ALL_CHANNEL);
         bayeux.createChannelIfAbsent(setiChannel).getReference().setPersistent(true);
         _session.getChannel(setiChannel).subscribe(new ClientSessionChannel.MessageListener()
         {
@@ -127,22 +193,26 @@ public class Seti extends AbstractLifeCycle implements Dumpable
                 receiveDirect(message);
             }
         });
-        _oort.observeChannel(setiChannel);
+        _oort.observeChannel(setiChannel, true);
 
         _oort.addCometListener(_cometListener);
 
-        Set<String> associatedUserIds = getAssociatedUserIds();
         if (_logger.isDebugEnabled())
-            _logger.debug("Broadcasting associated users {}", associatedUserIds);
-        SetiPresence presence = new SetiPresence(true, associatedUserIds);
-        presence.put(SetiPresence.ALIVE_FIELD, true);
-        _session.getChannel(SETI_ALL_CHANNEL).publish(presence);
+            _logger.debug("Broadcasting associated users");
+        pushPresences(_session.getChannel(SETI_ALL_CHANNEL), true);
+
+        // Ask the comets already connected for their associations; the requests
+        // travel after the subscriptions to the Seti channels, so the snapshots
+        // sent in response cannot arrive before this Seti is subscribed.
+        for (String oortURL : _oort.getKnownComets())
+            requestResync(oortURL);
     }
 
     @Override
     protected void doStop() throws Exception
     {
         removeAssociationsAndPresences();
+        _remotePresences.clear();
         _presenceListeners.clear();
 
         _session.disconnect();
@@ -151,6 +221,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
 
         String setiChannel = generateSetiChannel(_setiId);
         _oort.deobserveChannel(setiChannel);
+        _oort.unpinChannel(setiChannel);
 
         BayeuxServer bayeux = _oort.getBayeuxServer();
         ServerChannel channel = bayeux.getChannel(setiChannel);
@@ -203,7 +274,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
                 if (_logger.isDebugEnabled())
                     _logger.debug("Broadcasting association addition for user {}", userId);
                 // Let everyone in the cluster know that this session is here
-                _session.getChannel(SETI_ALL_CHANNEL).publish(new SetiPresence(true, userId));
+                broadcastPresence(true, userId);
             }
         }
 
@@ -215,21 +286,54 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         if (!isRunning())
             return false;
 
-        synchronized (_uid2Location)
+        synchronized (stripe(userId))
         {
             Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null)
-            {
-                locations = new HashSet<>();
-                _uid2Location.put(userId, locations);
-            }
-            boolean result = locations.add(location);
+            if (locations != null && locations.contains(location))
+                return false;
+            Set<Location> newLocations = locations == null ? new HashSet<Location>(2) : new HashSet<>(locations);
+            newLocations.add(location);
+            _uid2Location.put(userId, newLocations);
+            if (location instanceof SetiLocation)
+                addUserId(((SetiLocation)location)._oortURL, userId);
             if (_logger.isDebugEnabled())
                 _logger.debug("Associations {}", _uid2Location);
-            return result;
+            return true;
         }
     }
 
+    private Object stripe(String userId)
+    {
+        return _stripes[(userId.hashCode() & Integer.MAX_VALUE) % _stripes.length];
+    }
+
+    private void addUserId(String oortURL, String userId)
+    {
+        // The set of userIds may be concurrently detached by removePresences(),
+        // which does not hold the stripe locks: retry until the userId is added
+        // to the set that is mapped, so that it is not missed by the removal.
+        while (true)
+        {
+            Set<String> userIds = getUserIds(oortURL);
+            userIds.add(userId);
+            if (_oortURL2UserIds.get(oortURL) == userIds)
+                return;
+        }
+    }
+
+    private Set<String> getUserIds(String oortURL)
+    {
+        Set<String> userIds = _oortURL2UserIds.get(oortURL);
+        if (userIds == null)
+        {
+            userIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> existing = _oortURL2UserIds.putIfAbsent(oortURL, userIds);
+            if (existing != null)
+                userIds = existing;
+        }
+        return userIds;
+    }
+
     private boolean associateRemote(String userId, SetiLocation location)
     {
         // There is a possibility that a remote Seti sends an association,
@@ -262,18 +366,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     @ManagedOperation(value = "Whether the given userId is associated locally", impact = "INFO")
     public boolean isAssociated(@Name(value = "userId", description = "The userId to test for local association") String userId)
     {
-        synchronized (_uid2Location)
-        {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null)
-                return false;
-            for (Location location : locations)
-            {
-                if (location instanceof LocalLocation)
-                    return true;
-            }
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null)
             return false;
+        for (Location location : locations)
+        {
+            if (location instanceof LocalLocation)
+                return true;
         }
+        return false;
     }
 
     /**
@@ -285,19 +386,16 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     @ManagedOperation(value = "The number of local associations for the given userId", impact = "INFO")
     public int getAssociationCount(@Name(value = "userId", description = "The userId to test for local association count") String userId)
     {
-        synchronized (_uid2Location)
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null)
+            return 0;
+        int result = 0;
+        for (Location location : locations)
         {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null)
-                return 0;
-            int result = 0;
-            for (Location location : locations)
-            {
-                if (location instanceof LocalLocation)
-                    ++result;
-            }
-            return result;
+            if (location instanceof LocalLocation)
+                ++result;
         }
+        return result;
     }
 
     /**
@@ -310,11 +408,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     @ManagedOperation(value = "Whether the given userId is present in the cloud", impact = "INFO")
     public boolean isPresent(@Name(value = "userId", description = "The userId to test for presence in the cloud") String userId)
     {
-        synchronized (_uid2Location)
-        {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations != null;
-        }
+        return _uid2Location.containsKey(userId);
     }
 
     /**
@@ -326,11 +420,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     @ManagedOperation(value = "The number of local and remote associations for the given userId", impact = "INFO")
     public int getPresenceCount(@Name(value = "userId", description = "The userId to test for presence count") String userId)
     {
-        synchronized (_uid2Location)
-        {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations == null ? 0 : locations.size();
-        }
+        Set<Location> locations = _uid2Location.get(userId);
+        return locations == null ? 0 : locations.size();
     }
 
     /**
@@ -366,38 +457,100 @@ public class Seti extends AbstractLifeCycle implements Dumpable
             if (_logger.isDebugEnabled())
                 _logger.debug("Broadcasting association removal for user {}", userId);
             // Let everyone in the cluster know that this session is not here anymore
-            _session.getChannel(SETI_ALL_CHANNEL).publish(new SetiPresence(false, userId));
+            broadcastPresence(false, userId);
         }
 
         return removed;
     }
 
+    private void broadcastPresence(boolean present, String userId)
+    {
+        // Sequence numbers are assigned and published under the
+        // lock, so that they are received in order by other comets.
+        synchronized (_presenceLock)
+        {
+            SetiPresence presence = new SetiPresence(present, Collections.singleton(userId));
+            presence.put(SetiPresence.SEQUENCE_FIELD, ++_presenceSequence);
+            _session.getChannel(SETI_ALL_CHANNEL).publish(presence);
+        }
+    }
+
+    /**
+     * <p>Publishes a snapshot of the associations of this Seti on the given channel,
+     * split in chunks of at most {@link #getPresenceChunkSize()} userIds.</p>
+     * <p>The snapshot carries the sequence number of the last delta it includes,
+     * so that receivers can tell which deltas are newer than the snapshot.
+     * The snapshot is published under the same lock of the deltas, so that on a
+     * channel that travels on the same link of the deltas, receivers get them in order.</p>
+     *
+     * @param channel the channel to publish the snapshot to
+     * @param alive   whether the snapshot is sent because this Seti just started
+     */
+    protected void pushPresences(ClientSessionChannel channel, boolean alive)
+    {
+        int chunkSize = Math.max(1, getPresenceChunkSize());
+        boolean compress = isPresenceCompressionEnabled();
+        synchronized (_presenceLock)
+        {
+            long sequence = _presenceSequence;
+            List<String> userIds = new ArrayList<>(getAssociatedUserIds());
+            long snapshot = _snapshotIds.incrementAndGet();
+            int chunks = Math.max(1, (userIds.size() + chunkSize - 1) / chunkSize);
+            if (_logger.isDebugEnabled())
+                _logger.debug("Pushing snapshot {}/{} with {} users in {} chunks to {}", snapshot, sequence, userIds.size(), chunks, channel);
+            for (int i = 0; i < chunks; ++i)
+            {
+                List<String> chunk = new ArrayList<>(userIds.subList(i * chunkSize, Math.min(userIds.size(), (i + 1) * chunkSize)));
+                SetiPresence presence = new SetiPresence(true, chunk, compress);
+                presence.put(SetiPresence.SEQUENCE_FIELD, sequence);
+                presence.put(SetiPresence.SNAPSHOT_FIELD, snapshot);
+                presence.put(SetiPresence.CHUNK_FIELD, i);
+                // Every chunk carries the alive flag, since receivers reset
+                // their state when the first chunk of a snapshot arrives.
+                if (alive)
+                    presence.put(SetiPresence.ALIVE_FIELD, true);
+                if (i == chunks - 1)
+                    presence.put(SetiPresence.LAST_FIELD, true);
+                channel.publish(presence);
+            }
+        }
+    }
+
     protected boolean disassociate(String userId, Location location)
     {
-        synchronized (_uid2Location)
+        synchronized (stripe(userId))
         {
-            boolean result = false;
             Set<Location> locations = _uid2Location.get(userId);
-            if (locations != null)
+            if (locations == null || !locations.contains(location))
+                return false;
+            if (locations.size() == 1)
             {
-                result = locations.remove(location);
-                if (locations.isEmpty())
-                    _uid2Location.remove(userId);
+                _uid2Location.remove(userId);
+            }
+            else
+            {
+                Set<Location> newLocations = new HashSet<>(locations);
+                newLocations.remove(location);
+                _uid2Location.put(userId, newLocations);
+            }
+            if (location instanceof SetiLocation)
+            {
+                Set<String> userIds = _oortURL2UserIds.get(((SetiLocation)location)._oortURL);
+                if (userIds != null)
+                    userIds.remove(userId);
             }
             if (_logger.isDebugEnabled())
                 _logger.debug("Associations {}", _uid2Location);
-            return result;
+            return true;
         }
     }
 
     protected void removeAssociationsAndPresences()
     {
         final Set<String> userIds = new HashSet<>();
-        synchronized (_uid2Location)
-        {
-            getAssociatedUserIds(userIds);
-            _uid2Location.clear();
-        }
+        getAssociatedUserIds(userIds);
+        _uid2Location.clear();
+        _oortURL2UserIds.clear();
         if (_logger.isDebugEnabled())
             _logger.debug("Broadcasting association removal for users {}", userIds);
         SetiPresence presence = new SetiPresence(false, userIds);
@@ -408,27 +561,16 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     protected void removePresences(String oortURL)
     {
         List<String> userIds = new ArrayList<>();
-        synchronized (_uid2Location)
+        // Only visit the users of the given node, via the reverse index.
+        // Concurrent associations either land in the detached set, and are
+        // removed below, or in a new set, see addUserId().
+        Set<String> candidates = _oortURL2UserIds.remove(oortURL);
+        if (candidates != null)
         {
-            for (Iterator<Map.Entry<String, Set<Location>>> entries = _uid2Location.entrySet().iterator(); entries.hasNext();)
+            for (String userId : candidates)
             {
-                Map.Entry<String, Set<Location>> entry = entries.next();
-                Set<Location> userLocations = entry.getValue();
-                for (Iterator<Location> iterator = userLocations.iterator(); iterator.hasNext(); )
-                {
-                    Location location = iterator.next();
-                    if (location instanceof SetiLocation)
-                    {
-                        if (oortURL.equals(((SetiLocation)location)._oortURL))
-                        {
-                            iterator.remove();
-                            userIds.add(entry.getKey());
-                            break;
-                        }
-                    }
-                }
-                if (userLocations.isEmpty())
-                    entries.remove();
+                if (disassociate(userId, new SetiLocation(userId, oortURL)))
+                    userIds.add(userId);
             }
         }
         if (_logger.isDebugEnabled())
@@ -443,10 +585,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     @ManagedAttribute(value = "The set of userIds known to this Seti", readonly = true)
     public Set<String> getUserIds()
     {
-        synchronized (_uid2Location)
-        {
-            return new HashSet<>(_uid2Location.keySet());
-        }
+        return new HashSet<>(_uid2Location.keySet());
     }
 
     /**
@@ -461,17 +600,14 @@ public class Seti extends AbstractLifeCycle implements Dumpable
 
     private void getAssociatedUserIds(Set<String> result)
     {
-        synchronized (_uid2Location)
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet())
         {
-            for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet())
+            for (Location location : entry.getValue())
             {
-                for (Location location : entry.getValue())
+                if (location instanceof LocalLocation)
                 {
-                    if (location instanceof LocalLocation)
-                    {
-                        result.add(entry.getKey());
-                        break;
-                    }
+                    result.add(entry.getKey());
+                    break;
                 }
             }
         }
@@ -492,6 +628,9 @@ public class Seti extends AbstractLifeCycle implements Dumpable
 
     /**
      * <p>Sends a message to multiple userIds in the Oort cloud.</p>
+     * <p>Users are grouped by the Seti they are associated with, so that
+     * each remote Seti receives only one message carrying all its target
+     * users, and then delivers the message locally to each of them.</p>
      *
      * @param toUserIds the userIds to send the message to
      * @param toChannel the channel to send the message to
@@ -499,23 +638,56 @@ public class Seti extends AbstractLifeCycle implements Dumpable
      */
     public void sendMessage(final Collection<String> toUserIds, final String toChannel, final Object data)
     {
+        Map<Location, String> locals = new HashMap<>();
+        Map<String, List<String>> remotes = new HashMap<>();
+        Map<Location, String> others = new HashMap<>();
         for (String toUserId : toUserIds)
         {
-            Set<Location> copy = new HashSet<>();
-            synchronized (_uid2Location)
+            Set<Location> locations = _uid2Location.get(toUserId);
+            if (locations == null)
             {
-                Set<Location> locations = _uid2Location.get(toUserId);
-                if (locations == null)
-                    copy.add(new SetiLocation(toUserId, null));
-                else
-                    copy.addAll(locations);
+                // Unknown users are searched in the whole cloud.
+                addRemote(remotes, SETI_ALL_CHANNEL, toUserId);
             }
+            else
+            {
+                for (Location location : locations)
+                {
+                    if (location instanceof LocalLocation)
+                        locals.put(location, toUserId);
+                    else if (location instanceof SetiLocation)
+                        addRemote(remotes, ((SetiLocation)location)._setiChannel, toUserId);
+                    else
+                        others.put(location, toUserId);
+                }
+            }
+        }
 
-            if (_logger.isDebugEnabled())
-                _logger.debug("Sending message to locations {}", copy);
-            for (Location location : copy)
-                location.send(toUserId, toChannel, data);
+        if (_logger.isDebugEnabled())
+            _logger.debug("Sending message to local locations {}, remote users {}, other locations {}", locals, remotes, others);
+        for (Map.Entry<Location, String> entry : locals.entrySet())
+            entry.getKey().send(entry.getValue(), toChannel, data);
+        for (Map.Entry<String, List<String>> entry : remotes.entrySet())
+        {
+            List<String> userIds = entry.getValue();
+            SetiMessage message = userIds.size() == 1 ?
+                    new SetiMessage(userIds.get(0), toChannel, data) :
+                    new SetiMessage(userIds, toChannel, data);
+            _session.getChannel(entry.getKey()).publish(message);
         }
+        for (Map.Entry<Location, String> entry : others.entrySet())
+            entry.getKey().send(entry.getValue(), toChannel, data);
+    }
+
+    private void addRemote(Map<String, List<String>> remotes, String setiChannel, String userId)
+    {
+        List<String> userIds = remotes.get(setiChannel);
+        if (userIds == null)
+        {
+            userIds = new ArrayList<>();
+            remotes.put(setiChannel, userIds);
+        }
+        userIds.add(userId);
     }
 
     /**
@@ -532,10 +704,49 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         Boolean presence = (Boolean)data.get(SetiPresence.PRESENCE_FIELD);
         if (presence != null)
             receivePresence(data);
+        else if (data.containsKey(SetiPresence.RESYNC_FIELD))
+            receiveResync(data);
         else
             receiveMessage(data);
     }
 
+    private void receiveResync(Map<String, Object> resync)
+    {
+        String oortURL = (String)resync.get(SetiPresence.RESYNC_FIELD);
+        if (_logger.isDebugEnabled())
+            _logger.debug("Resync requested by comet {}", oortURL);
+        pushPresences(getPresenceChannel(oortURL), false);
+    }
+
+    private ClientSessionChannel getPresenceChannel(String oortURL)
+    {
+        // Snapshots are published locally on the Seti channel of the remote comet,
+        // so that they travel, like the deltas published on /seti/all, on the link
+        // that the remote comet opened to this comet, where it pinned its Seti
+        // channel to /seti/all, and are therefore received in order with the deltas.
+        return _session.getChannel(generateSetiChannel(generateSetiId(oortURL)));
+    }
+
+    private ClientSessionChannel getSetiChannel(OortComet oortComet, String oortURL)
+    {
+        // Use the link of /seti/all, that also carries the subscriptions to the Seti channels.
+        String setiChannel = generateSetiChannel(generateSetiId(oortURL));
+        return oortComet.getLink(SETI_ALL_CHANNEL).getChannel(setiChannel);
+    }
+
+    private void requestResync(String oortURL)
+    {
+        OortComet oortComet = _oort.findComet(oortURL);
+        if (_logger.isDebugEnabled())
+            _logger.debug("Requesting resync to comet {} with {}", oortURL, oortComet);
+        if (oortComet != null)
+        {
+            Map<String, Object> resync = new HashMap<>(2);
+            resync.put(SetiPresence.RESYNC_FIELD, _oort.getURL());
+            getSetiChannel(oortComet, oortURL).publish(resync);
+        }
+    }
+
     /**
      * <p>Receives messages broadcast by other Setis in the cloud.</p>
      * <p>Broadcast messages may be presence messages, where another Seti advertises
@@ -601,6 +812,43 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         if (_logger.isDebugEnabled())
             _logger.debug("Received remote presence message from comet {} for {}", oortURL, userIds);
 
+        Object alive = presence.get(SetiPresence.ALIVE_FIELD);
+        if (alive == Boolean.FALSE)
+            _remotePresences.remove(oortURL);
+
+        Set<String> snapshot = null;
+        Number sequence = (Number)presence.get(SetiPresence.SEQUENCE_FIELD);
+        if (sequence != null)
+        {
+            // Presence messages without sequence number come from
+            // older Setis and are applied without further checks.
+            RemotePresence remote = findRemotePresence(oortURL);
+            synchronized (remote)
+            {
+                Number snapshotId = (Number)presence.get(SetiPresence.SNAPSHOT_FIELD);
+                if (snapshotId != null)
+                {
+                    Number chunk = (Number)presence.get(SetiPresence.CHUNK_FIELD);
+                    boolean last = presence.get(SetiPresence.LAST_FIELD) == Boolean.TRUE;
+                    if (!remote.snapshot(snapshotId.longValue(), chunk.intValue(), last, sequence.longValue(), alive == Boolean.TRUE, userIds))
+                        remote.resync = true;
+                    else if (last)
+                        snapshot = remote.complete(snapshotId.longValue());
+                }
+                else
+                {
+                    long delta = sequence.longValue();
+                    // Stale deltas are already accounted for by a newer snapshot.
+                    if (delta <= remote.sequence)
+                        return;
+                    if (remote.sequence >= 0 && delta > remote.sequence + 1)
+                        remote.resync = true;
+                    remote.sequence = delta;
+                    remote.delta(present, userIds);
+                }
+            }
+        }
+
         for (String userId : userIds)
         {
             SetiLocation location = new SetiLocation(userId, oortURL);
@@ -616,19 +864,52 @@ public class Seti extends AbstractLifeCycle implements Dumpable
             }
         }
 
-        if (presence.get(SetiPresence.ALIVE_FIELD) == Boolean.TRUE)
+        if (snapshot != null)
         {
-            // Message sent on startup by the remote Seti, push our associations
-            OortComet oortComet = _oort.findComet(oortURL);
-            if (oortComet != null)
+            // A complete snapshot is authoritative: users of the remote
+            // comet that are not in the snapshot are not there anymore.
+            Set<String> known = _oortURL2UserIds.get(oortURL);
+            if (known != null)
             {
-                Set<String> associatedUserIds = getAssociatedUserIds();
-                if (_logger.isDebugEnabled())
-                    _logger.debug("Pushing associated users {} to comet {}", associatedUserIds, oortURL);
-                ClientSessionChannel channel = oortComet.getChannel(generateSetiChannel(generateSetiId(oortURL)));
-                channel.publish(new SetiPresence(true, associatedUserIds));
+                for (String userId : known)
+                {
+                    if (!snapshot.contains(userId))
+                    {
+                        if (disassociate(userId, new SetiLocation(userId, oortURL)))
+                            notifyPresenceRemoved(oortURL, userId);
+                    }
+                }
             }
         }
+
+        if (sequence != null)
+        {
+            RemotePresence remote = _remotePresences.get(oortURL);
+            boolean resync = false;
+            if (remote != null)
+            {
+                synchronized (remote)
+                {
+                    resync = remote.resync;
+                    remote.resync = false;
+                }
+            }
+            if (resync)
+                requestResync(oortURL);
+        }
+    }
+
+    private RemotePresence findRemotePresence(String oortURL)
+    {
+        RemotePresence result = _remotePresences.get(oortURL);
+        if (result == null)
+        {
+            result = new RemotePresence();
+            RemotePresence existing = _remotePresences.putIfAbsent(oortURL, result);
+            if (existing != null)
+                result = existing;
+        }
+        return result;
     }
 
     public void addPresenceListener(PresenceListener listener)
@@ -680,12 +961,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable
      */
     protected void receiveMessage(Map<String, Object> message)
     {
-        String userId = (String)message.get(SetiMessage.USER_ID_FIELD);
         String channel = (String)message.get(SetiMessage.CHANNEL_FIELD);
         Object data = message.get(SetiMessage.DATA_FIELD);
+        Object userIds = message.get(SetiMessage.USER_IDS_FIELD);
+        Collection<String> toUserIds = userIds == null ?
+                Collections.singleton((String)message.get(SetiMessage.USER_ID_FIELD)) :
+                convertUserIds(userIds);
 
-        Set<Location> copy = new HashSet<>();
-        synchronized (_uid2Location)
+        Map<Location, String> copy = new HashMap<>();
+        for (String userId : toUserIds)
         {
             Set<Location> locations = _uid2Location.get(userId);
             if (locations != null)
@@ -701,21 +985,86 @@ public class Seti extends AbstractLifeCycle implements Dumpable
                 for (Location location : locations)
                 {
                     if (location instanceof LocalLocation)
-                        copy.add(location);
+                        copy.put(location, userId);
                 }
             }
         }
 
         if (_logger.isDebugEnabled())
             _logger.debug("Received message {} for locations {}", message, copy);
-        for (Location location : copy)
-            location.receive(userId, channel, data);
+        for (Map.Entry<Location, String> entry : copy.entrySet())
+            entry.getKey().receive(entry.getValue(), channel, data);
     }
 
-    @SuppressWarnings("unchecked")
     private Set<String> convertPresenceUsers(Map<String, Object> presence)
     {
-        Object value = presence.get(SetiPresence.USER_IDS_FIELD);
+        Object compressed = presence.get(SetiPresence.COMPRESSED_USER_IDS_FIELD);
+        if (compressed != null)
+            return decompress((String)compressed);
+        return convertUserIds(presence.get(SetiPresence.USER_IDS_FIELD));
+    }
+
+    private static String compress(Collection<String> userIds)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8))
+            {
+                boolean first = true;
+                for (String userId : userIds)
+                {
+                    if (!first)
+                        writer.write(USER_IDS_SEPARATOR);
+                    first = false;
+                    writer.write(userId);
+                }
+            }
+            return new String(B64Code.encode(bytes.toByteArray()));
+        }
+        catch (IOException x)
+        {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private static Set<String> decompress(String compressed)
+    {
+        try
+        {
+            StringBuilder builder = new StringBuilder();
+            try (Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(B64Code.decode(compressed))), StandardCharsets.UTF_8))
+            {
+                char[] buffer = new char[1024];
+                int read;
+                while ((read = reader.read(buffer)) >= 0)
+                    builder.append(buffer, 0, read);
+            }
+            Set<String> result = new HashSet<>();
+            if (builder.length() == 0)
+                return result;
+            int start = 0;
+            while (true)
+            {
+                int end = builder.indexOf(USER_IDS_SEPARATOR, start);
+                if (end < 0)
+                {
+                    result.add(builder.substring(start));
+                    return result;
+                }
+                result.add(builder.substring(start, end));
+                start = end + 1;
+            }
+        }
+        catch (IOException x)
+        {
+            throw new IllegalArgumentException(x);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> convertUserIds(Object value)
+    {
         if (value instanceof Set)
             return (Set<String>)value;
         if (value instanceof Collection)
@@ -739,11 +1088,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     {
         ContainerLifeCycle.dumpObject(out, this);
         List<String> state = new ArrayList<>();
-        synchronized (_uid2Location)
-        {
-            for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet())
-                state.add(String.format("%s @ %s", entry.getKey(), entry.getValue()));
-        }
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet())
+            state.add(String.format("%s @ %s", entry.getKey(), entry.getValue()));
         ContainerLifeCycle.dump(out, indent, state);
     }
 
@@ -879,6 +1225,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     private class SetiMessage extends HashMap<String, Object>
     {
         private static final String USER_ID_FIELD = "userId";
+        private static final String USER_IDS_FIELD = "userIds";
         private static final String CHANNEL_FIELD = "channel";
         private static final String SETI_ID_FIELD = "setiId";
         private static final String DATA_FIELD = "data";
@@ -891,6 +1238,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable
             put(SETI_ID_FIELD, _setiId);
             put(DATA_FIELD, data);
         }
+
+        private SetiMessage(List<String> toUsers, String toChannel, Object data)
+        {
+            super(4);
+            put(USER_IDS_FIELD, toUsers);
+            put(CHANNEL_FIELD, toChannel);
+            put(SETI_ID_FIELD, _setiId);
+            put(DATA_FIELD, data);
+        }
     }
 
     private class SetiPresence extends HashMap<String, Object>
@@ -899,21 +1255,93 @@ public class Seti extends AbstractLifeCycle implements Dumpable
         private static final String OORT_URL_FIELD = "oortURL";
         private static final String ALIVE_FIELD = "alive";
         private static final String PRESENCE_FIELD = "presence";
-
-        private SetiPresence(boolean present, String userId)
+        private static final String COMPRESSED_USER_IDS_FIELD = "compressedUserIds";
+        private static final String SEQUENCE_FIELD = "sequence";
+        private static final String SNAPSHOT_FIELD = "snapshot";
+        private static final String CHUNK_FIELD = "chunk";
+        private static final String LAST_FIELD = "last";
+        private static final String RESYNC_FIELD = "resync";
+
+        private SetiPresence(boolean present, Collection<String> userIds)
         {
-            this(present, Collections.singleton(userId));
+            this(present, userIds, false);
         }
 
-        private SetiPresence(boolean present, Set<String> userIds)
+        private SetiPresence(boolean present, Collection<String> userIds, boolean compress)
         {
-            super(4);
-            put(USER_IDS_FIELD, userIds);
+            super(8);
+            if (compress)
+                put(COMPRESSED_USER_IDS_FIELD, compress(userIds));
+            else
+                put(USER_IDS_FIELD, userIds);
             put(OORT_URL_FIELD, _oort.getURL());
             put(PRESENCE_FIELD, present);
         }
     }
 
+    /**
+     * <p>The presence state received from a remote Seti: the sequence number
+     * of the last delta applied and the snapshot being received, if any.</p>
+     */
+    private static class RemotePresence
+    {
+        private long sequence = -1;
+        private long snapshotId = -1;
+        private int nextChunk;
+        private Set<String> snapshot;
+        private boolean resync;
+
+        /**
+         * @return false if a chunk has been lost and the snapshot cannot be completed
+         */
+        private boolean snapshot(long id, int chunk, boolean last, long snapshotSequence, boolean alive, Set<String> userIds)
+        {
+            if (chunk == 0)
+            {
+                snapshotId = id;
+                nextChunk = 0;
+                snapshot = new HashSet<>();
+                // A restarted Seti numbers its deltas from scratch.
+                sequence = alive ? snapshotSequence : Math.max(sequence, snapshotSequence);
+            }
+            else if (id < snapshotId)
+            {
+                // A chunk of a superseded snapshot, its users are still present.
+                return true;
+            }
+            if (id != snapshotId || chunk != nextChunk || snapshot == null)
+            {
+                snapshot = null;
+                return false;
+            }
+            ++nextChunk;
+            snapshot.addAll(userIds);
+            return true;
+        }
+
+        private Set<String> complete(long id)
+        {
+            if (id != snapshotId)
+                return null;
+            Set<String> result = snapshot;
+            snapshot = null;
+            return result;
+        }
+
+        private void delta(boolean present, Set<String> userIds)
+        {
+            // Keep the snapshot being received up to date, so
+            // that its completion does not undo newer deltas.
+            if (snapshot != null)
+            {
+                if (present)
+                    snapshot.addAll(userIds);
+                else
+                    snapshot.removeAll(userIds);
+            }
+        }
+    }
+
     /**
      * Listener interface that gets notified of remote Seti presence events.
      */
@@ -1008,18 +1436,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable
     {
         public void cometJoined(Event event)
         {
+            // The remote comet joins after it has subscribed to the
+            // Seti channels, so the snapshot cannot get lost.
             String oortURL = event.getCometURL();
-            OortComet oortComet = _oort.findComet(oortURL);
             if (_logger.isDebugEnabled())
-                _logger.debug("Comet joined: {} with {}", oortURL, oortComet);
-            if (oortComet != null)
-            {
-                ClientSessionChannel channel = oortComet.getChannel(generateSetiChannel(generateSetiId(oortURL)));
-                Set<String> userIds = getAssociatedUserIds();
-                if (_logger.isDebugEnabled())
-                    _logger.debug("Pushing associated users {} to comet {}", userIds, oortURL);
-                channel.publish(new SetiPresence(true, userIds));
-            }
+                _logger.debug("Comet joined: {}, pushing associated users", oortURL);
+            pushPresences(getPresenceChannel(oortURL), false);
+            // The remote comet may have pushed its snapshot before it was
+            // connected to this comet, in which case it has been discarded.
+            requestResync(oortURL);
         }
 
         public void cometLeft(Event event)
@@ -1027,6 +1452,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable
             String oortURL = event.getCometURL();
             if (_logger.isDebugEnabled())
                 _logger.debug("Comet left: {}", oortURL);
+            _remotePresences.remove(oortURL);
             removePresences(oortURL);
         }
     }
@@ -33,6 +33,9 @@ import javax.servlet.http.HttpServlet;
  */
 public class SetiServlet extends HttpServlet
 {
+    public static final String SETI_PRESENCE_CHUNK_SIZE_PARAM = "presenceChunkSize";
+    public static final String SETI_ENABLE_PRESENCE_COMPRESSION_PARAM = "enablePresenceCompression";
+
     public void init(ServletConfig config) throws ServletException
     {
         super.init(config);
@@ -45,6 +48,10 @@ public class SetiServlet extends HttpServlet
         try
         {
             Seti seti = newSeti(oort);
+            String chunkSize = config.getInitParameter(SETI_PRESENCE_CHUNK_SIZE_PARAM);
+            if (chunkSize != null)
+                seti.setPresenceChunkSize(Integer.parseInt(chunkSize));
+            seti.setPresenceCompressionEnabled(Boolean.parseBoolean(config.getInitParameter(SETI_ENABLE_PRESENCE_COMPRESSION_PARAM)));
             seti.start();
             servletContext.setAttribute(Seti.SETI_ATTRIBUTE, seti);
         }
@@ -48,7 +48,11 @@ public abstract class AbstractOortObjectTest extends OortTest
         oort1 = startOort(server1);
         Server server2 = startServer(0);
         oort2 = startOort(server2);
+        connectOorts();
+    }
 
+    protected void connectOorts() throws Exception
+    {
         CountDownLatch latch = new CountDownLatch(2);
         CometJoinedListener listener = new CometJoinedListener(latch);
         oort1.addCometListener(listener);
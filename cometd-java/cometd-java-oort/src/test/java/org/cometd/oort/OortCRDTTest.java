@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortCRDTTest extends AbstractOortObjectTest
+{
+    public OortCRDTTest(String serverTransport)
+    {
+        super(serverTransport);
+    }
+
+    @Test
+    public void testPNCounter() throws Exception
+    {
+        String name = "counter";
+        OortPNCounter counter1 = new OortPNCounter(oort1, name);
+        counter1.setShareOperations(10);
+        counter1.setShareInterval(500);
+        OortPNCounter counter2 = new OortPNCounter(oort2, name);
+        counter2.setShareOperations(10);
+        counter2.setShareInterval(500);
+        startCRDTs(name, counter1, counter2);
+
+        try
+        {
+            for (int i = 0; i < 25; ++i)
+                counter1.increment();
+            counter1.add(-5);
+            counter2.add(7);
+            counter2.decrement();
+
+            // Local updates are immediately visible locally.
+            Assert.assertEquals(20, counter1.get());
+            Assert.assertEquals(6, counter2.get());
+
+            // Pending updates are shared after the interval.
+            Assert.assertTrue(await(counter1, 26));
+            Assert.assertTrue(await(counter2, 26));
+        }
+        finally
+        {
+            counter2.stop();
+            counter1.stop();
+        }
+    }
+
+    @Test
+    public void testORSet() throws Exception
+    {
+        String name = "set";
+        OortORSet set1 = new OortORSet(oort1, name);
+        set1.setShareInterval(50);
+        OortORSet set2 = new OortORSet(oort2, name);
+        set2.setShareInterval(50);
+        startCRDTs(name, set1, set2);
+
+        try
+        {
+            Assert.assertTrue(set1.add("a"));
+            Assert.assertFalse(set1.add("a"));
+            Assert.assertTrue(set2.add("b"));
+            Assert.assertTrue(await(set1, "a", "b"));
+            Assert.assertTrue(await(set2, "a", "b"));
+
+            // Remove an element added by another node.
+            Assert.assertTrue(set1.remove("b"));
+            Assert.assertFalse(set1.contains("b"));
+            Assert.assertTrue(await(set1, "a"));
+            Assert.assertTrue(await(set2, "a"));
+
+            // The same element can be added again.
+            Assert.assertTrue(set2.add("b"));
+            Assert.assertTrue(await(set1, "a", "b"));
+            Assert.assertTrue(await(set2, "a", "b"));
+
+            // Concurrent add and remove: the add wins.
+            set1.remove("a");
+            set2.add("a");
+            Assert.assertTrue(await(set1, "a", "b"));
+            Assert.assertTrue(await(set2, "a", "b"));
+        }
+        finally
+        {
+            set2.stop();
+            set1.stop();
+        }
+    }
+
+    @Test
+    public void testORSetLocalBulkUpdates() throws Exception
+    {
+        String name = "set";
+        OortORSet set1 = new OortORSet(oort1, name);
+        set1.setShareInterval(50);
+        OortORSet set2 = new OortORSet(oort2, name);
+        set2.setShareInterval(50);
+        startCRDTs(name, set1, set2);
+
+        try
+        {
+            Assert.assertTrue(set2.add("x"));
+            Assert.assertTrue(await(set1, "x"));
+
+            int count = 200;
+            List<String> expected = new ArrayList<>();
+            expected.add("x");
+            for (int i = 0; i < count; ++i)
+            {
+                String element = String.valueOf(i);
+                Assert.assertTrue(set1.add(element));
+                Assert.assertFalse(set1.add(element));
+                if (i % 2 == 0)
+                    expected.add(element);
+            }
+            Assert.assertEquals(count + 1, set1.size());
+
+            // Remove the odd elements, and an element added by another node.
+            for (int i = 1; i < count; i += 2)
+                Assert.assertTrue(set1.remove(String.valueOf(i)));
+            Assert.assertTrue(set1.remove("x"));
+            Assert.assertFalse(set1.remove("x"));
+            expected.remove("x");
+            Assert.assertEquals(count / 2, set1.size());
+
+            String[] elements = expected.toArray(new String[expected.size()]);
+            Assert.assertTrue(await(set1, elements));
+            boolean ok = await(set2, elements);
+            System.err.println("DBG set2 size=" + set2.size() + " x=" + set2.contains("x") + " set1 size=" + set1.size()+ " ok=" + ok);
+            Assert.assertTrue(ok);
+        }
+        finally
+        {
+            set2.stop();
+            set1.stop();
+        }
+    }
+
+    private void startCRDTs(String name, OortCRDT crdt1, OortCRDT crdt2) throws Exception
+    {
+        String channelName = OortObject.OORT_OBJECTS_CHANNEL + "/" + name;
+        CometSubscriptionListener listener1 = new CometSubscriptionListener(channelName, 1);
+        oort1.getBayeuxServer().addListener(listener1);
+        CometSubscriptionListener listener2 = new CometSubscriptionListener(channelName, 1);
+        oort2.getBayeuxServer().addListener(listener2);
+        crdt1.start();
+        Assert.assertTrue(listener2.await(5, TimeUnit.SECONDS));
+        crdt2.start();
+        Assert.assertTrue(listener1.await(5, TimeUnit.SECONDS));
+    }
+
+    private boolean await(OortPNCounter counter, long expected) throws InterruptedException
+    {
+        for (int i = 0; i < 100; ++i)
+        {
+            if (counter.sum() == expected)
+                return true;
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return false;
+    }
+
+    private boolean await(OortORSet set, String... expected) throws InterruptedException
+    {
+        for (int i = 0; i < 100; ++i)
+        {
+            if (set.getElements().equals(new HashSet<>(Arrays.asList(expected))))
+                return true;
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return false;
+    }
+}
@@ -16,6 +16,7 @@
 package org.cometd.oort;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -224,4 +225,62 @@ public class OortListTest extends AbstractOortObjectTest
         oortList2.removeElementListener(addedListener);
         oortList1.removeElementListener(addedListener);
     }
+
+    @Test
+    public void testIncrementalSyncPreservesOrder() throws Exception
+    {
+        String name = "test";
+        OortObject.Factory<List<Long>> factory = OortObjectFactories.forConcurrentList();
+        OortList<Long> oortList1 = new OortList<Long>(oort1, name, factory);
+        OortList<Long> oortList2 = new OortList<Long>(oort2, name, factory);
+        for (OortList<Long> oortList : Arrays.asList(oortList1, oortList2))
+        {
+            oortList.setIncrementalSyncEnabled(true);
+            oortList.setSyncBuckets(16);
+            oortList.setSyncChunkSize(2);
+        }
+        startOortObjects(oortList1, oortList2);
+
+        final CountDownLatch setLatch = new CountDownLatch(1);
+        OortObject.Listener<List<Long>> setListener = new OortObject.Listener.Adapter<List<Long>>()
+        {
+            @Override
+            public void onUpdated(OortObject.Info<List<Long>> oldInfo, OortObject.Info<List<Long>> newInfo)
+            {
+                setLatch.countDown();
+            }
+        };
+        oortList2.addListener(setListener);
+        // Duplicate elements, not in natural order.
+        List<Long> list = factory.newObject(null);
+        for (int i = 0; i < 32; ++i)
+            list.add((long)((31 - i) % 8));
+        oortList1.setAndShare(list);
+        Assert.assertTrue(setLatch.await(5, TimeUnit.SECONDS));
+        oortList2.removeListener(setListener);
+
+        // Simulate node1 leaving node2, and a change on node1 that only swaps two elements.
+        oortList2.cometLeft(new Oort.CometListener.Event(oort2, oort1.getURL()));
+        Assert.assertNull(oortList2.getInfo(oort1.getURL()));
+        List<Long> list1 = oortList1.getInfo(oort1.getURL()).getObject();
+        Long first = list1.get(0);
+        list1.set(0, list1.get(1));
+        list1.set(1, first);
+
+        final CountDownLatch syncLatch = new CountDownLatch(1);
+        oortList2.addListener(new OortObject.Listener.Adapter<List<Long>>()
+        {
+            @Override
+            public void onUpdated(OortObject.Info<List<Long>> oldInfo, OortObject.Info<List<Long>> newInfo)
+            {
+                syncLatch.countDown();
+            }
+        });
+
+        // Node1 joins again.
+        oortList1.cometJoined(new Oort.CometListener.Event(oort1, oort2.getURL()));
+        Assert.assertTrue(syncLatch.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(list1, oortList2.getInfo(oort1.getURL()).getObject());
+    }
 }
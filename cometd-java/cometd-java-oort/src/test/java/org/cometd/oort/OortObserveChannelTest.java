@@ -17,8 +17,14 @@ package org.cometd.oort;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ConfigurableServerChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.BayeuxClient;
 import org.cometd.common.HashMapMessage;
 import org.eclipse.jetty.server.Server;
@@ -201,4 +207,208 @@ public class OortObserveChannelTest extends OortTest
         client2.getChannel(channelName).publish(new HashMapMessage());
         Assert.assertFalse(messageLatch1.await(1, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testObserveChannelWithInterestRouting() throws Exception
+    {
+        Server server1 = startServer(0);
+        BayeuxServer bayeuxServer1 = (BayeuxServer)server1.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort1 = new Oort(bayeuxServer1, (String)server1.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        oort1.setInterestRoutingEnabled(true);
+        startOort(oort1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        String rootChannelName = "/oort_test";
+        String channelName = rootChannelName + "/foo";
+        final AtomicInteger forwarded = new AtomicInteger();
+        bayeuxServer1.createChannelIfAbsent(channelName, new ConfigurableServerChannel.Initializer.Persistent());
+        bayeuxServer1.getChannel(channelName).addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                forwarded.incrementAndGet();
+                return true;
+            }
+        });
+
+        // Oort1 observes the channel, but it has no local subscribers
+        oort1.observeChannel(rootChannelName + "/*");
+        Assert.assertTrue(oort1.getRoutedChannels().isEmpty());
+
+        // Wait a while to be sure messages are not forwarded
+        client2.getChannel(channelName).publish(new HashMapMessage());
+        Thread.sleep(1000);
+        Assert.assertEquals(0, forwarded.get());
+
+        // Subscribe client1, now there is interest in the observed channel
+        LatchListener subscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener(1);
+        client1.getChannel(channelName).subscribe(messageLatch1);
+        Assert.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, oort1.getRoutedChannels().size());
+
+        // Wait a while to be sure the OortComet is subscribed
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMapMessage());
+        Assert.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, forwarded.get());
+
+        // Unsubscribe client1, the interest goes away
+        LatchListener unsubscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_UNSUBSCRIBE).addListener(unsubscribeLatch1);
+        client1.getChannel(channelName).unsubscribe(messageLatch1);
+        Assert.assertTrue(unsubscribeLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(oort1.getRoutedChannels().isEmpty());
+
+        // Wait a while to be sure the OortComet is unsubscribed
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMapMessage());
+        Thread.sleep(1000);
+        Assert.assertEquals(1, forwarded.get());
+    }
+
+    @Test
+    public void testObservePermanentChannelWithInterestRouting() throws Exception
+    {
+        Server server1 = startServer(0);
+        BayeuxServer bayeuxServer1 = (BayeuxServer)server1.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort1 = new Oort(bayeuxServer1, (String)server1.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        oort1.setInterestRoutingEnabled(true);
+        startOort(oort1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Observe the channel before any listener is added to it,
+        // as it happens for channels configured in the servlet.
+        String channelName = "/oort_test/foo";
+        oort1.observeChannel(channelName, true);
+        Assert.assertEquals(1, oort1.getRoutedChannels().size());
+
+        final CountDownLatch forwardLatch = new CountDownLatch(2);
+        bayeuxServer1.createChannelIfAbsent(channelName, new ConfigurableServerChannel.Initializer.Persistent());
+        bayeuxServer1.getChannel(channelName).addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                forwardLatch.countDown();
+                return true;
+            }
+        });
+
+        // Wait a while to be sure the OortComet is subscribed
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMapMessage());
+
+        // A local subscriber that goes away does not stop the routing.
+        LatchListener subscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener();
+        client1.getChannel(channelName).subscribe(messageLatch1);
+        Assert.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+        LatchListener unsubscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_UNSUBSCRIBE).addListener(unsubscribeLatch1);
+        client1.getChannel(channelName).unsubscribe(messageLatch1);
+        Assert.assertTrue(unsubscribeLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, oort1.getRoutedChannels().size());
+
+        // Wait a while to be sure the OortComet is not unsubscribed
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMapMessage());
+        Assert.assertTrue(forwardLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testObserveChannelWithCometStripes() throws Exception
+    {
+        Server server1 = startServer(0);
+        BayeuxServer bayeuxServer1 = (BayeuxServer)server1.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort1 = new Oort(bayeuxServer1, (String)server1.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        int stripes = 3;
+        oort1.setCometStripes(stripes);
+        startOort(oort1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        // Observe the channels before connecting, so they are hashed onto all the links
+        String rootChannelName = "/oort_test/";
+        int channels = 8;
+        for (int i = 0; i < channels; ++i)
+            oort1.observeChannel(rootChannelName + i);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // The join is advertised after all the stripes have connected
+        Assert.assertEquals(stripes, oortComet12.getLinks().size());
+        for (OortComet link : oortComet12.getLinks())
+            Assert.assertTrue(link.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(stripes, oort1.getLinks().size());
+        int oortSessions = 0;
+        for (ServerSession session : oort2.getBayeuxServer().getSessions())
+        {
+            if (!session.isLocalSession() && oort2.isOort(session))
+                ++oortSessions;
+        }
+        Assert.assertEquals(stripes, oortSessions);
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        LatchListener subscribeLatch1 = new LatchListener(channels);
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener(channels);
+        for (int i = 0; i < channels; ++i)
+            client1.getChannel(rootChannelName + i).subscribe(messageLatch1);
+        Assert.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        // Messages on all channels are forwarded, whatever link they are hashed to
+        for (int i = 0; i < channels; ++i)
+            client2.getChannel(rootChannelName + i).publish(new HashMapMessage());
+        Assert.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+    }
 }
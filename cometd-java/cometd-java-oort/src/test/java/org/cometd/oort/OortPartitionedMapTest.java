@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortPartitionedMapTest extends AbstractOortObjectTest
+{
+    private OortPartitionedMap<String> map1;
+    private OortPartitionedMap<String> map2;
+
+    public OortPartitionedMapTest(String serverTransport)
+    {
+        super(serverTransport);
+    }
+
+    private void startMaps(int replicas) throws Exception
+    {
+        String name = "test";
+        map1 = new OortPartitionedMap<>(oort1, name);
+        map1.setReplicas(replicas);
+        map2 = new OortPartitionedMap<>(oort2, name);
+        map2.setReplicas(replicas);
+
+        String channelName = "/oort/partition/" + name;
+        CometSubscriptionListener listener1 = new CometSubscriptionListener(channelName, 1);
+        oort1.getBayeuxServer().addListener(listener1);
+        CometSubscriptionListener listener2 = new CometSubscriptionListener(channelName, 1);
+        oort2.getBayeuxServer().addListener(listener2);
+        map1.start();
+        map2.start();
+        Assert.assertTrue(listener1.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(listener2.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void stopMaps() throws Exception
+    {
+        if (map2 != null)
+            map2.stop();
+        if (map1 != null)
+            map1.stop();
+    }
+
+    @Test
+    public void testEntriesArePartitioned() throws Exception
+    {
+        startMaps(0);
+
+        int entries = 32;
+        for (int i = 0; i < entries; ++i)
+            Assert.assertNull(put(i % 2 == 0 ? map1 : map2, "key" + i, "value" + i));
+
+        // Both nodes agree on the owners, and each entry is stored only by its owner.
+        int owned1 = 0;
+        for (int i = 0; i < entries; ++i)
+        {
+            String key = "key" + i;
+            Assert.assertEquals(map1.getOwner(key), map2.getOwner(key));
+            if (oort1.getURL().equals(map1.getOwner(key)))
+                ++owned1;
+        }
+        Assert.assertTrue(owned1 > 0 && owned1 < entries);
+        Assert.assertEquals(owned1, map1.getLocalEntries().size());
+        Assert.assertEquals(entries - owned1, map2.getLocalEntries().size());
+
+        for (int i = 0; i < entries; ++i)
+        {
+            Assert.assertEquals("value" + i, get(map1, "key" + i));
+            Assert.assertEquals("value" + i, get(map2, "key" + i));
+        }
+    }
+
+    @Test
+    public void testCachedValueIsInvalidated() throws Exception
+    {
+        startMaps(0);
+
+        String key = findKeyOwnedBy(map1, oort2.getURL());
+        put(map2, key, "value1");
+        // Caches the value on node1.
+        Assert.assertEquals("value1", get(map1, key));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        oort1.getBayeuxServer().getChannel("/oort/partition/test").addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                latch.countDown();
+                return true;
+            }
+        });
+        Assert.assertEquals("value1", put(map2, key, "value2"));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals("value2", get(map1, key));
+    }
+
+    @Test
+    public void testReplicaTakesOverWhenOwnerLeaves() throws Exception
+    {
+        startMaps(1);
+
+        String key = findKeyOwnedBy(map1, oort2.getURL());
+        put(map1, key, "value");
+        // The replica is updated asynchronously by the owner.
+        long begin = System.nanoTime();
+        while (!map1.getLocalEntries().containsKey(key) && TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin) < 5)
+            Thread.sleep(10);
+        Assert.assertEquals("value", map1.getLocalEntries().get(key));
+
+        // Simulate node2 leaving the cluster.
+        map1.cometLeft(new Oort.CometListener.Event(oort1, oort2.getURL()));
+        Assert.assertEquals(oort1.getURL(), map1.getOwner(key));
+        Assert.assertEquals("value", get(map1, key));
+    }
+
+    @Test
+    public void testEntriesAreKeptWhenNewOwnerIsNotReachable() throws Exception
+    {
+        startMaps(0);
+
+        int entries = 32;
+        for (int i = 0; i < entries; ++i)
+            put(map1, "key" + i, "value" + i);
+        int owned1 = map1.getLocalEntries().size();
+        Assert.assertTrue(owned1 > 0);
+
+        // Simulate a node joining, to which node1 has no link yet.
+        String oortURL3 = "http://localhost:1/cometd";
+        map1.cometJoined(new Oort.CometListener.Event(oort1, oortURL3));
+        Assert.assertEquals(owned1, map1.getLocalEntries().size());
+
+        // The node leaves before it could be reached: no entry is lost.
+        map1.cometLeft(new Oort.CometListener.Event(oort1, oortURL3));
+        Assert.assertEquals(owned1, map1.getLocalEntries().size());
+    }
+
+    private String findKeyOwnedBy(OortPartitionedMap<String> map, String oortURL)
+    {
+        for (int i = 0; ; ++i)
+        {
+            String key = "key" + i;
+            if (oortURL.equals(map.getOwner(key)))
+                return key;
+        }
+    }
+
+    private String put(OortPartitionedMap<String> map, String key, String value) throws Exception
+    {
+        ResultCallback callback = new ResultCallback();
+        Assert.assertTrue(map.put(key, value, callback));
+        return callback.get();
+    }
+
+    private String get(OortPartitionedMap<String> map, String key) throws Exception
+    {
+        ResultCallback callback = new ResultCallback();
+        Assert.assertTrue(map.get(key, callback));
+        return callback.get();
+    }
+
+    private static class ResultCallback implements OortPartitionedMap.Callback<String>
+    {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicReference<String> result = new AtomicReference<>();
+
+        public void succeeded(String result)
+        {
+            this.result.set(result);
+            latch.countDown();
+        }
+
+        public void failed(Object failure)
+        {
+        }
+
+        private String get() throws InterruptedException
+        {
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return result.get();
+        }
+    }
+}
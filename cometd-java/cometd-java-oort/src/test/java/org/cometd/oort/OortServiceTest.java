@@ -18,7 +18,11 @@ package org.cometd.oort;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -277,6 +281,59 @@ public class OortServiceTest extends AbstractOortObjectTest
         TimeUnit.MILLISECONDS.sleep(2 * timeout);
     }
 
+    @Test
+    public void testActionsAreBatched() throws Exception
+    {
+        final String forwardChannelName = "/service/oort/service/test";
+        final String resultChannelName = forwardChannelName + "/result";
+        final AtomicInteger forwardMessages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter()
+        {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message)
+            {
+                if (forwardChannelName.equals(message.getChannel()))
+                    forwardMessages.incrementAndGet();
+                return true;
+            }
+        });
+        final AtomicInteger resultMessages = new AtomicInteger();
+        oort1.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter()
+        {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message)
+            {
+                if (resultChannelName.equals(message.getChannel()))
+                    resultMessages.incrementAndGet();
+                return true;
+            }
+        });
+
+        int batchSize = 10;
+        int actions = batchSize + batchSize / 2;
+        CountDownLatch latch1 = new CountDownLatch(actions);
+        BatchService service1 = new BatchService(oort1, latch1);
+        service1.setBatchSize(batchSize);
+        service1.setBatchDelay(500);
+        service1.start();
+        BatchService service2 = new BatchService(oort2, null);
+        service2.setBatchSize(batchSize);
+        service2.setBatchDelay(500);
+        service2.start();
+
+        for (int i = 0; i < actions; ++i)
+            Assert.assertTrue(service1.forward(oort2.getURL(), i, i));
+
+        Assert.assertTrue(latch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(actions, service1.results.get());
+        // One full batch and one batch flushed by the delay.
+        Assert.assertEquals(2, forwardMessages.get());
+        Assert.assertEquals(2, resultMessages.get());
+
+        service2.stop();
+        service1.stop();
+    }
+
     private static class Service extends OortService<Boolean, String>
     {
         private final CountDownLatch latch;
@@ -403,4 +460,36 @@ public class OortServiceTest extends AbstractOortObjectTest
                 latch.countDown();
         }
     }
+
+    private static class BatchService extends OortService<Number, Integer>
+    {
+        private final AtomicInteger results = new AtomicInteger();
+        private final CountDownLatch latch;
+
+        private BatchService(Oort oort, CountDownLatch latch)
+        {
+            super(oort, "test");
+            this.latch = latch;
+        }
+
+        @Override
+        protected Result<Number> onForward(Request request)
+        {
+            return Result.success((Number)request.getData());
+        }
+
+        @Override
+        protected void onForwardSucceeded(Number result, Integer context)
+        {
+            if (result.intValue() == context)
+                results.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        protected void onForwardFailed(Object failure, Integer context)
+        {
+            latch.countDown();
+        }
+    }
 }
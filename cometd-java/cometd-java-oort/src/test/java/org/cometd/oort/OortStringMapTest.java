@@ -16,12 +16,20 @@
 package org.cometd.oort;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.eclipse.jetty.server.Server;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -77,6 +85,52 @@ public class OortStringMapTest extends AbstractOortObjectTest
         Assert.assertTrue(putLatch.await(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testEntryPutWithInterestRouting() throws Exception
+    {
+        oort1 = startInterestRoutingOort();
+        oort2 = startInterestRoutingOort();
+        connectOorts();
+
+        String name = "test";
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<String>(oort1, name, factory);
+        OortStringMap<String> oortMap2 = new OortStringMap<String>(oort2, name, factory);
+        startOortObjects(oortMap1, oortMap2);
+
+        // There are no local subscribers, but the OortMap channel must be routed anyway.
+        Assert.assertTrue(oort1.getRoutedChannels().contains(oortMap1.getChannelName()));
+        Assert.assertTrue(oort2.getRoutedChannels().contains(oortMap2.getChannelName()));
+
+        final String key = "key";
+        final String value = "value";
+        final CountDownLatch putLatch = new CountDownLatch(1);
+        oortMap2.addEntryListener(new OortMap.EntryListener.Adapter<String, String>()
+        {
+            @Override
+            public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry)
+            {
+                Assert.assertEquals(key, entry.getKey());
+                Assert.assertNull(entry.getOldValue());
+                Assert.assertEquals(value, entry.getNewValue());
+                putLatch.countDown();
+            }
+        });
+
+        Assert.assertNull(oortMap1.putAndShare(key, value));
+        Assert.assertTrue(putLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(value, oortMap2.find(key));
+    }
+
+    private Oort startInterestRoutingOort() throws Exception
+    {
+        Server server = startServer(0);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort = new Oort(bayeuxServer, (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        oort.setInterestRoutingEnabled(true);
+        return startOort(oort);
+    }
+
     @Test
     public void testEntryRemoved() throws Exception
     {
@@ -245,4 +299,91 @@ public class OortStringMapTest extends AbstractOortObjectTest
         oortMap2.removeEntryListener(putListener);
         oortMap1.removeEntryListener(putListener);
     }
+
+    @Test
+    public void testIncrementalSyncOnCometJoined() throws Exception
+    {
+        int entries = 32;
+        int parts = syncAfterCometLeft(entries, 0);
+        Assert.assertTrue(parts > 0);
+        Assert.assertTrue(parts < entries);
+    }
+
+    @Test
+    public void testSyncBaseExpiresAfterCometLeft() throws Exception
+    {
+        // The stale object of node1 is dropped, so node2 receives all the parts.
+        int entries = 32;
+        int parts = syncAfterCometLeft(entries, 500);
+        Assert.assertEquals(entries, parts);
+    }
+
+    private int syncAfterCometLeft(int entries, long syncTimeout) throws Exception
+    {
+        String name = "test";
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<String>(oort1, name, factory);
+        OortStringMap<String> oortMap2 = new OortStringMap<String>(oort2, name, factory);
+        for (OortStringMap<String> oortMap : Arrays.asList(oortMap1, oortMap2))
+        {
+            oortMap.setIncrementalSyncEnabled(true);
+            oortMap.setSyncBuckets(16);
+            oortMap.setSyncChunkSize(2);
+            if (syncTimeout > 0)
+                oortMap.setSyncTimeout(syncTimeout);
+        }
+        startOortObjects(oortMap1, oortMap2);
+
+        final CountDownLatch putLatch = new CountDownLatch(entries);
+        oortMap2.addEntryListener(new OortMap.EntryListener.Adapter<String, String>()
+        {
+            @Override
+            public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry)
+            {
+                putLatch.countDown();
+            }
+        });
+        for (int i = 0; i < entries; ++i)
+            oortMap1.putAndShare("key" + i, "value" + i);
+        Assert.assertTrue(putLatch.await(5, TimeUnit.SECONDS));
+
+        // Simulate node1 leaving node2, and a change on node1 that node2 misses.
+        oortMap2.cometLeft(new Oort.CometListener.Event(oort2, oort1.getURL()));
+        Assert.assertNull(oortMap2.getInfo(oort1.getURL()));
+        oortMap1.getInfo(oort1.getURL()).getObject().put("key0", "valueX");
+
+        if (syncTimeout > 0)
+            Thread.sleep(2 * syncTimeout);
+
+        // Count the parts transferred to node2.
+        final AtomicInteger parts = new AtomicInteger();
+        oort2.getBayeuxServer().getChannel(oortMap2.getChannelName()).addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                Object object = message.getDataAsMap().get("oort.sync.parts");
+                if (object instanceof Map)
+                    parts.addAndGet(((Map<?, ?>)object).size());
+                return true;
+            }
+        });
+        final CountDownLatch syncLatch = new CountDownLatch(1);
+        oortMap2.addListener(new OortObject.Listener.Adapter<ConcurrentMap<String, String>>()
+        {
+            @Override
+            public void onUpdated(OortObject.Info<ConcurrentMap<String, String>> oldInfo, OortObject.Info<ConcurrentMap<String, String>> newInfo)
+            {
+                syncLatch.countDown();
+            }
+        });
+
+        // Node1 joins again.
+        oortMap1.cometJoined(new Oort.CometListener.Event(oort1, oort2.getURL()));
+        Assert.assertTrue(syncLatch.await(5, TimeUnit.SECONDS));
+
+        ConcurrentMap<String, String> map2 = oortMap2.getInfo(oort1.getURL()).getObject();
+        Assert.assertEquals(oortMap1.getInfo(oort1.getURL()).getObject(), map2);
+        Assert.assertEquals("valueX", map2.get("key0"));
+        return parts.get();
+    }
 }
@@ -115,7 +115,11 @@ public abstract class OortTest
     {
         String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
         final BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
-        Oort oort = new Oort(bayeuxServer, url);
+        return startOort(new Oort(bayeuxServer, url));
+    }
+
+    protected Oort startOort(Oort oort) throws Exception
+    {
         oort.start();
         oorts.add(oort);
         return oort;
@@ -28,6 +28,9 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
@@ -1034,6 +1037,196 @@ public class SetiTest extends OortTest
         }
     }
 
+    @Test
+    public void testSendMessageToManyUsersIsBatchedPerNode() throws Exception
+    {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Seti seti1 = startSeti(oort1);
+        Seti seti2 = startSeti(oort2);
+
+        // Wait a while to be sure the Setis are subscribed
+        Thread.sleep(1000);
+
+        int users = 10;
+        CountDownLatch presenceLatch = new CountDownLatch(users + 1);
+        seti1.addPresenceListener(new UserPresentListener(presenceLatch));
+
+        String channelName = "/seti_test";
+        final CountDownLatch messageLatch = new CountDownLatch(users + 1);
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < users; ++i)
+        {
+            String userId = "user" + i;
+            userIds.add(userId);
+            LocalSession session = oort2.getBayeuxServer().newLocalSession(userId);
+            session.handshake();
+            session.getChannel(channelName).addListener(new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    messageLatch.countDown();
+                }
+            });
+            seti2.associate(userId, session.getServerSession());
+        }
+        String localUserId = "local";
+        userIds.add(localUserId);
+        LocalSession localSession = oort1.getBayeuxServer().newLocalSession(localUserId);
+        localSession.handshake();
+        localSession.getChannel(channelName).addListener(new ClientSessionChannel.MessageListener()
+        {
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                messageLatch.countDown();
+            }
+        });
+        seti1.associate(localUserId, localSession.getServerSession());
+        Assert.assertTrue(presenceLatch.await(5, TimeUnit.SECONDS));
+
+        final AtomicInteger remoteMessages = new AtomicInteger();
+        oort2.getBayeuxServer().getChannel("/seti/" + seti2.getId()).addListener(new ServerChannel.MessageListener()
+        {
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
+            {
+                remoteMessages.incrementAndGet();
+                return true;
+            }
+        });
+
+        seti1.sendMessage(userIds, channelName, "data");
+
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, remoteMessages.get());
+    }
+
+    @Test
+    public void testPresenceSnapshotIsChunkedAndCompressed() throws Exception
+    {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Seti seti1 = new Seti(oort1);
+        seti1.setPresenceChunkSize(3);
+        seti1.setPresenceCompressionEnabled(true);
+        seti1.start();
+        setis.add(seti1);
+
+        int users = 10;
+        List<LocalSession> sessions = new ArrayList<>();
+        for (int i = 0; i < users; ++i)
+        {
+            LocalSession session = oort1.getBayeuxServer().newLocalSession("user" + i);
+            session.handshake();
+            sessions.add(session);
+            Assert.assertTrue(seti1.associate("user" + i, session.getServerSession()));
+        }
+
+        // Now the users are associated on node1, start node2
+
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+        final AtomicInteger chunks = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter()
+        {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message)
+            {
+                Object data = message.getData();
+                if (data instanceof Map && ((Map)data).containsKey("compressedUserIds"))
+                    chunks.incrementAndGet();
+                return true;
+            }
+        });
+        Seti seti2 = startSeti(oort2);
+
+        CountDownLatch presenceLatch = new CountDownLatch(users);
+        seti2.addPresenceListener(new UserPresentListener(presenceLatch));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Assert.assertTrue(presenceLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < users; ++i)
+            Assert.assertTrue(seti2.isPresent("user" + i));
+        // At least one snapshot of 4 chunks.
+        Assert.assertTrue(chunks.get() >= 4);
+
+        // Deltas after the snapshot are applied in sequence.
+        final CountDownLatch absentLatch = new CountDownLatch(1);
+        seti2.addPresenceListener(new UserAbsentListener(absentLatch));
+        Assert.assertTrue(seti1.disassociate("user0", sessions.get(0).getServerSession()));
+        Assert.assertTrue(absentLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(seti2.isPresent("user0"));
+        Assert.assertTrue(seti2.isPresent("user1"));
+    }
+
+    @Test
+    public void testPresenceSnapshotWithCometStripes() throws Exception
+    {
+        int stripes = 4;
+        Server server1 = startServer(0);
+        BayeuxServer bayeuxServer1 = (BayeuxServer)server1.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort1 = new Oort(bayeuxServer1, (String)server1.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        oort1.setCometStripes(stripes);
+        startOort(oort1);
+        Seti seti1 = new Seti(oort1);
+        seti1.setPresenceChunkSize(3);
+        seti1.start();
+        setis.add(seti1);
+
+        int users = 10;
+        for (int i = 0; i < users; ++i)
+        {
+            LocalSession session = oort1.getBayeuxServer().newLocalSession("user" + i);
+            session.handshake();
+            Assert.assertTrue(seti1.associate("user" + i, session.getServerSession()));
+        }
+
+        Server server2 = startServer(0);
+        BayeuxServer bayeuxServer2 = (BayeuxServer)server2.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort2 = new Oort(bayeuxServer2, (String)server2.getAttribute(OortConfigServlet.OORT_URL_PARAM));
+        oort2.setCometStripes(stripes);
+        startOort(oort2);
+        Seti seti2 = startSeti(oort2);
+
+        CountDownLatch presenceLatch = new CountDownLatch(users);
+        seti2.addPresenceListener(new UserPresentListener(presenceLatch));
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Snapshots and deltas from node1 travel on the same link of node2.
+        Assert.assertEquals(stripes, oortComet21.getLinks().size());
+        Assert.assertSame(oortComet21.getLink("/seti/all"), oortComet21.getLink(seti2.generateSetiChannel(seti2.getId())));
+
+        Assert.assertTrue(presenceLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < users; ++i)
+            Assert.assertTrue(seti2.isPresent("user" + i));
+    }
+
     @Test
     public void testMessageToObservedChannelIsForwarded() throws Exception
     {
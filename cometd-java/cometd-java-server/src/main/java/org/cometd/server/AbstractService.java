@@ -15,6 +15,9 @@
  */
 package org.cometd.server;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Map;
@@ -64,6 +67,7 @@ public abstract class AbstractService
     private final String _name;
     private final BayeuxServerImpl _bayeux;
     private final LocalSession _session;
+    private final boolean _doInvokeOverridden = isDoInvokeOverridden();
     private ThreadPool _threadPool;
     private boolean _seeOwn = false;
 
@@ -311,15 +315,15 @@ public abstract class AbstractService
         _logger.info("Exception while invoking " + _name + "#" + method + " from " + session + " with " + message, x);
     }
 
-    private void invoke(final Method method, final ServerSession fromClient, final ServerMessage msg)
+    private void invoke(final Invoker invoker, final ServerSession fromClient, final ServerMessage msg)
     {
         if (_logger.isDebugEnabled())
-            _logger.debug("Invoking {}#{} from {} with {}", _name, method.getName(), fromClient, msg);
+            _logger.debug("Invoking {}#{} from {} with {}", _name, invoker.method.getName(), fromClient, msg);
 
         ThreadPool threadPool = getThreadPool();
         if (threadPool == null)
         {
-            doInvoke(method, fromClient, msg);
+            dispatch(invoker, fromClient, msg);
         }
         else
         {
@@ -327,17 +331,49 @@ public abstract class AbstractService
             {
                 public void run()
                 {
-                    doInvoke(method, fromClient, msg);
+                    dispatch(invoker, fromClient, msg);
                 }
             });
         }
     }
 
+    private void dispatch(Invoker invoker, ServerSession session, ServerMessage message)
+    {
+        // Subclasses that override doInvoke() must still be called.
+        if (_doInvokeOverridden)
+            doInvoke(invoker.method, session, message);
+        else
+            invoker.call(session, message);
+    }
+
+    private boolean isDoInvokeOverridden()
+    {
+        for (Class<?> c = getClass(); c != AbstractService.class; c = c.getSuperclass())
+        {
+            try
+            {
+                c.getDeclaredMethod("doInvoke", Method.class, ServerSession.class, ServerMessage.class);
+                return true;
+            }
+            catch (NoSuchMethodException x)
+            {
+                // Continue with the superclass.
+            }
+        }
+        return false;
+    }
+
     protected void doInvoke(Method method, ServerSession session, ServerMessage message)
     {
         try
         {
-            Object reply = method.invoke(this, session, message);
+            // Use the method handle created by addService(), if any.
+            Invoker invoker = invokers.get(method.getName());
+            Object reply;
+            if (invoker != null && invoker.method.equals(method))
+                reply = (Object)invoker.handle.invokeExact(session, message);
+            else
+                reply = method.invoke(this, session, message);
             if (reply != null)
                 send(session, message.getChannel(), reply);
         }
@@ -347,22 +383,58 @@ public abstract class AbstractService
         }
     }
 
+    private MethodHandle unreflect(Method method)
+    {
+        boolean accessible = method.isAccessible();
+        try
+        {
+            // The method is public, but its class may not be.
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method).bindTo(this);
+            return handle.asType(MethodType.methodType(Object.class, ServerSession.class, ServerMessage.class));
+        }
+        catch (IllegalAccessException x)
+        {
+            throw new IllegalArgumentException("Cannot access service method '" + method.getName() + "'", x);
+        }
+        finally
+        {
+            method.setAccessible(accessible);
+        }
+    }
+
     private class Invoker implements ServerChannel.MessageListener
     {
         private final String channelName;
         private final Method method;
+        private final MethodHandle handle;
 
         public Invoker(String channelName, Method method)
         {
             this.channelName = channelName;
             this.method = method;
+            this.handle = unreflect(method);
         }
 
         public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message)
         {
             if (isSeeOwnPublishes() || from != getServerSession())
-                invoke(method, from, message);
+                invoke(this, from, message);
             return true;
         }
+
+        private void call(ServerSession session, ServerMessage message)
+        {
+            try
+            {
+                Object reply = (Object)handle.invokeExact(session, message);
+                if (reply != null)
+                    send(session, message.getChannel(), reply);
+            }
+            catch (Throwable x)
+            {
+                exception(method.toString(), session, _session, message, x);
+            }
+        }
     }
 }
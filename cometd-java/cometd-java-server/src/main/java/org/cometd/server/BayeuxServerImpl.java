@@ -50,6 +50,7 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
+import org.cometd.common.ChannelIdCache;
 import org.cometd.common.JSONContext;
 import org.cometd.server.transport.AbstractHttpTransport;
 import org.cometd.server.transport.AsyncJSONTransport;
@@ -332,7 +333,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         ServerChannelImpl channel = _channels.get(id);
         if (channel != null)
             return channel.getChannelId();
-        return new ChannelId(id);
+        return ChannelIdCache.getInstance().get(id);
     }
 
     public Map<String, Object> getOptions()
@@ -413,7 +414,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
         ServerChannelImpl channel = _channels.get(channelName);
         if (channel == null)
         {
-            ChannelId channelId = new ChannelId(channelName);
+            ChannelId channelId = ChannelIdCache.getInstance().get(channelName);
             ServerChannelImpl candidate = new ServerChannelImpl(this, channelId);
             channel = _channels.putIfAbsent(channelName, candidate);
             if (channel == null)
@@ -784,7 +785,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer
             _logger.warn("{} denied Create@{} by {}", session, message.getChannel(), _policy);
             return Authorizer.Result.deny("denied_by_security_policy");
         }
-        return isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel));
+        return isOperationAuthorized(Authorizer.Operation.CREATE, session, message, newChannelId(channel));
     }
 
     private Authorizer.Result isOperationAuthorized(Authorizer.Operation operation, ServerSession session, ServerMessage message, ChannelId channelId)
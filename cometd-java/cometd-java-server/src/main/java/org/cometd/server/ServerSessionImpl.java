@@ -36,7 +36,7 @@ import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
-import org.cometd.common.HashMapMessage;
+import org.cometd.common.CopyOnWriteMessage;
 import org.cometd.server.AbstractServerTransport.Scheduler;
 import org.cometd.server.transport.AbstractHttpTransport;
 import org.eclipse.jetty.util.ArrayQueue;
@@ -78,6 +78,9 @@ public class ServerSessionImpl implements ServerSession
     private long _intervalTimestamp;
     private boolean _nonLazyMessages;
     private boolean _broadcastToPublisher;
+    private ServerMessage[] _replayBuffer;
+    private long _sentMessages;
+    private long _lostMessages;
 
     protected ServerSessionImpl(BayeuxServerImpl bayeux)
     {
@@ -474,6 +477,12 @@ public class ServerSessionImpl implements ServerSession
             {
                 copy = new ArrayList<>(size);
                 copy.addAll(_queue);
+                ServerMessage[] replayBuffer = _replayBuffer;
+                if (replayBuffer != null)
+                {
+                    for (int i = 0; i < size; ++i)
+                        replayBuffer[(int)(_sentMessages++ % replayBuffer.length)] = copy.get(i);
+                }
             }
             clearQueue();
         }
@@ -559,8 +568,10 @@ public class ServerSessionImpl implements ServerSession
         // do local delivery
         if (_localSession != null && hasNonLazyMessages())
         {
+            // Queued messages are frozen and may be shared with other
+            // sessions, so they are copied only if they are modified.
             for (ServerMessage msg : takeQueue())
-                _localSession.receive(new HashMapMessage(msg));
+                _localSession.receive(new CopyOnWriteMessage(msg));
         }
     }
 
@@ -875,6 +886,84 @@ public class ServerSessionImpl implements ServerSession
         return _metaConnectDelivery;
     }
 
+    /**
+     * <p>Sets the number of messages, last taken from the queue to be sent,
+     * that are retained to be replayed by {@link #replay(long)}.</p>
+     *
+     * @param size the size of the replay buffer, or 0 to disable replay
+     */
+    public void setReplayBufferSize(int size)
+    {
+        synchronized (getLock())
+        {
+            _replayBuffer = size > 0 ? new ServerMessage[size] : null;
+            _sentMessages = 0;
+            _lostMessages = 0;
+        }
+    }
+
+    public int getReplayBufferSize()
+    {
+        synchronized (getLock())
+        {
+            return _replayBuffer == null ? 0 : _replayBuffer.length;
+        }
+    }
+
+    /**
+     * @return the number of messages sent since the replay buffer was set,
+     * excluding those that could not be replayed
+     */
+    public long getSentMessages()
+    {
+        synchronized (getLock())
+        {
+            return _sentMessages - _lostMessages;
+        }
+    }
+
+    /**
+     * <p>Queues again, ahead of the messages already queued, the messages
+     * that have been sent after the given number of messages, typically
+     * because a connection failure prevented the remote client to receive them.</p>
+     *
+     * @param received the number of messages received by the remote client
+     * @return true if all the missed messages have been queued again,
+     * false if some have already been evicted from the replay buffer
+     * @see #setReplayBufferSize(int)
+     */
+    public boolean replay(long received)
+    {
+        synchronized (getLock())
+        {
+            ServerMessage[] replayBuffer = _replayBuffer;
+            if (replayBuffer == null)
+                return false;
+
+            long missed = _sentMessages - _lostMessages - received;
+            if (missed <= 0)
+                return missed == 0;
+
+            int count = (int)Math.min(missed, Math.min(_sentMessages, replayBuffer.length));
+            // Keep counting as the remote client does.
+            _lostMessages += missed - count;
+            List<ServerMessage> queued = new ArrayList<>(_queue);
+            _queue.clear();
+            // The replayed messages will be counted again when taken.
+            _sentMessages -= count;
+            for (long sequence = _sentMessages; sequence < _sentMessages + count; ++sequence)
+            {
+                ServerMessage message = replayBuffer[(int)(sequence % replayBuffer.length)];
+                _queue.add(message);
+                _nonLazyMessages |= !message.isLazy();
+            }
+            _queue.addAll(queued);
+            if (_logger.isDebugEnabled())
+                _logger.debug("Replaying {}/{} missed messages for {}", count, missed, this);
+            return count == missed;
+        }
+    }
+
     protected void subscribedTo(ServerChannelImpl channel)
     {
         _subscribedTo.put(channel, Boolean.TRUE);
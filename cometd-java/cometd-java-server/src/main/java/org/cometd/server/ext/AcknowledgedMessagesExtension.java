@@ -21,6 +21,7 @@ import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.BayeuxServer.Extension;
+import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.ServerSessionImpl;
@@ -36,7 +37,53 @@ import org.slf4j.LoggerFactory;
  */
 public class AcknowledgedMessagesExtension extends Extension.Adapter
 {
+    public static final String RESUME_FIELD = "ackResume";
+
     private final Logger _logger = LoggerFactory.getLogger(getClass().getName());
+    private final MessageJournal _journal;
+    private volatile ResumePolicy _resumePolicy;
+
+    public AcknowledgedMessagesExtension()
+    {
+        this(null);
+    }
+
+    /**
+     * <p>Creates an extension that also appends the messages waiting for acknowledgement
+     * to the given journal, so that they survive a restart of the server.</p>
+     * <p>A client that handshakes with its previous session id in the {@value #RESUME_FIELD}
+     * extension field receives the messages that its previous session did not acknowledge,
+     * if the {@link #setResumePolicy(ResumePolicy) resume policy} allows it.</p>
+     *
+     * @param journal the journal of the messages waiting for acknowledgement, or null
+     */
+    public AcknowledgedMessagesExtension(MessageJournal journal)
+    {
+        _journal = journal;
+    }
+
+    public ResumePolicy getResumePolicy()
+    {
+        return _resumePolicy;
+    }
+
+    /**
+     * <p>Sets the policy that decides whether a session can receive the journaled
+     * messages of a previous session.</p>
+     * <p>The previous session id is only known to the client that owned the session,
+     * but it is sent by the client itself, so the server cannot tell whether it comes
+     * from the legitimate owner or from someone that obtained it otherwise.
+     * For this reason, resumes are denied unless a policy is set: the policy should
+     * verify that the new session is authenticated as the same user that owned the
+     * previous session, for example by recording the user of each session in a store
+     * that, like the journal, survives a restart.</p>
+     *
+     * @param resumePolicy the resume policy, or null to deny all resumes
+     */
+    public void setResumePolicy(ResumePolicy resumePolicy)
+    {
+        _resumePolicy = resumePolicy;
+    }
 
     @Override
     public boolean sendMeta(ServerSession remote, Mutable message)
@@ -54,7 +101,7 @@ public class AcknowledgedMessagesExtension extends Extension.Adapter
                 if (_logger.isDebugEnabled())
                     _logger.debug("Enabled message acknowledgement for session {}", session);
 
-                AcknowledgedMessagesSessionExtension extension = new AcknowledgedMessagesSessionExtension(session);
+                AcknowledgedMessagesSessionExtension extension = new AcknowledgedMessagesSessionExtension(session, _journal);
 
                 // Make sure that adding the extension and importing the queue is atomic.
                 synchronized (session.getLock())
@@ -62,6 +109,13 @@ public class AcknowledgedMessagesExtension extends Extension.Adapter
                     session.addExtension(extension);
                     extension.importMessages(session);
                 }
+
+                if (_journal != null)
+                {
+                    Object previousId = rcvExt.get(RESUME_FIELD);
+                    if (previousId instanceof String)
+                        resume((String)previousId, session, message.getAssociated());
+                }
             }
 
             Map<String, Object> sndExt = message.getExt(true);
@@ -69,4 +123,37 @@ public class AcknowledgedMessagesExtension extends Extension.Adapter
         }
         return true;
     }
+
+    private void resume(String previousId, ServerSession session, ServerMessage handshake)
+    {
+        ResumePolicy policy = _resumePolicy;
+        if (policy == null || !policy.canResume(session, previousId, handshake))
+        {
+            if (_logger.isDebugEnabled())
+                _logger.debug("Denied resume of {} for session {}", previousId, session);
+            return;
+        }
+        if (_journal.resume(previousId, session))
+        {
+            if (_logger.isDebugEnabled())
+                _logger.debug("Resumed journaled messages of {} for session {}", previousId, session);
+        }
+    }
+
+    /**
+     * <p>Decides whether a session can receive the journaled messages
+     * that were not acknowledged by a previous session.</p>
+     *
+     * @see #setResumePolicy(ResumePolicy)
+     */
+    public interface ResumePolicy
+    {
+        /**
+         * @param session the new session, already authenticated by the {@link org.cometd.bayeux.server.SecurityPolicy}
+         * @param previousId the id of the previous session, as sent by the client
+         * @param message the handshake message
+         * @return whether the given session can resume the previous session
+         */
+        boolean canResume(ServerSession session, String previousId, ServerMessage message);
+    }
 }
@@ -15,7 +15,8 @@
  */
 package org.cometd.server.ext;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Queue;
 
@@ -31,19 +32,30 @@ import org.slf4j.LoggerFactory;
 /**
  * Tracks the batch id of messages sent to a client.
  */
-public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener
+public class AcknowledgedMessagesSessionExtension implements Extension, ServerSession.DeQueueListener, ServerSession.QueueListener, ServerSession.RemoveListener
 {
     private static final Logger _logger = LoggerFactory.getLogger(AcknowledgedMessagesSessionExtension.class);
 
-    private final Map<Long, Long> _batches = new HashMap<>();
+    // The batch sent with a /meta/connect reply, keyed by the thread that sends it.
+    // There are only a few concurrent /meta/connect per session, so these are scanned.
+    private long[] _threads = new long[2];
+    private long[] _batches = new long[2];
+    private int _pending;
     private final ServerSessionImpl _session;
     private final BatchArrayQueue<ServerMessage> _queue;
+    private MessageJournal.SessionJournal _journal;
     private long _lastBatch;
 
     public AcknowledgedMessagesSessionExtension(ServerSession session)
+    {
+        this(session, null);
+    }
+
+    public AcknowledgedMessagesSessionExtension(ServerSession session, MessageJournal journal)
     {
         _session = (ServerSessionImpl)session;
         _queue = new BatchArrayQueue<>(16, _session.getLock());
+        _journal = journal == null ? null : journal.newSessionJournal(session.getId());
         _session.setMetaConnectDeliveryOnly(true);
         _session.addListener(this);
     }
@@ -75,7 +87,10 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
             if (_logger.isDebugEnabled())
                 _logger.debug("Processing batch: last={}, client={}, server={} for {}", _lastBatch, batch, _queue.getBatch(), _session);
             _lastBatch = batch;
+            int size = _queue.size();
             _queue.clearToBatch(batch);
+            if (_journal != null)
+                _journal.acknowledge(size - _queue.size());
         }
     }
 
@@ -93,6 +108,7 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
         synchronized (_session.getLock())
         {
             _queue.offer(message);
+            journal(message);
             if (_logger.isDebugEnabled())
                 _logger.debug("Stored at batch {} {} for {}", _queue.getBatch(), message, _session);
         }
@@ -106,7 +122,7 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
             {
                 Map<String, Object> ext = message.getExt(true);
                 long batch = _queue.getBatch();
-                _batches.put(Thread.currentThread().getId(), batch);
+                putBatch(Thread.currentThread().getId(), batch);
                 if (_logger.isDebugEnabled())
                     _logger.debug("Sending batch {} for {}", batch, _session);
                 ext.put("ack", batch);
@@ -120,7 +136,7 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
     {
         synchronized (_session.getLock())
         {
-            Long batch = _batches.remove(Thread.currentThread().getId());
+            long batch = removeBatch(Thread.currentThread().getId());
             if (_logger.isDebugEnabled())
                 _logger.debug("Dequeuing {}/{} messages until batch {} for {}", queue.size(), _queue.size(), batch, _session);
             queue.clear();
@@ -128,11 +144,79 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
         }
     }
 
+    private void putBatch(long thread, long batch)
+    {
+        for (int i = 0; i < _pending; ++i)
+        {
+            if (_threads[i] == thread)
+            {
+                _batches[i] = batch;
+                return;
+            }
+        }
+        if (_pending == _threads.length)
+        {
+            _threads = Arrays.copyOf(_threads, 2 * _pending);
+            _batches = Arrays.copyOf(_batches, 2 * _pending);
+        }
+        _threads[_pending] = thread;
+        _batches[_pending] = batch;
+        ++_pending;
+    }
+
+    private long removeBatch(long thread)
+    {
+        for (int i = 0; i < _pending; ++i)
+        {
+            if (_threads[i] == thread)
+            {
+                long batch = _batches[i];
+                --_pending;
+                _threads[i] = _threads[_pending];
+                _batches[i] = _batches[_pending];
+                return batch;
+            }
+        }
+        // Batches start from 1, so no message is exported.
+        return 0;
+    }
+
     protected void importMessages(ServerSessionImpl session)
     {
         synchronized (_session.getLock())
         {
-            _queue.addAll(session.getQueue());
+            Queue<ServerMessage> queue = session.getQueue();
+            _queue.addAll(queue);
+            for (ServerMessage message : queue)
+                journal(message);
+        }
+    }
+
+    public void removed(ServerSession session, boolean timeout)
+    {
+        synchronized (_session.getLock())
+        {
+            if (_journal != null)
+                _journal.remove();
+        }
+    }
+
+    private void journal(ServerMessage message)
+    {
+        if (_journal != null)
+        {
+            try
+            {
+                _journal.add(message);
+            }
+            catch (IOException x)
+            {
+                // The journal is acknowledged by count, so after a failed append it would
+                // release the wrong messages: stop journaling the messages of this session.
+                _logger.info("Could not journal " + message + ", disabling the journal for " + _session, x);
+                _journal.remove();
+                _journal = null;
+            }
         }
     }
 }
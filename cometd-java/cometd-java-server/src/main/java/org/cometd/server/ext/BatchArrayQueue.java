@@ -21,6 +21,15 @@ import java.util.Queue;
 
 import org.eclipse.jetty.util.ArrayQueue;
 
+/**
+ * <p>A queue that associates each element with the batch it was offered in.</p>
+ * <p>The batch of each element is stored in a {@code long[]} ring that shadows
+ * the element ring, so that no boxing is needed. Since batches only grow, the
+ * batches in the ring are sorted from head to tail, and the number of elements
+ * up to a given batch is found with a binary search rather than a scan.</p>
+ *
+ * @param <T> the type of the elements
+ */
 public class BatchArrayQueue<T> extends ArrayQueue<T>
 {
     private long[] batches;
@@ -76,19 +85,6 @@ public class BatchArrayQueue<T> extends ArrayQueue<T>
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public T poll()
-    {
-        synchronized (_lock)
-        {
-            int head = _nextE;
-            T result = super.poll();
-            if (result != null)
-                batches[head] = 0;
-            return result;
-        }
-    }
-
     @Override
     public T remove()
     {
@@ -104,7 +100,6 @@ public class BatchArrayQueue<T> extends ArrayQueue<T>
         synchronized (_lock)
         {
             super.clear();
-            Arrays.fill(batches, 0);
             batch = 1;
         }
     }
@@ -135,14 +130,25 @@ public class BatchArrayQueue<T> extends ArrayQueue<T>
     {
         synchronized (_lock)
         {
-            while (true)
+            int count = countToBatch(batch);
+            if (count == 0)
+                return;
+
+            // Release the references in bulk, then just move the head.
+            int capacity = getCapacity();
+            int head = _nextE;
+            int end = head + count;
+            if (end <= capacity)
+            {
+                Arrays.fill(_elements, head, end, null);
+            }
+            else
             {
-                int head = _nextE;
-                if (batches[head] > batch)
-                    break;
-                if (poll() == null)
-                    break;
+                Arrays.fill(_elements, head, capacity, null);
+                Arrays.fill(_elements, 0, end - capacity, null);
             }
+            _nextE = end % capacity;
+            _size -= count;
         }
     }
 
@@ -150,41 +156,71 @@ public class BatchArrayQueue<T> extends ArrayQueue<T>
     {
         synchronized (_lock)
         {
-            if (isEmpty())
-                return;
-            int index = 0;
-            while (index < _size)
+            int count = countToBatch(batch);
+            int capacity = getCapacity();
+            for (int i = 0; i < count; ++i)
             {
-                int cursor = (_nextE + index) % getCapacity();
-                if (batches[cursor] > batch)
-                    break;
-                T element = getUnsafe(index);
+                @SuppressWarnings("unchecked")
+                T element = (T)_elements[(_nextE + i) % capacity];
                 target.offer(element);
-                ++index;
             }
         }
     }
 
+    /**
+     * @param batch the batch
+     * @return the number of elements, starting from the head, whose batch is less than or equal to the given batch
+     */
+    private int countToBatch(long batch)
+    {
+        int capacity = getCapacity();
+        int low = 0;
+        int high = _size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (batches[(_nextE + middle) % capacity] <= batch)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
     @Override
     protected boolean grow()
     {
         synchronized (_lock)
         {
-            int head = _nextE;
-            int tail = _nextSlot;
-
-            if (!super.grow())
+            if (_growCapacity <= 0)
                 return false;
 
-            long[] newIds = new long[_elements.length];
-            int length = batches.length - head;
+            // Grow geometrically, so that large backlogs
+            // do not copy the arrays every few messages.
+            int capacity = _elements.length;
+            int newCapacity = capacity + Math.max(capacity, _growCapacity);
+            Object[] newElements = new Object[newCapacity];
+            long[] newBatches = new long[newCapacity];
+
+            int head = _nextE;
+            int length = capacity - head;
             // Copy from head to end of array.
             if (length > 0)
-                System.arraycopy(batches, head, newIds, 0, length);
+            {
+                System.arraycopy(_elements, head, newElements, 0, length);
+                System.arraycopy(batches, head, newBatches, 0, length);
+            }
             // Copy from 0 to tail if we have not done it yet.
             if (head != 0)
-                System.arraycopy(batches, 0, newIds, length, tail);
-            batches = newIds;
+            {
+                System.arraycopy(_elements, 0, newElements, length, _nextSlot);
+                System.arraycopy(batches, 0, newBatches, length, _nextSlot);
+            }
+
+            _elements = newElements;
+            batches = newBatches;
+            _nextE = 0;
+            _nextSlot = _size;
             return true;
         }
     }
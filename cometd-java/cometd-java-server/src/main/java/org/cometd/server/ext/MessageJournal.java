@@ -0,0 +1,674 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.JSONContext;
+import org.cometd.server.JettyJSONContextServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A per-node journal of the messages waiting for acknowledgement,
+ * backed by memory-mapped segment files.</p>
+ * <p>The JSON of a message is appended to the journal once, even if the message
+ * is queued to many sessions, and each session references it by its position in
+ * the journal. When a message is acknowledged, or the session is removed, its reference
+ * record is marked as released in place, so that when the journal is opened again after
+ * a restart, the messages that were not acknowledged are recovered, and can be
+ * {@link #resume(String, ServerSession) resumed} by the new session of a client that
+ * handshakes with its previous session id, if allowed by the
+ * {@link AcknowledgedMessagesExtension#setResumePolicy(AcknowledgedMessagesExtension.ResumePolicy) resume policy}.</p>
+ * <p>Since every reference record carries its own state, each segment is deleted as soon
+ * as no session references its records anymore, independently of the other segments:
+ * a slow session only retains the segments that contain its own messages.</p>
+ * <p>The journal is split in partitions, each with its own segments and lock, and each
+ * session appends to the partition chosen by its session id, so that sessions in different
+ * partitions do not contend; messages are encoded before taking the partition lock.
+ * A message queued to sessions in different partitions is appended once per partition.</p>
+ * <p>Segments are not forced to the storage device on every write, so the journal
+ * survives the restart of the process, but not necessarily the crash of the host.</p>
+ *
+ * @see AcknowledgedMessagesExtension#AcknowledgedMessagesExtension(MessageJournal)
+ */
+public class MessageJournal implements Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_PARTITIONS = 4;
+    public static final long DEFAULT_RECOVERED_TIMEOUT = 60000;
+
+    private static final Logger _logger = LoggerFactory.getLogger(MessageJournal.class);
+    private static final String PARTITION_PREFIX = "partition-";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final byte MESSAGE = 1;
+    private static final byte REFERENCE = 2;
+    private static final byte RELEASED = 3;
+
+    private final Map<String, SessionJournal> _recovered = new HashMap<>();
+    private final Path _directory;
+    private final int _segmentSize;
+    private final int _partitionCount;
+    private final JSONContext.Server _jsonContext;
+    private Partition[] _partitions;
+    private long _recoveredTime;
+    private volatile long _recoveredExpiration;
+    private volatile boolean _recoveredPending;
+
+    public MessageJournal(Path directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, new JettyJSONContextServer());
+    }
+
+    public MessageJournal(Path directory, int segmentSize, JSONContext.Server jsonContext) throws IOException
+    {
+        this(directory, segmentSize, DEFAULT_PARTITIONS, jsonContext);
+    }
+
+    /**
+     * @param directory the directory of the journal
+     * @param segmentSize the size of each segment file
+     * @param partitions the number of partitions the sessions are spread across
+     * @param jsonContext the JSON context used to encode and parse messages
+     * @throws IOException if the journal cannot be opened
+     */
+    public MessageJournal(Path directory, int segmentSize, int partitions, JSONContext.Server jsonContext) throws IOException
+    {
+        if (partitions <= 0)
+            throw new IllegalArgumentException("Invalid partitions " + partitions);
+        _directory = directory;
+        _segmentSize = segmentSize;
+        _partitionCount = partitions;
+        _jsonContext = jsonContext;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * @param clientId the session id
+     * @return a new journal for the messages queued to the given session
+     */
+    public SessionJournal newSessionJournal(String clientId)
+    {
+        expireRecovered();
+        return new SessionJournal(clientId, _partitions[(clientId.hashCode() & 0x7FFFFFFF) % _partitionCount]);
+    }
+
+    /**
+     * <p>Delivers to the given session the messages that were not acknowledged
+     * by the given previous session, as recovered when the journal was opened.</p>
+     * <p>This method does not check whether the given session is entitled to the
+     * messages of the previous session; callers must authorize the resume first.</p>
+     *
+     * @param clientId the previous session id
+     * @param session the session to deliver the messages to
+     * @return whether the previous session was recovered
+     */
+    public boolean resume(String clientId, ServerSession session)
+    {
+        expireRecovered();
+        SessionJournal recovered;
+        synchronized (_recovered)
+        {
+            recovered = _recovered.remove(clientId);
+        }
+        if (recovered == null)
+            return false;
+
+        if (_logger.isDebugEnabled())
+            _logger.debug("Resuming {} messages of {} for {}", recovered._size, clientId, session);
+
+        for (int i = 0; i < recovered._size; ++i)
+        {
+            ServerMessage.Mutable message = recovered._partition.read(recovered.messageAt(i));
+            if (message != null)
+                session.deliver(null, message);
+        }
+        // The messages are now referenced by the new session.
+        recovered.remove();
+        return true;
+    }
+
+    /**
+     * <p>Discards the recovered sessions that have not been resumed,
+     * so that the segments they reference can be deleted.</p>
+     */
+    public void discardRecovered()
+    {
+        List<SessionJournal> recovered;
+        synchronized (_recovered)
+        {
+            _recoveredPending = false;
+            recovered = new ArrayList<>(_recovered.values());
+            _recovered.clear();
+        }
+        for (SessionJournal session : recovered)
+            session.remove();
+    }
+
+    /**
+     * @return the time, in milliseconds from when the journal was opened, after which
+     * the recovered sessions that have not been resumed are discarded
+     */
+    public long getRecoveredTimeout()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_recoveredExpiration - _recoveredTime);
+    }
+
+    /**
+     * <p>Sets the time, from when the journal was opened, after which the recovered
+     * sessions that have not been resumed are discarded, so that the segments they
+     * reference can be deleted.</p>
+     * <p>The timeout should allow clients to reconnect after a restart of the server,
+     * and is checked when sessions are created or resumed.</p>
+     *
+     * @param timeout the timeout in milliseconds
+     * @see #discardRecovered()
+     */
+    public void setRecoveredTimeout(long timeout)
+    {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Invalid recovered timeout " + timeout);
+        _recoveredExpiration = _recoveredTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    private void expireRecovered()
+    {
+        if (_recoveredPending && System.nanoTime() - _recoveredExpiration >= 0)
+        {
+            if (_logger.isDebugEnabled())
+                _logger.debug("Discarding recovered sessions not resumed within {} ms", getRecoveredTimeout());
+            discardRecovered();
+        }
+    }
+
+    // Used only in tests.
+    int getSegmentCount()
+    {
+        int result = 0;
+        for (Partition partition : _partitions)
+            result += partition.getSegmentCount();
+        return result;
+    }
+
+    public void close() throws IOException
+    {
+        for (Partition partition : _partitions)
+            partition.close();
+    }
+
+    private void recover() throws IOException
+    {
+        Map<Integer, Path> directories = new HashMap<>();
+        int count = _partitionCount;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, PARTITION_PREFIX + "*"))
+        {
+            for (Path file : files)
+            {
+                int index = Integer.parseInt(file.getFileName().toString().substring(PARTITION_PREFIX.length()));
+                directories.put(index, file);
+                count = Math.max(count, index + 1);
+            }
+        }
+
+        // Partitions left over by a previous configuration only hold recovered
+        // messages, and are not assigned to new sessions.
+        _partitions = new Partition[count];
+        for (int i = 0; i < count; ++i)
+        {
+            Path directory = directories.get(i);
+            if (directory == null)
+                directory = Files.createDirectories(_directory.resolve(PARTITION_PREFIX + i));
+            _partitions[i] = new Partition(directory);
+        }
+
+        Map<String, SessionJournal> sessions = new HashMap<>();
+        for (Partition partition : _partitions)
+            partition.recover(sessions);
+        _recovered.putAll(sessions);
+        _recoveredPending = !sessions.isEmpty();
+        _recoveredTime = System.nanoTime();
+        _recoveredExpiration = _recoveredTime + TimeUnit.MILLISECONDS.toNanos(DEFAULT_RECOVERED_TIMEOUT);
+        for (Partition partition : _partitions)
+            partition.deleteReleasedSegments();
+
+        if (_logger.isDebugEnabled())
+            _logger.debug("Recovered {} sessions from {} segments in {}", _recovered.size(), getSegmentCount(), _directory);
+    }
+
+    private static String readString(ByteBuffer buffer, int end)
+    {
+        byte[] bytes = new byte[end - buffer.position()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long position(int segment, int offset)
+    {
+        return ((long)segment << 32) | offset;
+    }
+
+    private static int segmentOf(long position)
+    {
+        return (int)(position >>> 32);
+    }
+
+    private static int offsetOf(long position)
+    {
+        return (int)position;
+    }
+
+    /**
+     * <p>A partition of the journal, with its own segments, appended to by the
+     * sessions assigned to it while holding the partition lock.</p>
+     * <p>Positions are relative to the partition: both the message and the
+     * reference records of a session are in the partition of the session.</p>
+     */
+    private class Partition
+    {
+        private final NavigableMap<Integer, Segment> _segments = new TreeMap<>();
+        private final Path _directory;
+        private volatile Encoded _lastEncoded;
+        private Segment _segment;
+        private ServerMessage _lastMessage;
+        private long _lastPosition;
+
+        private Partition(Path directory)
+        {
+            _directory = directory;
+        }
+
+        private void recover(Map<String, SessionJournal> sessions) throws IOException
+        {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+            {
+                for (Path file : files)
+                {
+                    String name = file.getFileName().toString();
+                    int index = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    _segments.put(index, new Segment(index, file, 0));
+                }
+            }
+
+            for (Segment segment : _segments.values())
+            {
+                _segment = segment;
+                ByteBuffer buffer = segment._buffer;
+                while (buffer.remaining() >= 5)
+                {
+                    int offset = buffer.position();
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining())
+                    {
+                        // End of the records, or a record not completely written.
+                        buffer.position(offset);
+                        break;
+                    }
+                    int end = buffer.position() + length;
+                    if (buffer.get() == REFERENCE)
+                    {
+                        long message = buffer.getLong();
+                        String clientId = readString(buffer, end);
+                        SessionJournal session = sessions.get(clientId);
+                        if (session == null)
+                        {
+                            session = new SessionJournal(clientId, this);
+                            sessions.put(clientId, session);
+                        }
+                        if (session._partition == this)
+                        {
+                            long reference = position(segment._index, offset);
+                            retain(message);
+                            retain(reference);
+                            session.push(message, reference);
+                        }
+                    }
+                    buffer.position(end);
+                }
+            }
+        }
+
+        private void deleteReleasedSegments()
+        {
+            synchronized (this)
+            {
+                for (Segment segment : new ArrayList<>(_segments.values()))
+                {
+                    if (segment != _segment && segment._references == 0)
+                        delete(segment);
+                }
+            }
+        }
+
+        private int getSegmentCount()
+        {
+            synchronized (this)
+            {
+                return _segments.size();
+            }
+        }
+
+        private void close() throws IOException
+        {
+            synchronized (this)
+            {
+                for (Segment segment : _segments.values())
+                    segment.close(true);
+                _segments.clear();
+                _segment = null;
+            }
+        }
+
+        private ServerMessage.Mutable read(long position)
+        {
+            String json;
+            synchronized (this)
+            {
+                Segment segment = _segments.get(segmentOf(position));
+                if (segment == null)
+                    return null;
+
+                ByteBuffer buffer = segment._buffer.duplicate();
+                buffer.position(offsetOf(position));
+                int length = buffer.getInt();
+                int end = buffer.position() + length;
+                if (buffer.get() != MESSAGE)
+                    return null;
+                json = readString(buffer, end);
+            }
+
+            try
+            {
+                ServerMessage.Mutable[] messages = _jsonContext.parse(json);
+                if (messages == null || messages.length == 0)
+                    return null;
+                ServerMessage.Mutable message = messages[0];
+                synchronized (this)
+                {
+                    // Queueing the message read to a session of
+                    // this partition will not append it again.
+                    _lastMessage = message;
+                    _lastPosition = position;
+                }
+                return message;
+            }
+            catch (ParseException x)
+            {
+                _logger.info("Could not parse journaled message " + json, x);
+                return null;
+            }
+        }
+
+        private byte[] encode(ServerMessage message)
+        {
+            // The same message is queued to all the subscribed sessions in sequence.
+            Encoded encoded = _lastEncoded;
+            if (encoded == null || encoded.message != message)
+            {
+                encoded = new Encoded(message, message.getJSON().getBytes(StandardCharsets.UTF_8));
+                _lastEncoded = encoded;
+            }
+            return encoded.bytes;
+        }
+
+        private void add(SessionJournal session, ServerMessage message, byte[] json) throws IOException
+        {
+            synchronized (this)
+            {
+                long messagePosition;
+                if (message == _lastMessage)
+                {
+                    messagePosition = _lastPosition;
+                }
+                else
+                {
+                    messagePosition = append(MESSAGE, 0, json);
+                    _lastMessage = message;
+                    _lastPosition = messagePosition;
+                }
+                long referencePosition = append(REFERENCE, messagePosition, session._clientIdBytes);
+                retain(messagePosition);
+                retain(referencePosition);
+                session.push(messagePosition, referencePosition);
+            }
+        }
+
+        private long append(byte type, long value, byte[] bytes) throws IOException
+        {
+            int length = 1 + (type == REFERENCE ? 8 : 0) + bytes.length;
+            if (_segment == null || _segment._buffer.remaining() < 4 + length)
+                roll(4 + length);
+
+            ByteBuffer buffer = _segment._buffer;
+            int offset = buffer.position();
+            buffer.position(offset + 4);
+            buffer.put(type);
+            if (type == REFERENCE)
+                buffer.putLong(value);
+            buffer.put(bytes);
+            // Write the length last, so that a record not completely written is not recovered.
+            buffer.putInt(offset, length);
+            return position(_segment._index, offset);
+        }
+
+        private void roll(int length) throws IOException
+        {
+            int index = _segment == null ? 0 : _segment._index + 1;
+            Path file = _directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+            Segment segment = new Segment(index, file, Math.max(_segmentSize, length));
+            _segments.put(index, segment);
+            Segment previous = _segment;
+            _segment = segment;
+            if (previous != null && previous._references == 0)
+                delete(previous);
+        }
+
+        private void markReleased(long reference)
+        {
+            Segment segment = _segments.get(segmentOf(reference));
+            if (segment != null)
+                segment._buffer.put(offsetOf(reference) + 4, RELEASED);
+        }
+
+        private void retain(long position)
+        {
+            Segment segment = _segments.get(segmentOf(position));
+            if (segment != null)
+                ++segment._references;
+        }
+
+        private void release(long position)
+        {
+            Segment segment = _segments.get(segmentOf(position));
+            if (segment != null && --segment._references == 0 && segment != _segment)
+                delete(segment);
+        }
+
+        private void delete(Segment segment)
+        {
+            _segments.remove(segment._index);
+            try
+            {
+                segment.close(false);
+                Files.deleteIfExists(segment._file);
+            }
+            catch (IOException x)
+            {
+                _logger.info("Could not delete journal segment " + segment._file, x);
+            }
+        }
+    }
+
+    /**
+     * <p>The journal of the messages queued to a session and not yet acknowledged,
+     * as pairs of positions of the message record and of the reference record.</p>
+     */
+    public class SessionJournal
+    {
+        private final byte[] _clientIdBytes;
+        private final Partition _partition;
+        private long[] _positions = new long[32];
+        private int _head;
+        private int _size;
+
+        private SessionJournal(String clientId, Partition partition)
+        {
+            _clientIdBytes = clientId.getBytes(StandardCharsets.UTF_8);
+            _partition = partition;
+        }
+
+        /**
+         * @param message the message queued to the session
+         * @throws IOException if the message cannot be appended to the journal
+         */
+        public void add(ServerMessage message) throws IOException
+        {
+            // Encode outside of the partition lock.
+            byte[] json = _partition.encode(message);
+            _partition.add(this, message, json);
+        }
+
+        /**
+         * @param count the number of oldest messages that have been acknowledged
+         */
+        public void acknowledge(int count)
+        {
+            if (count <= 0)
+                return;
+            synchronized (_partition)
+            {
+                count = Math.min(count, _size);
+                for (int i = 0; i < count; ++i)
+                    pop();
+            }
+        }
+
+        /**
+         * <p>Releases all the messages of the session, that will not be recovered.</p>
+         */
+        public void remove()
+        {
+            synchronized (_partition)
+            {
+                while (_size > 0)
+                    pop();
+            }
+        }
+
+        private void push(long messagePosition, long referencePosition)
+        {
+            int capacity = _positions.length / 2;
+            if (_size == capacity)
+            {
+                long[] positions = new long[_positions.length * 2];
+                for (int i = 0; i < _size; ++i)
+                {
+                    positions[2 * i] = messageAt(i);
+                    positions[2 * i + 1] = referenceAt(i);
+                }
+                _positions = positions;
+                _head = 0;
+                capacity *= 2;
+            }
+            int slot = (_head + _size) % capacity;
+            _positions[2 * slot] = messagePosition;
+            _positions[2 * slot + 1] = referencePosition;
+            ++_size;
+        }
+
+        private void pop()
+        {
+            // Mark the reference before releasing, since releasing may delete its segment.
+            _partition.markReleased(referenceAt(0));
+            _partition.release(messageAt(0));
+            _partition.release(referenceAt(0));
+            _head = (_head + 1) % (_positions.length / 2);
+            --_size;
+        }
+
+        private long messageAt(int index)
+        {
+            return _positions[2 * ((_head + index) % (_positions.length / 2))];
+        }
+
+        private long referenceAt(int index)
+        {
+            return _positions[2 * ((_head + index) % (_positions.length / 2)) + 1];
+        }
+    }
+
+    private static class Encoded
+    {
+        private final ServerMessage message;
+        private final byte[] bytes;
+
+        private Encoded(ServerMessage message, byte[] bytes)
+        {
+            this.message = message;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Segment
+    {
+        private final int _index;
+        private final Path _file;
+        private final FileChannel _channel;
+        private final MappedByteBuffer _buffer;
+        private int _references;
+
+        private Segment(int index, Path file, int size) throws IOException
+        {
+            _index = index;
+            _file = file;
+            _channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, _channel.size()));
+        }
+
+        private void close(boolean force) throws IOException
+        {
+            if (force)
+                _buffer.force();
+            _channel.close();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,refs=%d]", getClass().getSimpleName(), hashCode(), _file, _references);
+        }
+    }
+}
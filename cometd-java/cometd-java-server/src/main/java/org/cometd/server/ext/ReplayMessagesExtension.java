@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.BayeuxServer.Extension;
+import org.cometd.bayeux.server.ServerMessage.Mutable;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.ServerSessionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Installing this extension in a {@link BayeuxServer} allows clients that
+ * also support it to resume their session after a connection failure without
+ * losing the messages that were being sent when the connection failed.</p>
+ * <p>The sessions of those clients retain the last messages sent in a bounded
+ * replay buffer (see {@link ServerSessionImpl#setReplayBufferSize(int)}).
+ * When a client reconnects, it tells how many messages it has received, and
+ * the messages it missed are replayed from the buffer, while the session and
+ * its subscriptions are retained.</p>
+ * <p>Unlike the {@link AcknowledgedMessagesExtension}, messages are not
+ * acknowledged and may arrive via any response, but only a bounded number
+ * of them can be replayed; the two extensions should not be used together.</p>
+ */
+public class ReplayMessagesExtension extends Extension.Adapter
+{
+    public static final String RESUME_FIELD = "resume";
+
+    private final Logger _logger = LoggerFactory.getLogger(getClass().getName());
+    private final int _bufferSize;
+
+    public ReplayMessagesExtension()
+    {
+        this(64);
+    }
+
+    public ReplayMessagesExtension(int bufferSize)
+    {
+        _bufferSize = bufferSize;
+    }
+
+    public int getBufferSize()
+    {
+        return _bufferSize;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession from, Mutable message)
+    {
+        if (Channel.META_CONNECT.equals(message.getChannel()) && from != null)
+        {
+            Map<String, Object> ext = message.getExt();
+            if (ext != null)
+            {
+                Object received = ext.get(RESUME_FIELD);
+                if (received instanceof Number)
+                {
+                    boolean replayed = ((ServerSessionImpl)from).replay(((Number)received).longValue());
+                    if (!replayed)
+                        _logger.info("Could not replay all missed messages for {}", from);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendMeta(ServerSession to, Mutable message)
+    {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel()) && message.isSuccessful())
+        {
+            Message rcv = message.getAssociated();
+
+            Map<String, Object> rcvExt = rcv.getExt();
+            boolean clientRequestedResume = rcvExt != null && rcvExt.get(RESUME_FIELD) == Boolean.TRUE;
+
+            if (clientRequestedResume && to != null)
+            {
+                if (_logger.isDebugEnabled())
+                    _logger.debug("Enabled message replay for session {}", to);
+                ((ServerSessionImpl)to).setReplayBufferSize(_bufferSize);
+            }
+
+            Map<String, Object> sndExt = message.getExt(true);
+            sndExt.put(RESUME_FIELD, Boolean.TRUE);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxContext;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.common.LoopbackConnector;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>A server transport that accepts connections from client transports living
+ * in the same JVM via the {@link LoopbackConnector} interface.</p>
+ * <p>Batches of messages are handed over in memory to a thread pool, so that
+ * the processing of the Bayeux protocol is exactly the same as for network
+ * transports, but without the cost of the network stack.</p>
+ * <p>This transport is not configured by default, and must be added explicitly
+ * to the {@link BayeuxServerImpl} via the {@code transports} option or via
+ * {@link BayeuxServerImpl#addTransport(org.cometd.bayeux.server.ServerTransport)}.</p>
+ */
+public class LoopbackTransport extends AbstractServerTransport implements LoopbackConnector
+{
+    public static final String NAME = "loopback";
+    public static final String PREFIX = "loopback";
+    public static final String THREAD_POOL_MAX_SIZE = "threadPoolMaxSize";
+
+    private final Set<LoopbackScheduler> _connections = Collections.newSetFromMap(new ConcurrentHashMap<LoopbackScheduler, Boolean>());
+    private volatile Executor _executor;
+
+    public LoopbackTransport(BayeuxServerImpl bayeux)
+    {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    public void init()
+    {
+        super.init();
+        _executor = newExecutor();
+    }
+
+    @Override
+    public void destroy()
+    {
+        for (LoopbackScheduler connection : new ArrayList<>(_connections))
+            connection.close();
+
+        Executor executor = _executor;
+        _executor = null;
+        if (executor instanceof ExecutorService)
+            ((ExecutorService)executor).shutdown();
+
+        super.destroy();
+    }
+
+    protected Executor newExecutor()
+    {
+        int size = getOption(THREAD_POOL_MAX_SIZE, 64);
+        return Executors.newFixedThreadPool(size);
+    }
+
+    public Executor getExecutor()
+    {
+        return _executor;
+    }
+
+    @Override
+    public BayeuxContext getContext()
+    {
+        return null;
+    }
+
+    @Override
+    public Connection connect(Listener listener)
+    {
+        Executor executor = _executor;
+        if (executor == null)
+            throw new IllegalStateException("Transport " + getName() + " not initialized");
+        LoopbackScheduler connection = new LoopbackScheduler(executor, listener);
+        _connections.add(connection);
+        if (_logger.isDebugEnabled())
+            _logger.debug("Opened {}", connection);
+        return connection;
+    }
+
+    /**
+     * @return the number of currently open connections
+     */
+    public int getConnectionCount()
+    {
+        return _connections.size();
+    }
+
+    protected void handleJSONParseException(String json, Throwable exception)
+    {
+        _logger.warn("Error parsing JSON: " + json, exception);
+    }
+
+    protected void handleException(Throwable exception)
+    {
+        if (_logger.isDebugEnabled())
+            _logger.debug("", exception);
+    }
+
+    private class LoopbackScheduler implements AbstractServerTransport.Scheduler, Connection
+    {
+        private final AtomicBoolean _closed = new AtomicBoolean();
+        private final Listener _listener;
+        private final SerialExecutor _inbound;
+        private final SerialExecutor _outbound;
+        private volatile ServerSessionImpl _session;
+        private ServerMessage.Mutable _connectReply;
+        private org.eclipse.jetty.util.thread.Scheduler.Task _connectTask;
+
+        private LoopbackScheduler(Executor executor, Listener listener)
+        {
+            _listener = listener;
+            _inbound = new SerialExecutor(executor);
+            _outbound = new SerialExecutor(executor);
+        }
+
+        @Override
+        public void send(final String content)
+        {
+            if (_closed.get())
+                throw new IllegalStateException("Connection closed " + this);
+            _inbound.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    onMessages(content);
+                }
+            });
+        }
+
+        @Override
+        public void close()
+        {
+            if (_closed.compareAndSet(false, true))
+            {
+                _connections.remove(this);
+                ServerSessionImpl session = _session;
+                if (session != null)
+                {
+                    // Like for network transports, the session is not removed
+                    // because the client may connect again, but it will be
+                    // swept if it does not connect within the max interval.
+                    _session = null;
+                    session.startIntervalTimeout(getInterval());
+                    cancelMetaConnectTask(session);
+                }
+                if (_logger.isDebugEnabled())
+                    _logger.debug("Closed {}", this);
+                _listener.onClose();
+            }
+        }
+
+        private void onMessages(String content)
+        {
+            if (_closed.get())
+                return;
+
+            getBayeux().setCurrentTransport(LoopbackTransport.this);
+            try
+            {
+                ServerMessage.Mutable[] messages = parseMessages(content);
+                if (_logger.isDebugEnabled())
+                    _logger.debug("Parsed {} messages", messages == null ? -1 : messages.length);
+                if (messages != null)
+                    processMessages(messages);
+            }
+            catch (ParseException x)
+            {
+                close();
+                handleJSONParseException(content, x);
+            }
+            catch (Throwable x)
+            {
+                close();
+                handleException(x);
+            }
+            finally
+            {
+                getBayeux().setCurrentTransport(null);
+            }
+        }
+
+        private void processMessages(ServerMessage.Mutable[] messages) throws IOException
+        {
+            ServerSessionImpl session = _session;
+
+            boolean startInterval = false;
+            boolean send = true;
+            List<ServerMessage> queue = Collections.emptyList();
+            List<ServerMessage> replies = new ArrayList<>(messages.length);
+            for (ServerMessage.Mutable message : messages)
+            {
+                if (_logger.isDebugEnabled())
+                    _logger.debug("Processing {}", message);
+
+                String clientId = message.getClientId();
+                if (session == null || !session.getId().equals(clientId))
+                    _session = session = (ServerSessionImpl)getBayeux().getSession(clientId);
+
+                // Session expired concurrently ?
+                if (session != null && !session.isHandshook())
+                    _session = session = null;
+
+                switch (message.getChannel())
+                {
+                    case Channel.META_HANDSHAKE:
+                    {
+                        if (messages.length > 1)
+                            throw new IOException();
+                        ServerMessage.Mutable reply = getBayeux().handle(session, message);
+                        if (reply != null && reply.isSuccessful())
+                        {
+                            session = (ServerSessionImpl)getBayeux().getSession(reply.getClientId());
+                            if (session != null)
+                                session.setScheduler(this);
+                        }
+                        reply = processReply(session, reply);
+                        if (reply != null)
+                            replies.add(reply);
+                        break;
+                    }
+                    case Channel.META_CONNECT:
+                    {
+                        ServerMessage.Mutable reply = processMetaConnect(session, message);
+                        reply = processReply(session, reply);
+                        if (reply != null)
+                            replies.add(reply);
+                        send = startInterval = reply != null;
+                        if (send && session != null)
+                        {
+                            if (isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly())
+                                queue = session.takeQueue();
+                        }
+                        break;
+                    }
+                    default:
+                    {
+                        ServerMessage.Mutable reply = getBayeux().handle(session, message);
+                        reply = processReply(session, reply);
+                        if (reply != null)
+                            replies.add(reply);
+                        break;
+                    }
+                }
+            }
+
+            if (send)
+                deliver(session, startInterval, queue, replies);
+        }
+
+        private ServerMessage.Mutable processMetaConnect(ServerSessionImpl session, ServerMessage.Mutable message)
+        {
+            // Remember the connected status before handling the message.
+            boolean wasConnected = session != null && session.isConnected();
+            ServerMessage.Mutable reply = getBayeux().handle(session, message);
+            if (reply != null && session != null)
+            {
+                if (reply.isSuccessful() && session.isConnected())
+                {
+                    session.setScheduler(this);
+
+                    boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+                    boolean replyToMetaConnect = session.hasNonLazyMessages() && metaConnectDelivery;
+                    if (!replyToMetaConnect)
+                    {
+                        long timeout = session.calculateTimeout(getTimeout());
+                        if (timeout > 0 && wasConnected)
+                            reply = holdMetaConnect(session, reply, timeout);
+                    }
+                }
+                if (reply != null && session.isDisconnected())
+                    reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+            }
+            return reply;
+        }
+
+        private ServerMessage.Mutable holdMetaConnect(ServerSessionImpl session, final ServerMessage.Mutable reply, long timeout)
+        {
+            synchronized (session.getLock())
+            {
+                if (session.hasNonLazyMessages())
+                    return reply;
+
+                cancelMetaConnectTask(session);
+                _connectReply = reply;
+                _connectTask = getBayeux().schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        schedule(true, reply);
+                    }
+                }, timeout);
+                return null;
+            }
+        }
+
+        private boolean cancelMetaConnectTask(ServerSessionImpl session)
+        {
+            org.eclipse.jetty.util.thread.Scheduler.Task connectTask;
+            synchronized (session.getLock())
+            {
+                connectTask = _connectTask;
+                _connectTask = null;
+            }
+            return connectTask != null && connectTask.cancel();
+        }
+
+        private ServerMessage.Mutable processReply(ServerSessionImpl session, ServerMessage.Mutable reply)
+        {
+            if (reply != null)
+            {
+                reply = getBayeux().extendReply(session, session, reply);
+                if (reply != null)
+                    getBayeux().freeze(reply);
+            }
+            return reply;
+        }
+
+        @Override
+        public void cancel()
+        {
+            ServerSessionImpl session = _session;
+            if (session != null)
+            {
+                if (cancelMetaConnectTask(session))
+                    close();
+            }
+        }
+
+        @Override
+        public void schedule()
+        {
+            schedule(false, null);
+        }
+
+        private void schedule(boolean timeout, ServerMessage.Mutable expiredConnectReply)
+        {
+            ServerSessionImpl session = _session;
+            if (session == null)
+                return;
+
+            boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+
+            // Decide atomically if we have to reply to the meta connect,
+            // so that only one thread replies and ordering is preserved.
+            boolean reply = false;
+            ServerMessage.Mutable connectReply;
+            synchronized (session.getLock())
+            {
+                connectReply = _connectReply;
+
+                // A newer meta connect replaced the expired one.
+                if (timeout && connectReply != expiredConnectReply)
+                    return;
+
+                if (connectReply == null)
+                {
+                    if (metaConnectDelivery)
+                        return;
+                }
+                else
+                {
+                    if (timeout || metaConnectDelivery || !session.isConnected())
+                    {
+                        cancelMetaConnectTask(session);
+                        _connectReply = null;
+                        reply = true;
+                    }
+                }
+            }
+
+            List<ServerMessage> replies = Collections.emptyList();
+            if (reply)
+            {
+                if (session.isDisconnected())
+                    connectReply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+                connectReply = processReply(session, connectReply);
+                if (connectReply != null)
+                    replies = Collections.<ServerMessage>singletonList(connectReply);
+            }
+            deliver(session, reply, session.takeQueue(), replies);
+        }
+
+        private void deliver(final ServerSessionImpl session, final boolean startInterval, List<ServerMessage> queue, List<ServerMessage> replies)
+        {
+            int size = queue.size() + replies.size();
+            if (size == 0)
+                return;
+
+            // Assume 4 fields of 48 chars per message
+            StringBuilder builder = new StringBuilder(size * 4 * 48);
+            builder.append("[");
+            boolean comma = false;
+            for (int i = 0; i < queue.size(); ++i)
+            {
+                if (comma)
+                    builder.append(",");
+                comma = true;
+                builder.append(queue.get(i).getJSON());
+            }
+            for (int i = 0; i < replies.size(); ++i)
+            {
+                if (comma)
+                    builder.append(",");
+                comma = true;
+                builder.append(replies.get(i).getJSON());
+            }
+            builder.append("]");
+
+            final String content = builder.toString();
+            _outbound.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        if (!_closed.get())
+                            _listener.onMessages(content);
+                    }
+                    finally
+                    {
+                        // Start the interval timeout after delivering the
+                        // messages, even in case of failures, to make sure
+                        // the session can be swept.
+                        if (startInterval && session != null)
+                            session.startIntervalTimeout(getInterval());
+                    }
+                }
+            });
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), _session);
+        }
+    }
+
+    /**
+     * <p>Executes tasks one at a time, in submission order, using the given executor.</p>
+     */
+    private class SerialExecutor implements Executor, Runnable
+    {
+        private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean _running = new AtomicBoolean();
+        private final Executor _executor;
+
+        private SerialExecutor(Executor executor)
+        {
+            _executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task)
+        {
+            _tasks.offer(task);
+            if (_running.compareAndSet(false, true))
+                _executor.execute(this);
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Runnable task;
+                while ((task = _tasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (Throwable x)
+                    {
+                        handleException(x);
+                    }
+                }
+                _running.set(false);
+                // Another task may have been offered after the last poll().
+                if (_tasks.isEmpty() || !_running.compareAndSet(false, true))
+                    return;
+            }
+        }
+    }
+}
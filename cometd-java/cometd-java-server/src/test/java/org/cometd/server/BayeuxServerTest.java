@@ -15,6 +15,9 @@
  */
 package org.cometd.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -28,6 +31,7 @@ import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.HashMapMessage;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -261,6 +265,50 @@ public class BayeuxServerTest
         Assert.assertFalse(ss2.isConnected());
     }
 
+    @Test
+    public void testLocalSessionNotifiesExactAndWildChannels() throws Exception
+    {
+        LocalSessionImpl session = (LocalSessionImpl)_bayeux.newLocalSession("wild");
+        session.handshake();
+
+        final List<String> notified = new ArrayList<>();
+        for (String channelName : Arrays.asList("/**", "/foo/**", "/foo/*", "/foo/bar", "/foo/bar/*", "/foo/baz", "/baz/*"))
+        {
+            session.getChannel(channelName).addListener(new ClientSessionChannel.MessageListener()
+            {
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    notified.add(channel.getId());
+                }
+            });
+        }
+
+        HashMapMessage message = new HashMapMessage();
+        message.setChannel("/foo/bar");
+        session.receive(message);
+        Assert.assertEquals(Arrays.asList("/foo/bar", "/foo/*", "/foo/**", "/**"), notified);
+
+        // Released channels are not notified anymore.
+        notified.clear();
+        ClientSessionChannel channel = session.getChannel("/foo/*");
+        for (ClientSessionChannel.ClientSessionChannelListener listener : channel.getListeners())
+            channel.removeListener(listener);
+        Assert.assertTrue(channel.release());
+        message = new HashMapMessage();
+        message.setChannel("/foo/bar");
+        session.receive(message);
+        Assert.assertEquals(Arrays.asList("/foo/bar", "/foo/**", "/**"), notified);
+
+        // Channels without a node in the tree only notify wilds.
+        notified.clear();
+        message = new HashMapMessage();
+        message.setChannel("/qux");
+        session.receive(message);
+        Assert.assertEquals(Arrays.asList("/**"), notified);
+
+        session.disconnect();
+    }
+
     @Test
     public void testExtensions() throws Exception
     {
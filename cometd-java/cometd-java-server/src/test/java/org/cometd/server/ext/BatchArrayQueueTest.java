@@ -102,4 +102,51 @@ public class BatchArrayQueueTest
         for (String element: queue)
             Assert.assertTrue(element.startsWith("B"));
     }
+
+    @Test
+    public void test_Offer_Poll_Wrap_Clear_Grow_Export() throws Exception
+    {
+        BatchArrayQueue<String> queue = new BatchArrayQueue<>(4, this);
+
+        // Move the head so that the next elements wrap around.
+        queue.offer("X1");
+        queue.offer("X2");
+        queue.offer("X3");
+        queue.poll();
+        queue.poll();
+        queue.poll();
+        queue.nextBatch();
+
+        queue.offer("A1");
+        queue.offer("A2");
+        long batch = queue.getBatch();
+        queue.nextBatch();
+        queue.offer("B1");
+        queue.offer("B2");
+        long nextBatch = queue.getBatch();
+        queue.nextBatch();
+
+        queue.clearToBatch(batch);
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("B1", queue.peek());
+
+        // Grow while wrapped.
+        for (int i = 0; i < 8; ++i)
+            queue.offer("C" + i);
+        Assert.assertEquals(10, queue.size());
+        Assert.assertEquals(nextBatch, queue.batchOf(1));
+        Assert.assertEquals(queue.getBatch(), queue.batchOf(2));
+
+        Queue<String> target = new ArrayQueue<>();
+        queue.exportMessagesToBatch(target, nextBatch);
+        Assert.assertEquals(2, target.size());
+        Assert.assertEquals("B1", target.poll());
+        Assert.assertEquals("B2", target.poll());
+
+        queue.clearToBatch(queue.getBatch());
+        Assert.assertTrue(queue.isEmpty());
+
+        queue.offer("D1");
+        Assert.assertEquals("D1", queue.poll());
+    }
 }
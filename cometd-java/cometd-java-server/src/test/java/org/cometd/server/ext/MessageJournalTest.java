@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.ext;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.JettyJSONContextServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MessageJournalTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private final BayeuxServerImpl bayeux = new BayeuxServerImpl();
+    private Path directory;
+
+    @Before
+    public void init() throws Exception
+    {
+        bayeux.start();
+        directory = folder.newFolder().toPath();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        bayeux.stop();
+    }
+
+    private ServerSession newServerSession(final List<ServerMessage> messages)
+    {
+        LocalSession local = bayeux.newLocalSession("test");
+        local.handshake();
+        ServerSession session = local.getServerSession();
+        session.addListener(new ServerSession.MessageListener()
+        {
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message)
+            {
+                messages.add(message);
+                return true;
+            }
+        });
+        return session;
+    }
+
+    private ServerSession newServerSession()
+    {
+        return newServerSession(new ArrayList<ServerMessage>());
+    }
+
+    private ServerMessage newMessage(int value)
+    {
+        ServerMessage.Mutable message = bayeux.newMessage();
+        message.setChannel("/foo");
+        message.setData(value);
+        return message;
+    }
+
+    @Test
+    public void testUnacknowledgedMessagesAreResumedAfterRestart() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 1024, new JettyJSONContextServer());
+        MessageJournal.SessionJournal session1 = journal.newSessionJournal("session1");
+        MessageJournal.SessionJournal session2 = journal.newSessionJournal("session2");
+        for (int i = 0; i < 3; ++i)
+        {
+            ServerMessage message = newMessage(i);
+            // The same message queued to two sessions.
+            session1.add(message);
+            session2.add(message);
+        }
+        session1.acknowledge(1);
+        session2.remove();
+        journal.close();
+
+        journal = new MessageJournal(directory, 1024, new JettyJSONContextServer());
+        List<ServerMessage> messages = new ArrayList<>();
+        ServerSession session = newServerSession(messages);
+        Assert.assertFalse(journal.resume("session2", session));
+        Assert.assertTrue(journal.resume("session1", session));
+
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(1, ((Number)messages.get(0).getData()).intValue());
+        Assert.assertEquals(2, ((Number)messages.get(1).getData()).intValue());
+
+        // Cannot be resumed twice.
+        Assert.assertFalse(journal.resume("session1", newServerSession()));
+        journal.close();
+    }
+
+    @Test
+    public void testResumeRequiresResumePolicy() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 1024, new JettyJSONContextServer());
+        journal.newSessionJournal("previous").add(newMessage(1));
+        journal.close();
+
+        journal = new MessageJournal(directory, 1024, new JettyJSONContextServer());
+        AcknowledgedMessagesExtension extension = new AcknowledgedMessagesExtension(journal);
+
+        List<ServerMessage> messages = new ArrayList<>();
+        ServerSession session = newServerSession(messages);
+        extension.sendMeta(session, newResumeReply("previous"));
+        // No policy, the resume is denied.
+        Assert.assertEquals(0, messages.size());
+
+        final AtomicReference<String> resumed = new AtomicReference<>();
+        extension.setResumePolicy(new AcknowledgedMessagesExtension.ResumePolicy()
+        {
+            public boolean canResume(ServerSession session, String previousId, ServerMessage message)
+            {
+                resumed.set(previousId);
+                return "previous".equals(previousId);
+            }
+        });
+        extension.sendMeta(newServerSession(messages), newResumeReply("other"));
+        Assert.assertEquals("other", resumed.get());
+        Assert.assertEquals(0, messages.size());
+
+        extension.sendMeta(newServerSession(messages), newResumeReply("previous"));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(1, ((Number)messages.get(0).getData()).intValue());
+        journal.close();
+    }
+
+    private ServerMessage.Mutable newResumeReply(String previousId)
+    {
+        ServerMessage.Mutable request = bayeux.newMessage();
+        request.setChannel(Channel.META_HANDSHAKE);
+        Map<String, Object> ext = request.getExt(true);
+        ext.put("ack", Boolean.TRUE);
+        ext.put(AcknowledgedMessagesExtension.RESUME_FIELD, previousId);
+        ServerMessage.Mutable reply = bayeux.newMessage();
+        reply.setChannel(Channel.META_HANDSHAKE);
+        reply.setSuccessful(true);
+        reply.setAssociated(request);
+        return reply;
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreDeleted() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        MessageJournal.SessionJournal session = journal.newSessionJournal("session");
+        for (int i = 0; i < 32; ++i)
+            session.add(newMessage(i));
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+
+        session.acknowledge(16);
+        int segments = journal.getSegmentCount();
+        Assert.assertTrue(segments > 1);
+
+        session.acknowledge(16);
+        Assert.assertTrue(journal.getSegmentCount() < segments);
+        Assert.assertEquals(1, journal.getSegmentCount());
+        journal.close();
+
+        journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        Assert.assertFalse(journal.resume("session", newServerSession()));
+        journal.close();
+    }
+
+    @Test
+    public void testSlowSessionDoesNotRetainOtherSegments() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        MessageJournal.SessionJournal slow = journal.newSessionJournal("slow");
+        slow.add(newMessage(-1));
+        MessageJournal.SessionJournal fast = journal.newSessionJournal("fast");
+        for (int i = 0; i < 32; ++i)
+        {
+            fast.add(newMessage(i));
+            fast.acknowledge(1);
+        }
+
+        // Only the segment of the unacknowledged message and the current segment are retained.
+        Assert.assertTrue(journal.getSegmentCount() <= 2);
+        journal.close();
+
+        journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        List<ServerMessage> messages = new ArrayList<>();
+        Assert.assertFalse(journal.resume("fast", newServerSession()));
+        Assert.assertTrue(journal.resume("slow", newServerSession(messages)));
+        Assert.assertEquals(1, messages.size());
+        Assert.assertEquals(-1, ((Number)messages.get(0).getData()).intValue());
+        journal.close();
+    }
+
+    @Test
+    public void testConcurrentSessionsAcrossPartitions() throws Exception
+    {
+        int partitions = 4;
+        MessageJournal journal = new MessageJournal(directory, 1024, partitions, new JettyJSONContextServer());
+        int sessions = 16;
+        final int count = 64;
+        final List<ServerMessage> sent = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+            sent.add(newMessage(i));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < sessions; ++i)
+        {
+            final MessageJournal.SessionJournal session = journal.newSessionJournal("session" + i);
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (ServerMessage message : sent)
+                            session.add(message);
+                        session.acknowledge(count / 2);
+                    }
+                    catch (IOException x)
+                    {
+                        throw new RuntimeException(x);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+        journal.close();
+
+        journal = new MessageJournal(directory, 1024, partitions, new JettyJSONContextServer());
+        for (int i = 0; i < sessions; ++i)
+        {
+            List<ServerMessage> messages = new ArrayList<>();
+            Assert.assertTrue(journal.resume("session" + i, newServerSession(messages)));
+            Assert.assertEquals(count / 2, messages.size());
+            for (int j = 0; j < messages.size(); ++j)
+                Assert.assertEquals(count / 2 + j, ((Number)messages.get(j).getData()).intValue());
+        }
+        journal.close();
+    }
+
+    @Test
+    public void testUnresumedSessionsCanBeDiscarded() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        MessageJournal.SessionJournal session = journal.newSessionJournal("session");
+        for (int i = 0; i < 32; ++i)
+            session.add(newMessage(i));
+        journal.close();
+
+        journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+        journal.discardRecovered();
+        Assert.assertEquals(1, journal.getSegmentCount());
+        Assert.assertFalse(journal.resume("session", newServerSession()));
+        journal.close();
+    }
+
+    @Test
+    public void testUnresumedSessionsExpire() throws Exception
+    {
+        MessageJournal journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        MessageJournal.SessionJournal session = journal.newSessionJournal("session");
+        for (int i = 0; i < 32; ++i)
+            session.add(newMessage(i));
+        journal.close();
+
+        journal = new MessageJournal(directory, 256, new JettyJSONContextServer());
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+        journal.newSessionJournal("other");
+        // Not expired yet.
+        Assert.assertTrue(journal.getSegmentCount() > 1);
+
+        journal.setRecoveredTimeout(0);
+        journal.newSessionJournal("other");
+        Assert.assertEquals(1, journal.getSegmentCount());
+        Assert.assertFalse(journal.resume("session", newServerSession()));
+        journal.close();
+    }
+}
@@ -21,10 +21,13 @@ import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.URI;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -48,6 +51,9 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     public final static String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public final static String MAX_MESSAGE_SIZE_OPTION = "maxMessageSize";
     public final static String STICKY_RECONNECT_OPTION = "stickyReconnect";
+    public final static String MULTIPLEX_PARAMETER = "multiplex";
+    private final static String ENVELOPE_PREFIX = "{\"clientId\":\"";
+    private final static String ENVELOPE_MESSAGES = "\",\"messages\":";
 
     private ScheduledExecutorService _scheduler;
     private boolean _shutdownScheduler;
@@ -57,6 +63,9 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     private boolean _stickyReconnect;
     private Delegate _delegate;
     private TransportListener _listener;
+    private final Map<String, TransportListener> _sessionListeners = new ConcurrentHashMap<>();
+    private int _sessions;
+    private volatile boolean _multiplexed;
 
     protected AbstractWebSocketTransport(String url, Map<String, Object> options, ScheduledExecutorService scheduler)
     {
@@ -138,6 +147,46 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         super.terminate();
     }
 
+    void join()
+    {
+        synchronized (this)
+        {
+            _multiplexed = true;
+            // The connection is not owned by a client
+            // that would provide the cookie store.
+            if (getCookieStore() == null)
+                setCookieStore(new CookieManager().getCookieStore());
+            if (_sessions++ == 0)
+                init();
+        }
+    }
+
+    void leave()
+    {
+        synchronized (this)
+        {
+            if (--_sessions == 0)
+                terminate();
+        }
+    }
+
+    void register(String clientId, TransportListener listener)
+    {
+        _sessionListeners.put(clientId, listener);
+    }
+
+    void deregister(String clientId)
+    {
+        _sessionListeners.remove(clientId);
+    }
+
+    void abort(MultiplexedWebSocketTransport session)
+    {
+        Delegate delegate = getDelegate();
+        if (delegate != null)
+            delegate.failMessages(new IOException("Aborted"), session);
+    }
+
     private void shutdownScheduler()
     {
         if (_shutdownScheduler)
@@ -165,6 +214,8 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
             // Mangle the URL
             String url = getURL();
             url = url.replaceFirst("^http", "ws");
+            if (_multiplexed)
+                url += (url.indexOf('?') < 0 ? "?" : "&") + MULTIPLEX_PARAMETER + "=true";
 
             delegate = connect(url, listener, messages);
 
@@ -223,6 +274,18 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
     protected abstract class Delegate
     {
         private final Map<String, WebSocketExchange> _exchanges = new ConcurrentHashMap<>();
+        private final ArrayDeque<WebSocketExchange> _expirations = new ArrayDeque<>();
+        private final PriorityQueue<WebSocketExchange> _connectExpirations = new PriorityQueue<>(11, new Comparator<WebSocketExchange>()
+        {
+            @Override
+            public int compare(WebSocketExchange e1, WebSocketExchange e2)
+            {
+                return Long.compare(e1.expiration, e2.expiration);
+            }
+        });
+        private final Runnable _expirer = new Expirer();
+        private ScheduledFuture<?> _expirationTask;
+        private long _expirationTime;
         private boolean _connected;
         private boolean _disconnected;
         private Map<String, Object> _advice;
@@ -242,12 +305,27 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         {
             try
             {
+                // Messages for a session on a multiplexed
+                // connection arrive wrapped in an envelope.
+                String clientId = null;
+                if (data.startsWith(ENVELOPE_PREFIX))
+                {
+                    int index = data.indexOf(ENVELOPE_MESSAGES, ENVELOPE_PREFIX.length());
+                    if (index < 0 || !data.endsWith("}"))
+                        throw new ParseException(data, 0);
+                    clientId = data.substring(ENVELOPE_PREFIX.length(), index);
+                    data = data.substring(index + ENVELOPE_MESSAGES.length(), data.length() - 1);
+                }
+
                 List<Mutable> messages = parseMessages(data);
                 if (isAttached())
                 {
                     if (logger.isDebugEnabled())
                         logger.debug("Received messages {}", data);
-                    onMessages(messages);
+                    if (clientId == null)
+                        onMessages(messages);
+                    else
+                        onMessages(clientId, messages);
                 }
                 else
                 {
@@ -262,6 +340,11 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         }
 
         protected void onMessages(List<Mutable> messages)
+        {
+            onMessages(null, messages);
+        }
+
+        private void onMessages(String clientId, List<Mutable> messages)
         {
             for (Mutable message : messages)
             {
@@ -293,12 +376,22 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
                             logger.debug("Could not find request for reply {}", message);
                     }
 
-                    if (_disconnected && !_connected)
+                    // A multiplexed connection outlives the sessions it carries.
+                    if (_disconnected && !_connected && !_multiplexed)
                         disconnect("Disconnect");
                 }
                 else
                 {
-                    _listener.onMessages(Collections.singletonList(message));
+                    TransportListener listener = clientId == null ? _listener : _sessionListeners.get(clientId);
+                    if (listener != null)
+                    {
+                        listener.onMessages(Collections.singletonList(message));
+                    }
+                    else
+                    {
+                        if (logger.isDebugEnabled())
+                            logger.debug("Could not find session {} for message {}", clientId, message);
+                    }
                 }
             }
         }
@@ -345,29 +438,20 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
                 _connected = true;
             }
 
-            // Schedule a task to expire if the maxNetworkDelay elapses
-            final long expiration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) + maxNetworkDelay;
-            ScheduledFuture<?> task = _scheduler.schedule(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
-                    long delay = now - expiration;
-                    if (logger.isDebugEnabled())
-                    {
-                        if (delay > 5000) // TODO: make the max delay a parameter ?
-                            logger.debug("Message {} expired {} ms too late", message, delay);
-                        logger.debug("Expiring message {}", message);
-                    }
-                    fail(new TimeoutException(), "Expired");
-                }
-            }, maxNetworkDelay, TimeUnit.MILLISECONDS);
+            // Non-connect messages share the same maxNetworkDelay, so they expire
+            // in registration order; connects carry the timeout of their session,
+            // so they are ordered by expiration.
+            long expiration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) + maxNetworkDelay;
+            WebSocketExchange exchange = new WebSocketExchange(message, listener, expiration);
+            if (Channel.META_CONNECT.equals(message.getChannel()))
+                _connectExpirations.offer(exchange);
+            else
+                _expirations.offer(exchange);
+            scheduleExpiration(expiration);
 
             // Register the exchange
             // Message responses must have the same messageId as the requests
 
-            WebSocketExchange exchange = new WebSocketExchange(message, listener, task);
             if (logger.isDebugEnabled())
                 logger.debug("Registering {}", exchange);
             Object existing = _exchanges.put(message.getId(), exchange);
@@ -387,12 +471,29 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
             if (logger.isDebugEnabled())
                 logger.debug("Deregistering {} for message {}", exchange, message);
 
-            if (exchange != null)
-                exchange.task.cancel(false);
-
             return exchange;
         }
 
+        private void scheduleExpiration(long expiration)
+        {
+            // Must be called with the lock held.
+            // A single task is armed for the earliest expiration.
+            if (_expirationTask != null)
+            {
+                if (_expirationTime <= expiration)
+                    return;
+                _expirationTask.cancel(false);
+            }
+            _expirationTime = expiration;
+            long delay = expiration - TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            _expirationTask = _scheduler.schedule(_expirer, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+
+        private boolean isRegistered(WebSocketExchange exchange)
+        {
+            return _exchanges.get(exchange.message.getId()) == exchange;
+        }
+
         protected abstract void send(String content);
 
         protected void fail(Throwable failure, String reason)
@@ -403,9 +504,25 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
 
         protected void failMessages(Throwable cause)
         {
+            synchronized (this)
+            {
+                _expirations.clear();
+                _connectExpirations.clear();
+                if (_expirationTask != null)
+                    _expirationTask.cancel(false);
+                _expirationTask = null;
+            }
+            failMessages(cause, null);
+        }
+
+        private void failMessages(Throwable cause, MultiplexedWebSocketTransport session)
+        {
+            // Expirations of the failed messages are discarded lazily.
             List<Message.Mutable> messages = new ArrayList<>(1);
             for (WebSocketExchange exchange : new ArrayList<>(_exchanges.values()))
             {
+                if (session != null && !session.owns(exchange.listener))
+                    continue;
                 Mutable message = exchange.message;
                 if (deregisterMessage(message) == exchange)
                 {
@@ -456,19 +573,78 @@ public abstract class AbstractWebSocketTransport extends HttpClientTransport imp
         {
             fail(new EOFException(), "Terminate");
         }
+
+        private class Expirer implements Runnable
+        {
+            @Override
+            public void run()
+            {
+                synchronized (Delegate.this)
+                {
+                    _expirationTask = null;
+                }
+
+                while (true)
+                {
+                    long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+                    WebSocketExchange expired = null;
+                    synchronized (Delegate.this)
+                    {
+                        // Discard the exchanges that have been replied.
+                        WebSocketExchange next;
+                        while ((next = _expirations.peek()) != null && !isRegistered(next))
+                            _expirations.poll();
+                        WebSocketExchange connect;
+                        while ((connect = _connectExpirations.peek()) != null && !isRegistered(connect))
+                            _connectExpirations.poll();
+
+                        if (next == null || (connect != null && connect.expiration < next.expiration))
+                            next = connect;
+                        if (next != null)
+                        {
+                            if (next.expiration <= now)
+                                expired = next;
+                            else
+                                scheduleExpiration(next.expiration);
+                        }
+                    }
+
+                    if (expired == null)
+                        return;
+
+                    if (logger.isDebugEnabled())
+                    {
+                        long delay = now - expired.expiration;
+                        if (delay > 5000) // TODO: make the max delay a parameter ?
+                            logger.debug("Message {} expired {} ms too late", expired.message, delay);
+                        logger.debug("Expiring message {}", expired.message);
+                    }
+
+                    // On a multiplexed connection, only the session
+                    // that owns the expired message is failed.
+                    MultiplexedWebSocketTransport session = MultiplexedWebSocketTransport.ownerOf(expired.listener);
+                    if (session == null)
+                    {
+                        fail(new TimeoutException(), "Expired");
+                        return;
+                    }
+                    failMessages(new TimeoutException(), session);
+                }
+            }
+        }
     }
 
     private static class WebSocketExchange
     {
         private final Mutable message;
         private final TransportListener listener;
-        private final ScheduledFuture<?> task;
+        private final long expiration;
 
-        public WebSocketExchange(Mutable message, TransportListener listener, ScheduledFuture<?> task)
+        public WebSocketExchange(Mutable message, TransportListener listener, long expiration)
         {
             this.message = message;
             this.listener = listener;
-            this.task = task;
+            this.expiration = expiration;
         }
 
         @Override
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.client;
+
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.MessageClientTransport;
+import org.cometd.client.transport.TransportListener;
+
+/**
+ * <p>A {@link ClientTransport} that shares the WebSocket connection of an
+ * {@link AbstractWebSocketTransport} with other instances of this class.</p>
+ * <p>Each {@link org.cometd.client.BayeuxClient} has its own session, but many
+ * of them can be multiplexed over a single WebSocket connection:</p>
+ * <pre>
+ * AbstractWebSocketTransport connection = new JettyWebSocketTransport(cometdURL, null, scheduler, webSocketClient);
+ * BayeuxClient client1 = new BayeuxClient(cometdURL, new MultiplexedWebSocketTransport(connection));
+ * BayeuxClient client2 = new BayeuxClient(cometdURL, new MultiplexedWebSocketTransport(connection));
+ * </pre>
+ * <p>The shared transport is initialized when the first client starts to use it, and it is
+ * terminated when the last client stops using it; it must not be passed directly to a client.</p>
+ * <p>The server must enable multiplexing in its WebSocket transport. Replies are routed
+ * to the right client by message id, since message ids are unique across clients, while
+ * other messages are routed by session id.</p>
+ */
+public class MultiplexedWebSocketTransport extends ClientTransport implements MessageClientTransport
+{
+    private final AbstractWebSocketTransport connection;
+    private volatile TransportListener listener;
+    private String clientId;
+    private boolean joined;
+
+    public MultiplexedWebSocketTransport(AbstractWebSocketTransport connection)
+    {
+        this(connection, null);
+    }
+
+    public MultiplexedWebSocketTransport(AbstractWebSocketTransport connection, Map<String, Object> options)
+    {
+        super(AbstractWebSocketTransport.NAME, options);
+        setOptionPrefix(AbstractWebSocketTransport.PREFIX);
+        this.connection = connection;
+    }
+
+    @Override
+    public void setMessageTransportListener(TransportListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void init()
+    {
+        super.init();
+        synchronized (this)
+        {
+            if (joined)
+                return;
+            joined = true;
+        }
+        connection.join();
+    }
+
+    @Override
+    public boolean accept(String version)
+    {
+        return connection.accept(version);
+    }
+
+    @Override
+    public void send(TransportListener listener, List<Message.Mutable> messages)
+    {
+        connection.send(new SessionListener(listener), messages);
+    }
+
+    @Override
+    public void abort()
+    {
+        connection.abort(this);
+        leave();
+    }
+
+    @Override
+    public void terminate()
+    {
+        leave();
+        super.terminate();
+    }
+
+    private void leave()
+    {
+        synchronized (this)
+        {
+            if (!joined)
+                return;
+            joined = false;
+            if (clientId != null)
+                connection.deregister(clientId);
+            clientId = null;
+        }
+        connection.leave();
+    }
+
+    boolean owns(TransportListener listener)
+    {
+        return ownerOf(listener) == this;
+    }
+
+    /**
+     * @param listener the listener of an exchange on the shared connection
+     * @return the session that sent the exchange, or null if the listener does not belong to a session
+     */
+    static MultiplexedWebSocketTransport ownerOf(TransportListener listener)
+    {
+        return listener instanceof SessionListener ? ((SessionListener)listener).getTransport() : null;
+    }
+
+    private void register(String newClientId)
+    {
+        synchronized (this)
+        {
+            if (clientId != null)
+                connection.deregister(clientId);
+            clientId = newClientId;
+            connection.register(newClientId, listener);
+        }
+    }
+
+    private class SessionListener implements TransportListener
+    {
+        private final TransportListener listener;
+
+        private SessionListener(TransportListener listener)
+        {
+            this.listener = listener;
+        }
+
+        private MultiplexedWebSocketTransport getTransport()
+        {
+            return MultiplexedWebSocketTransport.this;
+        }
+
+        @Override
+        public void onSending(List<? extends Message> messages)
+        {
+            listener.onSending(messages);
+        }
+
+        @Override
+        public void onMessages(List<Message.Mutable> replies)
+        {
+            // Register before notifying, since other messages
+            // for the new session may immediately follow.
+            for (Message.Mutable reply : replies)
+            {
+                if (Channel.META_HANDSHAKE.equals(reply.getChannel()) && reply.isSuccessful())
+                    register(reply.getClientId());
+            }
+            listener.onMessages(replies);
+        }
+
+        @Override
+        public void onFailure(Throwable failure, List<? extends Message> messages)
+        {
+            listener.onFailure(failure, messages);
+        }
+    }
+}
@@ -18,9 +18,12 @@ package org.cometd.websocket.server;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -53,12 +56,15 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
     public static final String IDLE_TIMEOUT_OPTION = "idleTimeout";
     public static final String THREAD_POOL_MAX_SIZE = "threadPoolMaxSize";
     public static final String COMETD_URL_MAPPING = "cometdURLMapping";
+    public static final String MULTIPLEX_OPTION = "multiplex";
+    public static final String MULTIPLEX_PARAMETER = "multiplex";
 
     private final ThreadLocal<BayeuxContext> _bayeuxContext = new ThreadLocal<>();
     private Executor _executor;
     private ScheduledExecutorService _scheduler;
     private String _protocol;
     private int _messagesPerFrame;
+    private boolean _multiplex;
 
     protected AbstractWebSocketTransport(BayeuxServerImpl bayeux)
     {
@@ -74,6 +80,7 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         _scheduler = newScheduledExecutor();
         _protocol = getOption(PROTOCOL_OPTION, null);
         _messagesPerFrame = getOption(MESSAGES_PER_FRAME_OPTION, 1);
+        _multiplex = getOption(MULTIPLEX_OPTION, false);
     }
 
     @Override
@@ -119,6 +126,15 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         return _messagesPerFrame;
     }
 
+    /**
+     * @return whether WebSocket connections may carry the messages of multiple sessions,
+     * when the client asks so with the {@value #MULTIPLEX_PARAMETER} upgrade request parameter
+     */
+    public boolean isMultiplexEnabled()
+    {
+        return _multiplex;
+    }
+
     protected boolean checkProtocol(List<String> serverProtocols, List<String> clientProtocols)
     {
         if (serverProtocols.isEmpty())
@@ -175,16 +191,25 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
         protected final Logger _logger = LoggerFactory.getLogger(getClass().getName() + "." + Integer.toHexString(System.identityHashCode(this)));
         private final Flusher flusher = new Flusher();
         private final BayeuxContext _context;
+        private final boolean _multiplexed;
+        private final Map<String, SessionScheduler> _sessionSchedulers;
         private volatile ServerSessionImpl _session;
         private ServerMessage.Mutable _connectReply;
         private ScheduledFuture<?> _connectTask;
 
         protected AbstractWebSocketScheduler(BayeuxContext context)
+        {
+            this(context, isMultiplexEnabled() && context != null && "true".equals(context.getParameter(MULTIPLEX_PARAMETER)));
+        }
+
+        private AbstractWebSocketScheduler(BayeuxContext context, boolean multiplexed)
         {
             _context = context;
+            _multiplexed = multiplexed;
+            _sessionSchedulers = multiplexed ? new ConcurrentHashMap<String, SessionScheduler>() : null;
         }
 
-        protected void send(S wsSession, List<ServerMessage> messages, int batchSize, Callback callback)
+        protected void send(S wsSession, ServerSessionImpl session, List<ServerMessage> messages, int batchSize, Callback callback)
         {
             if (messages.isEmpty())
             {
@@ -197,6 +222,11 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             // Assume 4 fields of 48 chars per message
             int capacity = batch * 4 * 48;
             StringBuilder builder = new StringBuilder(capacity);
+            // On multiplexed connections, the messages of a session are
+            // wrapped in an envelope carrying the session id for routing.
+            boolean envelope = _multiplexed && session != null;
+            if (envelope)
+                builder.append("{\"clientId\":\"").append(session.getId()).append("\",\"messages\":");
             builder.append("[");
             if (batch == 1)
             {
@@ -221,10 +251,30 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                     messages.subList(0, batch).clear();
             }
             builder.append("]");
-            AbstractWebSocketTransport.this.send(wsSession, _session, builder.toString(), callback);
+            if (envelope)
+                builder.append("}");
+            AbstractWebSocketTransport.this.send(wsSession, session, builder.toString(), callback);
         }
 
         protected void onClose(int code, String reason)
+        {
+            closeSession(code, reason);
+            if (_multiplexed)
+            {
+                for (Map.Entry<String, SessionScheduler> entry : _sessionSchedulers.entrySet())
+                {
+                    SessionScheduler scheduler = entry.getValue();
+                    ServerSession session = getBayeux().getSession(entry.getKey());
+                    if (session != null)
+                        session.removeListener(scheduler);
+                    ((AbstractWebSocketScheduler)scheduler).closeSession(code, reason);
+                }
+                _sessionSchedulers.clear();
+            }
+            AbstractWebSocketTransport.this.onClose(code, reason);
+        }
+
+        private void closeSession(int code, String reason)
         {
             final ServerSessionImpl session = _session;
             if (session != null)
@@ -238,7 +288,6 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             }
             if (_logger.isDebugEnabled())
                 _logger.debug("Closing {}/{} - {}", code, reason, session);
-            AbstractWebSocketTransport.this.onClose(code, reason);
         }
 
         protected void onError(Throwable failure)
@@ -272,7 +321,12 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                 if (_logger.isDebugEnabled())
                     _logger.debug("Parsed {} messages", messages == null ? -1 : messages.length);
                 if (messages != null)
-                    processMessages(wsSession, messages);
+                {
+                    if (_multiplexed)
+                        processSessionMessages(wsSession, messages);
+                    else
+                        processMessages(wsSession, messages);
+                }
             }
             catch (ParseException x)
             {
@@ -291,7 +345,41 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             }
         }
 
-        private void processMessages(S wsSession, ServerMessage.Mutable[] messages) throws IOException
+        private void processSessionMessages(S wsSession, ServerMessage.Mutable[] messages) throws IOException
+        {
+            // Consecutive messages of the same session are processed together by
+            // the scheduler of that session, preserving the order of the messages.
+            int start = 0;
+            for (int i = 1; i <= messages.length; ++i)
+            {
+                String clientId = messages[start].getClientId();
+                if (i < messages.length)
+                {
+                    String nextClientId = messages[i].getClientId();
+                    if (clientId == null ? nextClientId == null : clientId.equals(nextClientId))
+                        continue;
+                }
+
+                ServerMessage.Mutable[] sessionMessages = messages;
+                if (start > 0 || i < messages.length)
+                    sessionMessages = Arrays.copyOfRange(messages, start, i);
+                start = i;
+
+                SessionScheduler scheduler = clientId == null ? null : _sessionSchedulers.get(clientId);
+                if (scheduler == null)
+                    scheduler = new SessionScheduler(this, wsSession);
+                ServerSessionImpl session = ((AbstractWebSocketScheduler)scheduler).processMessages(wsSession, sessionMessages);
+                if (session != null && _sessionSchedulers.putIfAbsent(session.getId(), scheduler) == null)
+                {
+                    session.addListener(scheduler);
+                    // Session removed concurrently ?
+                    if (!session.isHandshook())
+                        _sessionSchedulers.remove(session.getId(), scheduler);
+                }
+            }
+        }
+
+        private ServerSessionImpl processMessages(S wsSession, ServerMessage.Mutable[] messages) throws IOException
         {
             ServerSessionImpl session = _session;
 
@@ -355,6 +443,8 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
 
             if (send)
                 send(wsSession, session, startInterval, queue, replies);
+
+            return session;
         }
 
         private ServerMessage.Mutable processMetaHandshake(ServerSessionImpl session, ServerMessage.Mutable message)
@@ -622,7 +712,7 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                     int batchSize = messagesPerFrame > 0 ? Math.min(messagesPerFrame, size) : size;
                     if (_logger.isDebugEnabled())
                         _logger.debug("Processing queue, batch size {}: {}", batchSize, queue);
-                    send(wsSession, queue, batchSize, this);
+                    send(wsSession, entry._session, queue, batchSize, this);
                     return Action.SCHEDULED;
                 }
 
@@ -641,7 +731,7 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                 List<ServerMessage> replies = entry._replies;
                 if (_logger.isDebugEnabled())
                     _logger.debug("Processing replies {}", replies);
-                send(wsSession, replies, replies.size(), this);
+                send(wsSession, entry._session, replies, replies.size(), this);
                 return Action.SCHEDULED;
             }
 
@@ -680,4 +770,51 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             }
         }
     }
+
+    /**
+     * <p>The scheduler of a session on a multiplexed connection.</p>
+     * <p>Each session keeps its own {@code /meta/connect} state, while
+     * the messages are written through the connection scheduler.</p>
+     */
+    private class SessionScheduler extends AbstractWebSocketScheduler implements ServerSession.RemoveListener
+    {
+        private final AbstractWebSocketScheduler _connection;
+        private final S _wsSession;
+
+        private SessionScheduler(AbstractWebSocketScheduler connection, S wsSession)
+        {
+            super(connection._context, false);
+            _connection = connection;
+            _wsSession = wsSession;
+        }
+
+        @Override
+        protected void send(S wsSession, ServerSessionImpl session, boolean startInterval, List<ServerMessage> queue, List<ServerMessage> replies)
+        {
+            _connection.send(wsSession, session, startInterval, queue, replies);
+        }
+
+        @Override
+        protected void close(int code, String reason)
+        {
+            // The connection is shared with other sessions, so a normal
+            // closure, for example a cancellation, only detaches this session.
+            if (code == 1000)
+                _connection._sessionSchedulers.values().remove(this);
+            else
+                _connection.close(code, reason);
+        }
+
+        @Override
+        protected void schedule(boolean timeout, ServerMessage.Mutable expiredConnectReply)
+        {
+            schedule(_wsSession, timeout, expiredConnectReply);
+        }
+
+        @Override
+        public void removed(ServerSession session, boolean timeout)
+        {
+            _connection._sessionSchedulers.remove(session.getId(), this);
+        }
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2008-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.websocket.client;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.websocket.ClientServerWebSocketTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiplexedWebSocketTransportTest extends ClientServerWebSocketTest
+{
+    public MultiplexedWebSocketTransportTest(String wsTransportType)
+    {
+        super(wsTransportType);
+    }
+
+    @Test
+    public void testClientsShareOneConnection() throws Exception
+    {
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put("ws.multiplex", "true");
+        prepareAndStart(initParams);
+
+        final Set<InetSocketAddress> addresses = new CopyOnWriteArraySet<>();
+        bayeux.addListener(new BayeuxServer.SessionListener()
+        {
+            @Override
+            public void sessionAdded(ServerSession session, ServerMessage message)
+            {
+                addresses.add(bayeux.getContext().getRemoteAddress());
+            }
+
+            @Override
+            public void sessionRemoved(ServerSession session, boolean timedout)
+            {
+            }
+        });
+
+        AbstractWebSocketTransport connection = (AbstractWebSocketTransport)newWebSocketTransport(cometdURL, null);
+        int count = 3;
+        List<BayeuxClient> clients = new ArrayList<>();
+        List<AtomicInteger> received = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+        {
+            BayeuxClient client = new BayeuxClient(cometdURL, new MultiplexedWebSocketTransport(connection));
+            client.handshake();
+            Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+            clients.add(client);
+
+            final AtomicInteger messages = new AtomicInteger();
+            received.add(messages);
+            final CountDownLatch subscribeLatch = new CountDownLatch(1);
+            client.getChannel("/test/" + i).subscribe(new ClientSessionChannel.MessageListener()
+            {
+                @Override
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    messages.incrementAndGet();
+                }
+            }, new ClientSessionChannel.MessageListener()
+            {
+                @Override
+                public void onMessage(ClientSessionChannel channel, Message message)
+                {
+                    subscribeLatch.countDown();
+                }
+            });
+            Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+        }
+
+        // All the sessions have been established on the same connection.
+        Assert.assertEquals(1, addresses.size());
+        Assert.assertEquals(count, bayeux.getSessions().size());
+
+        for (int i = 0; i < count; ++i)
+            publish(clients.get(i), "/test/" + i);
+        for (int i = 0; i < count; ++i)
+            Assert.assertEquals(1, received.get(i).get());
+
+        // Disconnecting one client does not affect the others.
+        BayeuxClient first = clients.remove(0);
+        Assert.assertTrue(first.disconnect(5000));
+        BayeuxClient second = clients.get(0);
+        Assert.assertTrue(second.waitFor(1000, BayeuxClient.State.CONNECTED));
+        publish(second, "/test/1");
+        Assert.assertEquals(2, received.get(1).get());
+
+        for (BayeuxClient client : clients)
+            disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testExpiredConnectFailsOnlyItsSession() throws Exception
+    {
+        long timeout = 1000;
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put("ws.multiplex", "true");
+        initParams.put("timeout", String.valueOf(timeout));
+        prepareAndStart(initParams);
+
+        Map<String, Object> options = new HashMap<>();
+        long maxNetworkDelay = 1000;
+        options.put(ClientTransport.MAX_NETWORK_DELAY_OPTION, maxNetworkDelay);
+        AbstractWebSocketTransport connection = (AbstractWebSocketTransport)newWebSocketTransport(cometdURL, options);
+
+        BayeuxClient client1 = new BayeuxClient(cometdURL, new MultiplexedWebSocketTransport(connection));
+        client1.handshake();
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = new BayeuxClient(cometdURL, new MultiplexedWebSocketTransport(connection));
+        client2.handshake();
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Drop the next /meta/connect reply to the first client, so that its connect expires.
+        final String clientId1 = client1.getId();
+        final AtomicBoolean drop = new AtomicBoolean(true);
+        bayeux.addExtension(new BayeuxServer.Extension.Adapter()
+        {
+            @Override
+            public boolean sendMeta(ServerSession to, ServerMessage.Mutable message)
+            {
+                if (Channel.META_CONNECT.equals(message.getChannel()) && to != null && clientId1.equals(to.getId()))
+                    return !drop.compareAndSet(true, false);
+                return true;
+            }
+        });
+
+        final CountDownLatch failureLatch = new CountDownLatch(1);
+        client1.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (!message.isSuccessful())
+                    failureLatch.countDown();
+            }
+        });
+        final AtomicInteger failures = new AtomicInteger();
+        client2.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (!message.isSuccessful())
+                    failures.incrementAndGet();
+            }
+        });
+
+        Assert.assertTrue(failureLatch.await(2 * (timeout + maxNetworkDelay) + 1000, TimeUnit.MILLISECONDS));
+
+        // The other session on the same connection is not affected.
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(client2.waitFor(1000, BayeuxClient.State.CONNECTED));
+        publish(client2, "/test");
+
+        disconnectBayeuxClient(client1);
+        disconnectBayeuxClient(client2);
+    }
+
+    private void publish(BayeuxClient client, String channelName) throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.getChannel(channelName).publish("data", new ClientSessionChannel.MessageListener()
+        {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message)
+            {
+                if (message.isSuccessful())
+                    latch.countDown();
+            }
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}